@@ -0,0 +1,8 @@
+CREATE TABLE InventoryCounterShards (
+  SkuId STRING(36) NOT NULL,
+  ShardId INT64 NOT NULL,
+  OnHandDelta INT64 NOT NULL,
+  ReservedDelta INT64 NOT NULL,
+  UpdatedAt TIMESTAMP NOT NULL OPTIONS (allow_commit_timestamp = true)
+) PRIMARY KEY (SkuId, ShardId),
+  INTERLEAVE IN PARENT Inventory ON DELETE CASCADE;
@@ -0,0 +1,10 @@
+-- Incremental reconcile cursor (InventoryRepository.listTouchedSince). UpdatedAt is a commit timestamp, so an index
+-- led by it would append every reserve / commit / release write to the same key range. TouchedShard (0..15, a hash
+-- of the row key; InventoryRepository.TOUCHED_SHARDS) leads the index and spreads those writes over 16 ranges.
+ALTER TABLE Inventory ADD COLUMN TouchedShard INT64 AS (ABS(MOD(FARM_FINGERPRINT(SkuId), 16))) STORED;
+
+ALTER TABLE InventoryCounterShards ADD COLUMN TouchedShard INT64 AS (ABS(MOD(MOD(FARM_FINGERPRINT(SkuId), 16) + ShardId, 16))) STORED;
+
+CREATE INDEX InventoryByTouchedShardUpdatedAt ON Inventory(TouchedShard, UpdatedAt);
+
+CREATE INDEX InventoryCounterShardsByTouchedShardUpdatedAt ON InventoryCounterShards(TouchedShard, UpdatedAt);
@@ -0,0 +1,3 @@
+ALTER TABLE OrderOutbox ADD COLUMN ShardId INT64;
+
+CREATE INDEX OrderOutboxByShardCreated ON OrderOutbox(ShardId, CreatedAt, OutboxId) STORING (Status);
@@ -0,0 +1,4 @@
+ALTER TABLE PaymentOutbox ADD COLUMN Bucket INT64;
+
+-- Pipelined relay: each instance claims PENDING rows of the buckets it holds a lease on
+CREATE INDEX PaymentOutboxByBucketStatus ON PaymentOutbox(Bucket, Status, CreatedAt);
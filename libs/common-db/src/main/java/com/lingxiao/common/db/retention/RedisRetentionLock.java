@@ -0,0 +1,36 @@
+package com.lingxiao.common.db.retention;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * SET NX + ttl 的清理锁，value 是本实例的 owner；ttl 要大于单次清理的最长耗时，实例崩溃时锁自然过期。
+ */
+public class RedisRetentionLock implements RetentionLock {
+
+    private final StringRedisTemplate redisTemplate;
+    private final String key;
+    private final Duration ttl;
+    private final String owner = UUID.randomUUID().toString();
+
+    public RedisRetentionLock(StringRedisTemplate redisTemplate, String key, Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.key = key;
+        this.ttl = ttl;
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(key, owner, ttl));
+    }
+
+    @Override
+    public void release() {
+        if (Objects.equals(owner, redisTemplate.opsForValue().get(key))) {
+            redisTemplate.delete(key);
+        }
+    }
+}
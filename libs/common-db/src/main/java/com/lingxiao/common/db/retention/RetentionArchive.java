@@ -0,0 +1,57 @@
+package com.lingxiao.common.db.retention;
+
+import com.lingxiao.common.db.errors.DbException;
+import com.lingxiao.common.db.mapping.JsonMapper;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 清理前的归档：每批写一个 gzip 压缩的 JSON Lines 文件到 {dir}/{table}/。
+ * 先写临时文件再原子改名，同步到对象存储的工具（gcsfuse 挂载、gsutil rsync 等）不会读到半个文件。
+ */
+public class RetentionArchive {
+
+    private final Path dir;
+    private final JsonMapper jsonMapper;
+
+    public RetentionArchive(Path dir, JsonMapper jsonMapper) {
+        this.dir = dir;
+        this.jsonMapper = jsonMapper;
+    }
+
+    public Path write(String table, List<?> rows) {
+        Path tableDir = dir.resolve(table);
+        String name = table + "-" + Instant.now().toEpochMilli() + "-" + UUID.randomUUID().toString().substring(0, 8) + ".jsonl.gz";
+        Path target = tableDir.resolve(name);
+        Path tmp = tableDir.resolve("." + name + ".tmp");
+        try {
+            Files.createDirectories(tableDir);
+            try (BufferedWriter out = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(Files.newOutputStream(tmp)), StandardCharsets.UTF_8))) {
+                for (Object row : rows) {
+                    out.write(jsonMapper.toJson(row));
+                    out.newLine();
+                }
+            }
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            return target;
+        } catch (IOException e) {
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException ignored) {
+                // 临时文件以 . 开头，残留也不会被当成归档
+            }
+            throw new DbException("Failed to write retention archive for " + table, e);
+        }
+    }
+}
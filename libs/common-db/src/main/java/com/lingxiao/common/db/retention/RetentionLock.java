@@ -0,0 +1,28 @@
+package com.lingxiao.common.db.retention;
+
+/**
+ * 保证同一张表同一时刻只有一个实例在清理。
+ */
+public interface RetentionLock {
+
+    /**
+     * 单实例部署或测试用
+     */
+    RetentionLock NONE = new RetentionLock() {
+        @Override
+        public boolean tryAcquire() {
+            return true;
+        }
+
+        @Override
+        public void release() {
+        }
+    };
+
+    boolean tryAcquire();
+
+    /**
+     * 只释放自己持有的锁；锁已过期被别人拿走时不能误删。
+     */
+    void release();
+}
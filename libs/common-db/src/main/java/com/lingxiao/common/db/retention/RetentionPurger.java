@@ -0,0 +1,180 @@
+package com.lingxiao.common.db.retention;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按 CreatedAt 分批清理过期行：分区之间轮转，每批先（可选）归档再删除，
+ * 批与批之间按 maxRowsPerSecond 限速，单次运行最多 maxBatchesPerRun 批，剩下的留给下一轮。
+ * 相比一条 partitioned DML 扫全表，小批量删除对线上读写和索引热点的冲击可控，也能在删除前归档。
+ *
+ * {@link #submit} 在自己的单线程上跑一轮（持有 {@link RetentionLock} 期间），限速的 sleep 不会占住
+ * Spring 默认只有一个线程的 @Scheduled 调度器；上一轮没跑完时新的触发直接跳过。
+ * 指标：{metricPrefix}.retention.purged 累计删除行数，{metricPrefix}.rows 按 status 采样表大小。
+ */
+public class RetentionPurger implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(RetentionPurger.class);
+
+    private final RetentionArchive archive;
+    private final int batchSize;
+    private final long maxRowsPerSecond;
+    private final int maxBatchesPerRun;
+    private final RetentionLock lock;
+    private final MeterRegistry registry;
+    private final String metricPrefix;
+    private final Counter purged;
+    private final Map<String, AtomicLong> rows = new ConcurrentHashMap<>();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final ExecutorService executor;
+
+    /**
+     * @param archive      为 null 时不归档直接删除
+     * @param metricPrefix 指标名前缀，同时用作清理线程名，例如 order.outbox
+     */
+    public RetentionPurger(RetentionArchive archive, int batchSize, long maxRowsPerSecond, int maxBatchesPerRun,
+                           RetentionLock lock, MeterRegistry registry, String metricPrefix) {
+        this.archive = archive;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxRowsPerSecond = maxRowsPerSecond;
+        this.maxBatchesPerRun = Math.max(1, maxBatchesPerRun);
+        this.lock = lock;
+        this.registry = registry;
+        this.metricPrefix = metricPrefix;
+        this.purged = Counter.builder(metricPrefix + ".retention.purged").register(registry);
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, metricPrefix + "-retention");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 在清理线程上跑一轮，删除 CreatedAt 早于 now - ttl 的行。
+     * 上一轮还在跑、锁被其他实例持有或已经 close 时不删，结果为 0。
+     *
+     * @return 本轮删除的行数，失败时同样为 0（已记日志）
+     */
+    public <T> CompletableFuture<Long> submit(RetentionTarget<T> target, Duration ttl) {
+        if (!running.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        try {
+            return CompletableFuture.supplyAsync(() -> runLocked(target, ttl), executor)
+                    .whenComplete((deleted, e) -> running.set(false));
+        } catch (RejectedExecutionException e) {
+            running.set(false);
+            return CompletableFuture.completedFuture(0L);
+        }
+    }
+
+    private <T> long runLocked(RetentionTarget<T> target, Duration ttl) {
+        if (!lock.tryAcquire()) {
+            return 0;
+        }
+        try {
+            Instant cutoff = Instant.now().minus(ttl);
+            long deleted = purge(target, cutoff);
+            if (deleted > 0) {
+                purged.increment(deleted);
+                log.info("Purged {} {} rows created before {}", deleted, target.table(), cutoff);
+            }
+            return deleted;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return 0;
+        } catch (Exception e) {
+            log.warn("{} retention purge failed", target.table(), e);
+            return 0;
+        } finally {
+            lock.release();
+        }
+    }
+
+    /**
+     * 发布各 status 的行数；这次没出现的 status 归零，而不是停在上一次的值。
+     */
+    public void recordRowCounts(Map<String, Long> countsByStatus) {
+        for (AtomicLong gauge : rows.values()) {
+            gauge.set(0);
+        }
+        countsByStatus.forEach((status, count) -> rows.computeIfAbsent(status, st -> registry.gauge(
+                        metricPrefix + ".rows", Tags.of("status", st), new AtomicLong()))
+                .set(count));
+    }
+
+    /**
+     * 中断正在 sleep / 删除的一轮，锁在 finally 里释放。
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * 在调用线程上同步跑一轮，不加锁也不计数。
+     *
+     * @return 本次删除的行数
+     */
+    public <T> long purge(RetentionTarget<T> target, Instant cutoff) throws InterruptedException {
+        List<Integer> active = new ArrayList<>();
+        for (int p = 0; p < target.partitions(); p++) {
+            active.add(p);
+        }
+        long deleted = 0;
+        int batches = 0;
+        while (!active.isEmpty() && batches < maxBatchesPerRun) {
+            for (int i = 0; i < active.size() && batches < maxBatchesPerRun; ) {
+                int partition = active.get(i);
+                long start = System.nanoTime();
+                List<T> rows = target.findExpired(partition, cutoff, batchSize);
+                if (rows.size() < batchSize) {
+                    active.remove(i);
+                } else {
+                    i++;
+                }
+                if (rows.isEmpty()) {
+                    continue;
+                }
+                if (archive != null) {
+                    archive.write(target.table(), rows);
+                }
+                List<String> ids = new ArrayList<>(rows.size());
+                for (T row : rows) {
+                    ids.add(target.idOf(row));
+                }
+                deleted += target.delete(ids);
+                batches++;
+                throttle(rows.size(), System.nanoTime() - start);
+            }
+        }
+        return deleted;
+    }
+
+    private void throttle(int rows, long elapsedNanos) throws InterruptedException {
+        if (maxRowsPerSecond <= 0) {
+            return;
+        }
+        long budgetMs = rows * 1000L / maxRowsPerSecond;
+        long sleepMs = budgetMs - elapsedNanos / 1_000_000;
+        if (sleepMs > 0) {
+            Thread.sleep(sleepMs);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.lingxiao.common.db.retention;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * 一张需要按保留期清理的表。分区（partition）由实现方定义，例如按 ShardId 或单一分区；
+ * {@link RetentionPurger} 在分区之间轮转删除，避免所有删除集中在同一段索引上。
+ *
+ * @param <T> 读出来的行，开启归档时原样写入归档文件
+ */
+public interface RetentionTarget<T> {
+
+    String table();
+
+    int partitions();
+
+    /**
+     * 读出分区内 CreatedAt 早于 cutoff、可以清理的行，按 CreatedAt 升序，最多 limit 条。
+     */
+    List<T> findExpired(int partition, Instant cutoff, int limit);
+
+    String idOf(T row);
+
+    /**
+     * 删除给定的行，实现方需要在删除时重新校验行仍可清理。
+     *
+     * @return 实际删除的行数
+     */
+    long delete(List<String> ids);
+}
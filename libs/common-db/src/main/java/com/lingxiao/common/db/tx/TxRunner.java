@@ -3,6 +3,7 @@ package com.lingxiao.common.db.tx;
 import com.google.cloud.spanner.AbortedException;
 import com.google.cloud.spanner.DatabaseClient;
 import com.google.cloud.spanner.ReadOnlyTransaction;
+import com.google.cloud.spanner.TimestampBound;
 import com.google.cloud.spanner.TransactionContext;
 import com.google.cloud.spanner.TransactionRunner;
 import com.lingxiao.common.db.errors.DbException;
@@ -51,6 +52,17 @@ public class TxRunner {
         }
     }
 
+    /**
+     * Single-use read-only transaction at the given bound (e.g. exact staleness for lock-free tailing reads).
+     */
+    public <T> T runReadOnly(TimestampBound bound, Function<ReadOnlyTransaction, T> work) {
+        try (ReadOnlyTransaction tx = databaseClient.singleUseReadOnlyTransaction(bound)) {
+            return work.apply(tx);
+        } catch (Exception ex) {
+            throw translator.translate(ex);
+        }
+    }
+
     private void sleepWithJitter(int attempt) {
         long base = BASE_BACKOFF.toMillis() * (1L << Math.min(attempt, 10));
         long jitter = ThreadLocalRandom.current().nextLong(0, BASE_BACKOFF.toMillis());
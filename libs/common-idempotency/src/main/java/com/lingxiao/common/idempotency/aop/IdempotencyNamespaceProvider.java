@@ -27,6 +27,14 @@ public class IdempotencyNamespaceProvider {
         return "default";
     }
 
+    /**
+     * Store key of an {@code @Idempotent} record. Code that writes the same records without the
+     * aspect (e.g. a fused Lua path) must build its keys here so both paths replay each other.
+     */
+    public String storeKey(String keyPrefix, String eventType, String id) {
+        return keyPrefix + ":" + namespace() + ":" + eventType + ":" + id;
+    }
+
     private String sanitize(String raw) {
         if (raw == null) {
             return "default";
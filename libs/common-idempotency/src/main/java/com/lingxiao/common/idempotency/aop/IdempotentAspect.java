@@ -58,8 +58,7 @@ public class IdempotentAspect {
             throw new IllegalStateException("@Idempotent onDone=RETURN_POINTER requires non-empty result SpEL, method=" + methodName);
         }
         String id = keyResolver.resolve(method, pjp.getTarget(), pjp.getArgs(), anno.id());
-        String namespace = namespaceProvider.namespace();
-        String key = anno.keyPrefix() + ":" + namespace + ":" + anno.eventType() + ":" + id;
+        String key = namespaceProvider.storeKey(anno.keyPrefix(), anno.eventType(), id);
         String token = UUID.randomUUID().toString();
         Duration processingTtl = durationParser.parse(anno.processingTtl());
         Duration doneTtl = durationParser.parse(anno.doneTtl());
@@ -0,0 +1,122 @@
+package com.lingxiao.common.redis;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Redis bitmap 上的布隆过滤器布局：写方（Lua 里 SETBIT）和读方（GET 整个 bitmap 后本地判断）共用同一套下标计算。
+ * 下标用 FNV-1a 64 + mix64 做双重哈希（Kirsch–Mitzenmacher）；SETBIT 的 offset n 对应第 n/8 字节的第 (7 - n%8) 位。
+ *
+ * bitmap 的 key 以 {@link #keySuffix} 结尾，带上 bits/hashes；写方第一次置位时用 SET NX 写伴随的 {@link Meta}
+ * （{@link #metaKey}），读方只有在 meta 存在、参数与自己一致、且 bitmap 覆盖的时间够长时才信任"不存在"。
+ */
+public final class RedisBloom {
+
+    public static final long DEFAULT_BITS = 1L << 21;
+    public static final int DEFAULT_HASHES = 7;
+
+    private RedisBloom() {
+    }
+
+    /**
+     * 参数不同的写方落到不同的 key，不会往同一个 bitmap 里混写两套下标。
+     */
+    public static String keySuffix(long bits, int hashes) {
+        return ":bloom:" + bits + ":" + hashes;
+    }
+
+    public static String metaKey(String bitmapKey) {
+        return bitmapKey + ":meta";
+    }
+
+    /**
+     * bitmap 的元数据，序列化为 bits:hashes:sinceMillis:coverMillis。
+     *
+     * @param sinceMillis 第一次置位的时间，此后的每个元素都在 bitmap 里
+     * @param coverMillis 被过滤的数据（如 payment marker）本身的保留时长
+     */
+    public record Meta(long bits, int hashes, long sinceMillis, long coverMillis) {
+
+        public String encode() {
+            return bits + ":" + hashes + ":" + sinceMillis + ":" + coverMillis;
+        }
+
+        /**
+         * @return 格式不对时为 null
+         */
+        public static Meta parse(String raw) {
+            if (raw == null) {
+                return null;
+            }
+            String[] parts = raw.split(":");
+            if (parts.length != 4) {
+                return null;
+            }
+            try {
+                return new Meta(Long.parseLong(parts[0]), Integer.parseInt(parts[1]),
+                        Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        /**
+         * 参数一致，并且 bitmap 建立的时间早于 now - coverMillis：还能读到的数据都写于 since 之后，
+         * 这时 bitmap 说"不存在"和直接读数据的结论一样。
+         */
+        public boolean covers(long bits, int hashes, long nowMillis) {
+            return this.bits == bits && this.hashes == hashes && nowMillis - sinceMillis >= coverMillis;
+        }
+    }
+
+    public static long[] offsets(String item, long bits, int hashes) {
+        long h1 = fnv1a64(item.getBytes(StandardCharsets.UTF_8));
+        long h2 = mix64(h1) | 1L;
+        long[] offsets = new long[hashes];
+        for (int i = 0; i < hashes; i++) {
+            offsets[i] = Math.floorMod(h1 + i * h2, bits);
+        }
+        return offsets;
+    }
+
+    /**
+     * @param bitmap GET 返回的原始字节；比 offset 短的部分按 0 处理
+     */
+    public static boolean mightContain(byte[] bitmap, long[] offsets) {
+        for (long offset : offsets) {
+            long index = offset >>> 3;
+            if (index >= bitmap.length) {
+                return false;
+            }
+            if ((bitmap[(int) index] >> (7 - (int) (offset & 7)) & 1) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 按置位比例估算当前误判率 (setBits / bits) ^ hashes。
+     */
+    public static double estimatedFpp(byte[] bitmap, long bits, int hashes) {
+        long set = 0;
+        for (byte b : bitmap) {
+            set += Integer.bitCount(b & 0xff);
+        }
+        return Math.pow((double) set / bits, hashes);
+    }
+
+    private static long fnv1a64(byte[] data) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : data) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return z ^ (z >>> 33);
+    }
+}
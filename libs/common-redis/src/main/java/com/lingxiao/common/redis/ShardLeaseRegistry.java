@@ -0,0 +1,114 @@
+package com.lingxiao.common.redis;
+
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 多实例之间按分片划分工作：每个实例在 members ZSET 里登记心跳，
+ * 按 ceil(分片数 / 存活实例数) 持有分片租约（SET NX + 续期），多出来的主动释放给其它实例。
+ * 租约只用于分工，不提供互斥保证：换手窗口里两个实例可能短暂处理同一分片，调用方的操作需要幂等。
+ */
+public class ShardLeaseRegistry {
+
+    private final StringRedisTemplate redisTemplate;
+    private final List<String> leaseKeys;
+    private final String membersKey;
+    private final Duration ttl;
+    private final String owner = UUID.randomUUID().toString();
+    private final Set<Integer> owned = ConcurrentHashMap.newKeySet();
+
+    public ShardLeaseRegistry(StringRedisTemplate redisTemplate, List<String> leaseKeys, String membersKey, Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.leaseKeys = List.copyOf(leaseKeys);
+        this.membersKey = membersKey;
+        this.ttl = ttl;
+    }
+
+    public boolean owns(int shard) {
+        return owned.contains(shard);
+    }
+
+    public Set<Integer> owned() {
+        return Set.copyOf(owned);
+    }
+
+    /**
+     * 续期已有租约、释放超出目标数的、再抢占空闲分片。
+     *
+     * @return 本次新拿到的分片，调用方通常需要为它们加载状态
+     */
+    public List<Integer> rebalance() {
+        int shards = leaseKeys.size();
+        long live = heartbeat();
+        int target = (int) Math.min(shards, (shards + live - 1) / live);
+
+        for (Integer shard : List.copyOf(owned)) {
+            if (!hold(shard)) {
+                owned.remove(shard);
+            }
+        }
+        while (owned.size() > target) {
+            Integer shard = owned.iterator().next();
+            owned.remove(shard);
+            release(shard);
+        }
+        List<Integer> acquired = new ArrayList<>();
+        int start = ThreadLocalRandom.current().nextInt(shards);
+        for (int i = 0; i < shards && owned.size() < target; i++) {
+            int shard = (start + i) % shards;
+            if (!owned.contains(shard) && hold(shard)) {
+                owned.add(shard);
+                acquired.add(shard);
+            }
+        }
+        return acquired;
+    }
+
+    public void releaseAll() {
+        for (Integer shard : List.copyOf(owned)) {
+            release(shard);
+        }
+        owned.clear();
+        redisTemplate.opsForZSet().remove(membersKey, owner);
+    }
+
+    private boolean hold(int shard) {
+        String leaseKey = leaseKeys.get(shard);
+        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(leaseKey, owner, ttl);
+        if (Boolean.TRUE.equals(acquired)) {
+            return true;
+        }
+        if (Objects.equals(owner, redisTemplate.opsForValue().get(leaseKey))) {
+            redisTemplate.expire(leaseKey, ttl);
+            return true;
+        }
+        return false;
+    }
+
+    private void release(int shard) {
+        String leaseKey = leaseKeys.get(shard);
+        if (Objects.equals(owner, redisTemplate.opsForValue().get(leaseKey))) {
+            redisTemplate.delete(leaseKey);
+        }
+    }
+
+    /**
+     * @return ttl 内仍有心跳的实例数（含自己）
+     */
+    private long heartbeat() {
+        long now = Instant.now().toEpochMilli();
+        redisTemplate.opsForZSet().add(membersKey, owner, now);
+        redisTemplate.opsForZSet().removeRangeByScore(membersKey, Double.NEGATIVE_INFINITY, now - ttl.toMillis());
+        Long live = redisTemplate.opsForZSet().zCard(membersKey);
+        return live == null || live == 0 ? 1 : live;
+    }
+}
@@ -0,0 +1,77 @@
+package com.lingxiao.common.redis;
+
+import org.junit.jupiter.api.Assumptions;
+import org.springframework.data.redis.connection.RedisStandaloneConfiguration;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisTemplate;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * 各服务 *IT 共用的外部依赖探测：与 application.yml 相同的环境变量和缺省值，依赖不可达时跳过测试而不是失败。
+ */
+public final class RedisTestSupport {
+
+    private RedisTestSupport() {
+    }
+
+    /**
+     * 连接 REDIS_HOST / REDIS_PORT（缺省 localhost:6379）；不可达时跳过当前测试。调用方负责 destroy。
+     */
+    public static LettuceConnectionFactory connectOrSkip() {
+        String host = env("REDIS_HOST", "localhost");
+        int port = Integer.parseInt(env("REDIS_PORT", "6379"));
+        Assumptions.assumeTrue(isReachable(host, port), "Redis not reachable at " + host + ":" + port);
+        LettuceConnectionFactory factory = new LettuceConnectionFactory(new RedisStandaloneConfiguration(host, port));
+        factory.afterPropertiesSet();
+        factory.start();
+        return factory;
+    }
+
+    /**
+     * @param hostPort 形如 localhost:9010，如 SPANNER_EMULATOR_HOST
+     */
+    public static void assumeReachable(String hostPort, String what) {
+        int idx = hostPort.lastIndexOf(':');
+        boolean reachable = idx > 0 && isReachable(hostPort.substring(0, idx), Integer.parseInt(hostPort.substring(idx + 1)));
+        Assumptions.assumeTrue(reachable, what + " not reachable at " + hostPort);
+    }
+
+    /**
+     * 服务端至今执行的 EVAL + EVALSHA 次数（INFO commandstats），用于断言每次操作的脚本调用数。
+     */
+    public static long scriptCalls(RedisTemplate<?, ?> redisTemplate) {
+        return commandCalls(redisTemplate, "eval", "evalsha");
+    }
+
+    /**
+     * 服务端至今执行给定命令（小写，如 hmget）的总次数，来自 INFO commandstats。
+     */
+    public static long commandCalls(RedisTemplate<?, ?> redisTemplate, String... commands) {
+        Properties stats = redisTemplate.execute(connection -> connection.serverCommands().info("commandstats"), true);
+        long calls = 0;
+        for (String cmd : commands) {
+            String v = stats == null ? null : stats.getProperty("cmdstat_" + cmd);
+            if (v != null) {
+                calls += Long.parseLong(v.substring("calls=".length(), v.indexOf(',')));
+            }
+        }
+        return calls;
+    }
+
+    public static String env(String key, String def) {
+        String v = System.getenv(key);
+        return v == null || v.isBlank() ? def : v;
+    }
+
+    private static boolean isReachable(String host, int port) {
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(host, port), 500);
+            return true;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+}
@@ -11,6 +11,10 @@ const DURATION = __ENV.DURATION || '10s';
 const INITIAL_STOCK = integerEnv('INITIAL_STOCK', 100, 1);
 const PRE_ALLOCATED_VUS = integerEnv('PRE_ALLOCATED_VUS', 20, 1);
 const MAX_VUS = integerEnv('MAX_VUS', 100, PRE_ALLOCATED_VUS);
+// Must match inventory.flashsale.stock-buckets on the server; only used to label and normalise results.
+const STOCK_BUCKETS = integerEnv('STOCK_BUCKETS', 1, 1);
+// Must match inventory.flashsale.fused-reserve on the server (true = fused, false = aspect).
+const RESERVE_PATH = __ENV.RESERVE_PATH || 'aspect';
 
 const SINGLE_SKU = 'loadtest-hot-sku-001';
 const SHARDED_SKUS = [
@@ -94,7 +98,7 @@ export default function (data) {
         'Idempotency-Key': identity,
       },
       timeout: '10s',
-      tags: { endpoint: 'inventory_flashsale_reservation', sku_mode: SKU_MODE },
+      tags: { endpoint: 'inventory_flashsale_reservation', sku_mode: SKU_MODE, stock_buckets: String(STOCK_BUCKETS), reserve_path: RESERVE_PATH },
     },
   );
 
@@ -185,6 +189,8 @@ function buildResult(data) {
       initialStock: INITIAL_STOCK,
       preAllocatedVUs: PRE_ALLOCATED_VUS,
       maxVUs: MAX_VUS,
+      stockBuckets: STOCK_BUCKETS,
+      reservePath: RESERVE_PATH,
       skuIds: SKU_MODE === 'single' ? [SINGLE_SKU] : SHARDED_SKUS,
     },
     throughput: {
@@ -192,6 +198,7 @@ function buildResult(data) {
       actualSentQps: rate('reservation_attempts'),
       actualCompletedQps: rate('reservation_completed'),
       reservedQps: rate('reservation_reserved'),
+      completedQpsPerBucket: rate('reservation_completed') / STOCK_BUCKETS,
       attempts: count('reservation_attempts'),
       completed: count('reservation_completed'),
       droppedIterations: dropped,
@@ -227,8 +234,8 @@ function renderTextSummary(result) {
   return [
     '',
     `Inventory reservation load test: ${result.runId}`,
-    `profile=${result.parameters.testProfile} skuMode=${result.parameters.skuMode}`,
-    `targetQPS=${t.targetQps} actualSentQPS=${format(t.actualSentQps)} actualCompletedQPS=${format(t.actualCompletedQps)} RESERVED_QPS=${format(t.reservedQps)}`,
+    `profile=${result.parameters.testProfile} skuMode=${result.parameters.skuMode} stockBuckets=${result.parameters.stockBuckets} reservePath=${result.parameters.reservePath}`,
+    `targetQPS=${t.targetQps} actualSentQPS=${format(t.actualSentQps)} actualCompletedQPS=${format(t.actualCompletedQps)} completedQPSPerBucket=${format(t.completedQpsPerBucket)} RESERVED_QPS=${format(t.reservedQps)}`,
     `attempts=${t.attempts} completed=${t.completed} droppedIterations=${t.droppedIterations} insufficientVUs=${t.insufficientVus}`,
     `RESERVED=${b.reserved} SOLD_OUT=${b.soldOut} DUPLICATE=${b.duplicate} FAILED=${b.failed} UNKNOWN=${b.unknown} PARSE_ERROR=${b.parseError} CONTRACT_ERROR=${b.contractError}`,
     `HTTP technical error rate=${format(result.httpTechnicalErrorRate * 100, 4)}%`,
@@ -261,12 +268,18 @@ function validateConfiguration() {
   if (!RUN_ID || !/^[A-Za-z0-9][A-Za-z0-9_-]{2,47}$/.test(RUN_ID)) {
     throw new Error('RUN_ID is required and must match [A-Za-z0-9][A-Za-z0-9_-]{2,47}');
   }
-  if (!['limited_stock', 'success_capacity'].includes(TEST_PROFILE)) {
+  if (!['limited_stock', 'success_capacity', 'bucket_scaling'].includes(TEST_PROFILE)) {
     throw new Error(`Unsupported TEST_PROFILE '${TEST_PROFILE}'`);
   }
   if (!['single', 'sharded'].includes(SKU_MODE)) {
     throw new Error(`Unsupported SKU_MODE '${SKU_MODE}'`);
   }
+  if (!['fused', 'aspect'].includes(RESERVE_PATH)) {
+    throw new Error(`Unsupported RESERVE_PATH '${RESERVE_PATH}'`);
+  }
+  if (TEST_PROFILE === 'bucket_scaling' && SKU_MODE !== 'single') {
+    throw new Error('TEST_PROFILE=bucket_scaling requires SKU_MODE=single');
+  }
   durationSeconds(DURATION);
 }
 
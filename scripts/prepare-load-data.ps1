@@ -6,6 +6,7 @@ param(
     [int]$TargetRps = $(if ($env:TARGET_RPS) { [int]$env:TARGET_RPS } else { 10 }),
     [string]$Duration = $(if ($env:DURATION) { $env:DURATION } else { '10s' }),
     [long]$InitialStock = $(if ($env:INITIAL_STOCK) { [long]$env:INITIAL_STOCK } else { 100 }),
+    [int]$StockBuckets = $(if ($env:STOCK_BUCKETS) { [int]$env:STOCK_BUCKETS } else { 1 }),
     [string]$CatalogBaseUrl = $(if ($env:CATALOG_BASE_URL) { $env:CATALOG_BASE_URL } else { 'http://localhost:8080' }),
     [string]$InventoryBaseUrl = $(if ($env:BASE_URL) { $env:BASE_URL } else { 'http://localhost:8082' })
 )
@@ -20,8 +21,10 @@ $ShardedSkus = 0..7 | ForEach-Object { 'loadtest-shard-{0:d2}-001' -f $_ }
 
 function Assert-Configuration {
     if ($RunId -notmatch '^[A-Za-z0-9][A-Za-z0-9_-]{2,47}$') { throw 'RUN_ID is required and must use 3-48 letters, digits, underscore, or hyphen.' }
-    if ($TestProfile -notin @('limited_stock', 'success_capacity')) { throw "Unsupported TEST_PROFILE: $TestProfile" }
+    if ($TestProfile -notin @('limited_stock', 'success_capacity', 'bucket_scaling')) { throw "Unsupported TEST_PROFILE: $TestProfile" }
     if ($SkuMode -notin @('single', 'sharded')) { throw "Unsupported SKU_MODE: $SkuMode" }
+    if ($TestProfile -eq 'bucket_scaling' -and $SkuMode -ne 'single') { throw 'TEST_PROFILE=bucket_scaling requires SKU_MODE=single.' }
+    if ($StockBuckets -lt 1) { throw 'STOCK_BUCKETS must be positive and match inventory.flashsale.stock-buckets.' }
     if ($TargetRps -lt 1) { throw 'TARGET_RPS must be positive.' }
     if ($InitialStock -lt 1) { throw 'INITIAL_STOCK must be positive.' }
 }
@@ -87,6 +90,12 @@ function Ensure-CatalogSku([hashtable]$Product) {
     }
 }
 
+# Hash-tag shard ids of a SKU: "04" in the single-key layout, "04.00".."04.NN" with stock buckets.
+function Get-BucketShards([int]$Shard) {
+    if ($StockBuckets -eq 1) { return @('{0:d2}' -f $Shard) }
+    return @(0..($StockBuckets - 1) | ForEach-Object { '{0:d2}.{1:d2}' -f $Shard, $_ })
+}
+
 function Seed-And-Verify([hashtable]$Product, [long]$Stock) {
     $payload = @{ skuId = $Product.skuId; onHand = $Stock }
     Invoke-RestMethod "$InventoryBaseUrl/internal/inventory/seed" -Method Post -ContentType 'application/json' -Body (ConvertTo-JsonBody $payload) | Out-Null
@@ -100,9 +109,12 @@ function Seed-And-Verify([hashtable]$Product, [long]$Stock) {
 
     $shard = Get-StreamShard $Product.skuId
     $tag = '{A100:' + ('{0:d2}' -f $shard) + '}'
-    $priceKey = "fs:price:$tag`:sku:$($Product.skuId)"
-    $redisPrice = (Invoke-Compose @('exec', '-T', 'redis', 'redis-cli', '--raw', 'HGET', $priceKey, 'priceCents') | Out-String).Trim()
-    if ($redisPrice -ne [string]$Product.priceCents) { throw "Redis price preheat verification failed for $($Product.skuId): '$redisPrice'." }
+    $bucketShards = Get-BucketShards $shard
+    foreach ($bucketShard in $bucketShards) {
+        $priceKey = "fs:price:{A100:$bucketShard}:sku:$($Product.skuId)"
+        $redisPrice = (Invoke-Compose @('exec', '-T', 'redis', 'redis-cli', '--raw', 'HGET', $priceKey, 'priceCents') | Out-String).Trim()
+        if ($redisPrice -ne [string]$Product.priceCents) { throw "Redis price preheat verification failed for $($Product.skuId) ($priceKey): '$redisPrice'." }
+    }
 
     [pscustomobject]@{
         skuId = $Product.skuId
@@ -110,6 +122,7 @@ function Seed-And-Verify([hashtable]$Product, [long]$Stock) {
         javaHashCode = Get-JavaHashCode $Product.skuId
         streamShard = '{0:d2}' -f $shard
         streamKey = "fs:stream:$tag"
+        bucketShards = @($bucketShards)
         priceCents = [long]$Product.priceCents
     }
 }
@@ -117,7 +130,7 @@ function Seed-And-Verify([hashtable]$Product, [long]$Stock) {
 Assert-Configuration
 $durationSeconds = ConvertTo-DurationSeconds $Duration
 $plannedRequests = [long]$TargetRps * $durationSeconds
-$requiredStock = if ($TestProfile -eq 'success_capacity') { [long][Math]::Ceiling($plannedRequests * 1.2) } else { $InitialStock }
+$requiredStock = if ($TestProfile -in @('success_capacity', 'bucket_scaling')) { [long][Math]::Ceiling($plannedRequests * 1.2) } else { $InitialStock }
 
 $products = @(
     @{ skuId = $SingleSku; productId = 'loadtest-product-hot-001'; title = 'Load Test Hot SKU'; priceCents = 1999L },
@@ -164,6 +177,7 @@ $parameters = [ordered]@{
     preparedTestStock = $requiredStock
     preAllocatedVUs = if ($env:PRE_ALLOCATED_VUS) { [int]$env:PRE_ALLOCATED_VUS } else { 20 }
     maxVUs = if ($env:MAX_VUS) { [int]$env:MAX_VUS } else { 100 }
+    stockBuckets = $StockBuckets
     baseUrl = $InventoryBaseUrl
     activeSkuIds = $activeSkuIds
     skuInventory = $results
@@ -12,15 +12,18 @@ SKU_MODE="${SKU_MODE:-single}"
 TARGET_RPS="${TARGET_RPS:-10}"
 DURATION="${DURATION:-10s}"
 INITIAL_STOCK="${INITIAL_STOCK:-100}"
+STOCK_BUCKETS="${STOCK_BUCKETS:-1}"
 SINGLE_SKU="loadtest-hot-sku-001"
 WARMUP_SKU="loadtest-warmup-sku"
 SHARDED_SKUS=(loadtest-shard-{00..07}-001)
 
 [[ "$RUN_ID" =~ ^[A-Za-z0-9][A-Za-z0-9_-]{2,47}$ ]] || { echo 'RUN_ID is required and must use 3-48 letters, digits, underscore, or hyphen.' >&2; exit 1; }
-[[ "$TEST_PROFILE" == limited_stock || "$TEST_PROFILE" == success_capacity ]] || { echo "Unsupported TEST_PROFILE: $TEST_PROFILE" >&2; exit 1; }
+[[ "$TEST_PROFILE" == limited_stock || "$TEST_PROFILE" == success_capacity || "$TEST_PROFILE" == bucket_scaling ]] || { echo "Unsupported TEST_PROFILE: $TEST_PROFILE" >&2; exit 1; }
+[[ "$TEST_PROFILE" != bucket_scaling || "$SKU_MODE" == single ]] || { echo 'TEST_PROFILE=bucket_scaling requires SKU_MODE=single.' >&2; exit 1; }
 [[ "$SKU_MODE" == single || "$SKU_MODE" == sharded ]] || { echo "Unsupported SKU_MODE: $SKU_MODE" >&2; exit 1; }
 [[ "$TARGET_RPS" =~ ^[1-9][0-9]*$ ]] || { echo 'TARGET_RPS must be positive.' >&2; exit 1; }
 [[ "$INITIAL_STOCK" =~ ^[1-9][0-9]*$ ]] || { echo 'INITIAL_STOCK must be positive.' >&2; exit 1; }
+[[ "$STOCK_BUCKETS" =~ ^[1-9][0-9]*$ ]] || { echo 'STOCK_BUCKETS must be positive and match inventory.flashsale.stock-buckets.' >&2; exit 1; }
 command -v curl >/dev/null || { echo 'curl is required.' >&2; exit 1; }
 command -v jq >/dev/null || { echo 'jq is required.' >&2; exit 1; }
 command -v docker >/dev/null || { echo 'docker is required.' >&2; exit 1; }
@@ -50,6 +53,13 @@ stream_shard() {
   echo $(( (hash % 8 + 8) % 8 ))
 }
 
+# Hash-tag shard ids of a SKU: "04" in the single-key layout, "04.00".."04.NN" with stock buckets.
+bucket_shards() {
+  local shard="$1" bucket
+  if (( STOCK_BUCKETS == 1 )); then printf '%02d\n' "$shard"; return; fi
+  for ((bucket=0; bucket<STOCK_BUCKETS; bucket++)); do printf '%02d.%02d\n' "$shard" "$bucket"; done
+}
+
 COMPOSE=(docker compose)
 [[ -f "$COMPOSE_ENV" ]] && COMPOSE+=(--env-file "$COMPOSE_ENV")
 COMPOSE+=(-f "$COMPOSE_FILE")
@@ -71,7 +81,7 @@ ensure_catalog_sku() {
 }
 
 seed_and_verify() {
-  local sku="$1" stock="$2" expected_price="$3" shard tag price_key actual_price catalog available hash
+  local sku="$1" stock="$2" expected_price="$3" shard tag price_key actual_price catalog available hash bucket_shard shards_json
   curl --fail-with-body --silent --show-error -X POST "$INVENTORY_BASE_URL/internal/inventory/seed" -H 'Content-Type: application/json' \
     -d "$(jq -cn --arg sku "$sku" --argjson stock "$stock" '{skuId:$sku,onHand:$stock}')" >/dev/null
   catalog="$(curl --fail-with-body --silent --show-error "$CATALOG_BASE_URL/api/v1/skus/$sku")"
@@ -79,18 +89,21 @@ seed_and_verify() {
   available="$(curl --fail-with-body --silent --show-error "$INVENTORY_BASE_URL/internal/inventory/$sku")"
   [[ "$available" == "$stock" ]] || { echo "Inventory verification failed for $sku: expected $stock, got $available" >&2; exit 1; }
   shard="$(stream_shard "$sku")"; printf -v tag '{A100:%02d}' "$shard"
-  price_key="fs:price:${tag}:sku:${sku}"
-  actual_price="$("${COMPOSE[@]}" exec -T redis redis-cli --raw HGET "$price_key" priceCents | tr -d '\r')"
-  [[ "$actual_price" == "$expected_price" ]] || { echo "Redis price preheat verification failed for $sku: '$actual_price'" >&2; exit 1; }
+  while IFS= read -r bucket_shard; do
+    price_key="fs:price:{A100:${bucket_shard}}:sku:${sku}"
+    actual_price="$("${COMPOSE[@]}" exec -T redis redis-cli --raw HGET "$price_key" priceCents | tr -d '\r')"
+    [[ "$actual_price" == "$expected_price" ]] || { echo "Redis price preheat verification failed for $sku ($price_key): '$actual_price'" >&2; exit 1; }
+  done < <(bucket_shards "$shard")
+  shards_json="$(bucket_shards "$shard" | jq -R . | jq -sc .)"
   hash="$(java_hash "$sku")"
   jq -cn --arg sku "$sku" --argjson stock "$stock" --argjson hash "$hash" --arg shard "$(printf '%02d' "$shard")" \
-    --arg stream "fs:stream:${tag}" --argjson price "$expected_price" \
-    '{skuId:$sku,initialStock:$stock,javaHashCode:$hash,streamShard:$shard,streamKey:$stream,priceCents:$price}'
+    --arg stream "fs:stream:${tag}" --argjson price "$expected_price" --argjson buckets "$shards_json" \
+    '{skuId:$sku,initialStock:$stock,javaHashCode:$hash,streamShard:$shard,streamKey:$stream,bucketShards:$buckets,priceCents:$price}'
 }
 
 DURATION_SECONDS="$(duration_seconds "$DURATION")"
 PLANNED_REQUESTS=$((TARGET_RPS * DURATION_SECONDS))
-if [[ "$TEST_PROFILE" == success_capacity ]]; then
+if [[ "$TEST_PROFILE" == success_capacity || "$TEST_PROFILE" == bucket_scaling ]]; then
   REQUIRED_STOCK=$(((PLANNED_REQUESTS * 12 + 9) / 10))
 else
   REQUIRED_STOCK="$INITIAL_STOCK"
@@ -129,8 +142,8 @@ if [[ "$SKU_MODE" == single ]]; then ACTIVE_SKUS="$(jq -cn --arg sku "$SINGLE_SK
 jq -s --arg run "$RUN_ID" --arg prepared "$(date -u +%Y-%m-%dT%H:%M:%SZ)" --arg profile "$TEST_PROFILE" --arg mode "$SKU_MODE" \
   --argjson target "$TARGET_RPS" --arg duration "$DURATION" --argjson seconds "$DURATION_SECONDS" --argjson planned "$PLANNED_REQUESTS" \
   --argjson initial "$INITIAL_STOCK" --argjson preparedStock "$REQUIRED_STOCK" --argjson preVus "${PRE_ALLOCATED_VUS:-20}" --argjson maxVus "${MAX_VUS:-100}" \
-  --arg base "$INVENTORY_BASE_URL" --argjson active "$ACTIVE_SKUS" \
-  '{runId:$run,preparedAt:$prepared,testProfile:$profile,skuMode:$mode,targetRps:$target,duration:$duration,durationSeconds:$seconds,plannedMaxRequests:$planned,initialStock:$initial,preparedTestStock:$preparedStock,preAllocatedVUs:$preVus,maxVUs:$maxVus,baseUrl:$base,activeSkuIds:$active,skuInventory:.,demoDataAffected:false}' \
+  --argjson buckets "$STOCK_BUCKETS" --arg base "$INVENTORY_BASE_URL" --argjson active "$ACTIVE_SKUS" \
+  '{runId:$run,preparedAt:$prepared,testProfile:$profile,skuMode:$mode,targetRps:$target,duration:$duration,durationSeconds:$seconds,plannedMaxRequests:$planned,initialStock:$initial,preparedTestStock:$preparedStock,preAllocatedVUs:$preVus,maxVUs:$maxVus,stockBuckets:$buckets,baseUrl:$base,activeSkuIds:$active,skuInventory:.,demoDataAffected:false}' \
   "$SKU_RESULTS" > "$RESULT_DIR/parameters.json"
 rm -f "$SKU_RESULTS"
 
@@ -68,13 +68,21 @@ function Get-RedisValue([string]$Key) {
     return ((Invoke-Compose @('exec', '-T', 'redis', 'redis-cli', '--raw', 'GET', $Key) | Out-String).Trim())
 }
 
+function Get-BucketShards($Entry) {
+    if ($Entry.bucketShards) { return @($Entry.bucketShards) }
+    return @($Entry.streamShard)
+}
+
 function Get-SkuState([string]$SkuId) {
     $entry = @($Parameters.skuInventory | Where-Object skuId -eq $SkuId)[0]
     if (-not $entry) { throw "No prepared SKU metadata for $SkuId" }
-    $tag = '{{A100:{0}}}' -f $entry.streamShard
-    $redisStockKey = "fs:stock:$tag`:sku:$SkuId"
-    $redisStockText = Get-RedisValue $redisStockKey
-    $redisStock = if ($redisStockText -match '^-?\d+$') { [long]$redisStockText } else { throw "Invalid Redis stock for ${SkuId}: '$redisStockText'" }
+    # bucketShards: one hash tag per stock bucket ("04.00".."04.NN"); older parameters only carry streamShard.
+    $redisStock = 0L
+    foreach ($shard in (Get-BucketShards $entry)) {
+        $redisStockKey = "fs:stock:{A100:$shard}:sku:$SkuId"
+        $redisStockText = Get-RedisValue $redisStockKey
+        $redisStock += if ($redisStockText -match '^-?\d+$') { [long]$redisStockText } else { throw "Invalid Redis stock for ${SkuId} ($redisStockKey): '$redisStockText'" }
+    }
     $escapedSku = $SkuId.Replace("'", "''")
     $rows = @(Invoke-SpannerQuery "SELECT OnHand AS onHand, Reserved AS reserved, OnHand - Reserved AS available FROM Inventory WHERE SkuId = '$escapedSku'")
     if ($rows.Count -ne 1) { throw "Inventory row not found for $SkuId" }
@@ -99,22 +107,25 @@ function Get-RedisStreamState {
     $seen = @{}
     foreach ($skuId in $Parameters.activeSkuIds) {
         $entry = @($Parameters.skuInventory | Where-Object skuId -eq $skuId)[0]
-        if ($seen.ContainsKey($entry.streamKey)) { continue }
-        $seen[$entry.streamKey] = $true
-        $length = [long](((Invoke-Compose @('exec', '-T', 'redis', 'redis-cli', '--raw', 'XLEN', $entry.streamKey) | Out-String).Trim()))
-        $group = "fs-publisher:$($entry.streamShard)"
-        $pending = 0L; $lag = 0L; $groupFound = $false
-        $jsonText = (Invoke-Compose @('exec', '-T', 'redis', 'redis-cli', '--json', 'XINFO', 'GROUPS', $entry.streamKey) | Out-String).Trim()
-        if ($jsonText -and $jsonText -ne '[]') {
-            foreach ($rawGroup in @($jsonText | ConvertFrom-Json)) {
-                $map = @{}
-                for ($i = 0; $i -lt $rawGroup.Count; $i += 2) { $map[[string]$rawGroup[$i]] = $rawGroup[$i + 1] }
-                if ($map.name -eq $group) {
-                    $groupFound = $true; $pending = [long]$map.pending; $lag = if ($null -eq $map.lag) { 0L } else { [long]$map.lag }
+        foreach ($shard in (Get-BucketShards $entry)) {
+            $streamKey = "fs:stream:{A100:$shard}"
+            if ($seen.ContainsKey($streamKey)) { continue }
+            $seen[$streamKey] = $true
+            $length = [long](((Invoke-Compose @('exec', '-T', 'redis', 'redis-cli', '--raw', 'XLEN', $streamKey) | Out-String).Trim()))
+            $group = "fs-publisher:$shard"
+            $pending = 0L; $lag = 0L; $groupFound = $false
+            $jsonText = (Invoke-Compose @('exec', '-T', 'redis', 'redis-cli', '--json', 'XINFO', 'GROUPS', $streamKey) | Out-String).Trim()
+            if ($jsonText -and $jsonText -ne '[]') {
+                foreach ($rawGroup in @($jsonText | ConvertFrom-Json)) {
+                    $map = @{}
+                    for ($i = 0; $i -lt $rawGroup.Count; $i += 2) { $map[[string]$rawGroup[$i]] = $rawGroup[$i + 1] }
+                    if ($map.name -eq $group) {
+                        $groupFound = $true; $pending = [long]$map.pending; $lag = if ($null -eq $map.lag) { 0L } else { [long]$map.lag }
+                    }
                 }
             }
+            $states += [pscustomobject]@{ streamKey = $streamKey; group = $group; groupFound = $groupFound; length = $length; pending = $pending; lag = $lag }
         }
-        $states += [pscustomobject]@{ streamKey = $entry.streamKey; group = $group; groupFound = $groupFound; length = $length; pending = $pending; lag = $lag }
     }
     return $states
 }
@@ -47,30 +47,35 @@ kafka_state() {
 }
 
 snapshot() {
-  local sku_file stream_file sku entry shard tag stock_key redis_stock inventory stream_key group length groups group_data pending lag
+  local sku_file stream_file sku entry shard tag stock_key redis_stock bucket_stock inventory stream_key group length groups group_data pending lag
   sku_file="$(mktemp)"; stream_file="$(mktemp)"
   declare -A seen_streams=()
 
   while IFS= read -r sku; do
     entry="$(jq -c --arg sku "$sku" '.skuInventory[] | select(.skuId == $sku)' "$PARAMETERS")"
     [[ -n "$entry" ]] || { echo "No prepared SKU metadata for $sku" >&2; return 1; }
-    shard="$(jq -r '.streamShard' <<<"$entry")"; tag="{A100:$shard}"
-    stock_key="fs:stock:${tag}:sku:${sku}"; redis_stock="$(redis_raw GET "$stock_key")"
-    [[ "$redis_stock" =~ ^-?[0-9]+$ ]] || { echo "Invalid Redis stock for $sku: '$redis_stock'" >&2; return 1; }
+    # bucketShards: one hash tag per stock bucket ("04.00".."04.NN"); older parameters only carry streamShard.
+    redis_stock=0
+    while IFS= read -r shard; do
+      tag="{A100:$shard}"; stock_key="fs:stock:${tag}:sku:${sku}"; bucket_stock="$(redis_raw GET "$stock_key")"
+      [[ "$bucket_stock" =~ ^-?[0-9]+$ ]] || { echo "Invalid Redis stock for $sku ($stock_key): '$bucket_stock'" >&2; return 1; }
+      redis_stock=$((redis_stock + bucket_stock))
+    done < <(jq -r '(.bucketShards // [.streamShard])[]' <<<"$entry")
     inventory="$(spanner_query "SELECT OnHand AS onHand, Reserved AS reserved, OnHand - Reserved AS available FROM Inventory WHERE SkuId = '$sku'")"
     [[ "$(jq 'length' <<<"$inventory")" == 1 ]] || { echo "Inventory row not found for $sku" >&2; return 1; }
     jq -cn --arg sku "$sku" --argjson redis "$redis_stock" --argjson row "$(jq '.[0]' <<<"$inventory")" \
       '{skuId:$sku,redisStock:$redis,spannerOnHand:($row.onHand|tonumber),spannerReserved:($row.reserved|tonumber),spannerAvailable:($row.available|tonumber)}' >> "$sku_file"
 
-    stream_key="$(jq -r '.streamKey' <<<"$entry")"
-    if [[ -z "${seen_streams[$stream_key]:-}" ]]; then
+    while IFS= read -r shard; do
+      stream_key="fs:stream:{A100:$shard}"
+      [[ -z "${seen_streams[$stream_key]:-}" ]] || continue
       seen_streams[$stream_key]=1; group="fs-publisher:$shard"; length="$(redis_raw XLEN "$stream_key")"
       groups="$("${COMPOSE[@]}" exec -T redis redis-cli --json XINFO GROUPS "$stream_key" | tr -d '\r')"
       group_data="$(jq -c --arg group "$group" 'map([range(0; length; 2) as $i | {key: .[$i], value: .[$i+1]}] | from_entries) | map(select(.name == $group)) | first // null' <<<"$groups")"
       if [[ "$group_data" == null ]]; then pending=0; lag=0; found=false; else pending="$(jq -r '.pending' <<<"$group_data")"; lag="$(jq -r '.lag // 0' <<<"$group_data")"; found=true; fi
       jq -cn --arg stream "$stream_key" --arg group "$group" --argjson found "$found" --argjson length "$length" --argjson pending "$pending" --argjson lag "$lag" \
         '{streamKey:$stream,group:$group,groupFound:$found,length:$length,pending:$pending,lag:$lag}' >> "$stream_file"
-    fi
+    done < <(jq -r '(.bucketShards // [.streamShard])[]' <<<"$entry")
   done < <(jq -r '.activeSkuIds[]' "$PARAMETERS")
 
   local orders kafka captured
@@ -45,11 +45,11 @@ public class CacheConfig {
     }
 
     @Bean
-    public CacheValueCodec cacheValueCodec(ObjectMapper base) {
+    public CacheValueCodec cacheValueCodec(ObjectMapper base, CatalogCacheProperties props) {
         ObjectMapper om = base.copy()
                 .registerModule(new JavaTimeModule())
                 .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
-        return new CacheValueCodec(om);
+        return new CacheValueCodec(om, props.getCodec());
     }
 
 
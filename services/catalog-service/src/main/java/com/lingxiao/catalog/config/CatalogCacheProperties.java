@@ -1,5 +1,6 @@
 package com.lingxiao.catalog.config;
 
+import com.lingxiao.catalog.infrastructure.cache.CacheValueCodec;
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
 import java.time.Duration;
@@ -15,6 +16,8 @@ public class CatalogCacheProperties {
     private Duration l2Ttl = Duration.ofMinutes(5);
     private Duration l2NegativeTtl = Duration.ofSeconds(60);
     private long l2JitterMs = 500;
+    // L2 写入格式；读取两种都认
+    private CacheValueCodec.Format codec = CacheValueCodec.Format.JSON;
 
     // SingleFlight
     private Duration singleFlightTimeout = Duration.ofSeconds(2);
@@ -71,6 +74,14 @@ public class CatalogCacheProperties {
         this.l2JitterMs = l2JitterMs;
     }
 
+    public CacheValueCodec.Format getCodec() {
+        return codec;
+    }
+
+    public void setCodec(CacheValueCodec.Format codec) {
+        this.codec = codec;
+    }
+
     public Duration getSingleFlightTimeout() {
         return singleFlightTimeout;
     }
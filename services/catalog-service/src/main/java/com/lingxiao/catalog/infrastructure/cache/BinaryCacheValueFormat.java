@@ -0,0 +1,194 @@
+package com.lingxiao.catalog.infrastructure.cache;
+
+import com.lingxiao.catalog.domain.model.Sku;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * CacheValue 的紧凑二进制格式，第一个字节是格式版本（JSON 总是以 '{' 开头，不会冲突）。
+ *
+ * v1: [version][flags] 然后在 sku 存在时依次是
+ *     skuId, productId, title, status, brand, currency   -- varint(len + 1) + UTF-8，0 表示 null
+ *     priceCents                                         -- zigzag varlong
+ *     createdAt, updatedAt                               -- flags 标明存在时 zigzag varlong 秒 + varint 纳秒
+ */
+final class BinaryCacheValueFormat {
+
+    static final byte VERSION_1 = 1;
+    // 0x01..0x1F 留给二进制格式的版本号
+    private static final int MAX_VERSION = 0x1F;
+
+    private static final int NEGATIVE = 1;
+    private static final int HAS_SKU = 1 << 1;
+    private static final int HAS_CREATED_AT = 1 << 2;
+    private static final int HAS_UPDATED_AT = 1 << 3;
+
+    private BinaryCacheValueFormat() {
+    }
+
+    static boolean isBinary(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] >= 1 && bytes[0] <= MAX_VERSION;
+    }
+
+    static byte[] encode(CacheValue v) {
+        Sku sku = v.sku();
+        int flags = (v.negative() ? NEGATIVE : 0)
+                | (sku != null ? HAS_SKU : 0)
+                | (sku != null && sku.createdAt() != null ? HAS_CREATED_AT : 0)
+                | (sku != null && sku.updatedAt() != null ? HAS_UPDATED_AT : 0);
+        Writer w = new Writer(sku == null ? 2 : 64);
+        w.writeByte(VERSION_1);
+        w.writeByte(flags);
+        if (sku != null) {
+            w.writeString(sku.skuId());
+            w.writeString(sku.productId());
+            w.writeString(sku.title());
+            w.writeString(sku.status());
+            w.writeString(sku.brand());
+            w.writeString(sku.currency());
+            w.writeVarLong(zigzag(sku.priceCents()));
+            if (sku.createdAt() != null) {
+                w.writeInstant(sku.createdAt());
+            }
+            if (sku.updatedAt() != null) {
+                w.writeInstant(sku.updatedAt());
+            }
+        }
+        return w.toByteArray();
+    }
+
+    /**
+     * @return 版本不支持时为 null；数据截断等格式错误抛 IllegalArgumentException
+     */
+    static CacheValue decode(byte[] bytes) {
+        if (bytes[0] != VERSION_1) {
+            return null;
+        }
+        Reader r = new Reader(bytes, 1);
+        int flags = r.readByte();
+        Sku sku = null;
+        if ((flags & HAS_SKU) != 0) {
+            String skuId = r.readString();
+            String productId = r.readString();
+            String title = r.readString();
+            String status = r.readString();
+            String brand = r.readString();
+            String currency = r.readString();
+            long priceCents = unzigzag(r.readVarLong());
+            Instant createdAt = (flags & HAS_CREATED_AT) != 0 ? r.readInstant() : null;
+            Instant updatedAt = (flags & HAS_UPDATED_AT) != 0 ? r.readInstant() : null;
+            sku = new Sku(skuId, productId, title, status, brand, priceCents, currency, createdAt, updatedAt);
+        }
+        if (r.pos != bytes.length) {
+            throw new IllegalArgumentException("Trailing bytes in CacheValue v1");
+        }
+        return new CacheValue(sku, (flags & NEGATIVE) != 0);
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static long unzigzag(long v) {
+        return (v >>> 1) ^ -(v & 1);
+    }
+
+    private static final class Writer {
+        private byte[] buf;
+        private int pos;
+
+        Writer(int capacity) {
+            this.buf = new byte[capacity];
+        }
+
+        void writeByte(int b) {
+            ensure(1);
+            buf[pos++] = (byte) b;
+        }
+
+        void writeVarLong(long v) {
+            ensure(10);
+            while ((v & ~0x7FL) != 0) {
+                buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            buf[pos++] = (byte) v;
+        }
+
+        void writeString(String s) {
+            if (s == null) {
+                writeVarLong(0);
+                return;
+            }
+            byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length + 1L);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, buf, pos, utf8.length);
+            pos += utf8.length;
+        }
+
+        void writeInstant(Instant t) {
+            writeVarLong(zigzag(t.getEpochSecond()));
+            writeVarLong(t.getNano());
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, pos);
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+            }
+        }
+    }
+
+    private static final class Reader {
+        private final byte[] buf;
+        private int pos;
+
+        Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        int readByte() {
+            if (pos >= buf.length) {
+                throw new IllegalArgumentException("Truncated CacheValue");
+            }
+            return buf[pos++] & 0xFF;
+        }
+
+        long readVarLong() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            throw new IllegalArgumentException("Malformed varint in CacheValue");
+        }
+
+        String readString() {
+            long len = readVarLong() - 1;
+            if (len < 0) {
+                return null;
+            }
+            if (len > buf.length - pos) {
+                throw new IllegalArgumentException("Truncated CacheValue");
+            }
+            String s = new String(buf, pos, (int) len, StandardCharsets.UTF_8);
+            pos += (int) len;
+            return s;
+        }
+
+        Instant readInstant() {
+            long seconds = unzigzag(readVarLong());
+            return Instant.ofEpochSecond(seconds, readVarLong());
+        }
+    }
+}
@@ -2,16 +2,32 @@ package com.lingxiao.catalog.infrastructure.cache;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+/**
+ * L2 的 CacheValue 编解码。写入格式由 catalog.cache.codec 决定，读取按首字节识别 JSON / 二进制，
+ * 所以两种格式的实例可以混跑：先全量发布能读二进制的版本（codec=json），再切到 binary。
+ */
 public class CacheValueCodec {
+
+    public enum Format {
+        JSON,
+        BINARY
+    }
+
     private final ObjectMapper om;
+    private final Format writeFormat;
 
     public CacheValueCodec(ObjectMapper om) {
+        this(om, Format.JSON);
+    }
+
+    public CacheValueCodec(ObjectMapper om, Format writeFormat) {
         this.om = om;
+        this.writeFormat = writeFormat;
     }
 
     public byte[] encode(CacheValue v) {
         try {
-            return om.writeValueAsBytes(v);
+            return writeFormat == Format.BINARY ? BinaryCacheValueFormat.encode(v) : om.writeValueAsBytes(v);
         } catch (Exception e) {
             throw new IllegalStateException("Failed to encode CacheValue", e);
         }
@@ -20,6 +36,9 @@ public class CacheValueCodec {
     public CacheValue decode(byte[] bytes) {
         if (bytes == null) return null;
         try {
+            if (BinaryCacheValueFormat.isBinary(bytes)) {
+                return BinaryCacheValueFormat.decode(bytes); // 未知版本同样返回 null
+            }
             return om.readValue(bytes, CacheValue.class);
         } catch (Exception e) {
             return null; // 由调用方决定是否 delete key 自愈
@@ -14,7 +14,7 @@ public class SkuCache {
 
     private final Cache<String, CacheValue> l1;
     private final RedisTemplate<String, byte[]> redis; // L2 存 bytes
-    private final CacheValueCodec codec;               // JSON encode/decode
+    private final CacheValueCodec codec;               // JSON / binary encode/decode
 
     private final CatalogCacheKeys keys;
     private final CatalogCacheProperties props;
@@ -0,0 +1,102 @@
+package com.lingxiao.catalog.infrastructure.cache;
+
+import com.lingxiao.catalog.domain.model.Sku;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * L2 CacheValue 编解码吞吐和 payload 大小，JSON vs 二进制。
+ * 每轮模拟一次 batchLookup：200 个 SKU 全部 encode / decode；先预热再计时，取多轮中最好的一轮。
+ * 断言二进制格式能无损往返、payload 不到 JSON 的一半、encode / decode 吞吐都高于 JSON。
+ * 不依赖 Redis，只测编解码本身。
+ */
+class CacheValueCodecBenchIT {
+
+    private static final Logger log = LoggerFactory.getLogger(CacheValueCodecBenchIT.class);
+
+    private static final int BATCH = 200;
+    private static final int WARMUP_ROUNDS = 2_000;
+    private static final int MEASURE_ROUNDS = 2_000;
+    private static final int TRIALS = 5;
+
+    private static volatile Object sink;
+
+    @Test
+    void binaryCodecIsSmallerAndFasterThanJson() {
+        List<CacheValue> values = sampleValues();
+        CacheValueCodec json = new CacheValueCodec(CacheValueCodecTest.OM, CacheValueCodec.Format.JSON);
+        CacheValueCodec binary = new CacheValueCodec(CacheValueCodecTest.OM, CacheValueCodec.Format.BINARY);
+
+        List<byte[]> jsonBytes = values.stream().map(json::encode).toList();
+        List<byte[]> binaryBytes = values.stream().map(binary::encode).toList();
+        double jsonSize = jsonBytes.stream().mapToInt(b -> b.length).average().orElseThrow();
+        double binarySize = binaryBytes.stream().mapToInt(b -> b.length).average().orElseThrow();
+
+        double jsonEncode = bestOpsPerSecond(() -> values.forEach(v -> sink = json.encode(v)));
+        double binaryEncode = bestOpsPerSecond(() -> values.forEach(v -> sink = binary.encode(v)));
+        double jsonDecode = bestOpsPerSecond(() -> jsonBytes.forEach(b -> sink = json.decode(b)));
+        double binaryDecode = bestOpsPerSecond(() -> binaryBytes.forEach(b -> sink = binary.decode(b)));
+
+        log.info("sku cache codec payload avg json={}B binary={}B ({}x)",
+                Math.round(jsonSize), Math.round(binarySize), String.format("%.1f", jsonSize / binarySize));
+        log.info("sku cache codec encode json={}/s binary={}/s decode json={}/s binary={}/s",
+                Math.round(jsonEncode), Math.round(binaryEncode), Math.round(jsonDecode), Math.round(binaryDecode));
+
+        for (int i = 0; i < values.size(); i++) {
+            assertThat(binary.decode(binaryBytes.get(i))).isEqualTo(values.get(i));
+        }
+        assertThat(binarySize * 2).isLessThan(jsonSize);
+        assertThat(binaryEncode).isGreaterThan(jsonEncode);
+        assertThat(binaryDecode).isGreaterThan(jsonDecode);
+    }
+
+    /**
+     * @return 每秒处理的 CacheValue 数
+     */
+    private static double bestOpsPerSecond(Runnable batch) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            batch.run();
+        }
+        double best = 0;
+        for (int t = 0; t < TRIALS; t++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < MEASURE_ROUNDS; i++) {
+                batch.run();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            best = Math.max(best, (double) MEASURE_ROUNDS * BATCH / seconds);
+        }
+        return best;
+    }
+
+    private static List<CacheValue> sampleValues() {
+        List<CacheValue> values = new ArrayList<>(BATCH);
+        Instant base = Instant.parse("2025-11-11T00:00:00Z");
+        for (int i = 0; i < BATCH; i++) {
+            if (i % 20 == 0) {
+                values.add(new CacheValue(null, true));
+                continue;
+            }
+            values.add(new CacheValue(new Sku(
+                    UUID.randomUUID().toString(),
+                    UUID.randomUUID().toString(),
+                    "Flash sale item " + i + " 限时秒杀",
+                    "ACTIVE",
+                    "brand-" + (i % 7),
+                    1_000L + i * 37L,
+                    "CNY",
+                    base.plusMillis(i * 1_234L),
+                    base.plusSeconds(i).plusNanos(i * 1_000L)
+            ), false));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,51 @@
+package com.lingxiao.catalog.infrastructure.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.lingxiao.catalog.domain.model.Sku;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CacheValueCodecTest {
+
+    static final ObjectMapper OM = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+
+    private final CacheValueCodec json = new CacheValueCodec(OM, CacheValueCodec.Format.JSON);
+    private final CacheValueCodec binary = new CacheValueCodec(OM, CacheValueCodec.Format.BINARY);
+
+    @Test
+    void binaryRoundTripsSkusNegativesAndNulls() {
+        Sku full = new Sku("sku-1", "p-1", "标题 ✓", "ACTIVE", "brand", -1299, "CNY",
+                Instant.parse("2025-11-11T00:00:00.123456789Z"), Instant.parse("1969-12-31T23:59:59Z"));
+        Sku sparse = new Sku("sku-2", null, "", null, null, Long.MAX_VALUE, null, null, null);
+
+        for (CacheValue v : new CacheValue[]{new CacheValue(full, false), new CacheValue(sparse, false), new CacheValue(null, true)}) {
+            byte[] bytes = binary.encode(v);
+            assertThat(bytes[0]).isEqualTo(BinaryCacheValueFormat.VERSION_1);
+            assertThat(binary.decode(bytes)).isEqualTo(v);
+            assertThat(json.decode(bytes)).isEqualTo(v);
+        }
+        assertThat(binary.encode(new CacheValue(full, false)).length)
+                .isLessThan(json.encode(new CacheValue(full, false)).length / 2);
+    }
+
+    @Test
+    void readsExistingJsonEntriesAndRejectsUnknownOrBrokenBinary() {
+        CacheValue v = new CacheValue(new Sku("sku-1", "p-1", "t", "ACTIVE", "b", 100, "USD",
+                Instant.parse("2025-01-01T00:00:00Z"), Instant.parse("2025-01-02T00:00:00Z")), false);
+        assertThat(binary.decode(json.encode(v))).isEqualTo(v);
+
+        byte[] encoded = binary.encode(v);
+        byte[] futureVersion = encoded.clone();
+        futureVersion[0] = 2;
+        assertThat(binary.decode(futureVersion)).isNull();
+        assertThat(binary.decode(Arrays.copyOf(encoded, encoded.length - 1))).isNull();
+    }
+}
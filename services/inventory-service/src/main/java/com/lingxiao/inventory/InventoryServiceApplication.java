@@ -1,5 +1,6 @@
 package com.lingxiao.inventory;
 
+import com.lingxiao.inventory.config.FlashSaleActivityProperties;
 import com.lingxiao.inventory.config.FlashSaleOutboxProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
@@ -8,7 +9,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableScheduling
-@EnableConfigurationProperties(FlashSaleOutboxProperties.class)
+@EnableConfigurationProperties({FlashSaleOutboxProperties.class, FlashSaleActivityProperties.class})
 public class InventoryServiceApplication {
     public static void main(String[] args) {
         SpringApplication.run(InventoryServiceApplication.class, args);
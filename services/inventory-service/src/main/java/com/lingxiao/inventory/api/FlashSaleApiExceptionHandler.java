@@ -0,0 +1,23 @@
+package com.lingxiao.inventory.api;
+
+import com.lingxiao.inventory.infrastructure.redis.UnknownActivityException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.RestControllerAdvice;
+
+import java.util.Map;
+import java.util.Objects;
+
+@RestControllerAdvice(assignableTypes = FlashSaleController.class)
+public class FlashSaleApiExceptionHandler {
+
+    /**
+     * 请求里的 activityId 不是当前生效的活动，属于调用方错误；其它 IllegalArgumentException 仍按服务端错误处理。
+     */
+    @ExceptionHandler(UnknownActivityException.class)
+    public ResponseEntity<Map<String, String>> handleUnknownActivity(UnknownActivityException exception) {
+        String message = Objects.requireNonNullElse(exception.getMessage(), "Unknown flash sale activity");
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(Map.of("message", message));
+    }
+}
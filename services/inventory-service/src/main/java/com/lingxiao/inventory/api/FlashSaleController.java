@@ -4,8 +4,12 @@ import com.lingxiao.inventory.api.dto.FlashSaleReservationRequest;
 import com.lingxiao.inventory.api.dto.FlashSaleReservationResponse;
 import com.lingxiao.inventory.application.FlashSaleReservationResult;
 import com.lingxiao.inventory.application.FlashSaleReservationService;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.SoldOutRegistry;
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.annotation.Validated;
 import org.springframework.web.bind.annotation.PostMapping;
@@ -20,9 +24,18 @@ import org.springframework.web.bind.annotation.RestController;
 public class FlashSaleController {
 
     private final FlashSaleReservationService reservationService;
+    private final SoldOutRegistry soldOutRegistry;
+    private final FlashSaleActivityRegistry activities;
+    private final boolean fusedReserve;
 
-    public FlashSaleController(FlashSaleReservationService reservationService) {
+    public FlashSaleController(FlashSaleReservationService reservationService,
+                               SoldOutRegistry soldOutRegistry,
+                               FlashSaleActivityRegistry activities,
+                               @Value("${inventory.flashsale.fused-reserve:false}") boolean fusedReserve) {
         this.reservationService = reservationService;
+        this.soldOutRegistry = soldOutRegistry;
+        this.activities = activities;
+        this.fusedReserve = fusedReserve;
     }
 
     @PostMapping("/reservations")
@@ -30,8 +43,20 @@ public class FlashSaleController {
             @RequestHeader("Idempotency-Key") @NotBlank String idempotencyKey,
             @RequestHeader("X-User-Id") @NotBlank String userId,
             @Valid @RequestBody FlashSaleReservationRequest request) {
-        String pointer = reservationService.reserve(idempotencyKey.trim(), userId.trim(), request.skuId(), request.qtyOrDefault());
-        FlashSaleReservationResult result = FlashSaleReservationResult.fromPointer(pointer);
+        // 本 pod 已知售罄：在幂等 Lua 之前直接返回，不碰 Redis。
+        // 代价：已 RESERVED 的请求若在标记期内用同一幂等键重试，会看到 SOLD_OUT 而不是重放结果（订单本身不受影响）。
+        FlashSaleReservationResult result;
+        FlashSaleKeyGenerator activity = activities.activity(request.activityId());
+        String activityId = activity.activityId();
+        if (soldOutRegistry.isSoldOut(activity.soldOutKey(request.skuId()))) {
+            result = new FlashSaleReservationResult(
+                    FlashSaleReservationResult.Status.SOLD_OUT, null, null, request.skuId(), request.qtyOrDefault());
+        } else {
+            String pointer = fusedReserve
+                    ? reservationService.reserveFused(idempotencyKey.trim(), userId.trim(), request.skuId(), request.qtyOrDefault(), activityId)
+                    : reservationService.reserve(idempotencyKey.trim(), userId.trim(), request.skuId(), request.qtyOrDefault(), activityId);
+            result = FlashSaleReservationResult.fromPointer(pointer);
+        }
         FlashSaleReservationResponse response = new FlashSaleReservationResponse(
                 result.status().name(),
                 result.orderId(),
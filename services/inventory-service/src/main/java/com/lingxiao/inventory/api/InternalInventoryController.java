@@ -1,6 +1,7 @@
 package com.lingxiao.inventory.api;
 
 import com.lingxiao.inventory.api.dto.CommitRequest;
+import com.lingxiao.inventory.api.dto.PreheatRequest;
 import com.lingxiao.inventory.api.dto.ReleaseRequest;
 import com.lingxiao.inventory.api.dto.ReserveRequest;
 import com.lingxiao.inventory.api.dto.ReserveResponse;
@@ -9,14 +10,17 @@ import com.lingxiao.inventory.api.dto.AddOnHandRequest;
 import com.lingxiao.inventory.api.dto.SetOnHandRequest;
 import com.lingxiao.inventory.application.InventoryAppService;
 import com.lingxiao.inventory.application.InventoryAdminService;
+import com.lingxiao.inventory.application.FlashSalePreheatService;
 import jakarta.validation.Valid;
 import org.springframework.context.annotation.Profile;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 
 @RestController
@@ -26,11 +30,14 @@ public class InternalInventoryController {
 
     private final InventoryAppService appService;
     private final InventoryAdminService adminService;
+    private final FlashSalePreheatService preheatService;
 
     public InternalInventoryController(InventoryAppService appService,
-                                       InventoryAdminService adminService) {
+                                       InventoryAdminService adminService,
+                                       FlashSalePreheatService preheatService) {
         this.appService = appService;
         this.adminService = adminService;
+        this.preheatService = preheatService;
     }
 
     @PostMapping("/reserve")
@@ -54,21 +61,39 @@ public class InternalInventoryController {
     }
 
     @PostMapping("/seed")
-    public ResponseEntity<Void> seed(@Valid @RequestBody SeedRequest request) {
-        adminService.seed(request.skuId(), request.onHand());
+    public ResponseEntity<Void> seed(@Valid @RequestBody SeedRequest request,
+                                     @RequestParam(value = "activityId", required = false) String activityId) {
+        adminService.seed(request.skuId(), request.onHand(), activityId);
         return ResponseEntity.ok().build();
     }
 
+    /**
+     * Bulk seed + price preheat; runs in the background, poll {@code GET /preheat/{jobId}} for progress.
+     */
+    @PostMapping("/preheat")
+    public ResponseEntity<FlashSalePreheatService.PreheatStatus> preheat(@Valid @RequestBody PreheatRequest request,
+                                                                       @RequestParam(value = "activityId", required = false) String activityId) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(preheatService.start(request.items(), activityId));
+    }
+
+    @GetMapping("/preheat/{jobId}")
+    public ResponseEntity<FlashSalePreheatService.PreheatStatus> preheatStatus(@PathVariable("jobId") String jobId) {
+        FlashSalePreheatService.PreheatStatus status = preheatService.status(jobId);
+        return status == null ? ResponseEntity.notFound().build() : ResponseEntity.ok(status);
+    }
+
     @PostMapping("/onhand/add")
-    public ResponseEntity<Void> addOnHand(@Valid @RequestBody AddOnHandRequest request) {
-        adminService.addOnHand(request.skuId(), request.delta());
+    public ResponseEntity<Void> addOnHand(@Valid @RequestBody AddOnHandRequest request,
+                                          @RequestParam(value = "activityId", required = false) String activityId) {
+        adminService.addOnHand(request.skuId(), request.delta(), activityId);
         return ResponseEntity.ok().build();
     }
 
     @PostMapping("/onhand/{skuId}/set")
     public ResponseEntity<Void> setOnHand(@PathVariable String skuId,
-                                          @Valid @RequestBody SetOnHandRequest request) {
-        adminService.setOnHand(skuId, request.onHand());
+                                          @Valid @RequestBody SetOnHandRequest request,
+                                          @RequestParam(value = "activityId", required = false) String activityId) {
+        adminService.setOnHand(skuId, request.onHand(), activityId);
         return ResponseEntity.ok().build();
     }
 }
@@ -5,8 +5,13 @@ import jakarta.validation.constraints.NotBlank;
 
 public record FlashSaleReservationRequest(
         @NotBlank String skuId,
-        @Min(1) Long qty
+        @Min(1) Long qty,
+        String activityId
 ) {
+    public FlashSaleReservationRequest(String skuId, Long qty) {
+        this(skuId, qty, null);
+    }
+
     public long qtyOrDefault() {
         return qty == null ? 1L : qty;
     }
@@ -0,0 +1,12 @@
+package com.lingxiao.inventory.api.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+public record PreheatRequest(
+        @NotEmpty @Size(max = 50000) List<@Valid SeedRequest> items
+) {
+}
@@ -1,51 +1,74 @@
 package com.lingxiao.inventory.application;
 
+import com.lingxiao.common.idempotency.IdempotencyInProgressException;
+import com.lingxiao.common.idempotency.IdempotencyPayloadMismatchException;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
 import com.lingxiao.inventory.infrastructure.redis.FlashSaleRedisRepository;
 import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.SoldOutRegistry;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
 import java.util.UUID;
 
 @Service
 public class FlashSaleAppService {
 
+    // appended by flash_sale_reserve_idem.lua to a fresh SOLD_OUT reply when the home bucket is at 0
+    private static final String STOCK_EMPTY_FLAG = "\nEMPTY";
+
     private final FlashSaleRedisRepository redisRepo;
-    private final FlashSaleKeyGenerator keyGenerator;
+    private final FlashSaleActivityRegistry activities;
+    private final SoldOutRegistry soldOutRegistry;
     private final Duration orderTtl;
     private final Duration paymentTimeout;
     private final Duration orderKeyTtl;
     private final Duration snapshotTtl;
     private final Duration buyersTtl;
+    private final Duration idemProcessingTtl;
+    private final Duration idemDoneTtl;
 
     public FlashSaleAppService(FlashSaleRedisRepository redisRepo,
-                               FlashSaleKeyGenerator keyGenerator,
+                               FlashSaleActivityRegistry activities,
+                               SoldOutRegistry soldOutRegistry,
                                @Value("${inventory.reservation.ttl:PT15M}") Duration orderTtl,
                                @Value("${inventory.flashsale.payment-timeout:PT5M}") Duration paymentTimeout,
                                @Value("${inventory.flashsale.order-key-ttl:PT24H}") Duration orderKeyTtl,
                                @Value("${inventory.flashsale.snapshot-ttl:PT17M}") Duration snapshotTtl,
-                               @Value("${inventory.flashsale.buyers-ttl:P30D}") Duration buyersTtl) {
+                               @Value("${inventory.flashsale.buyers-ttl:P30D}") Duration buyersTtl,
+                               @Value("${inventory.flashsale.idempotency-processing-ttl:PT90S}") Duration idemProcessingTtl,
+                               @Value("${inventory.flashsale.idempotency-ttl:PT2H}") Duration idemDoneTtl) {
         this.redisRepo = redisRepo;
-        this.keyGenerator = keyGenerator;
+        this.activities = activities;
+        this.soldOutRegistry = soldOutRegistry;
         this.orderTtl = orderTtl;
         this.paymentTimeout = paymentTimeout;
         this.orderKeyTtl = orderKeyTtl;
         this.snapshotTtl = snapshotTtl;
         this.buyersTtl = buyersTtl;
+        this.idemProcessingTtl = idemProcessingTtl;
+        this.idemDoneTtl = idemDoneTtl;
     }
 
     public FlashSaleResult reserve(String orderId,
                                    String skuId,
                                    String userId,
                                    long qty) {
-        String stockKey = keyGenerator.stockKey(skuId);
-        String buyersKey = keyGenerator.buyersKey(skuId);
-        String orderKey = keyGenerator.orderKey(orderId, skuId);
-        String streamKey = keyGenerator.streamKey(skuId);
+        // the orderId carries the activity, so every key below lands in that activity's layout
+        FlashSaleKeyGenerator keyGenerator = activities.forOrderId(orderId);
+        int bucket = keyGenerator.bucketFromOrderId(orderId);
+        String stockKey = keyGenerator.stockKey(skuId, bucket);
+        String buyersKey = keyGenerator.buyersKey(skuId, bucket);
+        String orderKey = keyGenerator.orderKey(orderId);
+        String streamKey = keyGenerator.streamKey(skuId, bucket);
         String snapshotKey = keyGenerator.snapshotKey(orderId);
-        String priceKey = keyGenerator.priceKey(skuId);
+        String priceKey = keyGenerator.priceKey(skuId, bucket);
 
         String eventId = UUID.randomUUID().toString();
         Instant occurredAt = Instant.now();
@@ -57,12 +80,42 @@ public class FlashSaleAppService {
                 userId, qty, Duration.ofSeconds(orderKeyTtlSeconds),
                 snapshotTtl, buyersTtl,
                 eventId, orderId, skuId, occurredAt.toString(),
-                expireAt.toString()
+                expireAt.toString(), false
         );
+        // 0 = home bucket empty, -2 = home bucket holds less than qty; only a bucket at 0 counts toward sold-out
+        boolean stockEmpty = res == 0;
+        if ((res == 0 || res == -2) && keyGenerator.bucketCount() > 1) {
+            // home bucket short: borrow qty from a neighbour that still has enough, then record
+            // the reservation (buyer, order key, snapshot, stream) in the home bucket.
+            Lenders lenders = lenders(keyGenerator, skuId, bucket, qty);
+            stockEmpty = stockEmpty && lenders.othersEmpty();
+            for (int lender : lenders.buckets()) {
+                if (res != 0 && res != -2) {
+                    break;
+                }
+                String lenderStockKey = keyGenerator.stockKey(skuId, lender);
+                if (!redisRepo.borrow(keyGenerator.loanIndexKey(), lenderStockKey, orderId, qty)) {
+                    continue;
+                }
+                res = redisRepo.execute(
+                        stockKey, buyersKey, orderKey, streamKey, snapshotKey, priceKey,
+                        userId, qty, Duration.ofSeconds(orderKeyTtlSeconds),
+                        snapshotTtl, buyersTtl,
+                        eventId, orderId, skuId, occurredAt.toString(),
+                        expireAt.toString(), true
+                );
+                redisRepo.settleLoan(lenderStockKey, orderId, res != 1);
+            }
+        }
         FlashSaleResult result;
         if (res == 1) {
             result = new FlashSaleResult(true, false, false, expireAt);
-        } else if (res == 0) {
+        } else if (res == 0 || res == -2) {
+            if (stockEmpty) {
+                // every bucket at 0: later requests for this SKU stop at the controller.
+                // A qty larger than what is left is rejected without marking, smaller requests can still succeed.
+                soldOutRegistry.markSoldOut(keyGenerator.soldOutKey(skuId));
+            }
             result = new FlashSaleResult(false, false, true, expireAt);
         } else if (res == -1) {
             result = new FlashSaleResult(false, true, false, expireAt);
@@ -73,11 +126,155 @@ public class FlashSaleAppService {
         return result;
     }
 
+    /**
+     * Fused path: API idempotency + reserve + done pointer in a single Lua call (plus the lender
+     * lookup and borrow/settle round trips when the home bucket is dry). Same record key and
+     * pointer/DONE layout as the @Idempotent aspect, so either path replays the other.
+     *
+     * @param idemKey idempotency store key; must carry the buyer's home bucket tag
+     *                ({@link FlashSaleKeyGenerator#reserveIdemTag})
+     * @return pointer as in {@link FlashSaleReservationResult#toPointer()}
+     */
+    public String reserveIdempotent(String idemKey,
+                                    String orderId,
+                                    String skuId,
+                                    String userId,
+                                    long qty) {
+        FlashSaleKeyGenerator keyGenerator = activities.forOrderId(orderId);
+        int bucket = keyGenerator.bucketFromOrderId(orderId);
+        String payloadB64 = Base64.getEncoder().encodeToString((skuId + "|" + qty).getBytes(StandardCharsets.UTF_8));
+        ReserveCall call = new ReserveCall(keyGenerator, idemKey, orderId, skuId, userId, qty, bucket,
+                UUID.randomUUID().toString(), payloadB64);
+
+        String raw = executeIdempotent(call, false, keyGenerator.bucketCount() > 1);
+        boolean othersEmpty = true;
+        if ("DEFER".equals(raw)) {
+            // home bucket short; the idempotency key is held as PROCESSING under our token
+            raw = null;
+            Lenders lenders = lenders(keyGenerator, skuId, bucket, qty);
+            othersEmpty = lenders.othersEmpty();
+            for (int lender : lenders.buckets()) {
+                if (raw != null) {
+                    break;
+                }
+                String lenderStockKey = keyGenerator.stockKey(skuId, lender);
+                if (!redisRepo.borrow(keyGenerator.loanIndexKey(), lenderStockKey, orderId, qty)) {
+                    continue;
+                }
+                raw = executeIdempotent(call, true, false);
+                redisRepo.settleLoan(lenderStockKey, orderId, !reservedByThisCall(raw, orderId));
+            }
+            if (raw == null) {
+                // no bucket could cover qty: run once more on the home bucket to record SOLD_OUT
+                // (or reserve, if stock came back in the meantime)
+                raw = executeIdempotent(call, false, false);
+            }
+        }
+        return donePointer(call, raw, othersEmpty);
+    }
+
+    /**
+     * Neighbour buckets holding at least qty, in probe order. One MGET instead of a borrow attempt
+     * per bucket, so a sold-out SKU costs a single extra round trip whatever the bucket count.
+     */
+    private Lenders lenders(FlashSaleKeyGenerator keyGenerator, String skuId, int bucket, long qty) {
+        int buckets = keyGenerator.bucketCount();
+        List<String> stockKeys = new ArrayList<>(buckets - 1);
+        for (int i = 1; i < buckets; i++) {
+            stockKeys.add(keyGenerator.stockKey(skuId, (bucket + i) % buckets));
+        }
+        List<Long> stocks = redisRepo.stocks(stockKeys);
+        List<Integer> lenders = new ArrayList<>();
+        boolean othersEmpty = true;
+        for (int i = 0; i < stocks.size(); i++) {
+            long stock = stocks.get(i);
+            othersEmpty &= stock <= 0;
+            if (stock >= qty) {
+                lenders.add((bucket + i + 1) % buckets);
+            }
+        }
+        return new Lenders(lenders, othersEmpty);
+    }
+
+    private record Lenders(List<Integer> buckets, boolean othersEmpty) {}
+
+    private String executeIdempotent(ReserveCall call, boolean stockPreclaimed, boolean deferSoldOut) {
+        Instant occurredAt = Instant.now();
+        Instant expireAt = occurredAt.plus(paymentTimeout);
+        long orderKeyTtlSeconds = Math.max(orderTtl.toSeconds(), orderKeyTtl.toSeconds());
+        FlashSaleKeyGenerator keyGenerator = call.keys();
+        return redisRepo.executeIdempotent(
+                call.idemKey(),
+                keyGenerator.stockKey(call.skuId(), call.bucket()),
+                keyGenerator.buyersKey(call.skuId(), call.bucket()),
+                keyGenerator.orderKey(call.orderId()),
+                keyGenerator.streamKey(call.skuId(), call.bucket()),
+                keyGenerator.snapshotKey(call.orderId()),
+                keyGenerator.priceKey(call.skuId(), call.bucket()),
+                call.userId(), call.qty(), Duration.ofSeconds(orderKeyTtlSeconds),
+                snapshotTtl, buyersTtl,
+                UUID.randomUUID().toString(), call.orderId(), call.skuId(), occurredAt.toString(),
+                expireAt.toString(), stockPreclaimed,
+                call.token(), call.payloadB64(), idemProcessingTtl, idemDoneTtl, deferSoldOut
+        );
+    }
+
+    private static boolean reservedByThisCall(String raw, String orderId) {
+        return raw != null && raw.startsWith("OK:")
+                && raw.substring(raw.indexOf('\n') + 1).startsWith("RESERVED|" + orderId + "|");
+    }
+
+    /**
+     * @param othersEmpty every other bucket was at 0 (always true in single-bucket mode)
+     */
+    private String donePointer(ReserveCall call, String raw, boolean othersEmpty) {
+        if (raw == null) {
+            // nothing stored; same outcome as the aspect path's -99
+            return new FlashSaleReservationResult(FlashSaleReservationResult.Status.FAILED,
+                    null, null, call.skuId(), call.qty()).toPointer();
+        }
+        boolean fresh = raw.startsWith("OK:");
+        if (!fresh && !raw.startsWith("DONE:")) {
+            // PROCESSING:<token>:<payloadB64>, held by a concurrent request with the same key
+            String afterPrefix = raw.startsWith("PROCESSING:") ? raw.substring("PROCESSING:".length()) : "";
+            int idx = afterPrefix.indexOf(':');
+            if (idx >= 0 && !afterPrefix.substring(idx + 1).equals(call.payloadB64())) {
+                throw new IdempotencyPayloadMismatchException("Idempotent key payload mismatch (processing) key=" + call.idemKey());
+            }
+            throw new IdempotencyInProgressException("Idempotent key processing key=" + call.idemKey());
+        }
+        String body = raw.substring(raw.indexOf(':') + 1);
+        int idx = body.indexOf('\n');
+        String storedPayload = idx >= 0 ? body.substring(0, idx) : "";
+        String pointer = idx >= 0 ? body.substring(idx + 1) : body;
+        if (!storedPayload.equals(call.payloadB64())) {
+            throw new IdempotencyPayloadMismatchException("Idempotent key payload mismatch key=" + call.idemKey());
+        }
+        // only this call's OK reply carries the flag; the stored DONE record is the bare pointer
+        boolean stockEmpty = pointer.endsWith(STOCK_EMPTY_FLAG);
+        if (stockEmpty) {
+            pointer = pointer.substring(0, pointer.length() - STOCK_EMPTY_FLAG.length());
+        }
+        if (fresh && stockEmpty && othersEmpty) {
+            soldOutRegistry.markSoldOut(call.keys().soldOutKey(call.skuId()));
+        }
+        return pointer;
+    }
+
+    private record ReserveCall(FlashSaleKeyGenerator keys, String idemKey, String orderId, String skuId, String userId, long qty, int bucket,
+                               String token, String payloadB64) {}
+
     public long releaseRedisReservation(String orderId, String skuId, long qty) {
-        String stockKey = keyGenerator.stockKey(skuId);
-        String buyersKey = keyGenerator.buyersKey(skuId);
-        String orderKey = keyGenerator.orderKey(orderId, skuId);
-        return redisRepo.release(stockKey, buyersKey, orderKey, qty);
+        FlashSaleKeyGenerator keyGenerator = activities.forOrderId(orderId);
+        int bucket = keyGenerator.bucketFromOrderId(orderId);
+        String stockKey = keyGenerator.stockKey(skuId, bucket);
+        String buyersKey = keyGenerator.buyersKey(skuId, bucket);
+        String orderKey = keyGenerator.orderKey(orderId);
+        long removed = redisRepo.release(stockKey, buyersKey, orderKey, qty);
+        if (removed > 0) {
+            soldOutRegistry.clear(keyGenerator.soldOutKey(skuId));
+        }
+        return removed;
     }
 
     public record FlashSaleResult(boolean success, boolean duplicate, boolean insufficient, Instant expireAt) {}
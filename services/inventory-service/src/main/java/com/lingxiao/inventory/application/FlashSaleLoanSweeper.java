@@ -0,0 +1,77 @@
+package com.lingxiao.inventory.application;
+
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleRedisRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * 分桶模式下邻居 bucket 借出的库存兜底结算。
+ *
+ * 借库存（flash_sale_borrow.lua）与 home bucket 预占在不同 slot，无法放进同一个脚本；借出时在出借 bucket
+ * 上原子地记一笔 loan，预占后由调用方结算。进程在两步之间崩溃时 loan 会留下，这里把超过 grace 的 loan
+ * 按 home bucket 是否已有该订单结算：有则保留库存，无则还给出借 bucket。结算脚本以 HDEL 为准，
+ * 多 pod 同时跑或与调用方竞态都只会生效一次。
+ */
+@Component
+public class FlashSaleLoanSweeper {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleLoanSweeper.class);
+
+    private final FlashSaleRedisRepository redisRepo;
+    private final FlashSaleActivityRegistry activities;
+    private final Duration grace;
+
+    public FlashSaleLoanSweeper(FlashSaleRedisRepository redisRepo,
+                                FlashSaleActivityRegistry activities,
+                                @Value("${inventory.flashsale.loan-sweep.grace:PT1M}") Duration grace) {
+        this.redisRepo = redisRepo;
+        this.activities = activities;
+        this.grace = grace;
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.flashsale.loan-sweep.interval-ms:30000}")
+    public void sweep() {
+        try {
+            sweep(System.currentTimeMillis());
+        } catch (Exception e) {
+            log.warn("Flash sale loan sweep failed", e);
+        }
+    }
+
+    /**
+     * @return number of loans this pass settled
+     */
+    int sweep(long nowMillis) {
+        int settled = 0;
+        for (FlashSaleKeyGenerator activity : activities.activities()) {
+            if (activity.bucketCount() == 1) {
+                continue;
+            }
+            for (String lenderStockKey : redisRepo.lenders(activity.loanIndexKey())) {
+                for (Map.Entry<String, String> loan : redisRepo.loans(lenderStockKey).entrySet()) {
+                    String orderId = loan.getKey();
+                    String value = loan.getValue();
+                    long borrowedAt = Long.parseLong(value.substring(value.indexOf(':') + 1));
+                    if (nowMillis - borrowedAt < grace.toMillis()) {
+                        continue;
+                    }
+                    boolean reserved = redisRepo.reservationRecorded(activity.orderKey(orderId), activity.snapshotKey(orderId));
+                    if (redisRepo.settleLoan(lenderStockKey, orderId, !reserved)) {
+                        settled++;
+                        log.warn("Settled abandoned stock loan orderId={} lender={} loan={} returned={}",
+                                orderId, lenderStockKey, value, !reserved);
+                    }
+                }
+            }
+        }
+        return settled;
+    }
+}
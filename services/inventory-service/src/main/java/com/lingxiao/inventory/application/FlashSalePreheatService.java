@@ -0,0 +1,224 @@
+package com.lingxiao.inventory.application;
+
+import com.lingxiao.inventory.api.dto.SeedRequest;
+import com.lingxiao.inventory.infrastructure.db.spanner.InventoryRepository;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.SoldOutRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 活动批量预热：成千上万个 SKU 一次提交，后台按 chunk 并发执行，调用方轮询进度。
+ *
+ * 每个 chunk（默认 200，即 catalog /api/v1/skus/batch 的上限）：
+ * 一次 catalog 批量取价 → 一个 Spanner 事务写 Inventory → 按 hash tag 分组，每组一个 Redis pipeline 写库存与价格。
+ * 没有价格的 SKU 不落库（否则 reserve Lua 会返回 -3），记入 failed。
+ * 与单个 seed 相同，预热会重置库存，活动进行中不要调用。
+ */
+@Service
+public class FlashSalePreheatService {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSalePreheatService.class);
+    private static final int MAX_REPORTED_FAILURES = 100;
+    private static final int MAX_RETAINED_JOBS = 20;
+
+    private final InventoryRepository repository;
+    private final StringRedisTemplate redisTemplate;
+    private final FlashSaleActivityRegistry activities;
+    private final FlashSalePricingService pricingService;
+    private final SoldOutRegistry soldOutRegistry;
+    private final int chunkSize;
+    private final ExecutorService executor;
+
+    // jobId -> job，只保留最近 MAX_RETAINED_JOBS 个
+    private final Map<String, Job> jobs = Collections.synchronizedMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Job> eldest) {
+            return size() > MAX_RETAINED_JOBS;
+        }
+    });
+
+    public FlashSalePreheatService(InventoryRepository repository,
+                                   StringRedisTemplate redisTemplate,
+                                   FlashSaleActivityRegistry activities,
+                                   FlashSalePricingService pricingService,
+                                   SoldOutRegistry soldOutRegistry,
+                                   @Value("${inventory.flashsale.preheat.chunk-size:200}") int chunkSize,
+                                   @Value("${inventory.flashsale.preheat.parallelism:4}") int parallelism) {
+        this.repository = repository;
+        this.redisTemplate = redisTemplate;
+        this.activities = activities;
+        this.pricingService = pricingService;
+        this.soldOutRegistry = soldOutRegistry;
+        this.chunkSize = Math.max(1, chunkSize);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread t = new Thread(r, "fs-preheat");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * @param activityId blank = default activity
+     */
+    public PreheatStatus start(List<SeedRequest> items, String activityId) {
+        FlashSaleKeyGenerator keyGenerator = activities.activity(activityId);
+        Map<String, Long> onHandBySku = new LinkedHashMap<>();
+        for (SeedRequest item : items) {
+            onHandBySku.put(item.skuId(), item.onHand());
+        }
+        Job job = new Job(UUID.randomUUID().toString(), keyGenerator, onHandBySku.size());
+        jobs.put(job.id, job);
+
+        List<String> skuIds = new ArrayList<>(onHandBySku.keySet());
+        List<CompletableFuture<Void>> chunks = new ArrayList<>();
+        for (int from = 0; from < skuIds.size(); from += chunkSize) {
+            List<String> chunk = skuIds.subList(from, Math.min(skuIds.size(), from + chunkSize));
+            chunks.add(CompletableFuture.runAsync(() -> preheatChunk(job, chunk, onHandBySku), executor));
+        }
+        CompletableFuture.allOf(chunks.toArray(new CompletableFuture[0]))
+                .whenComplete((ignored, error) -> {
+                    job.finishedAt = Instant.now();
+                    log.info("Preheat finished jobId={} total={} done={} failed={} elapsedMs={}",
+                            job.id, job.total, job.done.get(), job.failedCount.get(),
+                            job.finishedAt.toEpochMilli() - job.startedAt.toEpochMilli());
+                });
+        return job.status();
+    }
+
+    public PreheatStatus status(String jobId) {
+        Job job = jobs.get(jobId);
+        return job == null ? null : job.status();
+    }
+
+    void preheatChunk(Job job, List<String> skuIds, Map<String, Long> onHandBySku) {
+        try {
+            Map<String, FlashSalePricingService.Price> prices = pricingService.fetchPrices(skuIds);
+            Map<String, Long> priced = new LinkedHashMap<>();
+            for (String skuId : skuIds) {
+                if (prices.containsKey(skuId)) {
+                    priced.put(skuId, onHandBySku.get(skuId));
+                } else {
+                    job.fail(skuId);
+                }
+            }
+            if (priced.isEmpty()) {
+                return;
+            }
+            repository.seedBatch(priced);
+            // seed 把 Reserved 与计数分片清零，available 就是 onHand，无需回读
+            writeRedis(job.keys, priced, prices);
+            soldOutRegistry.clear(priced.keySet().stream().map(job.keys::soldOutKey).toList());
+            job.done.addAndGet(priced.size());
+        } catch (Exception e) {
+            log.warn("Preheat chunk failed jobId={} size={}", job.id, skuIds.size(), e);
+            skuIds.forEach(job::fail);
+        }
+    }
+
+    /**
+     * 一个 pipeline 只含同一 shard tag（同一 slot）的 key；分桶模式下同一 SKU 的各 bucket 落在不同组。
+     */
+    private void writeRedis(FlashSaleKeyGenerator keyGenerator,
+                            Map<String, Long> onHandBySku, Map<String, FlashSalePricingService.Price> prices) {
+        Map<String, Map<String, String>> stockByTag = new LinkedHashMap<>();
+        Map<String, Map<String, Map<String, String>>> priceByTag = new LinkedHashMap<>();
+        int buckets = keyGenerator.bucketCount();
+        onHandBySku.forEach((skuId, onHand) -> {
+            FlashSalePricingService.Price price = prices.get(skuId);
+            Map<String, String> priceHash = Map.of(
+                    "priceCents", Long.toString(price.priceCents()),
+                    "currency", price.currency());
+            for (int bucket = 0; bucket < buckets; bucket++) {
+                String tag = keyGenerator.bucketTag(skuId, bucket);
+                stockByTag.computeIfAbsent(tag, t -> new LinkedHashMap<>())
+                        .put(keyGenerator.stockKey(skuId, bucket),
+                                Long.toString(InventoryAdminService.bucketShare(onHand, buckets, bucket)));
+                priceByTag.computeIfAbsent(tag, t -> new LinkedHashMap<>())
+                        .put(keyGenerator.priceKey(skuId, bucket), priceHash);
+            }
+        });
+        for (String tag : stockByTag.keySet()) {
+            Map<String, String> stocks = stockByTag.get(tag);
+            Map<String, Map<String, String>> priceHashes = priceByTag.get(tag);
+            redisTemplate.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    stocks.forEach((key, value) -> ops.opsForValue().set(key, value));
+                    priceHashes.forEach((key, hash) -> ops.opsForHash().putAll(key, hash));
+                    return null;
+                }
+            });
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    static final class Job {
+        final String id;
+        final FlashSaleKeyGenerator keys;
+        final int total;
+        final Instant startedAt = Instant.now();
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failedCount = new AtomicInteger();
+        final List<String> failed = Collections.synchronizedList(new ArrayList<>());
+        volatile Instant finishedAt;
+
+        Job(String id, FlashSaleKeyGenerator keys, int total) {
+            this.id = id;
+            this.keys = keys;
+            this.total = total;
+        }
+
+        void fail(String skuId) {
+            if (failedCount.incrementAndGet() <= MAX_REPORTED_FAILURES) {
+                failed.add(skuId);
+            }
+        }
+
+        PreheatStatus status() {
+            List<String> failedSnapshot;
+            synchronized (failed) {
+                failedSnapshot = List.copyOf(failed);
+            }
+            return new PreheatStatus(id, finishedAt != null, total, done.get(), failedCount.get(),
+                    failedSnapshot, startedAt, finishedAt);
+        }
+    }
+
+    /**
+     * @param failedSkuIds 最多前 100 个失败的 SKU（无价格或所在 chunk 写入失败）
+     */
+    public record PreheatStatus(String jobId,
+                                boolean finished,
+                                int total,
+                                int done,
+                                int failed,
+                                List<String> failedSkuIds,
+                                Instant startedAt,
+                                Instant finishedAt) {}
+}
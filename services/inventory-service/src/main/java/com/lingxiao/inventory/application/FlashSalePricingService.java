@@ -3,12 +3,17 @@ package com.lingxiao.inventory.application;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.client.RestClient;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @Service
 public class FlashSalePricingService {
 
@@ -18,6 +23,7 @@ public class FlashSalePricingService {
     private final String catalogBaseUrl;
 
     private static final String SKU_GET_PATH = "/api/v1/skus/{skuId}";
+    private static final String SKU_BATCH_PATH = "/api/v1/skus/batch";
 
     public FlashSalePricingService(
             @Value("${inventory.flashsale.catalog-base-url:${CATALOG_BASE_URL:http://catalog-service:8080}}")
@@ -51,6 +57,32 @@ public class FlashSalePricingService {
         }
     }
 
+    /**
+     * One catalog batch call (caller keeps skuIds within catalog's batch limit). SKUs that are unknown
+     * or have an invalid price are absent from the result.
+     */
+    public Map<String, Price> fetchPrices(List<String> skuIds) {
+        try {
+            List<CatalogSkuResponse> resp = restClient.post()
+                    .uri(SKU_BATCH_PATH)
+                    .body(skuIds)
+                    .retrieve()
+                    .body(new ParameterizedTypeReference<List<CatalogSkuResponse>>() {});
+            Map<String, Price> prices = new HashMap<>();
+            if (resp != null) {
+                for (CatalogSkuResponse sku : resp) {
+                    if (sku != null && sku.priceCents() >= 0 && StringUtils.hasText(sku.currency())) {
+                        prices.put(sku.skuId(), new Price(sku.priceCents(), sku.currency()));
+                    }
+                }
+            }
+            return prices;
+        } catch (RestClientException ex) {
+            log.warn("Failed to batch fetch prices, count={}", skuIds.size(), ex);
+            throw new IllegalStateException("Failed to batch fetch prices, count=" + skuIds.size(), ex);
+        }
+    }
+
     public record Price(long priceCents, String currency) {}
 
     private record CatalogSkuResponse(String skuId, long priceCents, String currency) {}
@@ -3,35 +3,48 @@ package com.lingxiao.inventory.application;
 import com.lingxiao.common.idempotency.DoneAction;
 import com.lingxiao.common.idempotency.Idempotent;
 import com.lingxiao.common.idempotency.ProcessingAction;
+import com.lingxiao.common.idempotency.aop.IdempotencyNamespaceProvider;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
 public class FlashSaleReservationService {
 
+    static final String IDEM_KEY_PREFIX = "idem:fs";
+    static final String IDEM_EVENT_TYPE = "flashsale_reserve_api_v1";
+
     private final FlashSaleAppService flashSaleAppService;
-    private final com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator keyGenerator;
+    private final FlashSaleActivityRegistry activities;
+    private final IdempotencyNamespaceProvider namespaces;
+    private final boolean fusedReserve;
 
     public FlashSaleReservationService(FlashSaleAppService flashSaleAppService,
-                                       com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator keyGenerator) {
+                                       FlashSaleActivityRegistry activities,
+                                       IdempotencyNamespaceProvider namespaces,
+                                       @Value("${inventory.flashsale.fused-reserve:false}") boolean fusedReserve) {
         this.flashSaleAppService = flashSaleAppService;
-        this.keyGenerator = keyGenerator;
+        this.activities = activities;
+        this.namespaces = namespaces;
+        this.fusedReserve = fusedReserve;
     }
 
     @Idempotent(
-            eventType = "flashsale_reserve_api_v1",
-            id = "#p1 + ':' + #p0",          // p0=idempotencyKey, p1=userId
+            eventType = IDEM_EVENT_TYPE,
+            id = "idemId(#p4, #p2, #p1, #p0)", // p4=activityId, p2=skuId, p1=userId, p0=idempotencyKey
             payload = "#p2 + '|' + #p3",     // p2=skuId, p3=qty
             result = "#result",
             onProcessing = ProcessingAction.RETRY,
             onDone = DoneAction.RETURN_POINTER,
             processingTtl = "PT90S",
             doneTtl = "PT2H",
-            keyPrefix = "idem:fs"
+            keyPrefix = IDEM_KEY_PREFIX
     )
-    public String reserve(String idempotencyKey, String userId, String skuId, long qty) {
+    public String reserve(String idempotencyKey, String userId, String skuId, long qty, String activityId) {
         // Price is preheated into Redis (read inside the reserve Lua); no synchronous
         // catalog call on the hot path. Missing price surfaces as FAILED (Lua returns -3).
-        String orderId = keyGenerator.generateOrderIdForSku(skuId);
+        String orderId = activities.activity(activityId).generateOrderIdForSku(skuId, userId);
         FlashSaleAppService.FlashSaleResult res = flashSaleAppService.reserve(
                 orderId, skuId, userId, qty);
         FlashSaleReservationResult.Status status;
@@ -53,6 +66,32 @@ public class FlashSaleReservationService {
         );
         return result.toPointer();
     }
-}
 
+    /**
+     * Same contract and idempotency record as {@link #reserve}, without the aspect: acquire + reserve +
+     * markDone run as one Lua call on the buyer's stock bucket. Turning fused-reserve on moves the record
+     * (see {@link #idemId}), so switch it between activities, not while one is selling.
+     */
+    public String reserveFused(String idempotencyKey, String userId, String skuId, long qty, String activityId) {
+        String orderId = activities.activity(activityId).generateOrderIdForSku(skuId, userId);
+        String idemKey = namespaces.storeKey(IDEM_KEY_PREFIX, IDEM_EVENT_TYPE, idemId(activityId, skuId, userId, idempotencyKey));
+        return flashSaleAppService.reserveIdempotent(idemKey, orderId, skuId, userId, qty);
+    }
 
+    /**
+     * Id of the reserve idempotency record.
+     * - fused-reserve on: {homeBucketTag}:userId:idempotencyKey for both paths. The hash tag keeps the record
+     *   in the buyer's stock slot (required by the fused Lua call).
+     * - off: the pre-fused userId:idempotencyKey (prefixed with the activity id for non-default activities),
+     *   so a rolling deploy with the flag off still finds the records written by old pods.
+     * Public because the @Idempotent id SpEL calls it on this bean.
+     */
+    public String idemId(String activityId, String skuId, String userId, String idempotencyKey) {
+        FlashSaleKeyGenerator keys = activities.activity(activityId);
+        if (!fusedReserve) {
+            String legacy = userId + ":" + idempotencyKey;
+            return keys == activities.defaultActivity() ? legacy : keys.activityId() + ":" + legacy;
+        }
+        return keys.reserveIdemTag(skuId, userId) + ":" + userId + ":" + idempotencyKey;
+    }
+}
@@ -0,0 +1,265 @@
+package com.lingxiao.inventory.application;
+
+import com.google.cloud.Timestamp;
+import com.lingxiao.inventory.infrastructure.db.spanner.InventoryRepository;
+import com.lingxiao.inventory.infrastructure.db.spanner.InventoryRepository.TouchedSku;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleInflightLedger;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.SoldOutRegistry;
+import com.lingxiao.inventory.metrics.FlashSaleMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Redis 库存（fs:stock:*）与 Spanner Inventory 的增量对账。
+ *
+ * 每轮只看上轮游标之后 UpdatedAt 变化过的 SKU（(TouchedShard, UpdatedAt) 索引分页，见 DDL 004）加上上轮仍有偏差的 SKU：
+ * expected = (OnHand - Reserved) - inflight，
+ * drift = Redis 各 bucket 库存之和 - expected。
+ * inflight 是各 bucket 在途账本（{@link FlashSaleInflightLedger}）未过 retention 的时间窗 _total 之和：预占脚本记账，
+ * Spanner consumer 落库后划掉，Stream 里和 Kafka 里的预占都算在内，每个 SKU 一次 pipeline 读 O(bucket × 窗口数) 个字段。
+ * 同一 drift 需连续 confirm-passes 轮观测到才修正，每轮每 SKU 最多修正 max-step，剩余部分下一轮继续。
+ * 往上补库存（会放大可卖量）只在 inflight 为 0 时做；往下扣随时可做（少卖方向）。
+ * 始终没划掉的账本条目（重试耗尽、划账失败）过了 retention 就不再计入，不会永久挡住向上修正。
+ * 对账默认关闭（inventory.flashsale.reconcile.enabled），关闭时不记账；账本只覆盖启用后的预占，在一场活动开始前打开。
+ * 多 pod 下通过 Redis 租约保证同一时刻只有一个实例在修正。
+ * 同一 SKU 同时在多个活动里有 Redis 库存时无法拆分 Spanner 的总量，跳过不对账。
+ */
+@Component
+@ConditionalOnProperty(prefix = "inventory.flashsale.reconcile", name = "enabled", havingValue = "true")
+public class FlashSaleStockReconciler {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleStockReconciler.class);
+
+    private final InventoryRepository repository;
+    private final StringRedisTemplate redisTemplate;
+    private final FlashSaleActivityRegistry activities;
+    private final SoldOutRegistry soldOutRegistry;
+    private final FlashSaleInflightLedger inflightLedger;
+    private final FlashSaleMetrics metrics;
+    private final int batchSize;
+    private final long maxStep;
+    private final int confirmPasses;
+    private final String leaseKey;
+    private final Duration leaseTtl;
+    private final String owner = UUID.randomUUID().toString();
+
+    // 游标只在本实例内存；租约换手后新实例从 initial-lookback 重新扫一遍，重复检查无副作用
+    private TouchedSku cursor;
+    // skuId -> 上次观测到的 drift 及连续次数
+    private final Map<String, Observation> suspects = new HashMap<>();
+
+    public FlashSaleStockReconciler(InventoryRepository repository,
+                                    StringRedisTemplate redisTemplate,
+                                    FlashSaleActivityRegistry activities,
+                                    SoldOutRegistry soldOutRegistry,
+                                    FlashSaleInflightLedger inflightLedger,
+                                    FlashSaleMetrics metrics,
+                                    @Value("${inventory.flashsale.reconcile.batch-size:500}") int batchSize,
+                                    @Value("${inventory.flashsale.reconcile.max-step:100}") long maxStep,
+                                    @Value("${inventory.flashsale.reconcile.confirm-passes:2}") int confirmPasses,
+                                    @Value("${inventory.flashsale.reconcile.initial-lookback:PT1H}") Duration initialLookback,
+                                    @Value("${inventory.flashsale.reconcile.lease-key:fs:reconcile:lease}") String leaseKey,
+                                    @Value("${inventory.flashsale.reconcile.lease-ttl:PT30S}") Duration leaseTtl) {
+        this.repository = repository;
+        this.redisTemplate = redisTemplate;
+        this.activities = activities;
+        this.soldOutRegistry = soldOutRegistry;
+        this.inflightLedger = inflightLedger;
+        this.metrics = metrics;
+        this.batchSize = batchSize;
+        this.maxStep = maxStep;
+        this.confirmPasses = Math.max(1, confirmPasses);
+        this.leaseKey = leaseKey;
+        this.leaseTtl = leaseTtl;
+        Instant start = Instant.now().minus(initialLookback);
+        this.cursor = new TouchedSku("", Timestamp.ofTimeSecondsAndNanos(start.getEpochSecond(), start.getNano()));
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.flashsale.reconcile.interval-ms:5000}")
+    public void reconcile() {
+        try {
+            if (!holdLease()) {
+                return;
+            }
+            long start = System.nanoTime();
+            runPass();
+            metrics.recordReconcilePass(System.nanoTime() - start);
+        } catch (Exception e) {
+            log.warn("Stock reconcile pass failed", e);
+        }
+    }
+
+    void runPass() {
+        List<TouchedSku> touched = repository.listTouchedSince(cursor, batchSize);
+        Set<String> candidates = new LinkedHashSet<>(suspects.keySet());
+        for (TouchedSku t : touched) {
+            candidates.add(t.skuId());
+        }
+        if (!touched.isEmpty()) {
+            cursor = touched.get(touched.size() - 1);
+        }
+        if (candidates.isEmpty()) {
+            return;
+        }
+
+        // Redis 侧先读、Spanner 后读：期间落库的预占会被两边各算一次，只会让 expected 偏小（少卖方向）
+        Map<String, RedisSide> redisSide = new HashMap<>();
+        for (String skuId : candidates) {
+            RedisSide side = readRedisSide(skuId);
+            if (side == null) {
+                // 没有 Redis 库存 key（非秒杀 SKU）或在多个活动中，本轮跳过
+                continue;
+            }
+            redisSide.put(skuId, side);
+        }
+        if (redisSide.isEmpty()) {
+            return;
+        }
+        Map<String, Long> available = repository.getAvailable(new ArrayList<>(redisSide.keySet()));
+
+        for (Map.Entry<String, RedisSide> entry : redisSide.entrySet()) {
+            String skuId = entry.getKey();
+            Long spannerAvailable = available.get(skuId);
+            if (spannerAvailable == null) {
+                suspects.remove(skuId);
+                continue;
+            }
+            RedisSide side = entry.getValue();
+            long drift = side.total() - (spannerAvailable - side.inflight());
+            metrics.recordReconcileDrift(drift);
+            if (drift == 0) {
+                suspects.remove(skuId);
+                continue;
+            }
+            Observation previous = suspects.get(skuId);
+            int seen = previous != null && previous.drift() == drift ? previous.seen() + 1 : 1;
+            if (seen < confirmPasses) {
+                suspects.put(skuId, new Observation(drift, seen));
+                continue;
+            }
+            long step = Math.max(-maxStep, Math.min(maxStep, -drift));
+            if (step > 0 && side.inflight() > 0) {
+                // 还有未落 Spanner 的预占时不往上补；inflight 落库（或过了账本 retention）时 drift 不变，之后下一轮直接修正
+                suspects.put(skuId, new Observation(drift, seen));
+                continue;
+            }
+            long correction = applyCorrection(side.keys(), skuId, side.stocks(), step);
+            log.info("Reconciled flash sale stock, skuId={}, drift={}, applied={}", skuId, drift, correction);
+            // 剩余部分（超过 max-step）下一轮重新观测
+            suspects.put(skuId, new Observation(drift + correction, 0));
+        }
+    }
+
+    private RedisSide readRedisSide(String skuId) {
+        RedisSide found = null;
+        for (FlashSaleKeyGenerator keyGenerator : activities.activities()) {
+            RedisSide side = readRedisSide(keyGenerator, skuId);
+            if (side == null) {
+                continue;
+            }
+            if (found != null) {
+                return null;
+            }
+            found = side;
+        }
+        return found;
+    }
+
+    /**
+     * @return null if the SKU has no stock key in this activity
+     */
+    private RedisSide readRedisSide(FlashSaleKeyGenerator keyGenerator, String skuId) {
+        List<String> stockKeys = keyGenerator.stockKeys(skuId);
+        long[] stocks = new long[stockKeys.size()];
+        boolean exists = false;
+        long total = 0;
+        for (int bucket = 0; bucket < stockKeys.size(); bucket++) {
+            String raw = redisTemplate.opsForValue().get(stockKeys.get(bucket));
+            if (raw != null) {
+                exists = true;
+                stocks[bucket] = Long.parseLong(raw);
+                total += stocks[bucket];
+            }
+        }
+        if (!exists) {
+            return null;
+        }
+        // 先读库存、后读账本：期间的预占只会让 inflight 多算（少卖方向）
+        long inflight = inflightLedger.inflight(stockKeys);
+        return new RedisSide(keyGenerator, stocks, total, inflight);
+    }
+
+    /**
+     * 补库存按 bucket 平分；扣库存从库存多的 bucket 扣起，不把任何 bucket 扣成负数。
+     *
+     * @return 实际 INCRBY 的总量
+     */
+    private long applyCorrection(FlashSaleKeyGenerator keyGenerator, String skuId, long[] stocks, long correction) {
+        List<String> stockKeys = keyGenerator.stockKeys(skuId);
+        if (correction > 0) {
+            for (int bucket = 0; bucket < stockKeys.size(); bucket++) {
+                long share = InventoryAdminService.bucketShare(correction, stockKeys.size(), bucket);
+                if (share != 0) {
+                    redisTemplate.opsForValue().increment(stockKeys.get(bucket), share);
+                }
+            }
+            soldOutRegistry.clear(keyGenerator.soldOutKey(skuId));
+            metrics.incReconcileCorrected(correction);
+            return correction;
+        }
+        long remaining = -correction;
+        while (remaining > 0) {
+            int richest = 0;
+            for (int bucket = 1; bucket < stocks.length; bucket++) {
+                if (stocks[bucket] > stocks[richest]) {
+                    richest = bucket;
+                }
+            }
+            long take = Math.min(remaining, stocks[richest]);
+            if (take <= 0) {
+                // Redis 已经全部为 0，多出的差额只能是 Redis 侧还未体现的扣减，不再继续扣
+                break;
+            }
+            redisTemplate.opsForValue().decrement(stockKeys.get(richest), take);
+            stocks[richest] -= take;
+            remaining -= take;
+        }
+        long applied = correction + remaining;
+        metrics.incReconcileCorrected(applied);
+        return applied;
+    }
+
+    private boolean holdLease() {
+        Boolean acquired = redisTemplate.opsForValue().setIfAbsent(leaseKey, owner, leaseTtl);
+        if (Boolean.TRUE.equals(acquired)) {
+            return true;
+        }
+        if (Objects.equals(owner, redisTemplate.opsForValue().get(leaseKey))) {
+            redisTemplate.expire(leaseKey, leaseTtl);
+            return true;
+        }
+        return false;
+    }
+
+    private record RedisSide(FlashSaleKeyGenerator keys, long[] stocks, long total, long inflight) {}
+
+    private record Observation(long drift, int seen) {}
+}
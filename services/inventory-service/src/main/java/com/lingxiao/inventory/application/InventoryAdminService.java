@@ -1,7 +1,10 @@
 package com.lingxiao.inventory.application;
 
 import com.lingxiao.inventory.infrastructure.db.spanner.InventoryRepository;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
 import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.SoldOutRegistry;
+import java.util.List;
 import java.util.Map;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
@@ -12,62 +15,98 @@ public class InventoryAdminService {
 
     private final InventoryRepository repository;
     private final StringRedisTemplate redisTemplate;
-    private final FlashSaleKeyGenerator keyGenerator;
+    private final FlashSaleActivityRegistry activities;
     private final FlashSalePricingService pricingService;
+    private final SoldOutRegistry soldOutRegistry;
 
     public InventoryAdminService(InventoryRepository repository,
                                  StringRedisTemplate redisTemplate,
-                                 FlashSaleKeyGenerator keyGenerator,
-                                 FlashSalePricingService pricingService) {
+                                 FlashSaleActivityRegistry activities,
+                                 FlashSalePricingService pricingService,
+                                 SoldOutRegistry soldOutRegistry) {
         this.repository = repository;
         this.redisTemplate = redisTemplate;
-        this.keyGenerator = keyGenerator;
+        this.activities = activities;
         this.pricingService = pricingService;
+        this.soldOutRegistry = soldOutRegistry;
     }
 
-    public void addOnHand(String skuId, long delta) {
+    /**
+     * @param activityId activity whose Redis stock mirrors this SKU; blank = default activity
+     */
+    public void addOnHand(String skuId, long delta, String activityId) {
         if (delta <= 0) {
             throw new IllegalArgumentException("delta must be positive");
         }
+        FlashSaleKeyGenerator keyGenerator = activities.activity(activityId);
         repository.addOnHand(skuId, delta);
-        syncRedisStockAdd(skuId, delta);
+        syncRedisStockAdd(keyGenerator, skuId, delta);
+        soldOutRegistry.clear(keyGenerator.soldOutKey(skuId));
     }
 
-    public void setOnHand(String skuId, long onHand) {
+    public void setOnHand(String skuId, long onHand, String activityId) {
+        FlashSaleKeyGenerator keyGenerator = activities.activity(activityId);
         repository.setOnHand(skuId, onHand);
         long available = repository.getAvailable(skuId);
-        syncRedisStockSet(skuId, available);
+        syncRedisStockSet(keyGenerator, skuId, available);
+        if (available > 0) {
+            soldOutRegistry.clear(keyGenerator.soldOutKey(skuId));
+        }
     }
 
-    public void seed(String skuId, long onHand) {
+    public void seed(String skuId, long onHand, String activityId) {
+        FlashSaleKeyGenerator keyGenerator = activities.activity(activityId);
         repository.seed(skuId, onHand);
         long available = repository.getAvailable(skuId);
-        syncRedisStockSet(skuId, available);
+        syncRedisStockSet(keyGenerator, skuId, available);
         // Preheat price into Redis so the reserve hot path never calls catalog synchronously.
         // This catalog call is off the hot path (once per SKU at activity setup) and must
         // succeed for the SKU to be reservable later (otherwise reserve Lua returns -3).
-        preheatPrice(skuId);
+        preheatPrice(keyGenerator, skuId);
+        if (available > 0) {
+            soldOutRegistry.clear(keyGenerator.soldOutKey(skuId));
+        }
     }
 
-    private void preheatPrice(String skuId) {
+    private void preheatPrice(FlashSaleKeyGenerator keyGenerator, String skuId) {
         if (!StringUtils.hasText(skuId)) return;
         FlashSalePricingService.Price price = pricingService.fetchPrice(skuId);
-        String priceKey = keyGenerator.priceKey(skuId);
-        redisTemplate.opsForHash().putAll(priceKey, Map.of(
-                "priceCents", Long.toString(price.priceCents()),
-                "currency", price.currency()
-        ));
+        // every stock bucket reads price from its own hash tag, so each gets a copy
+        for (String priceKey : keyGenerator.priceKeys(skuId)) {
+            redisTemplate.opsForHash().putAll(priceKey, Map.of(
+                    "priceCents", Long.toString(price.priceCents()),
+                    "currency", price.currency()
+            ));
+        }
     }
 
-    private void syncRedisStockAdd(String skuId, long delta) {
+    private void syncRedisStockAdd(FlashSaleKeyGenerator keyGenerator, String skuId, long delta) {
         if (!StringUtils.hasText(skuId)) return;
-        String stockKey = keyGenerator.stockKey(skuId);
-        redisTemplate.opsForValue().increment(stockKey, delta);
+        List<String> stockKeys = keyGenerator.stockKeys(skuId);
+        for (int bucket = 0; bucket < stockKeys.size(); bucket++) {
+            long share = bucketShare(delta, stockKeys.size(), bucket);
+            if (share != 0) {
+                redisTemplate.opsForValue().increment(stockKeys.get(bucket), share);
+            }
+        }
     }
 
-    private void syncRedisStockSet(String skuId, long target) {
+    private void syncRedisStockSet(FlashSaleKeyGenerator keyGenerator, String skuId, long target) {
         if (!StringUtils.hasText(skuId)) return;
-        String stockKey = keyGenerator.stockKey(skuId);
+        List<String> stockKeys = keyGenerator.stockKeys(skuId);
+        for (int bucket = 0; bucket < stockKeys.size(); bucket++) {
+            syncRedisStockKeySet(stockKeys.get(bucket), bucketShare(target, stockKeys.size(), bucket));
+        }
+    }
+
+    /**
+     * Even split of total across buckets; the remainder goes to the lowest buckets.
+     */
+    static long bucketShare(long total, int buckets, int bucket) {
+        return Math.floorDiv(total, buckets) + (bucket < Math.floorMod(total, buckets) ? 1 : 0);
+    }
+
+    private void syncRedisStockKeySet(String stockKey, long target) {
         String currentStr = redisTemplate.opsForValue().get(stockKey);
         if (currentStr == null) {
             redisTemplate.opsForValue().set(stockKey, Long.toString(target));
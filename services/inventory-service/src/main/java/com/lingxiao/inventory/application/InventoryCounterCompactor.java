@@ -0,0 +1,42 @@
+package com.lingxiao.inventory.application;
+
+import com.lingxiao.inventory.infrastructure.db.spanner.InventoryRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * inventory.counter-shards &gt; 0 时定期把 InventoryCounterShards 的 ReservedDelta 折回 Inventory 行，
+ * 分片只保留自己的可用份额；Inventory 行被压到预占之下（超卖欠账）时从分片份额里补回。
+ * 读路径始终聚合，折叠与否不影响可用量。
+ */
+@Component
+@ConditionalOnExpression("${inventory.counter-shards:0} > 0")
+public class InventoryCounterCompactor {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryCounterCompactor.class);
+
+    private final InventoryRepository inventoryRepository;
+    private final int batch;
+
+    public InventoryCounterCompactor(InventoryRepository inventoryRepository,
+                                     @Value("${inventory.counter-compact-batch:200}") int batch) {
+        this.inventoryRepository = inventoryRepository;
+        this.batch = batch;
+    }
+
+    @Scheduled(fixedDelayString = "${inventory.counter-compact-interval-ms:5000}")
+    public void compact() {
+        try {
+            int compacted = inventoryRepository.compactCounterShards(batch);
+            if (compacted > 0) {
+                log.debug("Compacted counter shards, skus={}", compacted);
+            }
+        } catch (Exception e) {
+            log.warn("Counter shard compaction failed", e);
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.lingxiao.inventory.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.List;
+
+/**
+ * Additional concurrent activities besides the default one (inventory.flashsale.activity-id).
+ * Unset stream-shards / stock-buckets fall back to the default activity's values.
+ */
+@ConfigurationProperties(prefix = "inventory.flashsale")
+public record FlashSaleActivityProperties(
+        List<Activity> activities
+) {
+    public FlashSaleActivityProperties {
+        if (activities == null) {
+            activities = List.of();
+        }
+    }
+
+    public record Activity(String id, Integer streamShards, Integer stockBuckets) {}
+}
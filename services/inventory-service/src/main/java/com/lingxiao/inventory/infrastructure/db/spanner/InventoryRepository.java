@@ -1,9 +1,13 @@
 package com.lingxiao.inventory.infrastructure.db.spanner;
 
 import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.KeySet;
 import com.google.cloud.spanner.Mutation;
 import com.google.cloud.spanner.ResultSet;
 import com.google.cloud.spanner.Statement;
+import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.TransactionContext;
 import com.google.cloud.spanner.Value;
 import com.lingxiao.common.db.errors.NotFoundException;
 import com.lingxiao.common.db.errors.SpannerErrorTranslator;
@@ -17,28 +21,86 @@ import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Repository
 public class InventoryRepository extends BaseRepositorySupport {
 
-    public InventoryRepository(DatabaseClient databaseClient, SpannerErrorTranslator translator, TxRunner txRunner) {
+    /**
+     * Hash prefix of the UpdatedAt indexes (TouchedShard, DDL 004); must match the DDL's modulus.
+     */
+    static final int TOUCHED_SHARDS = 16;
+
+    /**
+     * 0 = legacy: every reserve/commit/release read-modify-writes the Inventory row.
+     * N &gt; 0 = each of the N InventoryCounterShards rows of a SKU owns an allotment of the stock
+     * (OnHandDelta - ReservedDelta available on that shard); the Inventory row keeps the unallotted rest.
+     * Reserve reads and writes one random shard only and checks that shard's own availability; it touches the
+     * Inventory row only to refill an exhausted shard, and the other shards only when both are short (sold-out
+     * regime). Commit / release / restock are blind shard increments. Every row stays at or above zero
+     * availability, so a shard-local check never oversells the SKU. Reads aggregate all rows.
+     * {@link #compactCounterShards(int)} folds ReservedDelta back into Inventory and keeps each shard's allotment.
+     */
+    private final int counterShards;
+
+    public InventoryRepository(DatabaseClient databaseClient, SpannerErrorTranslator translator, TxRunner txRunner,
+                               @org.springframework.beans.factory.annotation.Value("${inventory.counter-shards:0}") int counterShards) {
         super(databaseClient, translator, txRunner);
+        this.counterShards = Math.max(0, counterShards);
+    }
+
+    public int counterShards() {
+        return counterShards;
     }
 
     public void seed(String skuId, long onHand) {
         inReadWrite(tx -> {
-            Mutation m = Mutation.newInsertOrUpdateBuilder("Inventory")
-                    .set("SkuId").to(skuId)
-                    .set("OnHand").to(onHand)
-                    .set("Reserved").to(0L)
-                    .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
-                    .build();
-            tx.buffer(m);
+            tx.buffer(seedMutations(skuId, onHand));
             return null;
         });
     }
 
+    /**
+     * Bulk variant of {@link #seed(String, long)}: all SKUs in one transaction (keep batches well below the
+     * per-commit mutation limit; each SKU costs 1 + counter-shards rows).
+     */
+    public void seedBatch(java.util.Map<String, Long> onHandBySku) {
+        if (onHandBySku.isEmpty()) {
+            return;
+        }
+        inReadWrite(tx -> {
+            onHandBySku.forEach((skuId, onHand) -> tx.buffer(seedMutations(skuId, onHand)));
+            return null;
+        });
+    }
+
+    private List<Mutation> seedMutations(String skuId, long onHand) {
+        // with counter shards the stock is allotted evenly up front; the remainder stays on the Inventory row
+        long perShard = counterShards > 0 ? Math.max(0, onHand) / counterShards : 0;
+        List<Mutation> mutations = new ArrayList<>(counterShards + 2);
+        mutations.add(Mutation.newInsertOrUpdateBuilder("Inventory")
+                .set("SkuId").to(skuId)
+                .set("OnHand").to(onHand - perShard * counterShards)
+                .set("Reserved").to(0L)
+                .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                .build());
+        if (counterShards > 0) {
+            mutations.add(Mutation.delete("InventoryCounterShards", KeySet.prefixRange(Key.of(skuId))));
+            for (long shard = 0; shard < counterShards; shard++) {
+                mutations.add(shardMutation(skuId, new ShardRow(shard, perShard, 0)));
+            }
+        }
+        return mutations;
+    }
+
     public long getAvailable(String skuId) {
+        if (counterShards > 0) {
+            InventoryRow inv = readAggregated(List.of(skuId)).get(skuId);
+            if (inv == null) {
+                throw new NotFoundException("sku not found: " + skuId);
+            }
+            return inv.onHand - inv.reserved;
+        }
         return inReadOnly(tx -> {
             Statement stmt = Statement.newBuilder(
                             "SELECT OnHand, Reserved FROM Inventory WHERE SkuId=@id")
@@ -56,8 +118,15 @@ public class InventoryRepository extends BaseRepositorySupport {
     }
 
     public void addOnHand(String skuId, long delta) {
+        if (counterShards > 0 && delta > 0) {
+            inReadWrite(tx -> {
+                applyShardDelta(tx, skuId, delta, 0);
+                return null;
+            });
+            return;
+        }
         inReadWrite(tx -> {
-            Optional<InventoryRow> invOpt = getInventory(tx, skuId);
+            Optional<InventoryRow> invOpt = counterShards > 0 ? foldShards(tx, skuId) : getInventory(tx, skuId);
             InventoryRow inv = invOpt.orElse(new InventoryRow(0, 0));
             long newOnHand = inv.onHand + delta;
             if (newOnHand < 0) {
@@ -76,7 +145,8 @@ public class InventoryRepository extends BaseRepositorySupport {
 
     public void setOnHand(String skuId, long onHand) {
         inReadWrite(tx -> {
-            Optional<InventoryRow> invOpt = getInventory(tx, skuId);
+            // lowering stock must not leave allotments on the shards that the new total no longer covers
+            Optional<InventoryRow> invOpt = counterShards > 0 ? foldShards(tx, skuId) : getInventory(tx, skuId);
             InventoryRow inv = invOpt.orElse(new InventoryRow(0, 0));
             long target = Math.max(0, onHand);
             Mutation m = Mutation.newInsertOrUpdateBuilder("Inventory")
@@ -104,6 +174,17 @@ public class InventoryRepository extends BaseRepositorySupport {
                 // if cancelled/expired fall through to attempt again
             }
 
+            Mutation upsertRes = reservationMutation(orderId, skuId, qty, expireAt);
+            if (counterShards > 0) {
+                ShardRow shard = allot(tx, skuId, qty);
+                if (shard.available() < qty) {
+                    return false;
+                }
+                tx.buffer(upsertRes);
+                tx.buffer(shardMutation(skuId, shard.reserve(qty)));
+                return true;
+            }
+
             Optional<InventoryRow> invOpt = getInventory(tx, skuId);
             if (invOpt.isEmpty()) {
                 return false;
@@ -121,16 +202,6 @@ public class InventoryRepository extends BaseRepositorySupport {
                     .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
                     .build();
 
-            Mutation upsertRes = Mutation.newInsertOrUpdateBuilder("InventoryReservations")
-                    .set("OrderId").to(orderId)
-                    .set("SkuId").to(skuId)
-                    .set("Qty").to(qty)
-                    .set("Status").to(ReservationStatus.HELD.name())
-                    .set("ExpireAt").to(com.google.cloud.Timestamp.ofTimeSecondsAndNanos(expireAt.getEpochSecond(), expireAt.getNano()))
-                    .set("CreatedAt").to(Value.COMMIT_TIMESTAMP)
-                    .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
-                    .build();
-
             tx.buffer(updateInv);
             tx.buffer(upsertRes);
             return true;
@@ -156,16 +227,21 @@ public class InventoryRepository extends BaseRepositorySupport {
                 existingBySku.put(row.skuId, row);
             }
 
-            List<InventoryRow> invRows = new java.util.ArrayList<>();
             java.util.Map<String, InventoryRow> invBySku = new java.util.HashMap<>();
-            for (String skuId : requested.keySet()) {
+            java.util.Map<String, ShardRow> shardBySku = new java.util.HashMap<>();
+            for (var entry : requested.entrySet()) {
+                String skuId = entry.getKey();
+                if (counterShards > 0) {
+                    ShardRow shard = allot(tx, skuId, entry.getValue());
+                    shardBySku.put(skuId, shard);
+                    invBySku.put(skuId, new InventoryRow(shard.onHandDelta, shard.reservedDelta));
+                    continue;
+                }
                 Optional<InventoryRow> invOpt = getInventory(tx, skuId);
                 if (invOpt.isEmpty()) {
                     return false;
                 }
-                InventoryRow inv = invOpt.get();
-                invRows.add(inv);
-                invBySku.put(skuId, inv);
+                invBySku.put(skuId, invOpt.get());
             }
 
             // check all
@@ -183,23 +259,18 @@ public class InventoryRepository extends BaseRepositorySupport {
                 if (available < qty) {
                     return false;
                 }
-                Mutation updInv = Mutation.newUpdateBuilder("Inventory")
-                        .set("SkuId").to(skuId)
-                        .set("OnHand").to(inv.onHand)
-                        .set("Reserved").to(inv.reserved + qty)
-                        .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
-                        .build();
-                Mutation upsertRes = Mutation.newInsertOrUpdateBuilder("InventoryReservations")
-                        .set("OrderId").to(orderId)
-                        .set("SkuId").to(skuId)
-                        .set("Qty").to(qty)
-                        .set("Status").to(ReservationStatus.HELD.name())
-                        .set("ExpireAt").to(com.google.cloud.Timestamp.ofTimeSecondsAndNanos(expireAt.getEpochSecond(), expireAt.getNano()))
-                        .set("CreatedAt").to(Value.COMMIT_TIMESTAMP)
-                        .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
-                        .build();
-                mutations.add(updInv);
-                mutations.add(upsertRes);
+                if (counterShards > 0) {
+                    mutations.add(shardMutation(skuId, shardBySku.get(skuId).reserve(qty)));
+                } else {
+                    Mutation updInv = Mutation.newUpdateBuilder("Inventory")
+                            .set("SkuId").to(skuId)
+                            .set("OnHand").to(inv.onHand)
+                            .set("Reserved").to(inv.reserved + qty)
+                            .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                            .build();
+                    mutations.add(updInv);
+                }
+                mutations.add(reservationMutation(orderId, skuId, qty, expireAt));
             }
 
             // all checks passed, apply
@@ -210,6 +281,107 @@ public class InventoryRepository extends BaseRepositorySupport {
         });
     }
 
+    /**
+     * Group commit for the flash-sale batch consumer: one read-write transaction for a whole poll.
+     * Reservations are applied in order (insufficient stock skips the order), but each SKU gets a single summed
+     * Reserved update and the Inventory / reservation reads are one query each.
+     * Unlike {@link #reserveBatch}, any existing (OrderId, SkuId) row is a duplicate whatever its status: flash-sale
+     * order ids are never reused, so a CANCELLED/EXPIRED row means the event was already applied and released,
+     * and a redelivery must not hold the stock again.
+     */
+    public GroupCommitResult reserveGroupCommit(List<FlashSaleReservation> reservations, Duration ttl) {
+        if (reservations == null || reservations.isEmpty()) {
+            return new GroupCommitResult(0, 0, 0);
+        }
+        Instant expireAt = Instant.now().plus(ttl);
+        List<String> orderIds = reservations.stream().map(FlashSaleReservation::orderId).distinct().toList();
+        List<String> skuIds = reservations.stream().map(FlashSaleReservation::skuId).distinct().toList();
+        return inReadWrite(tx -> {
+            java.util.Map<String, ReservationStatus> existing = new java.util.HashMap<>();
+            for (ReservationRow row : listReservations(tx, orderIds)) {
+                existing.put(reservationKey(row.orderId, row.skuId), row.status);
+            }
+            java.util.Map<String, Long> availableBySku = new java.util.HashMap<>();
+            java.util.Map<String, InventoryRow> invBySku = new java.util.HashMap<>();
+            java.util.Map<String, ShardRow> shardBySku = new java.util.HashMap<>();
+            if (counterShards > 0) {
+                // one shard per SKU, topped up to the batch's whole demand for it (duplicates included)
+                java.util.Map<String, Long> demand = new java.util.HashMap<>();
+                for (FlashSaleReservation r : reservations) {
+                    demand.merge(r.skuId(), r.qty(), Long::sum);
+                }
+                demand.forEach((skuId, want) -> {
+                    ShardRow shard = allot(tx, skuId, want);
+                    shardBySku.put(skuId, shard);
+                    availableBySku.put(skuId, shard.available());
+                });
+            } else {
+                invBySku.putAll(listInventory(tx, skuIds));
+                invBySku.forEach((skuId, inv) -> availableBySku.put(skuId, inv.onHand - inv.reserved));
+            }
+            GroupCommitPlan plan = planGroupCommit(reservations, availableBySku, existing);
+
+            List<Mutation> mutations = new ArrayList<>();
+            for (FlashSaleReservation r : plan.accepted()) {
+                mutations.add(reservationMutation(r.orderId(), r.skuId(), r.qty(), expireAt));
+            }
+            java.util.Map<String, Long> reservedDelta = plan.reservedDelta();
+            if (counterShards > 0) {
+                for (var entry : reservedDelta.entrySet()) {
+                    mutations.add(shardMutation(entry.getKey(), shardBySku.get(entry.getKey()).reserve(entry.getValue())));
+                }
+                tx.buffer(mutations);
+                return plan.result();
+            }
+            for (var entry : reservedDelta.entrySet()) {
+                InventoryRow inv = invBySku.get(entry.getKey());
+                mutations.add(Mutation.newUpdateBuilder("Inventory")
+                        .set("SkuId").to(entry.getKey())
+                        .set("OnHand").to(inv.onHand)
+                        .set("Reserved").to(inv.reserved + entry.getValue())
+                        .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                        .build());
+            }
+            tx.buffer(mutations);
+            return plan.result();
+        });
+    }
+
+    /**
+     * Decides which reservations of a group commit are applied. {@code existing} holds every reservation row
+     * already stored for the batch's orders (key = {@link #reservationKey}); any of them, and any repeat inside
+     * the batch, counts as a duplicate.
+     */
+    static GroupCommitPlan planGroupCommit(List<FlashSaleReservation> reservations,
+                                           java.util.Map<String, Long> availableBySku,
+                                           java.util.Map<String, ReservationStatus> existing) {
+        java.util.Set<String> seen = new java.util.HashSet<>(existing.keySet());
+        java.util.Map<String, Long> reservedDelta = new java.util.LinkedHashMap<>();
+        List<FlashSaleReservation> accepted = new ArrayList<>();
+        int duplicate = 0;
+        int insufficient = 0;
+        for (FlashSaleReservation r : reservations) {
+            if (!seen.add(reservationKey(r.orderId(), r.skuId()))) {
+                duplicate++;
+                continue;
+            }
+            Long available = availableBySku.get(r.skuId());
+            long delta = reservedDelta.getOrDefault(r.skuId(), 0L);
+            if (available == null || available - delta < r.qty()) {
+                insufficient++;
+                continue;
+            }
+            reservedDelta.put(r.skuId(), delta + r.qty());
+            accepted.add(r);
+        }
+        return new GroupCommitPlan(accepted, reservedDelta,
+                new GroupCommitResult(accepted.size(), duplicate, insufficient));
+    }
+
+    static String reservationKey(String orderId, String skuId) {
+        return orderId + "|" + skuId;
+    }
+
     public int commit(String orderId) {
         return inReadWrite(tx -> {
             List<ReservationRow> rows = listReservations(tx, orderId);
@@ -218,17 +390,21 @@ public class InventoryRepository extends BaseRepositorySupport {
                 if (row.status != ReservationStatus.HELD) {
                     continue;
                 }
-                Optional<InventoryRow> invOpt = getInventory(tx, row.skuId);
-                if (invOpt.isEmpty()) {
-                    continue;
+                if (counterShards > 0) {
+                    applyShardDelta(tx, row.skuId, -row.qty, -row.qty);
+                } else {
+                    Optional<InventoryRow> invOpt = getInventory(tx, row.skuId);
+                    if (invOpt.isEmpty()) {
+                        continue;
+                    }
+                    InventoryRow inv = invOpt.get();
+                    tx.buffer(Mutation.newUpdateBuilder("Inventory")
+                            .set("SkuId").to(row.skuId)
+                            .set("OnHand").to(inv.onHand - row.qty)
+                            .set("Reserved").to(inv.reserved - row.qty)
+                            .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                            .build());
                 }
-                InventoryRow inv = invOpt.get();
-                Mutation updInv = Mutation.newUpdateBuilder("Inventory")
-                        .set("SkuId").to(row.skuId)
-                        .set("OnHand").to(inv.onHand - row.qty)
-                        .set("Reserved").to(inv.reserved - row.qty)
-                        .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
-                        .build();
                 Mutation updRes = Mutation.newUpdateBuilder("InventoryReservations")
                         .set("OrderId").to(orderId)
                         .set("SkuId").to(row.skuId)
@@ -238,7 +414,6 @@ public class InventoryRepository extends BaseRepositorySupport {
                         .set("CreatedAt").to(row.createdAt)
                         .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
                         .build();
-                tx.buffer(updInv);
                 tx.buffer(updRes);
                 affected++;
             }
@@ -254,17 +429,21 @@ public class InventoryRepository extends BaseRepositorySupport {
                 if (row.status != ReservationStatus.HELD) {
                     continue;
                 }
-                Optional<InventoryRow> invOpt = getInventory(tx, row.skuId);
-                if (invOpt.isEmpty()) {
-                    continue;
+                if (counterShards > 0) {
+                    applyShardDelta(tx, row.skuId, 0, -row.qty);
+                } else {
+                    Optional<InventoryRow> invOpt = getInventory(tx, row.skuId);
+                    if (invOpt.isEmpty()) {
+                        continue;
+                    }
+                    InventoryRow inv = invOpt.get();
+                    tx.buffer(Mutation.newUpdateBuilder("Inventory")
+                            .set("SkuId").to(row.skuId)
+                            .set("OnHand").to(inv.onHand)
+                            .set("Reserved").to(inv.reserved - row.qty)
+                            .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                            .build());
                 }
-                InventoryRow inv = invOpt.get();
-                Mutation updInv = Mutation.newUpdateBuilder("Inventory")
-                        .set("SkuId").to(row.skuId)
-                        .set("OnHand").to(inv.onHand)
-                        .set("Reserved").to(inv.reserved - row.qty)
-                        .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
-                        .build();
                 Mutation updRes = Mutation.newUpdateBuilder("InventoryReservations")
                         .set("OrderId").to(orderId)
                         .set("SkuId").to(row.skuId)
@@ -274,7 +453,6 @@ public class InventoryRepository extends BaseRepositorySupport {
                         .set("CreatedAt").to(row.createdAt)
                         .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
                         .build();
-                tx.buffer(updInv);
                 tx.buffer(updRes);
                 affected++;
             }
@@ -282,6 +460,120 @@ public class InventoryRepository extends BaseRepositorySupport {
         });
     }
 
+    /**
+     * Folds each shard's ReservedDelta back into the Inventory row, one SKU per transaction (the only place
+     * besides {@link #setOnHand} that locks all shards of a SKU at once). A shard keeps its allotment as
+     * OnHandDelta with ReservedDelta 0. If the Inventory row is overcommitted (stock lowered below the held
+     * reservations), allotments that releases put back on the shards are pulled in to cover the deficit.
+     *
+     * @return number of SKUs compacted
+     */
+    public int compactCounterShards(int limit) {
+        if (counterShards <= 0) {
+            return 0;
+        }
+        List<String> skuIds = inReadOnly(tx -> {
+            Statement stmt = Statement.newBuilder(
+                            "SELECT SkuId FROM (SELECT SkuId FROM InventoryCounterShards WHERE ReservedDelta != 0 "
+                                    + "UNION DISTINCT SELECT SkuId FROM Inventory WHERE OnHand < Reserved) LIMIT @limit")
+                    .bind("limit").to(limit)
+                    .build();
+            try (ResultSet rs = tx.executeQuery(stmt)) {
+                List<String> ids = new ArrayList<>();
+                while (rs.next()) {
+                    ids.add(rs.getString("SkuId"));
+                }
+                return ids;
+            }
+        });
+        int compacted = 0;
+        for (String skuId : skuIds) {
+            boolean folded = inReadWrite(tx -> {
+                Optional<InventoryRow> invOpt = getInventory(tx, skuId);
+                if (invOpt.isEmpty()) {
+                    return false;
+                }
+                InventoryRow inv = invOpt.get();
+                long onHand = inv.onHand;
+                long reserved = inv.reserved;
+                List<Mutation> updates = new ArrayList<>();
+                for (ShardRow shard : listShards(tx, skuId)) {
+                    // folding ReservedDelta leaves OnHand - Reserved unchanged; a negative one is the deficit
+                    long deficit = Math.max(0, reserved - onHand);
+                    long pulled = Math.min(Math.max(0, shard.available()), deficit);
+                    if (shard.reservedDelta == 0 && pulled == 0) {
+                        continue;
+                    }
+                    onHand += shard.reservedDelta + pulled;
+                    reserved += shard.reservedDelta;
+                    updates.add(shardMutation(skuId, new ShardRow(shard.shardId, shard.available() - pulled, 0)));
+                }
+                if (updates.isEmpty()) {
+                    return false;
+                }
+                tx.buffer(Mutation.newUpdateBuilder("Inventory")
+                        .set("SkuId").to(skuId)
+                        .set("OnHand").to(onHand)
+                        .set("Reserved").to(reserved)
+                        .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                        .build());
+                tx.buffer(updates);
+                return true;
+            });
+            if (folded) {
+                compacted++;
+            }
+        }
+        return compacted;
+    }
+
+    /**
+     * SKUs whose Inventory row (or, with counter shards, any shard row) changed after the cursor,
+     * ordered by (TouchedAt, SkuId) so the caller can page with the last element as the next cursor.
+     * The UpdatedAt indexes are led by a hash prefix (TouchedShard) so commit-timestamp writes do not all land
+     * on one key range; the read seeks every prefix.
+     */
+    public List<TouchedSku> listTouchedSince(TouchedSku cursor, int limit) {
+        String inventory = "SELECT SkuId, UpdatedAt FROM Inventory@{FORCE_INDEX=InventoryByTouchedShardUpdatedAt} "
+                + "WHERE TouchedShard IN UNNEST(@shards) AND UpdatedAt >= @ts";
+        String source = counterShards > 0
+                ? inventory + " UNION ALL SELECT SkuId, UpdatedAt "
+                        + "FROM InventoryCounterShards@{FORCE_INDEX=InventoryCounterShardsByTouchedShardUpdatedAt} "
+                        + "WHERE TouchedShard IN UNNEST(@shards) AND UpdatedAt >= @ts"
+                : inventory;
+        List<Long> shards = java.util.stream.LongStream.range(0, TOUCHED_SHARDS).boxed().toList();
+        return inReadOnly(tx -> {
+            Statement stmt = Statement.newBuilder(
+                            "SELECT SkuId, MAX(UpdatedAt) AS TouchedAt FROM (" + source + ") GROUP BY SkuId "
+                                    + "HAVING MAX(UpdatedAt) > @ts OR (MAX(UpdatedAt) = @ts AND SkuId > @sku) "
+                                    + "ORDER BY TouchedAt, SkuId LIMIT @limit")
+                    .bind("shards").toInt64Array(shards)
+                    .bind("ts").to(cursor.touchedAt())
+                    .bind("sku").to(cursor.skuId())
+                    .bind("limit").to(limit)
+                    .build();
+            try (ResultSet rs = tx.executeQuery(stmt)) {
+                List<TouchedSku> touched = new ArrayList<>();
+                while (rs.next()) {
+                    touched.add(new TouchedSku(rs.getString("SkuId"), rs.getTimestamp("TouchedAt")));
+                }
+                return touched;
+            }
+        });
+    }
+
+    /**
+     * OnHand - Reserved (shard deltas included) for several SKUs in one read-only query; missing SKUs are absent.
+     */
+    public java.util.Map<String, Long> getAvailable(List<String> skuIds) {
+        java.util.Map<String, InventoryRow> rows = counterShards > 0
+                ? readAggregated(skuIds)
+                : inReadOnly(tx -> listInventory(tx, skuIds));
+        java.util.Map<String, Long> available = new java.util.HashMap<>();
+        rows.forEach((skuId, row) -> available.put(skuId, row.onHand - row.reserved));
+        return available;
+    }
+
     public List<com.lingxiao.inventory.api.dto.ReserveItem> getReservationItems(String orderId) {
         return inReadOnly(tx -> {
             List<ReservationRow> rows = listReservations(tx, orderId);
@@ -306,6 +598,188 @@ public class InventoryRepository extends BaseRepositorySupport {
         }
     }
 
+    /**
+     * Adds a delta to one random counter shard of the SKU. Only that shard row is locked; the Inventory
+     * row is not read. A missing shard row (seeded before sharding was enabled) is created with the delta.
+     */
+    private void applyShardDelta(TransactionContext tx, String skuId, long onHandDelta, long reservedDelta) {
+        long shard = ThreadLocalRandom.current().nextInt(counterShards);
+        Statement stmt = Statement.newBuilder(
+                        "UPDATE InventoryCounterShards SET OnHandDelta = OnHandDelta + @on, "
+                                + "ReservedDelta = ReservedDelta + @r, UpdatedAt = PENDING_COMMIT_TIMESTAMP() "
+                                + "WHERE SkuId = @s AND ShardId = @n")
+                .bind("on").to(onHandDelta)
+                .bind("r").to(reservedDelta)
+                .bind("s").to(skuId)
+                .bind("n").to(shard)
+                .build();
+        if (tx.executeUpdate(stmt) == 0) {
+            tx.buffer(Mutation.newInsertOrUpdateBuilder("InventoryCounterShards")
+                    .set("SkuId").to(skuId)
+                    .set("ShardId").to(shard)
+                    .set("OnHandDelta").to(onHandDelta)
+                    .set("ReservedDelta").to(reservedDelta)
+                    .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                    .build());
+        }
+    }
+
+    /**
+     * Picks a random shard of the SKU and returns it (read and locked) with at least {@code want} available
+     * units when the SKU still has them: a short shard first takes its fair share of the Inventory row's
+     * unallotted stock, then, when that is not enough either, moves what it lacks from the other shards.
+     * Moved stock is buffered on every row involved (this shard included), so the caller only adds its
+     * {@link ShardRow#reserve} write. A missing SKU yields an empty shard.
+     */
+    private ShardRow allot(TransactionContext tx, String skuId, long want) {
+        long shardId = ThreadLocalRandom.current().nextInt(counterShards);
+        Struct row = tx.readRow("InventoryCounterShards", Key.of(skuId, shardId), List.of("OnHandDelta", "ReservedDelta"));
+        ShardRow shard = row == null
+                ? new ShardRow(shardId, 0, 0)
+                : new ShardRow(shardId, row.getLong("OnHandDelta"), row.getLong("ReservedDelta"));
+        if (shard.available() >= want) {
+            return shard;
+        }
+        long moved = 0;
+        Optional<InventoryRow> invOpt = getInventory(tx, skuId);
+        if (invOpt.isEmpty()) {
+            return shard;
+        }
+        InventoryRow inv = invOpt.get();
+        long unallotted = inv.onHand - inv.reserved;
+        long refill = Math.min(unallotted, Math.max(want - shard.available(), Math.ceilDiv(unallotted, counterShards)));
+        if (refill > 0) {
+            tx.buffer(Mutation.newUpdateBuilder("Inventory")
+                    .set("SkuId").to(skuId)
+                    .set("OnHand").to(inv.onHand - refill)
+                    .set("Reserved").to(inv.reserved)
+                    .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                    .build());
+            moved += refill;
+        }
+        if (shard.available() + moved < want) {
+            // sold-out regime: the remaining stock is spread over the other shards
+            for (ShardRow other : listShards(tx, skuId)) {
+                long lacking = want - shard.available() - moved;
+                if (lacking <= 0) {
+                    break;
+                }
+                if (other.shardId == shardId || other.available() <= 0) {
+                    continue;
+                }
+                long take = Math.min(other.available(), lacking);
+                tx.buffer(shardMutation(skuId, new ShardRow(other.shardId, other.onHandDelta - take, other.reservedDelta)));
+                moved += take;
+            }
+        }
+        if (moved == 0) {
+            return shard;
+        }
+        ShardRow topped = new ShardRow(shardId, shard.onHandDelta + moved, shard.reservedDelta);
+        tx.buffer(shardMutation(skuId, topped));
+        return topped;
+    }
+
+    /**
+     * Moves every shard's deltas into the Inventory row (buffers the zeroed shards) and returns the resulting
+     * Inventory row, for stock changes that may lower the total.
+     */
+    private Optional<InventoryRow> foldShards(TransactionContext tx, String skuId) {
+        Optional<InventoryRow> invOpt = getInventory(tx, skuId);
+        if (invOpt.isEmpty()) {
+            return invOpt;
+        }
+        long onHand = invOpt.get().onHand;
+        long reserved = invOpt.get().reserved;
+        for (ShardRow shard : listShards(tx, skuId)) {
+            if (shard.onHandDelta == 0 && shard.reservedDelta == 0) {
+                continue;
+            }
+            onHand += shard.onHandDelta;
+            reserved += shard.reservedDelta;
+            tx.buffer(shardMutation(skuId, new ShardRow(shard.shardId, 0, 0)));
+        }
+        return Optional.of(new InventoryRow(onHand, reserved));
+    }
+
+    private List<ShardRow> listShards(com.google.cloud.spanner.ReadContext tx, String skuId) {
+        Statement stmt = Statement.newBuilder(
+                        "SELECT ShardId, OnHandDelta, ReservedDelta FROM InventoryCounterShards WHERE SkuId=@s")
+                .bind("s").to(skuId)
+                .build();
+        try (ResultSet rs = tx.executeQuery(stmt)) {
+            List<ShardRow> shards = new ArrayList<>();
+            while (rs.next()) {
+                shards.add(new ShardRow(rs.getLong("ShardId"), rs.getLong("OnHandDelta"), rs.getLong("ReservedDelta")));
+            }
+            return shards;
+        }
+    }
+
+    private static Mutation shardMutation(String skuId, ShardRow shard) {
+        return Mutation.newInsertOrUpdateBuilder("InventoryCounterShards")
+                .set("SkuId").to(skuId)
+                .set("ShardId").to(shard.shardId)
+                .set("OnHandDelta").to(shard.onHandDelta)
+                .set("ReservedDelta").to(shard.reservedDelta)
+                .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                .build();
+    }
+
+    /**
+     * Inventory row plus all counter shards in a read-only transaction, for callers that only display
+     * availability. Reserves decide on their own shard's allotment instead (see {@link #allot}).
+     */
+    private java.util.Map<String, InventoryRow> readAggregated(List<String> skuIds) {
+        return inReadOnly(tx -> readAggregated(tx, skuIds));
+    }
+
+    /**
+     * Inventory row plus all counter shards of each SKU.
+     */
+    private java.util.Map<String, InventoryRow> readAggregated(com.google.cloud.spanner.ReadContext tx, List<String> skuIds) {
+        Statement stmt = Statement.newBuilder(
+                        "SELECT i.SkuId, "
+                                + "i.OnHand + IFNULL((SELECT SUM(s.OnHandDelta) FROM InventoryCounterShards s WHERE s.SkuId = i.SkuId), 0) AS OnHand, "
+                                + "i.Reserved + IFNULL((SELECT SUM(s.ReservedDelta) FROM InventoryCounterShards s WHERE s.SkuId = i.SkuId), 0) AS Reserved "
+                                + "FROM Inventory i WHERE i.SkuId IN UNNEST(@ids)")
+                .bind("ids").toStringArray(skuIds)
+                .build();
+        try (ResultSet rs = tx.executeQuery(stmt)) {
+            java.util.Map<String, InventoryRow> rows = new java.util.HashMap<>();
+            while (rs.next()) {
+                rows.put(rs.getString("SkuId"), new InventoryRow(rs.getLong("OnHand"), rs.getLong("Reserved")));
+            }
+            return rows;
+        }
+    }
+
+    private Mutation reservationMutation(String orderId, String skuId, long qty, Instant expireAt) {
+        return Mutation.newInsertOrUpdateBuilder("InventoryReservations")
+                .set("OrderId").to(orderId)
+                .set("SkuId").to(skuId)
+                .set("Qty").to(qty)
+                .set("Status").to(ReservationStatus.HELD.name())
+                .set("ExpireAt").to(com.google.cloud.Timestamp.ofTimeSecondsAndNanos(expireAt.getEpochSecond(), expireAt.getNano()))
+                .set("CreatedAt").to(Value.COMMIT_TIMESTAMP)
+                .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                .build();
+    }
+
+    private java.util.Map<String, InventoryRow> listInventory(com.google.cloud.spanner.ReadContext tx, List<String> skuIds) {
+        Statement stmt = Statement.newBuilder(
+                        "SELECT SkuId, OnHand, Reserved FROM Inventory WHERE SkuId IN UNNEST(@ids)")
+                .bind("ids").toStringArray(skuIds)
+                .build();
+        try (ResultSet rs = tx.executeQuery(stmt)) {
+            java.util.Map<String, InventoryRow> rows = new java.util.HashMap<>();
+            while (rs.next()) {
+                rows.put(rs.getString("SkuId"), new InventoryRow(rs.getLong("OnHand"), rs.getLong("Reserved")));
+            }
+            return rows;
+        }
+    }
+
     private Optional<ReservationRow> getReservation(com.google.cloud.spanner.ReadContext tx, String orderId, String skuId) {
         Statement stmt = Statement.newBuilder(
                         "SELECT Qty, Status, ExpireAt, CreatedAt, UpdatedAt FROM InventoryReservations WHERE OrderId=@o AND SkuId=@s")
@@ -334,6 +808,20 @@ public class InventoryRepository extends BaseRepositorySupport {
         }
     }
 
+    private List<ReservationRow> listReservations(com.google.cloud.spanner.ReadContext tx, List<String> orderIds) {
+        Statement stmt = Statement.newBuilder(
+                        "SELECT OrderId, SkuId, Qty, Status, ExpireAt, CreatedAt, UpdatedAt FROM InventoryReservations WHERE OrderId IN UNNEST(@o)")
+                .bind("o").toStringArray(orderIds)
+                .build();
+        try (ResultSet rs = tx.executeQuery(stmt)) {
+            List<ReservationRow> list = new ArrayList<>();
+            while (rs.next()) {
+                list.add(mapReservation(rs, rs.getString("OrderId"), rs.getString("SkuId")));
+            }
+            return list;
+        }
+    }
+
     private ReservationRow mapReservation(ResultSet rs, String orderId, String skuId) {
         return new ReservationRow(
                 orderId,
@@ -346,8 +834,31 @@ public class InventoryRepository extends BaseRepositorySupport {
         );
     }
 
+    public record FlashSaleReservation(String orderId, String skuId, long qty) {}
+
+    public record GroupCommitResult(int reserved, int duplicate, int insufficient) {}
+
+    record GroupCommitPlan(List<FlashSaleReservation> accepted, java.util.Map<String, Long> reservedDelta,
+                           GroupCommitResult result) {}
+
+    public record TouchedSku(String skuId, com.google.cloud.Timestamp touchedAt) {}
+
     private record InventoryRow(long onHand, long reserved) {}
 
+    /**
+     * One counter shard row; its allotment is {@link #available()}.
+     */
+    private record ShardRow(long shardId, long onHandDelta, long reservedDelta) {
+
+        long available() {
+            return onHandDelta - reservedDelta;
+        }
+
+        ShardRow reserve(long qty) {
+            return new ShardRow(shardId, onHandDelta, reservedDelta + qty);
+        }
+    }
+
     private record ReservationRow(String orderId, String skuId, long qty, ReservationStatus status,
                                   com.google.cloud.Timestamp expireAt,
                                   com.google.cloud.Timestamp createdAt,
@@ -0,0 +1,116 @@
+package com.lingxiao.inventory.infrastructure.redis;
+
+import com.lingxiao.inventory.config.FlashSaleActivityProperties;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 当前生效的秒杀活动：默认活动（inventory.flashsale.activity-id）加 inventory.flashsale.activities 中的其它活动。
+ * 每个活动有自己的 Stream 分片数与库存分桶数；key 前缀各活动共用（活动 id 已在 hash tag 内区分，
+ * 且 payment/order 服务只凭 orderId + 固定前缀推导 snapshot key）。
+ *
+ * 预占按请求里的 activityId 路由（缺省为默认活动）；释放等只拿到 orderId 的路径用 {@link #forOrderId(String)}。
+ * 活动下线前须等它的订单全部支付/超时，否则释放时找不到布局。
+ */
+@Component
+public class FlashSaleActivityRegistry {
+
+    private final FlashSaleKeyGenerator defaultActivity;
+    private final Map<String, FlashSaleKeyGenerator> activities;
+    // 按配置顺序，forOrderId 线性比对（活动数很少，无需截取子串查 map）
+    private final FlashSaleKeyGenerator[] ordered;
+
+    @Autowired
+    public FlashSaleActivityRegistry(
+            @Value("${inventory.flashsale.activity-id:fs}") String activityId,
+            @Value("${inventory.flashsale.stream-shards:8}") int shardCount,
+            @Value("${inventory.flashsale.stock-buckets:1}") int stockBuckets,
+            @Value("${inventory.flashsale.stock-prefix:fs:stock:}") String stockPrefix,
+            @Value("${inventory.flashsale.buyers-prefix:fs:buyers:}") String buyersPrefix,
+            @Value("${inventory.flashsale.idempotency-prefix:fs:order:}") String orderPrefix,
+            @Value("${inventory.flashsale.outbox.stream-prefix:fs:stream:}") String streamPrefix,
+            @Value("${inventory.flashsale.snapshot-prefix:fs:snap:}") String snapshotPrefix,
+            @Value("${inventory.flashsale.price-prefix:fs:price:}") String pricePrefix,
+            FlashSaleActivityProperties properties
+    ) {
+        this(new FlashSaleKeyGenerator(activityId, shardCount, stockBuckets, stockPrefix, buyersPrefix,
+                        orderPrefix, streamPrefix, snapshotPrefix, pricePrefix),
+                properties.activities().stream()
+                        .map(a -> new FlashSaleKeyGenerator(a.id(),
+                                a.streamShards() != null ? a.streamShards() : shardCount,
+                                a.stockBuckets() != null ? a.stockBuckets() : stockBuckets,
+                                stockPrefix, buyersPrefix, orderPrefix, streamPrefix, snapshotPrefix, pricePrefix))
+                        .toList());
+    }
+
+    public FlashSaleActivityRegistry(FlashSaleKeyGenerator defaultActivity, List<FlashSaleKeyGenerator> others) {
+        Map<String, FlashSaleKeyGenerator> byId = new LinkedHashMap<>();
+        byId.put(defaultActivity.activityId(), defaultActivity);
+        for (FlashSaleKeyGenerator activity : others) {
+            if (byId.putIfAbsent(activity.activityId(), activity) != null) {
+                throw new IllegalArgumentException("Duplicate flash sale activity: " + activity.activityId());
+            }
+        }
+        this.defaultActivity = defaultActivity;
+        this.activities = Collections.unmodifiableMap(byId);
+        this.ordered = byId.values().toArray(new FlashSaleKeyGenerator[0]);
+    }
+
+    public static FlashSaleActivityRegistry of(FlashSaleKeyGenerator defaultActivity, FlashSaleKeyGenerator... others) {
+        return new FlashSaleActivityRegistry(defaultActivity, List.of(others));
+    }
+
+    public FlashSaleKeyGenerator defaultActivity() {
+        return defaultActivity;
+    }
+
+    /**
+     * @param activityId blank = default activity
+     * @throws UnknownActivityException activityId is not an active activity
+     */
+    public FlashSaleKeyGenerator activity(String activityId) {
+        if (!StringUtils.hasText(activityId)) {
+            return defaultActivity;
+        }
+        FlashSaleKeyGenerator activity = activities.get(activityId);
+        if (activity == null) {
+            throw new UnknownActivityException("Unknown flash sale activity: " + activityId);
+        }
+        return activity;
+    }
+
+    /**
+     * @throws UnknownActivityException orderId was not generated by an active activity
+     */
+    public FlashSaleKeyGenerator forOrderId(String orderId) {
+        for (FlashSaleKeyGenerator activity : ordered) {
+            if (activity.ownsOrderId(orderId)) {
+                return activity;
+            }
+        }
+        throw new UnknownActivityException("orderId does not belong to an active flash sale activity, got=" + orderId);
+    }
+
+    public List<FlashSaleKeyGenerator> activities() {
+        return List.of(ordered);
+    }
+
+    /**
+     * Outbox streams of every active activity.
+     */
+    public List<FlashSaleKeyGenerator.StreamShard> streamShards() {
+        List<FlashSaleKeyGenerator.StreamShard> shards = new ArrayList<>();
+        for (FlashSaleKeyGenerator activity : ordered) {
+            shards.addAll(activity.streamShards());
+        }
+        return shards;
+    }
+}
@@ -0,0 +1,101 @@
+package com.lingxiao.inventory.infrastructure.redis;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 在途账本：Redis 已扣减、Spanner consumer 还没落库的预占（{@link FlashSaleKeyGenerator#inflightKey}），供对账使用。
+ *
+ * 只在 inventory.flashsale.reconcile.enabled 时记账：关闭时预占脚本不写账本、consumer 不划账，热路径没有额外命令。
+ * 账本按预占的 occurredAt 分时间窗，每个窗口一个 hash，TTL = retention + window。
+ * 超过 retention 的窗口不再算在途：进了重试耗尽、划账失败、始终没落库的条目最多挡住向上修正 retention 这么久。
+ * retention 要大于 Stream + Kafka 的最长滞留（含重试）。
+ */
+@Component
+public class FlashSaleInflightLedger {
+
+    private final StringRedisTemplate redisTemplate;
+    private final boolean enabled;
+    private final long windowMillis;
+    private final Duration retention;
+
+    public FlashSaleInflightLedger(StringRedisTemplate redisTemplate,
+                                   @Value("${inventory.flashsale.reconcile.enabled:false}") boolean enabled,
+                                   @Value("${inventory.flashsale.reconcile.inflight-window:PT10M}") Duration window,
+                                   @Value("${inventory.flashsale.reconcile.inflight-retention:PT1H}") Duration retention) {
+        this.redisTemplate = redisTemplate;
+        this.enabled = enabled;
+        this.windowMillis = Math.max(1, window.toMillis());
+        this.retention = retention;
+    }
+
+    public boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * @return ledger key of the window a reservation at occurredAt is recorded in; null while disabled
+     */
+    public String keyFor(String stockKey, Instant occurredAt) {
+        if (!enabled) {
+            return null;
+        }
+        return FlashSaleKeyGenerator.inflightKey(stockKey, occurredAt.toEpochMilli() / windowMillis);
+    }
+
+    /**
+     * TTL the reserve script sets on a window's hash; it outlives the window by retention.
+     */
+    public Duration ttl() {
+        return retention.plusMillis(windowMillis);
+    }
+
+    /**
+     * Windows still counted as in flight at now, oldest first.
+     */
+    public List<String> liveKeys(String stockKey, Instant now) {
+        long last = now.toEpochMilli() / windowMillis;
+        long first = now.minus(retention).toEpochMilli() / windowMillis;
+        List<String> keys = new ArrayList<>((int) (last - first + 1));
+        for (long window = first; window <= last; window++) {
+            keys.add(FlashSaleKeyGenerator.inflightKey(stockKey, window));
+        }
+        return keys;
+    }
+
+    /**
+     * Sum of the live windows' totals of these stock keys, one pipelined round trip.
+     */
+    public long inflight(List<String> stockKeys) {
+        Instant now = Instant.now();
+        List<byte[]> ledgerKeys = new ArrayList<>();
+        for (String stockKey : stockKeys) {
+            for (String key : liveKeys(stockKey, now)) {
+                ledgerKeys.add(key.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        byte[] field = FlashSaleKeyGenerator.INFLIGHT_TOTAL_FIELD.getBytes(StandardCharsets.UTF_8);
+        List<Object> totals = redisTemplate.executePipelined((RedisCallback<Object>) (RedisConnection connection) -> {
+            for (byte[] key : ledgerKeys) {
+                connection.hashCommands().hGet(key, field);
+            }
+            return null;
+        });
+        long inflight = 0;
+        for (Object total : totals) {
+            if (total != null) {
+                inflight += Long.parseLong(total.toString());
+            }
+        }
+        return inflight;
+    }
+}
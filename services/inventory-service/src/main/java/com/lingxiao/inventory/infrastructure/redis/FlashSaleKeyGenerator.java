@@ -1,17 +1,24 @@
 package com.lingxiao.inventory.infrastructure.redis;
 
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.stereotype.Component;
 import org.springframework.util.StringUtils;
 
 import java.util.ArrayList;
 import java.util.List;
 
-@Component
+/**
+ * Redis key / orderId layout of one flash sale activity. Instances are owned by
+ * {@link FlashSaleActivityRegistry}; every activity has its own shard and bucket counts,
+ * and its keys are namespaced by the activity id inside the hash tag ({activityId:shard}).
+ */
 public class FlashSaleKeyGenerator {
 
+    private static final String ORDER_ID_PREFIX = "o-fs-";
+
+    public static final String INFLIGHT_TOTAL_FIELD = "_total";
+
     private final String activityId;
     private final int shardCount;
+    private final int stockBuckets;
     private final String stockPrefix;
     private final String buyersPrefix;
     private final String orderPrefix;
@@ -20,23 +27,32 @@ public class FlashSaleKeyGenerator {
     private final String pricePrefix;
 
     public FlashSaleKeyGenerator(
-            @Value("${inventory.flashsale.activity-id:fs}") String activityId,
-            @Value("${inventory.flashsale.stream-shards:8}") int shardCount,
-            @Value("${inventory.flashsale.stock-prefix:fs:stock:}") String stockPrefix,
-            @Value("${inventory.flashsale.buyers-prefix:fs:buyers:}") String buyersPrefix,
-            @Value("${inventory.flashsale.idempotency-prefix:fs:order:}") String orderPrefix,
-            @Value("${inventory.flashsale.outbox.stream-prefix:fs:stream:}") String streamPrefix,
-            @Value("${inventory.flashsale.snapshot-prefix:fs:snap:}") String snapshotPrefix,
-            @Value("${inventory.flashsale.price-prefix:fs:price:}") String pricePrefix
+            String activityId,
+            int shardCount,
+            int stockBuckets,
+            String stockPrefix,
+            String buyersPrefix,
+            String orderPrefix,
+            String streamPrefix,
+            String snapshotPrefix,
+            String pricePrefix
     ) {
         if (!StringUtils.hasText(activityId)) {
             throw new IllegalArgumentException("activityId must not be blank");
         }
+        // '-' separates the orderId segments, '{' '}' ':' delimit the hash tag
+        if (activityId.chars().anyMatch(c -> c == '-' || c == '{' || c == '}' || c == ':')) {
+            throw new IllegalArgumentException("activityId must not contain '-', '{', '}' or ':', got=" + activityId);
+        }
         if (shardCount <= 0) {
             throw new IllegalArgumentException("shardCount must be positive");
         }
+        if (stockBuckets <= 0 || stockBuckets > 100) {
+            throw new IllegalArgumentException("stockBuckets must be between 1 and 100");
+        }
         this.activityId = activityId;
         this.shardCount = shardCount;
+        this.stockBuckets = stockBuckets;
         this.stockPrefix = stockPrefix;
         this.buyersPrefix = buyersPrefix;
         this.orderPrefix = orderPrefix;
@@ -45,6 +61,21 @@ public class FlashSaleKeyGenerator {
         this.pricePrefix = pricePrefix;
     }
 
+    public String activityId() {
+        return activityId;
+    }
+
+    public int shardCount() {
+        return shardCount;
+    }
+
+    /**
+     * Key of the in-process sold-out mark ({@link SoldOutRegistry}); the same SKU can sell in several activities.
+     */
+    public String soldOutKey(String skuId) {
+        return activityId + ":" + skuId;
+    }
+
     public int shardForSku(String skuId) {
         if (!StringUtils.hasText(skuId)) {
             throw new IllegalArgumentException("skuId must not be blank");
@@ -60,29 +91,109 @@ public class FlashSaleKeyGenerator {
         return "{" + activityId + ":" + shardIdForSku(skuId) + "}";
     }
 
-    public String stockKey(String skuId) {
-        return stockPrefix + shardTag(skuId) + ":sku:" + skuId;
+    /**
+     * Number of stock sub-buckets per SKU. 1 keeps the single-key layout; with N &gt; 1 a SKU's
+     * stock, buyers set, price copy and outbox stream are split across N hash tags
+     * ({activityId:shard.bucket}) so a hot SKU is no longer bound to one Redis slot.
+     */
+    public int bucketCount() {
+        return stockBuckets;
+    }
+
+    /**
+     * Home bucket of a buyer. Sticky per user so the one-per-buyer check always lands on the
+     * same buyers set; users spread evenly across buckets.
+     */
+    public int homeBucket(String userId) {
+        if (stockBuckets == 1) {
+            return 0;
+        }
+        if (!StringUtils.hasText(userId)) {
+            throw new IllegalArgumentException("userId must not be blank");
+        }
+        return Math.floorMod(userId.hashCode(), stockBuckets);
+    }
+
+    public String bucketTag(String skuId, int bucket) {
+        return "{" + activityId + ":" + bucketShardId(shardIdForSku(skuId), bucket) + "}";
+    }
+
+    public String stockKey(String skuId, int bucket) {
+        return stockPrefix + bucketTag(skuId, bucket) + ":sku:" + skuId;
+    }
+
+    public List<String> stockKeys(String skuId) {
+        List<String> keys = new ArrayList<>(stockBuckets);
+        for (int bucket = 0; bucket < stockBuckets; bucket++) {
+            keys.add(stockKey(skuId, bucket));
+        }
+        return keys;
+    }
+
+    /**
+     * Loans a bucket made to dry neighbours (flash_sale_borrow.lua), on the lending bucket's hash tag
+     * so the DECRBY and the loan record are one atomic step. Field = orderId, value = qty:borrowedAtMillis.
+     */
+    public static String loanKey(String stockKey) {
+        return stockKey + ":loans";
+    }
+
+    /**
+     * Reservations a bucket took in Redis during one time window that the Spanner consumer has not applied yet
+     * (still in the outbox stream or in Kafka), on the bucket's hash tag so the reserve script updates it
+     * atomically. Field = orderId -&gt; qty, plus {@link #INFLIGHT_TOTAL_FIELD} = their sum.
+     * Windows and TTL: {@link FlashSaleInflightLedger}.
+     */
+    public static String inflightKey(String stockKey, long window) {
+        return stockKey + ":inflight:" + window;
+    }
+
+    /**
+     * Stock keys of this activity that have ever lent; scanned by the loan sweeper.
+     */
+    public String loanIndexKey() {
+        return stockPrefix + "{" + activityId + "}:loans";
     }
 
-    public String buyersKey(String skuId) {
-        return buyersPrefix + shardTag(skuId) + ":sku:" + skuId;
+    public String buyersKey(String skuId, int bucket) {
+        return buyersPrefix + bucketTag(skuId, bucket) + ":sku:" + skuId;
     }
 
     /**
      * Price hash key, preheated before the activity. Shares the same hash-tag as
-     * {@link #stockKey(String)} so a single Lua call can read both stock and price.
+     * {@link #stockKey(String, int)} so a single Lua call can read both stock and price;
+     * in bucket mode every bucket carries its own copy.
      * Format: fs:price:{activityId:shard}:sku:${skuId}, hash fields: priceCents, currency.
      */
-    public String priceKey(String skuId) {
-        return pricePrefix + shardTag(skuId) + ":sku:" + skuId;
+    public String priceKey(String skuId, int bucket) {
+        return pricePrefix + bucketTag(skuId, bucket) + ":sku:" + skuId;
+    }
+
+    public List<String> priceKeys(String skuId) {
+        List<String> keys = new ArrayList<>(stockBuckets);
+        for (int bucket = 0; bucket < stockBuckets; bucket++) {
+            keys.add(priceKey(skuId, bucket));
+        }
+        return keys;
+    }
+
+    /**
+     * Idempotency key of a reservation; lives in the order's home bucket (encoded in the orderId).
+     */
+    public String orderKey(String orderId) {
+        return orderPrefix + shardTagFromOrderId(orderId) + ":" + orderId;
     }
 
-    public String orderKey(String orderId, String skuId) {
-        return orderPrefix + shardTag(skuId) + ":" + orderId;
+    /**
+     * Hash tag of a buyer's reserve idempotency record: the buyer's home bucket, so the fused path can
+     * run acquire + reserve + done pointer in one Lua call. Both reserve paths put it in the record id.
+     */
+    public String reserveIdemTag(String skuId, String userId) {
+        return bucketTag(skuId, homeBucket(userId));
     }
 
-    public String streamKey(String skuId) {
-        return streamPrefix + shardTag(skuId);
+    public String streamKey(String skuId, int bucket) {
+        return streamPrefix + bucketTag(skuId, bucket);
     }
 
     /**
@@ -94,48 +205,110 @@ public class FlashSaleKeyGenerator {
     }
 
     /**
-     * OrderId format: o-fs-${activityId}-${shardId}-${uuid}
+     * OrderId format: o-fs-${activityId}-${shardId}-${uuid}; in bucket mode shardId carries the
+     * buyer's home bucket (e.g. 04.03), so snapshot/order keys stay derivable from orderId alone.
      */
-    public String generateOrderIdForSku(String skuId) {
-        String shardId = shardIdForSku(skuId);
-        return "o-fs-" + activityId + "-" + shardId + "-" + java.util.UUID.randomUUID();
+    public String generateOrderIdForSku(String skuId, String userId) {
+        String shardId = bucketShardId(shardIdForSku(skuId), homeBucket(userId));
+        return ORDER_ID_PREFIX + activityId + "-" + shardId + "-" + java.util.UUID.randomUUID();
+    }
+
+    /**
+     * Home bucket encoded in an orderId; 0 for single-key layout orderIds.
+     */
+    public int bucketFromOrderId(String orderId) {
+        int activityEnd = activityEnd(orderId);
+        int shardEnd = shardEnd(orderId, activityEnd);
+        int bucket = 0;
+        boolean inBucket = false;
+        for (int i = activityEnd + 1; i < shardEnd; i++) {
+            char c = orderId.charAt(i);
+            if (c == '.') {
+                inBucket = true;
+            } else if (inBucket) {
+                if (c < '0' || c > '9') {
+                    throw new IllegalArgumentException("Invalid orderId bucket, got=" + orderId);
+                }
+                bucket = bucket * 10 + (c - '0');
+            }
+        }
+        return bucket;
     }
 
     /**
      * Extract shard tag from orderId.
      * Expected orderId format: o-fs-${activityId}-${shardId}-${uuid}
+     * Index scan only (no split/regex): this runs for every key derived from an orderId.
      */
     public String shardTagFromOrderId(String orderId) {
-        if (!StringUtils.hasText(orderId)) {
-            throw new IllegalArgumentException("orderId must not be blank");
+        int activityEnd = activityEnd(orderId);
+        int shardEnd = shardEnd(orderId, activityEnd);
+        return new StringBuilder(shardEnd - ORDER_ID_PREFIX.length() + 2)
+                .append('{')
+                .append(orderId, ORDER_ID_PREFIX.length(), activityEnd)
+                .append(':')
+                .append(orderId, activityEnd + 1, shardEnd)
+                .append('}')
+                .toString();
+    }
+
+    /**
+     * True if the orderId was generated for this activity.
+     */
+    public boolean ownsOrderId(String orderId) {
+        return orderId != null
+                && orderId.length() > ORDER_ID_PREFIX.length() + activityId.length()
+                && orderId.startsWith(ORDER_ID_PREFIX)
+                && orderId.startsWith(activityId, ORDER_ID_PREFIX.length())
+                && orderId.charAt(ORDER_ID_PREFIX.length() + activityId.length()) == '-';
+    }
+
+    /**
+     * Index of the '-' after the activity id.
+     */
+    private static int activityEnd(String orderId) {
+        if (orderId == null || !orderId.startsWith(ORDER_ID_PREFIX)) {
+            throw new IllegalArgumentException("Invalid orderId prefix, got=" + orderId);
         }
-        // split with limit to keep UUID part intact even if it contains '-'
-        String[] parts = orderId.split("-", 6);
-        if (parts.length < 5) {
+        int activityEnd = orderId.indexOf('-', ORDER_ID_PREFIX.length());
+        if (activityEnd <= ORDER_ID_PREFIX.length()) {
             throw new IllegalArgumentException("Invalid orderId format, expected o-fs-{activityId}-{shardId}-..., got=" + orderId);
         }
-        String prefix0 = parts[0];
-        String prefix1 = parts[1];
-        String parsedActivityId = parts[2];
-        String shardId = parts[3];
-        if (!"o".equals(prefix0) || !"fs".equals(prefix1)) {
-            throw new IllegalArgumentException("Invalid orderId prefix, got=" + orderId);
-        }
-        if (!StringUtils.hasText(parsedActivityId) || !StringUtils.hasText(shardId)) {
+        return activityEnd;
+    }
+
+    /**
+     * Index of the '-' after the shard id.
+     */
+    private static int shardEnd(String orderId, int activityEnd) {
+        int shardEnd = orderId.indexOf('-', activityEnd + 1);
+        if (shardEnd <= activityEnd + 1) {
             throw new IllegalArgumentException("Invalid orderId activityId/shardId, got=" + orderId);
         }
-        return "{" + parsedActivityId + ":" + shardId + "}";
+        return shardEnd;
     }
 
     public List<StreamShard> streamShards() {
         List<StreamShard> shards = new ArrayList<>();
         for (int shard = 0; shard < shardCount; shard++) {
-            String shardId = String.format("%02d", shard);
-            String tag = "{" + activityId + ":" + shardId + "}";
-            shards.add(new StreamShard(shardId, streamPrefix + tag));
+            for (int bucket = 0; bucket < stockBuckets; bucket++) {
+                String shardId = bucketShardId(String.format("%02d", shard), bucket);
+                String tag = "{" + activityId + ":" + shardId + "}";
+                shards.add(new StreamShard(activityId, shardId, streamPrefix + tag));
+            }
         }
         return shards;
     }
 
-    public record StreamShard(String shardId, String streamKey) {}
+    private String bucketShardId(String shardId, int bucket) {
+        if (stockBuckets == 1) {
+            return shardId;
+        }
+        if (bucket < 0 || bucket >= stockBuckets) {
+            throw new IllegalArgumentException("bucket out of range: " + bucket);
+        }
+        return shardId + "." + String.format("%02d", bucket);
+    }
+
+    public record StreamShard(String activityId, String shardId, String streamKey) {}
 }
@@ -5,29 +5,71 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Repository;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 @Repository
 public class FlashSaleRedisRepository {
 
     private final StringRedisTemplate redisTemplate;
+    private final FlashSaleInflightLedger inflightLedger;
     private final DefaultRedisScript<Long> reserveScript;
     private final DefaultRedisScript<Long> releaseScript;
+    private final DefaultRedisScript<Long> borrowScript;
+    private final DefaultRedisScript<Long> settleLoanScript;
+    private final DefaultRedisScript<Long> settleInflightScript;
+    private final DefaultRedisScript<String> reserveIdemScript;
 
-    public FlashSaleRedisRepository(StringRedisTemplate redisTemplate) {
+    public FlashSaleRedisRepository(StringRedisTemplate redisTemplate, FlashSaleInflightLedger inflightLedger) {
         this.redisTemplate = redisTemplate;
-        this.reserveScript = new DefaultRedisScript<>();
-        this.reserveScript.setLocation(new ClassPathResource("lua/flash_sale.lua"));
-        this.reserveScript.setResultType(Long.class);
+        this.inflightLedger = inflightLedger;
+        this.reserveScript = withReserveCore("lua/flash_sale.lua", Long.class);
 
         this.releaseScript = new DefaultRedisScript<>();
         this.releaseScript.setLocation(new ClassPathResource("lua/flash_sale_release.lua"));
         this.releaseScript.setResultType(Long.class);
+
+        this.borrowScript = new DefaultRedisScript<>();
+        this.borrowScript.setLocation(new ClassPathResource("lua/flash_sale_borrow.lua"));
+        this.borrowScript.setResultType(Long.class);
+
+        this.settleLoanScript = new DefaultRedisScript<>();
+        this.settleLoanScript.setLocation(new ClassPathResource("lua/flash_sale_loan_settle.lua"));
+        this.settleLoanScript.setResultType(Long.class);
+
+        this.settleInflightScript = new DefaultRedisScript<>();
+        this.settleInflightScript.setLocation(new ClassPathResource("lua/flash_sale_inflight_settle.lua"));
+        this.settleInflightScript.setResultType(Long.class);
+
+        this.reserveIdemScript = withReserveCore("lua/flash_sale_reserve_idem.lua", String.class);
+    }
+
+    /**
+     * Both reserve scripts call reserve(base) from flash_sale_reserve_core.lua; the core is prepended
+     * here so the reserve body lives in one file.
+     */
+    private static <T> DefaultRedisScript<T> withReserveCore(String location, Class<T> resultType) {
+        try {
+            String core = new ClassPathResource("lua/flash_sale_reserve_core.lua").getContentAsString(StandardCharsets.UTF_8);
+            String script = new ClassPathResource(location).getContentAsString(StandardCharsets.UTF_8);
+            return new DefaultRedisScript<>(core + "\n" + script, resultType);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to load " + location, e);
+        }
     }
 
     /**
-     * @return 1 success, 0 insufficient, -1 duplicate, -3 price missing (not preheated)
+     * @param stockPreclaimed qty was already taken via {@link #borrow}; skip the stock check
+     * @return 1 success, 0 stock at 0 (sold out), -2 stock left but less than qty, -1 duplicate,
+     *         -3 price missing (not preheated)
      */
     public long execute(String stockKey,
                         String buyersKey,
@@ -44,10 +86,11 @@ public class FlashSaleRedisRepository {
                         String orderId,
                         String skuId,
                         String occurredAt,
-                        String expireAt) {
+                        String expireAt,
+                        boolean stockPreclaimed) {
         Long res = redisTemplate.execute(
                 reserveScript,
-                List.of(stockKey, buyersKey, orderKey, streamKey, snapshotKey, priceKey),
+                withLedger(List.of(stockKey, buyersKey, orderKey, streamKey, snapshotKey, priceKey), stockKey, occurredAt),
                 userId,
                 Long.toString(qty),
                 Long.toString(ttl.toSeconds()),
@@ -57,11 +100,159 @@ public class FlashSaleRedisRepository {
                 orderId,
                 skuId,
                 occurredAt,
-                expireAt
+                expireAt,
+                stockPreclaimed ? "1" : "0",
+                Long.toString(inflightLedger.ttl().toSeconds())
         );
         return res == null ? -99 : res;
     }
 
+    /**
+     * Fused path: idempotency acquire + {@link #execute} + markDone in one script. idemKey must share
+     * the stock bucket's hash tag.
+     *
+     * @param deferSoldOut bucket mode: on an empty home bucket hold the idempotency key as PROCESSING
+     *                     and return "DEFER" instead of storing SOLD_OUT, so the caller can borrow
+     * @return "OK:&lt;payloadB64&gt;\n&lt;pointer&gt;" (this call), "DONE:..." (replay), "PROCESSING:&lt;token&gt;:&lt;payloadB64&gt;", "DEFER", or null
+     */
+    public String executeIdempotent(String idemKey,
+                                    String stockKey,
+                                    String buyersKey,
+                                    String orderKey,
+                                    String streamKey,
+                                    String snapshotKey,
+                                    String priceKey,
+                                    String userId,
+                                    long qty,
+                                    Duration ttl,
+                                    Duration snapshotTtl,
+                                    Duration buyersTtl,
+                                    String eventId,
+                                    String orderId,
+                                    String skuId,
+                                    String occurredAt,
+                                    String expireAt,
+                                    boolean stockPreclaimed,
+                                    String token,
+                                    String payloadB64,
+                                    Duration processingTtl,
+                                    Duration doneTtl,
+                                    boolean deferSoldOut) {
+        return redisTemplate.execute(
+                reserveIdemScript,
+                withLedger(List.of(idemKey, stockKey, buyersKey, orderKey, streamKey, snapshotKey, priceKey),
+                        stockKey, occurredAt),
+                userId,
+                Long.toString(qty),
+                Long.toString(ttl.toSeconds()),
+                Long.toString(Math.max(1, snapshotTtl.toSeconds())),
+                Long.toString(Math.max(0, buyersTtl.toSeconds())),
+                eventId,
+                orderId,
+                skuId,
+                occurredAt,
+                expireAt,
+                stockPreclaimed ? "1" : "0",
+                token,
+                payloadB64,
+                Long.toString(Math.max(1, processingTtl.toSeconds())),
+                Long.toString(Math.max(1, doneTtl.toSeconds())),
+                deferSoldOut ? "1" : "0",
+                Long.toString(inflightLedger.ttl().toSeconds())
+        );
+    }
+
+    /**
+     * Appends the in-flight ledger window while reconciliation is enabled; otherwise the reserve script
+     * skips the ledger entirely.
+     */
+    private List<String> withLedger(List<String> keys, String stockKey, String occurredAt) {
+        String ledgerKey = inflightLedger.keyFor(stockKey, Instant.parse(occurredAt));
+        if (ledgerKey == null) {
+            return keys;
+        }
+        List<String> withLedger = new ArrayList<>(keys);
+        withLedger.add(ledgerKey);
+        return withLedger;
+    }
+
+    /**
+     * Bucket-mode fallback: take qty from a neighbouring bucket's stock key and record the loan
+     * under orderId in the same script. Settle it with {@link #settleLoan} once the home-bucket
+     * reserve has run.
+     *
+     * @param loanIndexKey {@link FlashSaleKeyGenerator#loanIndexKey()} of the activity
+     * @return true if qty was taken
+     */
+    public boolean borrow(String loanIndexKey, String stockKey, String orderId, long qty) {
+        // index first: a loan the sweeper cannot find would be lost again
+        redisTemplate.opsForSet().add(loanIndexKey, stockKey);
+        Long res = redisTemplate.execute(borrowScript,
+                List.of(stockKey, FlashSaleKeyGenerator.loanKey(stockKey)),
+                Long.toString(qty), orderId, Long.toString(System.currentTimeMillis()));
+        return res != null && res == 1;
+    }
+
+    /**
+     * Settles a loan taken by {@link #borrow}; the qty goes back to the lender only if giveBack.
+     *
+     * @return true if this call settled it (false = already settled elsewhere)
+     */
+    public boolean settleLoan(String stockKey, String orderId, boolean giveBack) {
+        Long res = redisTemplate.execute(settleLoanScript,
+                List.of(stockKey, FlashSaleKeyGenerator.loanKey(stockKey)),
+                orderId, giveBack ? "1" : "0");
+        return res != null && res == 1;
+    }
+
+    /**
+     * Clears reservations the Spanner consumer has applied from an in-flight ledger window
+     * ({@link FlashSaleInflightLedger#keyFor}). Idempotent per orderId, so redeliveries are harmless.
+     *
+     * @return number of orderIds this call settled
+     */
+    public long settleInflight(String inflightKey, List<String> orderIds) {
+        Long res = redisTemplate.execute(settleInflightScript, List.of(inflightKey), orderIds.toArray());
+        return res == null ? 0 : res;
+    }
+
+    /**
+     * Stock of several buckets in one round trip; a missing key reads as -1.
+     */
+    public List<Long> stocks(List<String> stockKeys) {
+        List<String> values = redisTemplate.opsForValue().multiGet(stockKeys);
+        List<Long> stocks = new ArrayList<>(stockKeys.size());
+        for (int i = 0; i < stockKeys.size(); i++) {
+            String v = values == null ? null : values.get(i);
+            stocks.add(v == null ? -1L : Long.parseLong(v));
+        }
+        return stocks;
+    }
+
+    public Set<String> lenders(String loanIndexKey) {
+        Set<String> lenders = redisTemplate.opsForSet().members(loanIndexKey);
+        return lenders == null ? Set.of() : lenders;
+    }
+
+    /**
+     * Open loans of a lending bucket: orderId -&gt; qty:borrowedAtMillis.
+     */
+    public Map<String, String> loans(String stockKey) {
+        Map<Object, Object> raw = redisTemplate.opsForHash().entries(FlashSaleKeyGenerator.loanKey(stockKey));
+        Map<String, String> loans = new HashMap<>(raw.size());
+        raw.forEach((k, v) -> loans.put(k.toString(), v.toString()));
+        return loans;
+    }
+
+    /**
+     * True if the reserve script recorded the order (order key, or the snapshot once a release deleted it).
+     * Both keys share the order's home hash tag.
+     */
+    public boolean reservationRecorded(String orderKey, String snapshotKey) {
+        Long n = redisTemplate.countExistingKeys(List.of(orderKey, snapshotKey));
+        return n != null && n > 0;
+    }
+
     /**
      * @return removed count from buyers set (0 or 1)
      */
@@ -0,0 +1,121 @@
+package com.lingxiao.inventory.infrastructure.redis;
+
+import com.lingxiao.inventory.metrics.FlashSaleMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内售罄标记：reserve Lua 返回 0 后记下 SKU，之后的请求在进入 Redis（幂等 Lua / 预占 Lua / markDone）之前直接 SOLD_OUT。
+ *
+ * 标记只在本 pod 设置（各 pod 自己撞到 0 才标），清除通过 Redis pub/sub 广播到所有 pod：
+ * 补货（seed / addOnHand / setOnHand）或释放预占把库存还回 Redis 后调用 {@link #clear(String)}。
+ * 每个标记带 TTL（inventory.flashsale.sold-out-ttl），即使清除消息丢失或与标记竞态，
+ * 每个 pod 每个 SKU 每个 TTL 周期最多放一个请求去 Redis 重新确认。
+ */
+@Component
+public class SoldOutRegistry implements MessageListener {
+
+    private static final Logger log = LoggerFactory.getLogger(SoldOutRegistry.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final FlashSaleMetrics metrics;
+    private final String channel;
+    private final long ttlNanos;
+    private final boolean enabled;
+    // skuId -> 标记过期时间（System.nanoTime）
+    private final ConcurrentHashMap<String, Long> soldOut = new ConcurrentHashMap<>();
+
+    public SoldOutRegistry(StringRedisTemplate redisTemplate,
+                           RedisMessageListenerContainer listenerContainer,
+                           FlashSaleMetrics metrics,
+                           @Value("${inventory.flashsale.sold-out.enabled:true}") boolean enabled,
+                           @Value("${inventory.flashsale.sold-out.channel:fs:soldout:clear}") String channel,
+                           @Value("${inventory.flashsale.sold-out.ttl:PT1S}") Duration ttl) {
+        this.redisTemplate = redisTemplate;
+        this.metrics = metrics;
+        this.enabled = enabled;
+        this.channel = channel;
+        this.ttlNanos = ttl.toNanos();
+        if (enabled) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(channel));
+        }
+    }
+
+    public boolean isSoldOut(String skuId) {
+        if (!enabled || skuId == null) {
+            return false;
+        }
+        Long deadline = soldOut.get(skuId);
+        if (deadline == null) {
+            return false;
+        }
+        if (System.nanoTime() - deadline >= 0) {
+            soldOut.remove(skuId, deadline);
+            return false;
+        }
+        metrics.incSoldOutShortCircuit();
+        return true;
+    }
+
+    public void markSoldOut(String skuId) {
+        if (!enabled || skuId == null) {
+            return;
+        }
+        soldOut.put(skuId, System.nanoTime() + ttlNanos);
+    }
+
+    /**
+     * 库存回到 Redis 后调用：先清本地，再广播给其它 pod（本 pod 也会收到，重复清除无副作用）。
+     */
+    public void clear(String skuId) {
+        if (!enabled || skuId == null) {
+            return;
+        }
+        soldOut.remove(skuId);
+        try {
+            redisTemplate.convertAndSend(channel, skuId);
+        } catch (Exception e) {
+            // 其它 pod 的标记最迟在 TTL 后过期
+            log.warn("Sold-out clear broadcast failed, skuId={}", skuId, e);
+        }
+    }
+
+    /**
+     * 批量预热用：本地一次清完，广播在一个 pipeline 里发出。
+     */
+    public void clear(Collection<String> skuIds) {
+        if (!enabled || skuIds.isEmpty()) {
+            return;
+        }
+        skuIds.forEach(soldOut::remove);
+        try {
+            byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+            redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String skuId : skuIds) {
+                    connection.publish(channelBytes, skuId.getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("Sold-out clear broadcast failed, count={}", skuIds.size(), e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        soldOut.remove(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,11 @@
+package com.lingxiao.inventory.infrastructure.redis;
+
+/**
+ * activityId / orderId 不属于任何当前生效的秒杀活动。
+ * 继承 IllegalArgumentException 以兼容已有调用方；API 层只把这一种映射为 400。
+ */
+public class UnknownActivityException extends IllegalArgumentException {
+    public UnknownActivityException(String message) {
+        super(message);
+    }
+}
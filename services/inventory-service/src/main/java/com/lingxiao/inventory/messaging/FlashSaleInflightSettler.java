@@ -0,0 +1,75 @@
+package com.lingxiao.inventory.messaging;
+
+import com.lingxiao.contracts.events.FlashSaleReservedEventV2;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleInflightLedger;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleRedisRepository;
+import com.lingxiao.inventory.infrastructure.redis.UnknownActivityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Spanner 落库成功后把预占从 Redis 在途账本（{@link FlashSaleInflightLedger}）里划掉，
+ * 对账据此得到「已在 Redis 扣减、尚未进 Spanner」的 qty，不必扫 Stream，也覆盖了已出 Stream、还在 Kafka 里的部分。
+ * 对账关闭时不记账，这里也不发任何命令。
+ *
+ * 账本 key 由 orderId（活动 + home bucket）和事件的 occurredAt（时间窗）推出，按 key 合并成一次脚本调用。
+ * 划账失败只记日志：残留的在途 qty 只会让对账暂缓补库存（少卖方向），超过账本 retention 后不再计入。
+ */
+@Component
+public class FlashSaleInflightSettler {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleInflightSettler.class);
+
+    private final FlashSaleActivityRegistry activities;
+    private final FlashSaleRedisRepository redisRepo;
+    private final FlashSaleInflightLedger inflightLedger;
+
+    public FlashSaleInflightSettler(FlashSaleActivityRegistry activities, FlashSaleRedisRepository redisRepo,
+                                    FlashSaleInflightLedger inflightLedger) {
+        this.activities = activities;
+        this.redisRepo = redisRepo;
+        this.inflightLedger = inflightLedger;
+    }
+
+    public void settle(List<FlashSaleReservedEventV2> events) {
+        if (!inflightLedger.enabled()) {
+            return;
+        }
+        Map<String, List<String>> byLedger = new LinkedHashMap<>();
+        for (FlashSaleReservedEventV2 event : events) {
+            String ledgerKey = ledgerKey(event);
+            if (ledgerKey != null) {
+                byLedger.computeIfAbsent(ledgerKey, k -> new ArrayList<>()).add(event.orderId());
+            }
+        }
+        for (Map.Entry<String, List<String>> entry : byLedger.entrySet()) {
+            try {
+                redisRepo.settleInflight(entry.getKey(), entry.getValue());
+            } catch (Exception e) {
+                log.warn("Failed to settle in-flight flash sale reservations ledger={} count={}",
+                        entry.getKey(), entry.getValue().size(), e);
+            }
+        }
+    }
+
+    private String ledgerKey(FlashSaleReservedEventV2 event) {
+        if (event == null || event.orderId() == null || event.skuId() == null || event.occurredAt() == null) {
+            return null;
+        }
+        FlashSaleKeyGenerator keys;
+        try {
+            keys = activities.forOrderId(event.orderId());
+        } catch (UnknownActivityException e) {
+            return null; // 活动已下线，账本随活动 key 一起清理
+        }
+        return inflightLedger.keyFor(keys.stockKey(event.skuId(), keys.bucketFromOrderId(event.orderId())), event.occurredAt());
+    }
+}
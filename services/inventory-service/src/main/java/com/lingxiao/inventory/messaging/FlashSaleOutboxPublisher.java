@@ -3,6 +3,7 @@ package com.lingxiao.inventory.messaging;
 import com.lingxiao.contracts.Topics;
 import com.lingxiao.contracts.events.FlashSaleReservedEventV2;
 import com.lingxiao.inventory.config.FlashSaleOutboxProperties;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
 import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
 import com.lingxiao.inventory.metrics.FlashSaleMetrics;
 import org.apache.kafka.clients.producer.ProducerRecord;
@@ -21,18 +22,24 @@ import org.springframework.data.redis.connection.stream.RecordId;
 import org.springframework.data.redis.connection.stream.StreamOffset;
 import org.springframework.data.redis.connection.stream.StreamReadOptions;
 import org.springframework.data.redis.connection.stream.StreamRecords;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Component;
 
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 @Component
 @ConditionalOnProperty(prefix = "inventory.flashsale.outbox", name = "enabled", matchIfMissing = true)
@@ -44,7 +51,7 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
     private final KafkaTemplate<String, FlashSaleReservedEventV2> kafkaTemplate;
     private final FlashSaleMetrics metrics;
 
-    private final FlashSaleKeyGenerator keyGenerator;
+    private final FlashSaleActivityRegistry activities;
     private final String group;
     private final String consumerName;
 
@@ -60,6 +67,9 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
     private final long blockTimeoutMs;
     private final long pendingScanIntervalMs;
 
+    private final int maxReadersPerShard;        // 每个分片最多并发 reader 数（含主 reader）
+    private final long scaleOutBacklog;          // 分片 XLEN 超过该值时扩 reader
+
     private final String retryAttemptPrefix = "fs:retry:attempt:";
     private final String retryNextPrefix = "fs:retry:next:";
 
@@ -72,7 +82,7 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
                                     KafkaTemplate<String, FlashSaleReservedEventV2> kafkaTemplate,
                                     FlashSaleMetrics metrics,
                                     FlashSaleOutboxProperties outboxProperties,
-                                    FlashSaleKeyGenerator keyGenerator,
+                                    FlashSaleActivityRegistry activities,
                                     @Value("${inventory.flashsale.outbox.consumer:${HOSTNAME:fs-pub}}") String consumerName,
                                     @Value("${inventory.flashsale.outbox.batch-size:50}") int batchSize,
                                     @Value("${inventory.flashsale.outbox.retry.base-ms:500}") long retryBaseMs,
@@ -82,13 +92,16 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
                                     @Value("${inventory.flashsale.outbox.pending-idle-ms:30000}") long pendingIdleMs,
                                     // 新增：少量 pending read 的 idle 过滤阈值 + 每次处理数量
                                     @Value("${inventory.flashsale.outbox.pending-read-idle-ms:2000}") long pendingReadIdleMs,
-                                    @Value("${inventory.flashsale.outbox.pending-read-limit:20}") int pendingReadLimit) {
+                                    @Value("${inventory.flashsale.outbox.pending-read-limit:20}") int pendingReadLimit,
+                                    @Value("${inventory.flashsale.outbox.relay-mode:platform}") String relayMode,
+                                    @Value("${inventory.flashsale.outbox.max-readers-per-shard:1}") int maxReadersPerShard,
+                                    @Value("${inventory.flashsale.outbox.scale-out-backlog:5000}") long scaleOutBacklog) {
 
         this.redisTemplate = redisTemplate;
         this.kafkaTemplate = kafkaTemplate;
         this.metrics = metrics;
 
-        this.keyGenerator = keyGenerator;
+        this.activities = activities;
         this.group = outboxProperties.group();
         // 同组多实例必须使用唯一 consumer name，否则会争抢同一份 PEL；
         // 追加进程级 UUID 确保即使多实例配置了相同 base 也不会冲突。
@@ -108,12 +121,21 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
         this.blockTimeoutMs = outboxProperties.blockTimeoutMs();
         this.pendingScanIntervalMs = outboxProperties.pendingScanIntervalMs();
 
-        int shardCount = keyGenerator.streamShards().size();
-        this.executor = Executors.newFixedThreadPool(shardCount, r -> {
-            Thread t = new Thread(r, "fs-outbox-relay");
-            t.setDaemon(true);
-            return t;
-        });
+        this.maxReadersPerShard = Math.max(1, maxReadersPerShard);
+        this.scaleOutBacklog = Math.max(1, scaleOutBacklog);
+
+        // virtual: 每个 reader 一个虚拟线程，XREADGROUP BLOCK 不占 OS 线程，stream-shards 可以开到 64~128
+        // 所有生效活动的 Stream 一起转发，各活动分片数可以不同
+        int shardCount = activities.streamShards().size();
+        if ("virtual".equalsIgnoreCase(relayMode)) {
+            this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("fs-outbox-relay-", 0).factory());
+        } else {
+            this.executor = Executors.newFixedThreadPool(shardCount * this.maxReadersPerShard, r -> {
+                Thread t = new Thread(r, "fs-outbox-relay");
+                t.setDaemon(true);
+                return t;
+            });
+        }
     }
 
     // ---------------------- 主循环 ----------------------
@@ -121,30 +143,85 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
     private void runLoop(ShardContext ctx) {
         while (running.get()) {
             try {
-                @SuppressWarnings("unchecked")
-                List<MapRecord<String, Object, Object>> messages = redisTemplate.opsForStream().read(
-                        Consumer.from(ctx.group(), ctx.consumerName()),
-                        StreamReadOptions.empty()
-                                .count(batchSize)
-                                .block(Duration.ofMillis(blockTimeoutMs)),
-                        StreamOffset.create(ctx.streamKey(), ReadOffset.lastConsumed())
-                );
-
-                handleMessages(ctx, messages);
+                readAndHandle(ctx, ctx.consumerName());
 
                 long now = System.currentTimeMillis();
                 if (now - ctx.lastPendingScan() >= pendingScanIntervalMs) {
                     scanPendingAndClaim(ctx);
+                    scaleReaders(ctx);
                     ctx.setLastPendingScan(now);
                 }
             } catch (Exception e) {
                 log.warn("Outbox relay loop error stream={} group={} consumer={}", ctx.streamKey(), ctx.group(), ctx.consumerName(), e);
+                pause();
+            }
+        }
+    }
+
+    /**
+     * 额外 reader：与主 reader 同 group、不同 consumer 名并发 XREADGROUP，backlog 回落后退出。
+     * pending 扫描只由主 reader 做；额外 reader 退出后留在自己 PEL 里的记录由 stale claim 接管。
+     */
+    private void runExtraReader(ShardContext ctx, String readerConsumer) {
+        try {
+            while (running.get() && ctx.backlogHigh()) {
                 try {
-                    Thread.sleep(500);
-                } catch (InterruptedException ie) {
-                    Thread.currentThread().interrupt();
+                    readAndHandle(ctx, readerConsumer);
+                } catch (Exception e) {
+                    log.warn("Outbox extra reader error stream={} group={} consumer={}", ctx.streamKey(), ctx.group(), readerConsumer, e);
+                    pause();
                 }
             }
+        } finally {
+            ctx.activeReaders().decrementAndGet();
+        }
+    }
+
+    private void readAndHandle(ShardContext ctx, String readerConsumer) {
+        @SuppressWarnings("unchecked")
+        List<MapRecord<String, Object, Object>> messages = redisTemplate.opsForStream().read(
+                Consumer.from(ctx.group(), readerConsumer),
+                StreamReadOptions.empty()
+                        .count(batchSize)
+                        .block(Duration.ofMillis(blockTimeoutMs)),
+                StreamOffset.create(ctx.streamKey(), ReadOffset.lastConsumed())
+        );
+
+        handleMessages(ctx, messages);
+    }
+
+    /**
+     * 按分片 XLEN 决定是否扩 reader：超过 scaleOutBacklog 时每个扫描周期最多加一个，直到 maxReadersPerShard；
+     * 低于一半阈值时额外 reader 自行退出。所有 reader 共用 inFlight，Kafka 在途总量不变。
+     */
+    private void scaleReaders(ShardContext ctx) {
+        if (maxReadersPerShard <= 1) {
+            return;
+        }
+        Long length = redisTemplate.opsForStream().size(ctx.streamKey());
+        long backlog = length == null ? 0L : length;
+        if (backlog > scaleOutBacklog) {
+            ctx.setBacklogHigh(true);
+        } else if (backlog < scaleOutBacklog / 2) {
+            ctx.setBacklogHigh(false);
+        }
+        if (!ctx.backlogHigh()) {
+            return;
+        }
+        int active = ctx.activeReaders().get();
+        if (active < maxReadersPerShard && ctx.activeReaders().compareAndSet(active, active + 1)) {
+            // 编号固定复用，重新扩容时能接回自己 PEL 中的记录
+            String readerConsumer = ctx.consumerName() + "-r" + active;
+            log.info("Outbox relay scale out stream={} backlog={} readers={}", ctx.streamKey(), backlog, active + 1);
+            executor.submit(() -> runExtraReader(ctx, readerConsumer));
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
         }
     }
 
@@ -236,33 +313,41 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
 
     // ---------------------- 处理消息（发 Kafka + ack/delete） ----------------------
 
+    /**
+     * 一批记录：retry 状态一次 pipeline 取回；成功（及 poison / DLQ 成功）的记录攒到批次结束后
+     * 统一一次多 id XACK + XDEL，并顺带清掉本批用过的 retry key。
+     */
     private void handleMessages(ShardContext ctx, List<MapRecord<String, Object, Object>> records) {
         if (records == null || records.isEmpty()) {
             return;
         }
 
+        RelayBatch batch = new RelayBatch(ctx);
+        Map<String, RetryState> retryStates = fetchRetryStates(records);
+        long now = System.currentTimeMillis();
+
         for (MapRecord<String, Object, Object> record : records) {
             Map<Object, Object> value = record.getValue();
             String eventId = toStr(value.get("eventId"));
 
             // 无 eventId：当作 poison 直接 ack 清掉，避免阻塞 PEL
             if (eventId == null || eventId.isBlank()) {
-                ackAndDelete(ctx, record);
+                batch.done(record, null);
                 continue;
             }
 
-            long now = System.currentTimeMillis();
+            RetryState retry = retryStates.getOrDefault(eventId, RetryState.NONE);
 
             // 未到重试时间：不 ack，留在 pending
-            if (!readyToProcess(eventId, now)) {
+            if (now < retry.nextTs()) {
                 continue;
             }
 
             // 若已经超过 maxAttempts：直接走 DLQ（不要再发主 topic）
-            int currentAttempt = getAttempt(eventId);
-            if (currentAttempt > maxAttempts) {
+            if (retry.attempt() > maxAttempts) {
                 inFlight.acquireUninterruptibly();
-                sendDlqAsync(ctx, record, eventId);
+                batch.begin();
+                sendDlqAsync(batch, record, eventId);
                 continue;
             }
 
@@ -271,58 +356,67 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
                 event = toEvent(value);
             } catch (Exception parseEx) {
                 log.warn("Invalid outbox payload, ack it as poison recordId={}", record.getId(), parseEx);
-                clearRetry(eventId);
-                ackAndDelete(ctx, record);
+                batch.done(record, retry.present() ? eventId : null);
                 continue;
             }
 
+            inFlight.acquireUninterruptibly();
+            batch.begin();
             try {
-                inFlight.acquireUninterruptibly();
                 kafkaTemplate.send(new ProducerRecord<>(Topics.FLASH_SALE_RESERVED_V2, event.orderId(), event))
                         .whenComplete((res, ex) -> {
                             if (ex != null) {
-                                onSendFailed(ctx, record, eventId, ex);
+                                onSendFailed(batch, record, eventId, ex);
                             } else {
-                                onSendSuccess(ctx, record, eventId);
+                                onSendSuccess(batch, record, retry.present() ? eventId : null);
                             }
                         });
             } catch (Exception syncEx) {
-                onSendFailed(ctx, record, eventId, syncEx);
+                onSendFailed(batch, record, eventId, syncEx);
             }
         }
+        batch.end();
     }
 
-    private void onSendSuccess(ShardContext ctx, MapRecord<String, Object, Object> record, String eventId) {
+    private void onSendSuccess(RelayBatch batch, MapRecord<String, Object, Object> record, String retryEventId) {
         try {
-            clearRetry(eventId);
-            ackAndDelete(ctx, record);
+            batch.done(record, retryEventId);
             metrics.incPublisherSuccess();
-        } catch (Exception e) {
-            log.warn("Success path ack/delete failed recordId={}", record.getId(), e);
         } finally {
             inFlight.release();
+            batch.end();
         }
     }
 
-    private void onSendFailed(ShardContext ctx, MapRecord<String, Object, Object> record, String eventId, Throwable ex) {
-        metrics.incPublisherFail();
+    private void onSendFailed(RelayBatch batch, MapRecord<String, Object, Object> record, String eventId, Throwable ex) {
+        boolean dlq = false;
+        try {
+            metrics.incPublisherFail();
 
-        int attempt = incrementAttempt(eventId);
-        long now = System.currentTimeMillis();
+            int attempt = incrementAttempt(eventId);
+            long now = System.currentTimeMillis();
 
-        log.warn("Outbox publish failed eventId={} attempt={}", eventId, attempt, ex);
+            log.warn("Outbox publish failed eventId={} attempt={}", eventId, attempt, ex);
 
-        if (attempt > maxAttempts) {
-            // 进入 DLQ 流程：下次也只尝试 DLQ
-            setNext(eventId, now + retryCapMs);
-            sendDlqAsync(ctx, record, eventId);
-            return;
-        }
+            if (attempt > maxAttempts) {
+                // 进入 DLQ 流程：下次也只尝试 DLQ；permit 和批次计数交给 DLQ 回调释放
+                setNext(eventId, now + retryCapMs);
+                dlq = true;
+                sendDlqAsync(batch, record, eventId);
+                return;
+            }
 
-        metrics.incPublisherRetry();
-        long backoff = computeBackoffMs(attempt);
-        setNext(eventId, now + backoff);
-        inFlight.release();
+            metrics.incPublisherRetry();
+            long backoff = computeBackoffMs(attempt);
+            setNext(eventId, now + backoff);
+        } catch (Exception e) {
+            log.warn("Failure path retry bookkeeping failed recordId={}", record.getId(), e);
+        } finally {
+            if (!dlq) {
+                inFlight.release();
+                batch.end();
+            }
+        }
     }
 
     private long computeBackoffMs(int attempt) {
@@ -336,8 +430,9 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
 
     /**
      * 当已超过 maxAttempts 时，从主线程路径直接走 DLQ（也要占用 permit，避免 DLQ 打爆 Kafka）。
+     * permit 与批次计数由调用方占用，本方法在回调或兜底释放。
      */
-    private void sendDlqAsync(ShardContext ctx, MapRecord<String, Object, Object> record, String eventId) {
+    private void sendDlqAsync(RelayBatch batch, MapRecord<String, Object, Object> record, String eventId) {
         FlashSaleReservedEventV2 event;
         try {
             event = toEvent(record.getValue());
@@ -345,15 +440,14 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
             // DLQ 都构造不出来：当 poison，直接 ack 清掉
             log.error("Failed to build DLQ event, ack as poison recordId={}", record.getId(), e);
             try {
-                ackAndDelete(ctx, record);
-                clearRetry(eventId);
+                batch.done(record, eventId);
             } finally {
                 inFlight.release();
+                batch.end();
             }
             return;
         }
 
-        // permit 由调用方统一 acquire，本方法在回调或兜底释放
         try {
             kafkaTemplate.send(new ProducerRecord<>(Topics.FLASH_SALE_RESERVED_DLQ_V2, event.orderId(), event))
                     .whenComplete((res, ex) -> {
@@ -363,11 +457,11 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
                                 setNext(eventId, System.currentTimeMillis() + retryCapMs);
                                 // 不 ack：留在 pending 等下次再发 DLQ
                             } else {
-                                clearRetry(eventId);
-                                ackAndDelete(ctx, record);
+                                batch.done(record, eventId);
                             }
                         } finally {
                             inFlight.release();
+                            batch.end();
                         }
                     });
         } catch (Exception sendEx) {
@@ -377,33 +471,59 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
                 // 不 ack：留在 pending 等下次再发 DLQ
             } finally {
                 inFlight.release();
+                batch.end();
             }
         }
     }
 
     // ---------------------- Retry state ----------------------
 
-    private boolean readyToProcess(String eventId, long now) {
-        String next = redisTemplate.opsForValue().get(retryNextPrefix + eventId);
-        if (next == null) {
-            return true;
+    /**
+     * 整批 eventId 的 next/attempt 一次 pipeline 取回（retry key 不带 hash tag，不能用跨 slot 的 MGET）。
+     * 只返回有 retry 状态的 eventId。
+     */
+    private Map<String, RetryState> fetchRetryStates(List<MapRecord<String, Object, Object>> records) {
+        List<String> eventIds = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            String eventId = toStr(record.getValue().get("eventId"));
+            if (eventId != null && !eventId.isBlank()) {
+                eventIds.add(eventId);
+            }
         }
-        try {
-            return now >= Long.parseLong(next);
-        } catch (NumberFormatException e) {
-            return true;
+        if (eventIds.isEmpty()) {
+            return Map.of();
         }
+        List<Object> values = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (String eventId : eventIds) {
+                    ops.opsForValue().get(retryNextPrefix + eventId);
+                    ops.opsForValue().get(retryAttemptPrefix + eventId);
+                }
+                return null;
+            }
+        });
+        Map<String, RetryState> states = new HashMap<>();
+        for (int i = 0; i < eventIds.size(); i++) {
+            Object next = values.get(2 * i);
+            Object attempt = values.get(2 * i + 1);
+            if (next != null || attempt != null) {
+                states.put(eventIds.get(i), new RetryState(parseLong(next), (int) parseLong(attempt)));
+            }
+        }
+        return states;
     }
 
-    private int getAttempt(String eventId) {
-        String s = redisTemplate.opsForValue().get(retryAttemptPrefix + eventId);
-        if (s == null) {
-            return 0;
+    private static long parseLong(Object v) {
+        if (v == null) {
+            return 0L;
         }
         try {
-            return Integer.parseInt(s);
+            return Long.parseLong(v.toString());
         } catch (NumberFormatException e) {
-            return 0;
+            return 0L;
         }
     }
 
@@ -418,24 +538,111 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
         redisTemplate.opsForValue().set(retryNextPrefix + eventId, Long.toString(nextTs), Duration.ofHours(24));
     }
 
-    private void clearRetry(String eventId) {
-        redisTemplate.delete(retryAttemptPrefix + eventId);
-        redisTemplate.delete(retryNextPrefix + eventId);
-    }
-
     // ---------------------- Ack/Delete ----------------------
 
-    private void ackAndDelete(ShardContext ctx, MapRecord<String, Object, Object> record) {
+    /**
+     * 批次收尾：一次多 id XACK；全部确认后一次多 id XDEL，并删除本批用过的 retry key。
+     * XACK 数量对不上（部分 id 已不在本 group 的 PEL 中）时退回逐条 ack/delete。
+     */
+    private void flush(ShardContext ctx, List<RecordId> ids, List<String> retryEventIds) {
+        if (!retryEventIds.isEmpty()) {
+            try {
+                List<String> keys = new ArrayList<>(retryEventIds.size() * 2);
+                for (String eventId : retryEventIds) {
+                    keys.add(retryAttemptPrefix + eventId);
+                    keys.add(retryNextPrefix + eventId);
+                }
+                redisTemplate.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public <K, V> Object execute(RedisOperations<K, V> operations) {
+                        RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                        keys.forEach(ops::delete);
+                        return null;
+                    }
+                });
+            } catch (Exception e) {
+                log.warn("Clear retry state failed stream={} count={}", ctx.streamKey(), retryEventIds.size(), e);
+            }
+        }
+        if (ids.isEmpty()) {
+            return;
+        }
+        RecordId[] idArray = ids.toArray(new RecordId[0]);
         try {
-            Long acked = redisTemplate.opsForStream().acknowledge(ctx.streamKey(), ctx.group(), record.getId());
+            Long acked = redisTemplate.opsForStream().acknowledge(ctx.streamKey(), ctx.group(), idArray);
+            if (acked != null && acked == idArray.length) {
+                redisTemplate.opsForStream().delete(ctx.streamKey(), idArray);
+                return;
+            }
+            log.warn("Batch ack returned {} of {} stream={}, falling back to per-record", acked, idArray.length, ctx.streamKey());
+        } catch (Exception e) {
+            log.warn("Batch ack/delete failed stream={} count={}", ctx.streamKey(), idArray.length, e);
+            return;
+        }
+        for (RecordId id : ids) {
+            ackAndDelete(ctx, id);
+        }
+    }
+
+    private void ackAndDelete(ShardContext ctx, RecordId id) {
+        try {
+            Long acked = redisTemplate.opsForStream().acknowledge(ctx.streamKey(), ctx.group(), id);
             if (acked != null && acked > 0) {
-                redisTemplate.opsForStream().delete(ctx.streamKey(), record.getId());
+                redisTemplate.opsForStream().delete(ctx.streamKey(), id);
             } else {
                 // ack 失败就别 delete，避免 PEL 残留 + 数据丢失
-                log.warn("Ack returned 0 for recordId={}", record.getId());
+                log.warn("Ack returned 0 for recordId={}", id);
             }
         } catch (Exception e) {
-            log.warn("Ack/Delete failed for recordId={}", record.getId(), e);
+            log.warn("Ack/Delete failed for recordId={}", id, e);
+        }
+    }
+
+    private record RetryState(long nextTs, int attempt) {
+        private static final RetryState NONE = new RetryState(0L, 0);
+
+        private boolean present() {
+            return this != NONE;
+        }
+    }
+
+    /**
+     * 一次 handleMessages 的记录集合。outstanding 从 1 开始（分发循环本身），每个异步发送 +1；
+     * 归零时（分发结束且所有回调完成）flush。
+     */
+    private final class RelayBatch {
+        private final ShardContext ctx;
+        private final long startNanos = System.nanoTime();
+        private final AtomicInteger outstanding = new AtomicInteger(1);
+        private final ConcurrentLinkedQueue<RecordId> doneIds = new ConcurrentLinkedQueue<>();
+        private final ConcurrentLinkedQueue<String> retryEventIds = new ConcurrentLinkedQueue<>();
+
+        private RelayBatch(ShardContext ctx) {
+            this.ctx = ctx;
+        }
+
+        private void begin() {
+            outstanding.incrementAndGet();
+        }
+
+        /**
+         * @param retryEventId 该记录曾有 retry 状态时传 eventId，flush 时一并清除
+         */
+        private void done(MapRecord<String, Object, Object> record, String retryEventId) {
+            doneIds.add(record.getId());
+            if (retryEventId != null) {
+                retryEventIds.add(retryEventId);
+            }
+        }
+
+        private void end() {
+            if (outstanding.decrementAndGet() != 0) {
+                return;
+            }
+            List<RecordId> ids = new ArrayList<>(doneIds);
+            flush(ctx, ids, new ArrayList<>(retryEventIds));
+            metrics.recordRelayBatch(ctx.activityId(), ctx.shardId(), ids.size(), System.nanoTime() - startNanos);
         }
     }
 
@@ -468,10 +675,11 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
     @Override
     public void start() {
         if (running.compareAndSet(false, true)) {
-            for (FlashSaleKeyGenerator.StreamShard shard : keyGenerator.streamShards()) {
+            for (FlashSaleKeyGenerator.StreamShard shard : activities.streamShards()) {
+                // group 属于单个 stream，不同活动的同号分片可以共用 group 名
                 String shardGroup = group + ":" + shard.shardId();
                 String shardConsumer = consumerName + "-" + shard.shardId();
-                ShardContext ctx = new ShardContext(shard.streamKey(), shardGroup, shardConsumer);
+                ShardContext ctx = new ShardContext(shard.activityId(), shard.shardId(), shard.streamKey(), shardGroup, shardConsumer);
                 ensureGroup(ctx);
                 executor.submit(() -> runLoop(ctx));
             }
@@ -506,17 +714,31 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
     }
 
     private static final class ShardContext {
+        private final String activityId;
+        private final String shardId;
         private final String streamKey;
         private final String group;
         private final String consumerName;
         private volatile long lastPendingScan = 0L;
+        private volatile boolean backlogHigh = false;
+        private final AtomicInteger activeReaders = new AtomicInteger(1);
 
-        private ShardContext(String streamKey, String group, String consumerName) {
+        private ShardContext(String activityId, String shardId, String streamKey, String group, String consumerName) {
+            this.activityId = activityId;
+            this.shardId = shardId;
             this.streamKey = streamKey;
             this.group = group;
             this.consumerName = consumerName;
         }
 
+        private String activityId() {
+            return activityId;
+        }
+
+        private String shardId() {
+            return shardId;
+        }
+
         private String streamKey() {
             return streamKey;
         }
@@ -536,5 +758,17 @@ public class FlashSaleOutboxPublisher implements SmartLifecycle {
         private void setLastPendingScan(long lastPendingScan) {
             this.lastPendingScan = lastPendingScan;
         }
+
+        private boolean backlogHigh() {
+            return backlogHigh;
+        }
+
+        private void setBacklogHigh(boolean backlogHigh) {
+            this.backlogHigh = backlogHigh;
+        }
+
+        private AtomicInteger activeReaders() {
+            return activeReaders;
+        }
     }
 }
@@ -0,0 +1,72 @@
+package com.lingxiao.inventory.messaging;
+
+import com.lingxiao.contracts.Topics;
+import com.lingxiao.contracts.events.FlashSaleReservedEventV2;
+import com.lingxiao.inventory.infrastructure.db.spanner.InventoryRepository;
+import com.lingxiao.inventory.metrics.FlashSaleMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 批量模式：一次 poll 的 FlashSaleReservedEventV2 在一个 Spanner 读写事务内落库（group commit），
+ * 每个 SKU 只写一次累加后的 Reserved。
+ *
+ * 幂等不再走逐条 @Idempotent：以 InventoryReservations(OrderId, SkuId) 行是否存在为准（不看状态，
+ * 已 CANCELLED/EXPIRED 的订单重投也不会再占一次），在同一事务内判定，整批重投也不会重复占用。
+ * 事务失败抛出，由容器整批重试。
+ */
+@Component
+@ConditionalOnProperty(prefix = "inventory.flashsale.consumer", name = "batch-enabled", havingValue = "true")
+public class FlashSaleReservedBatchListener {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleReservedBatchListener.class);
+
+    private final InventoryRepository repository;
+    private final FlashSaleMetrics metrics;
+    private final FlashSaleInflightSettler inflightSettler;
+
+    public FlashSaleReservedBatchListener(InventoryRepository repository,
+                                          FlashSaleMetrics metrics,
+                                          FlashSaleInflightSettler inflightSettler) {
+        this.repository = repository;
+        this.metrics = metrics;
+        this.inflightSettler = inflightSettler;
+    }
+
+    @KafkaListener(topics = Topics.FLASH_SALE_RESERVED_V2, containerFactory = "flashSaleBatchListenerContainerFactory")
+    public void onBatch(List<FlashSaleReservedEventV2> events) {
+        List<InventoryRepository.FlashSaleReservation> reservations = new ArrayList<>(events.size());
+        for (FlashSaleReservedEventV2 event : events) {
+            if (event == null || event.orderId() == null || event.skuId() == null) {
+                log.warn("Skip malformed FlashSaleReservedEventV2 in batch: {}", event);
+                continue;
+            }
+            reservations.add(new InventoryRepository.FlashSaleReservation(event.orderId(), event.skuId(), event.qty()));
+        }
+
+        try {
+            InventoryRepository.GroupCommitResult result =
+                    repository.reserveGroupCommit(reservations, Duration.ofMinutes(15));
+            metrics.incConsumerProcessed(result.reserved());
+            metrics.incConsumerDuplicate(result.duplicate());
+            // duplicate / insufficient 也已处理完，不再在途
+            inflightSettler.settle(events);
+            if (result.insufficient() > 0) {
+                log.warn("FlashSaleReservedEventV2 batch had {} reservations without Spanner stock, size={}",
+                        result.insufficient(), reservations.size());
+            }
+            log.info("Group-committed FlashSaleReservedEventV2 batch size={} reserved={} duplicate={}",
+                    reservations.size(), result.reserved(), result.duplicate());
+        } catch (Exception e) {
+            log.warn("FlashSaleReservedBatchListener failed size={}", reservations.size(), e);
+            throw e; // 整批交给容器重试，已落库的行在重试时按幂等跳过
+        }
+    }
+}
@@ -10,6 +10,7 @@ import com.lingxiao.inventory.infrastructure.db.spanner.InventoryRepository;
 import com.lingxiao.inventory.metrics.FlashSaleMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 
@@ -17,17 +18,21 @@ import java.time.Duration;
 import java.util.List;
 
 @Component
+@ConditionalOnProperty(prefix = "inventory.flashsale.consumer", name = "batch-enabled", havingValue = "false", matchIfMissing = true)
 public class FlashSaleReservedListener {
 
     private static final Logger log = LoggerFactory.getLogger(FlashSaleReservedListener.class);
 
     private final InventoryRepository repository;
     private final FlashSaleMetrics metrics;
+    private final FlashSaleInflightSettler inflightSettler;
 
     public FlashSaleReservedListener(InventoryRepository repository,
-                                     FlashSaleMetrics metrics) {
+                                     FlashSaleMetrics metrics,
+                                     FlashSaleInflightSettler inflightSettler) {
         this.repository = repository;
         this.metrics = metrics;
+        this.inflightSettler = inflightSettler;
     }
 
     @KafkaListener(topics = Topics.FLASH_SALE_RESERVED_V2)
@@ -50,6 +55,7 @@ public class FlashSaleReservedListener {
                     Duration.ofMinutes(15)
             );
             metrics.incConsumerProcessed();
+            inflightSettler.settle(List.of(event));
         } catch (Exception e) {
             log.warn("FlashSaleReservedListener failed orderId={} skuId={} eventId={}",
                     event.orderId(), event.skuId(), event.eventId(), e);
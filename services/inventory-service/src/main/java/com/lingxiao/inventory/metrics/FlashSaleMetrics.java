@@ -1,15 +1,21 @@
 package com.lingxiao.inventory.metrics;
 
 import com.lingxiao.inventory.config.FlashSaleOutboxProperties;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
 import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
 import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
 import io.micrometer.core.instrument.Gauge;
 import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.springframework.data.redis.connection.stream.PendingMessagesSummary;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 @Component
@@ -20,20 +26,30 @@ public class FlashSaleMetrics {
     private final Counter publisherRetry;
     private final Counter consumerProcessed;
     private final Counter consumerDuplicate;
+    private final Counter soldOutShortCircuit;
+    private final DistributionSummary reconcileDrift;
+    private final Counter reconcileCorrected;
+    private final Timer reconcilePass;
 
     private final AtomicLong pendingGauge = new AtomicLong(0);
     private final AtomicLong lengthGauge = new AtomicLong(0);
 
+    // per stream shard relay meters, created on first batch of the shard
+    private final Map<String, Counter> relayRecords = new ConcurrentHashMap<>();
+    private final Map<String, Timer> relayBatchLatency = new ConcurrentHashMap<>();
+
+    private final MeterRegistry registry;
     private final StringRedisTemplate redisTemplate;
-    private final FlashSaleKeyGenerator keyGenerator;
+    private final FlashSaleActivityRegistry activities;
     private final String group;
 
     public FlashSaleMetrics(MeterRegistry registry,
                             StringRedisTemplate redisTemplate,
                             FlashSaleOutboxProperties outboxProperties,
-                            FlashSaleKeyGenerator keyGenerator) {
+                            FlashSaleActivityRegistry activities) {
+        this.registry = registry;
         this.redisTemplate = redisTemplate;
-        this.keyGenerator = keyGenerator;
+        this.activities = activities;
         this.group = outboxProperties.group();
 
         this.publisherSuccess = Counter.builder("flashsale.publisher.kafka.success").register(registry);
@@ -41,6 +57,14 @@ public class FlashSaleMetrics {
         this.publisherRetry = Counter.builder("flashsale.publisher.retry").register(registry);
         this.consumerProcessed = Counter.builder("flashsale.consumer.processed").register(registry);
         this.consumerDuplicate = Counter.builder("flashsale.consumer.duplicate").register(registry);
+        this.soldOutShortCircuit = Counter.builder("flashsale.reserve.soldout.shortcircuit").register(registry);
+        this.reconcileDrift = DistributionSummary.builder("flashsale.reconcile.drift")
+                .description("|Redis stock - (Spanner available - in-flight)| per checked SKU")
+                .publishPercentiles(0.5, 0.99)
+                .publishPercentileHistogram()
+                .register(registry);
+        this.reconcileCorrected = Counter.builder("flashsale.reconcile.corrected.units").register(registry);
+        this.reconcilePass = Timer.builder("flashsale.reconcile.pass").register(registry);
 
         Gauge.builder("flashsale.redis.stream.pending", pendingGauge, AtomicLong::get).register(registry);
         Gauge.builder("flashsale.redis.stream.length", lengthGauge, AtomicLong::get).register(registry);
@@ -51,13 +75,37 @@ public class FlashSaleMetrics {
     public void incPublisherRetry() { publisherRetry.increment(); }
     public void incConsumerProcessed() { consumerProcessed.increment(); }
     public void incConsumerDuplicate() { consumerDuplicate.increment(); }
+    public void incConsumerProcessed(int count) { consumerProcessed.increment(count); }
+    public void incConsumerDuplicate(int count) { consumerDuplicate.increment(count); }
+    public void incSoldOutShortCircuit() { soldOutShortCircuit.increment(); }
+    public void recordReconcileDrift(long drift) { reconcileDrift.record(Math.abs(drift)); }
+    public void incReconcileCorrected(long units) { reconcileCorrected.increment(Math.abs(units)); }
+    public void recordReconcilePass(long elapsedNanos) { reconcilePass.record(elapsedNanos, TimeUnit.NANOSECONDS); }
+
+    /**
+     * One relay batch of a stream shard finished (all sends completed and ack/del flushed).
+     *
+     * @param records records acked and deleted by this batch
+     */
+    public void recordRelayBatch(String activityId, String shardId, int records, long elapsedNanos) {
+        String key = activityId + ":" + shardId;
+        relayRecords.computeIfAbsent(key, id -> Counter.builder("flashsale.relay.records")
+                .tag("activity", activityId)
+                .tag("shard", shardId)
+                .register(registry)).increment(records);
+        relayBatchLatency.computeIfAbsent(key, id -> Timer.builder("flashsale.relay.batch.latency")
+                .tag("activity", activityId)
+                .tag("shard", shardId)
+                .publishPercentiles(0.5, 0.99)
+                .register(registry)).record(elapsedNanos, TimeUnit.NANOSECONDS);
+    }
 
     @Scheduled(fixedDelayString = "5000")
     public void refreshGauges() {
         long totalPending = 0;
         long totalLength = 0;
         try {
-            for (FlashSaleKeyGenerator.StreamShard shard : keyGenerator.streamShards()) {
+            for (FlashSaleKeyGenerator.StreamShard shard : activities.streamShards()) {
                 String shardGroup = group + ":" + shard.shardId();
                 PendingMessagesSummary summary = redisTemplate.opsForStream().pending(shard.streamKey(), shardGroup);
                 if (summary != null) {
@@ -68,7 +116,7 @@ public class FlashSaleMetrics {
             // keep old value
         }
         try {
-            for (FlashSaleKeyGenerator.StreamShard shard : keyGenerator.streamShards()) {
+            for (FlashSaleKeyGenerator.StreamShard shard : activities.streamShards()) {
                 Long len = redisTemplate.opsForStream().size(shard.streamKey());
                 if (len != null) {
                     totalLength += len;
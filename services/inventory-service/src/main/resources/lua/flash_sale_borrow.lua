@@ -0,0 +1,27 @@
+-- KEYS[1] = stock:{skuId} of a neighbouring bucket
+-- KEYS[2] = loans hash of that bucket (same hash tag)
+-- ARGV[1] = qty
+-- ARGV[2] = orderId
+-- ARGV[3] = nowMillis
+--
+-- Bucket-mode fallback: take qty from a neighbouring bucket when the buyer's home bucket is dry.
+-- The DECRBY and the loan record happen together, so the borrowed qty is never only in the
+-- caller's memory. The caller then runs flash_sale.lua on the home bucket with stockPreclaimed=1
+-- and settles the loan (flash_sale_loan_settle.lua); loans left behind by a crash in between are
+-- settled by FlashSaleLoanSweeper.
+
+local stockKey = KEYS[1]
+local loansKey = KEYS[2]
+local qty = tonumber(ARGV[1])
+local orderId = ARGV[2]
+
+local stock = tonumber(redis.call('GET', stockKey) or "-1")
+if stock < qty then
+  return 0
+end
+
+if redis.call('HSETNX', loansKey, orderId, ARGV[1] .. ':' .. ARGV[3]) == 0 then
+  return 0
+end
+redis.call('DECRBY', stockKey, qty)
+return 1
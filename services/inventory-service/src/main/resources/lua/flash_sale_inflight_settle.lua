@@ -0,0 +1,23 @@
+-- KEYS[1] = in-flight ledger of a stock key (FlashSaleKeyGenerator.inflightKey)
+-- ARGV[1..n] = orderIds the Spanner consumer has applied
+--
+-- HDEL decides, so redeliveries and concurrent consumers settle each order once and '_total' stays exact.
+-- Returns the number of orders this call settled.
+
+local ledgerKey = KEYS[1]
+local settled = 0
+local total = 0
+
+for i = 1, #ARGV do
+  local qty = redis.call('HGET', ledgerKey, ARGV[i])
+  if qty then
+    redis.call('HDEL', ledgerKey, ARGV[i])
+    total = total + tonumber(qty)
+    settled = settled + 1
+  end
+end
+
+if total > 0 then
+  redis.call('HINCRBY', ledgerKey, '_total', -total)
+end
+return settled
@@ -0,0 +1,22 @@
+-- KEYS[1] = stock:{skuId} of the lending bucket
+-- KEYS[2] = loans hash of that bucket (same hash tag)
+-- ARGV[1] = orderId
+-- ARGV[2] = giveBack ("1" = the home-bucket reserve did not go through, return the qty)
+--
+-- Settles a loan exactly once: HDEL decides, so the caller's settle and the sweeper can race safely.
+-- Returns 1 if this call settled the loan, 0 if it was already settled.
+
+local stockKey = KEYS[1]
+local loansKey = KEYS[2]
+local orderId = ARGV[1]
+
+local loan = redis.call('HGET', loansKey, orderId)
+if not loan then
+  return 0
+end
+
+redis.call('HDEL', loansKey, orderId)
+if ARGV[2] == '1' then
+  redis.call('INCRBY', stockKey, tonumber(string.match(loan, '^(%d+)')))
+end
+return 1
@@ -1,7 +1,10 @@
--- KEYS[1] = stock:{skuId}
--- KEYS[2] = buyers:{skuId}
--- KEYS[3] = order:{orderId}
+-- KEYS[1] = stock:{skuId} (order's home bucket in bucket mode)
+-- KEYS[2] = buyers:{skuId} (same hash tag)
+-- KEYS[3] = order:{orderId} (same hash tag)
 -- ARGV[1] = qty
+--
+-- In bucket mode the qty always returns to the home bucket encoded in the orderId, even if it
+-- was borrowed from a neighbour; the SKU total is preserved and the buyer/order keys live there.
 
 local stockKey = KEYS[1]
 local buyersKey = KEYS[2]
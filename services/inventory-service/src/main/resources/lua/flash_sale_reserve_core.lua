@@ -0,0 +1,133 @@
+-- Reserve body shared by flash_sale.lua and flash_sale_reserve_idem.lua. FlashSaleRedisRepository
+-- prepends this file to both scripts, so the reserve logic exists once.
+--
+-- KEYS[base]     = stock:{skuId}
+-- KEYS[base + 1] = buyers:{skuId}
+-- KEYS[base + 2] = order:{orderId} (optional idempotency)
+-- KEYS[base + 3] = outbox stream (same hash tag)
+-- KEYS[base + 4] = order snapshot (same hash tag)
+-- KEYS[base + 5] = price:{skuId} (preheated hash; same hash tag)
+-- KEYS[base + 6] = in-flight ledger window of the stock key (same hash tag; only passed while reconcile is
+--                  enabled): orderId -> qty plus '_total', cleared by the Spanner consumer via
+--                  flash_sale_inflight_settle.lua
+-- ledgerTtl      = seconds the ledger window is kept (FlashSaleInflightLedger.ttl), passed by the caller script
+-- ARGV[1] = userId
+-- ARGV[2] = qty
+-- ARGV[3] = ttlSeconds (for order key)
+-- ARGV[4] = snapshotTtlSeconds
+-- ARGV[5] = buyersTtlSeconds
+-- ARGV[6] = eventId
+-- ARGV[7] = orderId
+-- ARGV[8] = skuId
+-- ARGV[9] = occurredAt
+-- ARGV[10] = expireAt
+-- ARGV[11] = stockPreclaimed ("1" = qty was already taken from a neighbouring bucket by
+--            flash_sale_borrow.lua; skip the stock check/decrement on the stock key)
+--
+-- returns 1 success, 0 stock at 0, -2 stock left but less than qty, -1 duplicate, -3 price missing
+
+local function reserve(base, ledgerTtl)
+  local stockKey = KEYS[base]
+  local buyersKey = KEYS[base + 1]
+  local orderKey = KEYS[base + 2]
+  local streamKey = KEYS[base + 3]
+  local snapshotKey = KEYS[base + 4]
+  local priceKey = KEYS[base + 5]
+  local inflightKey = KEYS[base + 6]
+  local userId = ARGV[1]
+  local qty = tonumber(ARGV[2])
+  local ttl = tonumber(ARGV[3])
+  local snapshotTtl = tonumber(ARGV[4])
+  local buyersTtl = tonumber(ARGV[5])
+  local eventId = ARGV[6]
+  local orderId = ARGV[7]
+  local skuId = ARGV[8]
+  local occurredAt = ARGV[9]
+  local expireAt = ARGV[10]
+  local stockPreclaimed = ARGV[11] == '1'
+
+  -- sold-out fast path: if no stock at all, reject immediately (single GET),
+  -- skipping EXISTS / SISMEMBER / HGET price and all downstream logic.
+  if not stockPreclaimed then
+    local stock0 = tonumber(redis.call('GET', stockKey) or "-1")
+    if stock0 <= 0 then
+      return 0
+    end
+  end
+
+  -- idempotency: if orderKey exists, treat as duplicate
+  if orderKey and orderKey ~= '' then
+    if redis.call('EXISTS', orderKey) == 1 then
+      return -1
+    end
+  end
+
+  -- one per buyer
+  if redis.call('SISMEMBER', buyersKey, userId) == 1 then
+    return -1
+  end
+
+  -- some stock left but less than qty: -2, so the caller does not treat the SKU as sold out
+  if not stockPreclaimed then
+    local stock = tonumber(redis.call('GET', stockKey) or "-1")
+    if stock < qty then
+      return -2
+    end
+  end
+
+  -- price must be preheated; missing price is a config error -> fast fail (-3)
+  local priceCents = redis.call('HGET', priceKey, 'priceCents')
+  local currency = redis.call('HGET', priceKey, 'currency')
+  if (not priceCents) or (not currency) or priceCents == '' or currency == '' then
+    return -3
+  end
+
+  if not stockPreclaimed then
+    redis.call('DECRBY', stockKey, qty)
+  end
+  redis.call('SADD', buyersKey, userId)
+  if buyersTtl and buyersTtl > 0 then
+    redis.call('EXPIRE', buyersKey, buyersTtl)
+  end
+  if orderKey and orderKey ~= '' and ttl and ttl > 0 then
+    redis.call('SET', orderKey, userId, 'EX', ttl)
+  end
+
+  -- order snapshot (derivable from orderId alone)
+  if snapshotKey and snapshotKey ~= '' and snapshotTtl and snapshotTtl > 0 then
+    redis.call('HSET', snapshotKey,
+      'orderId', orderId,
+      'userId', userId,
+      'skuId', skuId,
+      'qty', qty,
+      'priceCents', priceCents,
+      'currency', currency,
+      'occurredAt', occurredAt,
+      'expireAt', expireAt
+    )
+    redis.call('EXPIRE', snapshotKey, snapshotTtl)
+  end
+  if streamKey and streamKey ~= '' then
+    redis.call('XADD', streamKey, '*',
+      'eventId', eventId,
+      'orderId', orderId,
+      'userId', userId,
+      'skuId', skuId,
+      'qty', qty,
+      'priceCents', priceCents,
+      'currency', currency,
+      'occurredAt', occurredAt,
+      'expireAt', expireAt
+    )
+    -- reserved in Redis but not yet in Spanner until the consumer settles it (stream + Kafka lag)
+    if inflightKey and inflightKey ~= '' then
+      redis.call('HSET', inflightKey, orderId, qty)
+      redis.call('HINCRBY', inflightKey, '_total', qty)
+      if ledgerTtl and ledgerTtl > 0 then
+        redis.call('EXPIRE', inflightKey, ledgerTtl)
+      end
+    end
+  end
+
+  return 1
+end
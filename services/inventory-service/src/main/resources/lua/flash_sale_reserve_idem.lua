@@ -0,0 +1,67 @@
+-- 幂等 acquire + 预占 + markDone 合并为一次调用（所有 key 同一 hash tag）。
+-- 预占逻辑来自 flash_sale_reserve_core.lua，由 FlashSaleRedisRepository 拼在本脚本之前，与 flash_sale.lua 共用。
+-- 返回值：
+--   "OK:<payloadB64>\n<pointer>"    本次完成（pointer 同 FlashSaleReservationResult.toPointer，已以 DONE: 存入幂等 key）；
+--                                   home bucket 库存为 0 时末尾再加一行 "EMPTY"（不存入幂等 key），库存只是不足 qty 时不加
+--   "DONE:<payloadB64>\n<pointer>"  此前已完成，重放
+--   "PROCESSING:<token>:<payloadB64>"  其它请求正在处理（如旧的 @Idempotent 路径）
+--   "DEFER"  home bucket 库存为 0 或不足 qty 且 ARGV[16]=1：已占住幂等 key，调用方去邻居 bucket 借库存后带同一 token 再调用
+--
+-- KEYS[1] = idempotency key（与 @Idempotent 切面同一个 key，带 home bucket 的 hash tag）
+-- KEYS[2..8] = stock, buyers, order, stream, snapshot, price, in-flight ledger（同 flash_sale.lua 的 KEYS[1..7]，账本可缺省）
+-- ARGV[1..11] = 见 flash_sale_reserve_core.lua
+-- ARGV[12] = token
+-- ARGV[13] = payloadB64
+-- ARGV[14] = processingTtlSeconds
+-- ARGV[15] = doneTtlSeconds
+-- ARGV[16] = deferSoldOut ("1" = 分桶模式下 home bucket 售罄时不落 DONE，返回 DEFER)
+-- ARGV[17] = 在途账本 ttlSeconds
+
+local idemKey = KEYS[1]
+local qtyArg = ARGV[2]
+local orderId = ARGV[7]
+local skuId = ARGV[8]
+local expireAt = ARGV[10]
+local token = ARGV[12]
+local payload = ARGV[13] or ""
+local processingTtl = tonumber(ARGV[14])
+local doneTtl = tonumber(ARGV[15])
+local deferSoldOut = ARGV[16] == '1'
+
+local processing = "PROCESSING:" .. token .. ":" .. payload
+
+-- acquire: replay DONE, report foreign PROCESSING, continue on own DEFER marker
+local current = redis.call('GET', idemKey)
+if current then
+  if string.sub(current, 1, 5) == "DONE:" then
+    return current
+  end
+  if current ~= processing then
+    return current
+  end
+end
+
+local res = reserve(2, tonumber(ARGV[17]))
+
+if (res == 0 or res == -2) and deferSoldOut then
+  redis.call('SET', idemKey, processing, 'EX', processingTtl)
+  return "DEFER"
+end
+
+local pointer
+if res == 1 then
+  pointer = "RESERVED|" .. orderId .. "|" .. expireAt .. "|" .. skuId .. "|" .. qtyArg
+elseif res == 0 or res == -2 then
+  pointer = "SOLD_OUT|||" .. skuId .. "|" .. qtyArg
+elseif res == -1 then
+  pointer = "DUPLICATE|||" .. skuId .. "|" .. qtyArg
+else
+  pointer = "FAILED|||" .. skuId .. "|" .. qtyArg
+end
+
+redis.call('SET', idemKey, "DONE:" .. payload .. "\n" .. pointer, 'EX', doneTtl)
+if res == 0 then
+  -- home bucket at 0 (not merely short of qty): the caller may mark the SKU sold out
+  return "OK:" .. payload .. "\n" .. pointer .. "\nEMPTY"
+end
+return "OK:" .. payload .. "\n" .. pointer
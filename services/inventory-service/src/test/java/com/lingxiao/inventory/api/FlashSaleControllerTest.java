@@ -4,28 +4,111 @@ import com.lingxiao.inventory.api.dto.FlashSaleReservationRequest;
 import com.lingxiao.inventory.api.dto.FlashSaleReservationResponse;
 import com.lingxiao.inventory.application.FlashSaleReservationResult;
 import com.lingxiao.inventory.application.FlashSaleReservationService;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.SoldOutRegistry;
+import com.lingxiao.inventory.infrastructure.redis.UnknownActivityException;
 import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.util.Map;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 class FlashSaleControllerTest {
 
+    private final FlashSaleActivityRegistry activities = FlashSaleActivityRegistry.of(new FlashSaleKeyGenerator("A100", 8, 1,
+            "fs:stock:", "fs:buyers:", "fs:order:", "fs:stream:", "fs:snap:", "fs:price:"));
+
     @Test
     void duplicateResponseHasNoNavigableOrderId() {
         FlashSaleReservationService service = mock(FlashSaleReservationService.class);
         FlashSaleReservationResult duplicate = new FlashSaleReservationResult(
                 FlashSaleReservationResult.Status.DUPLICATE, null, null, "demo-phone-001", 1);
-        when(service.reserve("idem-duplicate", "demo-user-001", "demo-phone-001", 1))
+        when(service.reserve("idem-duplicate", "demo-user-001", "demo-phone-001", 1, "A100"))
                 .thenReturn(duplicate.toPointer());
 
-        ResponseEntity<FlashSaleReservationResponse> response = new FlashSaleController(service).reserve(
+        ResponseEntity<FlashSaleReservationResponse> response = new FlashSaleController(service, mock(SoldOutRegistry.class), activities, false).reserve(
                 "idem-duplicate", "demo-user-001", new FlashSaleReservationRequest("demo-phone-001", 1L));
 
         assertThat(response.getBody()).isNotNull();
         assertThat(response.getBody().status()).isEqualTo("DUPLICATE");
         assertThat(response.getBody().orderId()).isNull();
     }
+
+    @Test
+    void knownSoldOutSkuIsAnsweredWithoutCallingTheReservationService() {
+        FlashSaleReservationService service = mock(FlashSaleReservationService.class);
+        SoldOutRegistry soldOutRegistry = mock(SoldOutRegistry.class);
+        when(soldOutRegistry.isSoldOut("A100:demo-phone-001")).thenReturn(true);
+
+        ResponseEntity<FlashSaleReservationResponse> response = new FlashSaleController(service, soldOutRegistry, activities, true).reserve(
+                "idem-sold-out", "demo-user-001", new FlashSaleReservationRequest("demo-phone-001", 1L));
+
+        assertThat(response.getBody()).isNotNull();
+        assertThat(response.getBody().status()).isEqualTo("SOLD_OUT");
+        assertThat(response.getBody().orderId()).isNull();
+        verify(service, never()).reserve(anyString(), anyString(), anyString(), anyLong(), anyString());
+        verify(service, never()).reserveFused(anyString(), anyString(), anyString(), anyLong(), anyString());
+    }
+
+    @Test
+    void unknownActivityIsABadRequest() throws Exception {
+        FlashSaleReservationService service = mock(FlashSaleReservationService.class);
+        MockMvc mockMvc = MockMvcBuilders
+                .standaloneSetup(new FlashSaleController(service, mock(SoldOutRegistry.class), activities, true))
+                .setControllerAdvice(new FlashSaleApiExceptionHandler())
+                .build();
+
+        mockMvc.perform(post("/api/v1/flashsale/reservations")
+                        .header("Idempotency-Key", "idem-unknown")
+                        .header("X-User-Id", "demo-user-001")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"skuId\":\"demo-phone-001\",\"qty\":1,\"activityId\":\"NOPE\"}"))
+                .andExpect(status().isBadRequest())
+                .andExpect(jsonPath("$.message").value("Unknown flash sale activity: NOPE"));
+        verify(service, never()).reserveFused(anyString(), anyString(), anyString(), anyLong(), anyString());
+    }
+
+    @Test
+    void otherIllegalArgumentsAreNotTurnedIntoBadRequests() {
+        FlashSaleReservationService service = mock(FlashSaleReservationService.class);
+        when(service.reserveFused(anyString(), anyString(), anyString(), anyLong(), anyString()))
+                .thenThrow(new IllegalArgumentException("Invalid pointer: x"));
+        MockMvc mockMvc = MockMvcBuilders
+                .standaloneSetup(new FlashSaleController(service, mock(SoldOutRegistry.class), activities, true))
+                .setControllerAdvice(new FlashSaleApiExceptionHandler())
+                .build();
+
+        assertThatThrownBy(() -> mockMvc.perform(post("/api/v1/flashsale/reservations")
+                        .header("Idempotency-Key", "idem-broken")
+                        .header("X-User-Id", "demo-user-001")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"skuId\":\"demo-phone-001\",\"qty\":1}")))
+                .hasRootCauseInstanceOf(IllegalArgumentException.class)
+                .hasRootCauseMessage("Invalid pointer: x");
+    }
+
+    @Test
+    void unknownActivityWithoutAMessageStillAnswersABody() {
+        ResponseEntity<Map<String, String>> response = new FlashSaleApiExceptionHandler()
+                .handleUnknownActivity(new UnknownActivityException(null));
+
+        assertThat(response.getStatusCode()).isEqualTo(HttpStatus.BAD_REQUEST);
+        assertThat(response.getBody()).containsEntry("message", "Unknown flash sale activity");
+    }
 }
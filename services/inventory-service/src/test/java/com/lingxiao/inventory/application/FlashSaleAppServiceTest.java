@@ -0,0 +1,140 @@
+package com.lingxiao.inventory.application;
+
+import com.lingxiao.common.idempotency.IdempotencyPayloadMismatchException;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleRedisRepository;
+import com.lingxiao.inventory.infrastructure.redis.SoldOutRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FlashSaleAppServiceTest {
+
+    private static final String SKU = "loadtest-hot-sku-001";
+    private static final String USER = "demo-user-001";
+    private static final String PAYLOAD = Base64.getEncoder().encodeToString((SKU + "|1").getBytes(StandardCharsets.UTF_8));
+
+    private final FlashSaleRedisRepository redisRepo = mock(FlashSaleRedisRepository.class);
+    private final SoldOutRegistry soldOutRegistry = mock(SoldOutRegistry.class);
+
+    private FlashSaleAppService service(int stockBuckets) {
+        FlashSaleKeyGenerator keys = new FlashSaleKeyGenerator("A100", 8, stockBuckets,
+                "fs:stock:", "fs:buyers:", "fs:order:", "fs:stream:", "fs:snap:", "fs:price:");
+        return new FlashSaleAppService(redisRepo, FlashSaleActivityRegistry.of(keys), soldOutRegistry,
+                Duration.ofMinutes(15), Duration.ofMinutes(5), Duration.ofHours(24), Duration.ofMinutes(17),
+                Duration.ofDays(30), Duration.ofSeconds(90), Duration.ofHours(2));
+    }
+
+    private void scriptReturns(boolean stockPreclaimed, boolean deferSoldOut, String raw) {
+        when(redisRepo.executeIdempotent(anyString(), anyString(), anyString(), anyString(), anyString(), anyString(),
+                anyString(), anyString(), anyLong(), any(), any(), any(), anyString(), anyString(), anyString(),
+                anyString(), anyString(), eq(stockPreclaimed), anyString(), anyString(), any(), any(), eq(deferSoldOut)))
+                .thenReturn(raw);
+    }
+
+    private void reserveReturns(boolean stockPreclaimed, long res) {
+        when(redisRepo.execute(anyString(), anyString(), anyString(), anyString(), anyString(), anyString(), anyString(),
+                anyLong(), any(), any(), any(), anyString(), anyString(), anyString(), anyString(), anyString(), eq(stockPreclaimed)))
+                .thenReturn(res);
+    }
+
+    @Test
+    void freshSoldOutReturnsThePointerAndMarksTheSku() {
+        scriptReturns(false, false, "OK:" + PAYLOAD + "\nSOLD_OUT|||" + SKU + "|1\nEMPTY");
+
+        String pointer = service(1).reserveIdempotent("idem-1", "o-fs-A100-04-x", SKU, USER, 1);
+
+        assertThat(pointer).isEqualTo("SOLD_OUT|||" + SKU + "|1");
+        assertThat(FlashSaleReservationResult.fromPointer(pointer).status())
+                .isEqualTo(FlashSaleReservationResult.Status.SOLD_OUT);
+        verify(soldOutRegistry).markSoldOut("A100:" + SKU);
+    }
+
+    @Test
+    void qtyAboveTheRemainingStockIsRejectedWithoutMarkingSoldOut() {
+        scriptReturns(false, false, "OK:" + PAYLOAD + "\nSOLD_OUT|||" + SKU + "|1");
+        reserveReturns(false, -2);
+
+        String pointer = service(1).reserveIdempotent("idem-1", "o-fs-A100-04-x", SKU, USER, 1);
+        FlashSaleAppService.FlashSaleResult result = service(1).reserve("o-fs-A100-04-y", SKU, USER, 3);
+
+        assertThat(FlashSaleReservationResult.fromPointer(pointer).status())
+                .isEqualTo(FlashSaleReservationResult.Status.SOLD_OUT);
+        assertThat(result.insufficient()).isTrue();
+        verify(soldOutRegistry, never()).markSoldOut(anyString());
+    }
+
+    @Test
+    void emptyHomeBucketMarksSoldOutOnlyWhenEveryBucketIsEmpty() {
+        String neighbour = "fs:stock:{A100:04.01}:sku:" + SKU;
+        reserveReturns(false, 0);
+        when(redisRepo.stocks(List.of(neighbour))).thenReturn(List.of(1L), List.of(0L));
+
+        assertThat(service(2).reserve("o-fs-A100-04.00-x", SKU, USER, 2).insufficient()).isTrue();
+        verify(soldOutRegistry, never()).markSoldOut(anyString());
+
+        assertThat(service(2).reserve("o-fs-A100-04.00-y", SKU, USER, 2).insufficient()).isTrue();
+        verify(soldOutRegistry).markSoldOut("A100:" + SKU);
+        verify(redisRepo, never()).borrow(anyString(), anyString(), anyString(), anyLong());
+    }
+
+    @Test
+    void replayWithAnotherPayloadIsRejected() {
+        scriptReturns(false, false, "DONE:" + Base64.getEncoder().encodeToString("other|1".getBytes(StandardCharsets.UTF_8))
+                + "\nSOLD_OUT|||other|1");
+
+        assertThatThrownBy(() -> service(1).reserveIdempotent("idem-1", "o-fs-A100-04-x", SKU, USER, 1))
+                .isInstanceOf(IdempotencyPayloadMismatchException.class);
+    }
+
+    @Test
+    void dryHomeBucketBorrowsAndKeepsTheNeighbourStockOnlyWhenReserved() {
+        FlashSaleAppService service = service(2);
+        String orderId = "o-fs-A100-04.00-x";
+        scriptReturns(false, true, "DEFER");
+        scriptReturns(true, false, "OK:" + PAYLOAD + "\nRESERVED|" + orderId + "|2026-07-15T00:05:00Z|" + SKU + "|1");
+        String lender = "fs:stock:{A100:04.01}:sku:" + SKU;
+        when(redisRepo.stocks(List.of(lender))).thenReturn(List.of(3L));
+        when(redisRepo.borrow("fs:stock:{A100}:loans", lender, orderId, 1)).thenReturn(true);
+
+        String pointer = service.reserveIdempotent("idem-1", orderId, SKU, USER, 1);
+
+        assertThat(FlashSaleReservationResult.fromPointer(pointer).orderId()).isEqualTo(orderId);
+        verify(redisRepo).settleLoan(lender, orderId, false);
+        verify(soldOutRegistry, never()).markSoldOut(anyString());
+    }
+
+    @Test
+    void dryNeighboursAreSkippedWithoutABorrowAttempt() {
+        FlashSaleAppService service = service(4);
+        String orderId = "o-fs-A100-04.00-x";
+        reserveReturns(false, 0);
+        reserveReturns(true, 1);
+        String dry1 = "fs:stock:{A100:04.01}:sku:" + SKU;
+        String lender = "fs:stock:{A100:04.02}:sku:" + SKU;
+        String dry3 = "fs:stock:{A100:04.03}:sku:" + SKU;
+        when(redisRepo.stocks(List.of(dry1, lender, dry3))).thenReturn(List.of(0L, 5L, -1L));
+        when(redisRepo.borrow("fs:stock:{A100}:loans", lender, orderId, 1)).thenReturn(true);
+
+        assertThat(service.reserve(orderId, SKU, USER, 1).success()).isTrue();
+        verify(redisRepo, never()).borrow(anyString(), eq(dry1), anyString(), anyLong());
+        verify(redisRepo, never()).borrow(anyString(), eq(dry3), anyString(), anyLong());
+        verify(redisRepo).settleLoan(lender, orderId, false);
+    }
+}
@@ -0,0 +1,50 @@
+package com.lingxiao.inventory.application;
+
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleRedisRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FlashSaleLoanSweeperTest {
+
+    private static final String SKU = "loadtest-hot-sku-001";
+    private static final String LENDER = "fs:stock:{A100:04.01}:sku:" + SKU;
+
+    private final FlashSaleRedisRepository redisRepo = mock(FlashSaleRedisRepository.class);
+    private final FlashSaleLoanSweeper sweeper = new FlashSaleLoanSweeper(redisRepo,
+            FlashSaleActivityRegistry.of(new FlashSaleKeyGenerator("A100", 8, 2,
+                    "fs:stock:", "fs:buyers:", "fs:order:", "fs:stream:", "fs:snap:", "fs:price:")),
+            Duration.ofMinutes(1));
+
+    @Test
+    void abandonedLoansGoBackUnlessTheHomeBucketRecordedTheOrder() {
+        long now = 1_000_000L;
+        when(redisRepo.lenders("fs:stock:{A100}:loans")).thenReturn(Set.of(LENDER));
+        when(redisRepo.loans(LENDER)).thenReturn(Map.of(
+                "o-fs-A100-04.00-crashed", "2:" + (now - 120_000),
+                "o-fs-A100-04.00-reserved", "1:" + (now - 120_000),
+                "o-fs-A100-04.00-in-flight", "1:" + (now - 1_000)));
+        when(redisRepo.reservationRecorded("fs:order:{A100:04.00}:o-fs-A100-04.00-reserved",
+                "fs:snap:{A100:04.00}:order:o-fs-A100-04.00-reserved")).thenReturn(true);
+        when(redisRepo.settleLoan(eq(LENDER), anyString(), anyBoolean())).thenReturn(true);
+
+        assertThat(sweeper.sweep(now)).isEqualTo(2);
+
+        verify(redisRepo).settleLoan(LENDER, "o-fs-A100-04.00-crashed", true);
+        verify(redisRepo).settleLoan(LENDER, "o-fs-A100-04.00-reserved", false);
+        verify(redisRepo, never()).settleLoan(eq(LENDER), eq("o-fs-A100-04.00-in-flight"), anyBoolean());
+    }
+}
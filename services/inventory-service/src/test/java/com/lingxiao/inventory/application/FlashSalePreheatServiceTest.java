@@ -0,0 +1,49 @@
+package com.lingxiao.inventory.application;
+
+import com.lingxiao.inventory.infrastructure.db.spanner.InventoryRepository;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.SoldOutRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FlashSalePreheatServiceTest {
+
+    private final InventoryRepository repository = mock(InventoryRepository.class);
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    private final FlashSalePricingService pricingService = mock(FlashSalePricingService.class);
+    private final SoldOutRegistry soldOutRegistry = mock(SoldOutRegistry.class);
+
+    @Test
+    void unpricedSkusAreReportedAndOnlyPricedOnesAreSeeded() {
+        FlashSaleKeyGenerator keys = new FlashSaleKeyGenerator("A100", 8, 2,
+                "fs:stock:", "fs:buyers:", "fs:order:", "fs:stream:", "fs:snap:", "fs:price:");
+        FlashSalePreheatService service = new FlashSalePreheatService(repository, redisTemplate, FlashSaleActivityRegistry.of(keys),
+                pricingService, soldOutRegistry, 200, 1);
+        when(pricingService.fetchPrices(List.of("sku-a", "sku-b")))
+                .thenReturn(Map.of("sku-a", new FlashSalePricingService.Price(1999, "USD")));
+        FlashSalePreheatService.Job job = new FlashSalePreheatService.Job("job-1", keys, 2);
+
+        service.preheatChunk(job, List.of("sku-a", "sku-b"), Map.of("sku-a", 10L, "sku-b", 5L));
+
+        verify(repository).seedBatch(Map.of("sku-a", 10L));
+        // two stock buckets -> two hash tags -> two pipelines
+        verify(redisTemplate, times(2)).executePipelined(any(SessionCallback.class));
+        verify(soldOutRegistry).clear(List.of("A100:sku-a"));
+        FlashSalePreheatService.PreheatStatus status = job.status();
+        assertThat(status.done()).isEqualTo(1);
+        assertThat(status.failedSkuIds()).containsExactly("sku-b");
+        service.shutdown();
+    }
+}
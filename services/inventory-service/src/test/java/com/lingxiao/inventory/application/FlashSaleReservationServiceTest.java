@@ -1,25 +1,64 @@
 package com.lingxiao.inventory.application;
 
+import com.lingxiao.common.idempotency.Idempotent;
+import com.lingxiao.common.idempotency.aop.IdempotencyNamespaceProvider;
+import com.lingxiao.common.idempotency.aop.SpelKeyResolver;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
 import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.springframework.mock.env.MockEnvironment;
 
+import java.lang.reflect.Method;
 import java.time.Instant;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 class FlashSaleReservationServiceTest {
 
     private final FlashSaleAppService appService = mock(FlashSaleAppService.class);
     private final FlashSaleKeyGenerator keyGenerator = mock(FlashSaleKeyGenerator.class);
+    private final FlashSaleActivityRegistry activities = mock(FlashSaleActivityRegistry.class);
+    private final IdempotencyNamespaceProvider namespaces = new IdempotencyNamespaceProvider(
+            new MockEnvironment().withProperty("spring.application.name", "inventory-service"));
     private FlashSaleReservationService service;
 
     @BeforeEach
     void setUp() {
-        service = new FlashSaleReservationService(appService, keyGenerator);
-        when(keyGenerator.generateOrderIdForSku("demo-phone-001")).thenReturn("o-new-123");
+        service = new FlashSaleReservationService(appService, activities, namespaces, true);
+        when(activities.activity(null)).thenReturn(keyGenerator);
+        when(keyGenerator.generateOrderIdForSku("demo-phone-001", "demo-user-001")).thenReturn("o-new-123");
+        when(keyGenerator.reserveIdemTag("demo-phone-001", "demo-user-001")).thenReturn("{A100:04}");
+    }
+
+    @Test
+    void fusedAndAspectPathsShareTheIdempotencyRecord() throws Exception {
+        Method reserve = FlashSaleReservationService.class.getMethod("reserve",
+                String.class, String.class, String.class, long.class, String.class);
+        Idempotent anno = reserve.getAnnotation(Idempotent.class);
+        String aspectId = new SpelKeyResolver().resolve(reserve, service,
+                new Object[]{"idem-1", "demo-user-001", "demo-phone-001", 1L, null}, anno.id());
+        String aspectKey = namespaces.storeKey(anno.keyPrefix(), anno.eventType(), aspectId);
+
+        service.reserveFused("idem-1", "demo-user-001", "demo-phone-001", 1, null);
+
+        assertThat(aspectKey).isEqualTo("idem:fs:inventory-service:flashsale_reserve_api_v1:{A100:04}:demo-user-001:idem-1");
+        verify(appService).reserveIdempotent(aspectKey, "o-new-123", "demo-phone-001", "demo-user-001", 1);
+    }
+
+    @Test
+    void aspectPathKeepsThePreFusedRecordWhileFusedReserveIsOff() throws Exception {
+        FlashSaleKeyGenerator other = mock(FlashSaleKeyGenerator.class);
+        when(other.activityId()).thenReturn("B200");
+        when(activities.activity("B200")).thenReturn(other);
+        when(activities.defaultActivity()).thenReturn(keyGenerator);
+        FlashSaleReservationService legacy = new FlashSaleReservationService(appService, activities, namespaces, false);
+
+        assertThat(legacy.idemId(null, "demo-phone-001", "demo-user-001", "idem-1")).isEqualTo("demo-user-001:idem-1");
+        assertThat(legacy.idemId("B200", "demo-phone-001", "demo-user-001", "idem-1")).isEqualTo("B200:demo-user-001:idem-1");
     }
 
     @Test
@@ -29,7 +68,7 @@ class FlashSaleReservationServiceTest {
                 .thenReturn(new FlashSaleAppService.FlashSaleResult(true, false, false, expiresAt));
 
         FlashSaleReservationResult result = FlashSaleReservationResult.fromPointer(
-                service.reserve("idem-1", "demo-user-001", "demo-phone-001", 1));
+                service.reserve("idem-1", "demo-user-001", "demo-phone-001", 1, null));
 
         assertThat(result.status()).isEqualTo(FlashSaleReservationResult.Status.RESERVED);
         assertThat(result.orderId()).isEqualTo("o-new-123");
@@ -42,7 +81,7 @@ class FlashSaleReservationServiceTest {
                 .thenReturn(new FlashSaleAppService.FlashSaleResult(false, true, false, Instant.now()));
 
         FlashSaleReservationResult result = FlashSaleReservationResult.fromPointer(
-                service.reserve("idem-2", "demo-user-001", "demo-phone-001", 1));
+                service.reserve("idem-2", "demo-user-001", "demo-phone-001", 1, null));
 
         assertThat(result.status()).isEqualTo(FlashSaleReservationResult.Status.DUPLICATE);
         assertThat(result.orderId()).isNull();
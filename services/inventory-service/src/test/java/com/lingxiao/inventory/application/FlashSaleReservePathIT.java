@@ -0,0 +1,181 @@
+package com.lingxiao.inventory.application;
+
+import com.lingxiao.common.idempotency.aop.DurationParser;
+import com.lingxiao.common.idempotency.aop.IdempotencyNamespaceProvider;
+import com.lingxiao.common.idempotency.aop.IdempotentAspect;
+import com.lingxiao.common.idempotency.aop.SpelKeyResolver;
+import com.lingxiao.common.idempotency.store.RedisIdempotencyStore;
+import com.lingxiao.common.redis.RedisTestSupport;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleInflightLedger;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleRedisRepository;
+import com.lingxiao.inventory.infrastructure.redis.SoldOutRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mock.env.MockEnvironment;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 预占入口两条幂等路径对比：fused（一次 flash_sale_reserve_idem.lua）与 @Idempotent 切面（acquire + 预占 + markDone）。
+ * 断言每次预占的脚本调用次数（INFO commandstats 的 EVAL/EVALSHA 增量）、fused 的 p50 更低，
+ * 同一幂等键跨路径重试只重放、不重复预占，以及预占写入的在途账本能被 consumer 幂等划掉。
+ * 需要本地 Redis，不可达时跳过；每个测试使用随机活动 id，结束后删除。
+ */
+class FlashSaleReservePathIT {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleReservePathIT.class);
+
+    private static final int WARMUP = 300;
+    private static final int ROUNDS = 2_000;
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    private String activityId;
+    private String skuId;
+    private FlashSaleKeyGenerator keys;
+    private FlashSaleInflightLedger inflightLedger;
+    private FlashSaleReservationService fused;
+    private FlashSaleReservationService aspect;
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = RedisTestSupport.connectOrSkip();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void close() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        activityId = "it" + ThreadLocalRandom.current().nextInt(1_000_000);
+        skuId = "sku-" + activityId;
+        keys = new FlashSaleKeyGenerator(activityId, 8, 1,
+                "fs:stock:", "fs:buyers:", "fs:order:", "fs:stream:", "fs:snap:", "fs:price:");
+        redisTemplate.opsForValue().set(keys.stockKey(skuId, 0), Long.toString(10L * (WARMUP + ROUNDS)));
+        redisTemplate.opsForHash().putAll(keys.priceKey(skuId, 0), Map.of("priceCents", "100", "currency", "USD"));
+
+        FlashSaleActivityRegistry activities = FlashSaleActivityRegistry.of(keys);
+        inflightLedger = new FlashSaleInflightLedger(redisTemplate, true, Duration.ofMinutes(10), Duration.ofHours(1));
+        FlashSaleAppService app = new FlashSaleAppService(new FlashSaleRedisRepository(redisTemplate, inflightLedger), activities,
+                mock(SoldOutRegistry.class), Duration.ofMinutes(15), Duration.ofMinutes(5), Duration.ofMinutes(20),
+                Duration.ofMinutes(17), Duration.ofMinutes(20), Duration.ofSeconds(90), Duration.ofMinutes(20));
+        IdempotencyNamespaceProvider namespaces = new IdempotencyNamespaceProvider(
+                new MockEnvironment().withProperty("spring.application.name", "inventory-it"));
+        fused = new FlashSaleReservationService(app, activities, namespaces, true);
+
+        AspectJProxyFactory proxy = new AspectJProxyFactory(new FlashSaleReservationService(app, activities, namespaces, true));
+        proxy.addAspect(new IdempotentAspect(new RedisIdempotencyStore(redisTemplate), new SpelKeyResolver(),
+                new DurationParser(), namespaces));
+        aspect = proxy.getProxy();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        redisTemplate.delete(redisTemplate.keys("*{" + activityId + ":*"));
+    }
+
+    @Test
+    void fusedPathRunsOneScriptPerReservationAndIsFaster() {
+        long before = scriptCalls();
+        long[] aspectNanos = run(aspect, "aspect");
+        long afterAspect = scriptCalls();
+        long[] fusedNanos = run(fused, "fused");
+        long afterFused = scriptCalls();
+
+        double aspectPerCall = (double) (afterAspect - before) / (WARMUP + ROUNDS);
+        double fusedPerCall = (double) (afterFused - afterAspect) / (WARMUP + ROUNDS);
+        log.info("reserve scripts/call aspect={} fused={}; p50 aspect={}us fused={}us; p99 aspect={}us fused={}us",
+                aspectPerCall, fusedPerCall, micros(aspectNanos, 0.5), micros(fusedNanos, 0.5),
+                micros(aspectNanos, 0.99), micros(fusedNanos, 0.99));
+
+        // + the one-off EVAL after NOSCRIPT when a script is first used
+        assertThat(fusedPerCall).isCloseTo(1.0, within(0.01));
+        assertThat(aspectPerCall).isGreaterThanOrEqualTo(3.0);
+        assertThat(micros(fusedNanos, 0.5)).isLessThan(micros(aspectNanos, 0.5));
+    }
+
+    @Test
+    void retryOnTheOtherPathReplaysInsteadOfReservingAgain() {
+        String first = fused.reserveFused("idem-1", "user-1", skuId, 1, activityId);
+        String replayed = aspect.reserve("idem-1", "user-1", skuId, 1, activityId);
+        assertThat(FlashSaleReservationResult.fromPointer(first).status()).isEqualTo(FlashSaleReservationResult.Status.RESERVED);
+        assertThat(replayed).isEqualTo(first);
+
+        String second = aspect.reserve("idem-2", "user-2", skuId, 1, activityId);
+        assertThat(fused.reserveFused("idem-2", "user-2", skuId, 1, activityId)).isEqualTo(second);
+
+        assertThat(redisTemplate.opsForStream().size(keys.streamKey(skuId, 0))).isEqualTo(2);
+        List<String> stockKeys = List.of(keys.stockKey(skuId, 0));
+        assertThat(inflightLedger.inflight(stockKeys)).isEqualTo(2);
+        List<String> ledgers = inflightLedger.liveKeys(stockKeys.get(0), Instant.now());
+        assertThat(redisTemplate.getExpire(ledgers.get(ledgers.size() - 1))).isPositive();
+
+        // Spanner consumer settles (twice, as on a redelivery): the ledger total drops exactly once per order
+        FlashSaleRedisRepository repo = new FlashSaleRedisRepository(redisTemplate, inflightLedger);
+        List<String> orderIds = List.of(FlashSaleReservationResult.fromPointer(first).orderId(),
+                FlashSaleReservationResult.fromPointer(second).orderId());
+        long settled = 0;
+        for (String ledger : ledgers) {
+            settled += repo.settleInflight(ledger, orderIds);
+        }
+        assertThat(settled).isEqualTo(2);
+        for (String ledger : ledgers) {
+            assertThat(repo.settleInflight(ledger, orderIds)).isZero();
+        }
+        assertThat(inflightLedger.inflight(stockKeys)).isZero();
+    }
+
+    private long[] run(FlashSaleReservationService service, String path) {
+        for (int i = 0; i < WARMUP; i++) {
+            reserve(service, path + "-warm-" + i);
+        }
+        long[] nanos = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            reserve(service, path + "-" + i);
+            nanos[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    private void reserve(FlashSaleReservationService service, String userId) {
+        String pointer = service == fused
+                ? service.reserveFused("idem-" + userId, userId, skuId, 1, activityId)
+                : service.reserve("idem-" + userId, userId, skuId, 1, activityId);
+        assertThat(FlashSaleReservationResult.fromPointer(pointer).status()).isEqualTo(FlashSaleReservationResult.Status.RESERVED);
+    }
+
+    private static long scriptCalls() {
+        return RedisTestSupport.scriptCalls(redisTemplate);
+    }
+
+    private static long micros(long[] sortedNanos, double quantile) {
+        return sortedNanos[(int) Math.min(sortedNanos.length - 1, Math.floor(quantile * sortedNanos.length))] / 1_000;
+    }
+}
@@ -0,0 +1,173 @@
+package com.lingxiao.inventory.application;
+
+import com.google.cloud.Timestamp;
+import com.lingxiao.inventory.infrastructure.db.spanner.InventoryRepository;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleActivityRegistry;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleInflightLedger;
+import com.lingxiao.inventory.infrastructure.redis.FlashSaleKeyGenerator;
+import com.lingxiao.inventory.infrastructure.redis.SoldOutRegistry;
+import com.lingxiao.inventory.metrics.FlashSaleMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FlashSaleStockReconcilerTest {
+
+    private static final String SKU = "loadtest-hot-sku-001";
+    private static final String STOCK_KEY = "fs:stock:{A100:04}:sku:" + SKU;
+
+    private final InventoryRepository repository = mock(InventoryRepository.class);
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> values = mock(ValueOperations.class);
+    private final FlashSaleInflightLedger inflightLedger = mock(FlashSaleInflightLedger.class);
+    private final SoldOutRegistry soldOutRegistry = mock(SoldOutRegistry.class);
+
+    private FlashSaleStockReconciler reconciler() {
+        return reconciler(1);
+    }
+
+    private FlashSaleStockReconciler reconciler(int stockBuckets) {
+        FlashSaleKeyGenerator keys = new FlashSaleKeyGenerator("A100", 8, stockBuckets,
+                "fs:stock:", "fs:buyers:", "fs:order:", "fs:stream:", "fs:snap:", "fs:price:");
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(repository.listTouchedSince(any(), anyInt()))
+                .thenReturn(List.of(new InventoryRepository.TouchedSku(SKU, Timestamp.now())))
+                .thenReturn(List.of());
+        return new FlashSaleStockReconciler(repository, redisTemplate, FlashSaleActivityRegistry.of(keys), soldOutRegistry, inflightLedger,
+                mock(FlashSaleMetrics.class),
+                500, 100, 2, Duration.ofHours(1), "fs:reconcile:lease", Duration.ofSeconds(30));
+    }
+
+    /**
+     * In-flight total of the SKU over all buckets, one value per pass.
+     */
+    private void inflight(long... totals) {
+        Long first = totals[0];
+        Long[] rest = new Long[totals.length - 1];
+        for (int i = 1; i < totals.length; i++) {
+            rest[i - 1] = totals[i];
+        }
+        when(inflightLedger.inflight(anyList())).thenReturn(first, rest);
+    }
+
+    @Test
+    void driftIsCorrectedOnlyAfterItIsObservedTwiceAndIsBounded() {
+        FlashSaleStockReconciler reconciler = reconciler();
+        when(repository.getAvailable(List.of(SKU))).thenReturn(Map.of(SKU, 500L));
+        // Redis 少了 250（例如 release 没回补 Redis）
+        when(values.get(STOCK_KEY)).thenReturn("250");
+
+        reconciler.runPass();
+        verify(values, never()).increment(anyString(), anyLong());
+
+        reconciler.runPass();
+        verify(values).increment(STOCK_KEY, 100L);
+        verify(soldOutRegistry).clear("A100:" + SKU);
+    }
+
+    @Test
+    void changingDriftIsNotCorrected() {
+        FlashSaleStockReconciler reconciler = reconciler();
+        when(repository.getAvailable(List.of(SKU))).thenReturn(Map.of(SKU, 500L));
+        // 活动进行中：每轮 Redis 都在变，而账本没有对上的在途
+        when(values.get(STOCK_KEY)).thenReturn("480", "460", "440");
+
+        reconciler.runPass();
+        reconciler.runPass();
+        reconciler.runPass();
+
+        verify(values, never()).increment(anyString(), anyLong());
+        verify(values, never()).decrement(anyString(), anyLong());
+    }
+
+    @Test
+    void reservationsStillInKafkaAreNotDrift() {
+        FlashSaleStockReconciler reconciler = reconciler();
+        // 50 件已在 Redis 扣减、已出 Stream、还在 Kafka 里，Spanner 尚未看到
+        when(repository.getAvailable(List.of(SKU))).thenReturn(Map.of(SKU, 500L));
+        when(values.get(STOCK_KEY)).thenReturn("450");
+        inflight(50);
+
+        reconciler.runPass();
+        reconciler.runPass();
+        reconciler.runPass();
+
+        verify(values, never()).increment(anyString(), anyLong());
+        verify(values, never()).decrement(anyString(), anyLong());
+    }
+
+    @Test
+    void upwardCorrectionWaitsUntilNothingIsInFlight() {
+        FlashSaleStockReconciler reconciler = reconciler();
+        // Redis 真少了 100，同时还有 50 在途；在途落库后 Spanner 可用量同步减少，drift 不变
+        when(repository.getAvailable(List.of(SKU))).thenReturn(Map.of(SKU, 500L), Map.of(SKU, 500L), Map.of(SKU, 450L));
+        when(values.get(STOCK_KEY)).thenReturn("350");
+        inflight(50, 50, 0);
+
+        reconciler.runPass();
+        reconciler.runPass();
+        verify(values, never()).increment(anyString(), anyLong());
+
+        reconciler.runPass();
+        verify(values).increment(STOCK_KEY, 100L);
+    }
+
+    @Test
+    void multiBucketDriftIsSummedAcrossBucketsAndSplitEvenly() {
+        FlashSaleStockReconciler reconciler = reconciler(2);
+        String bucket0 = "fs:stock:{A100:04.00}:sku:" + SKU;
+        String bucket1 = "fs:stock:{A100:04.01}:sku:" + SKU;
+        when(repository.getAvailable(List.of(SKU))).thenReturn(Map.of(SKU, 500L));
+        // 两个 bucket 合计 380，在途 20（都在 bucket 1）：expected = 480，少了 100
+        when(values.get(bucket0)).thenReturn("200");
+        when(values.get(bucket1)).thenReturn("180");
+        inflight(20);
+
+        reconciler.runPass();
+        reconciler.runPass();
+
+        verify(values, never()).increment(anyString(), anyLong());
+        verify(values, never()).decrement(anyString(), anyLong());
+
+        // bucket 1 的在途落库
+        when(repository.getAvailable(List.of(SKU))).thenReturn(Map.of(SKU, 480L));
+        inflight(0);
+        reconciler.runPass();
+
+        verify(values).increment(bucket0, 50L);
+        verify(values).increment(bucket1, 50L);
+    }
+
+    @Test
+    void surplusIsTakenFromTheRichestBucketEvenWhileReservationsAreInFlight() {
+        FlashSaleStockReconciler reconciler = reconciler(2);
+        String bucket0 = "fs:stock:{A100:04.00}:sku:" + SKU;
+        String bucket1 = "fs:stock:{A100:04.01}:sku:" + SKU;
+        when(repository.getAvailable(List.of(SKU))).thenReturn(Map.of(SKU, 100L));
+        // Redis 多了 60：100 - 10 在途 = 90 应剩，实际 150
+        when(values.get(bucket0)).thenReturn("40");
+        when(values.get(bucket1)).thenReturn("110");
+        inflight(10);
+
+        reconciler.runPass();
+        reconciler.runPass();
+
+        verify(values).decrement(bucket1, 60L);
+        verify(values, never()).decrement(bucket0, 60L);
+    }
+}
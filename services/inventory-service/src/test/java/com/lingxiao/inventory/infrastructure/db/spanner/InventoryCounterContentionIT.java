@@ -0,0 +1,164 @@
+package com.lingxiao.inventory.infrastructure.db.spanner;
+
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.DatabaseId;
+import com.google.cloud.spanner.Spanner;
+import com.google.cloud.spanner.SpannerOptions;
+import com.lingxiao.common.db.errors.SpannerErrorTranslator;
+import com.lingxiao.common.db.tx.TxRunner;
+import com.lingxiao.common.redis.RedisTestSupport;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.lingxiao.common.redis.RedisTestSupport.env;
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * 单热点 SKU 上并发 reserve（+ 部分 commit / release）：legacy（每次读改写 Inventory 行）vs counter-shards。
+ * 库存远小于请求量时断言成功预占数恰好等于库存、不超卖，且 compaction 前后 OnHand - Reserved 一致；
+ * 库存充足时同一负载分别跑 counter-shards=0 和 N，记录并断言两边的提交吞吐。
+ * 需要本地 emulator 且已应用 infra/local/spanner/ddl/inventory（含 003）；不可达时跳过。
+ * emulator 串行执行读写事务，两边吞吐接近，默认只要求分片不慢于 legacy 的 INVENTORY_BENCH_MIN_SPEEDUP（0.8）倍；
+ * 对真实实例跑时调高该值（例如 2）来验证热点缓解。
+ */
+class InventoryCounterContentionIT {
+
+    private static final Logger log = LoggerFactory.getLogger(InventoryCounterContentionIT.class);
+
+    private static final int THREADS = 16;
+    private static final long STOCK = 200;
+    private static final Duration RUN = Duration.ofSeconds(10);
+    private static final int SHARDS = 16;
+
+    private static Spanner spanner;
+    private static DatabaseClient client;
+
+    @BeforeAll
+    static void connect() {
+        String host = env("SPANNER_EMULATOR_HOST", "localhost:9010");
+        RedisTestSupport.assumeReachable(host, "Spanner emulator");
+        spanner = SpannerOptions.newBuilder()
+                .setProjectId(env("SPANNER_PROJECT", "local-project"))
+                .setEmulatorHost(host)
+                .build()
+                .getService();
+        client = spanner.getDatabaseClient(DatabaseId.of(env("SPANNER_PROJECT", "local-project"),
+                env("SPANNER_INSTANCE", "local-instance"), env("SPANNER_DATABASE", "local-db")));
+    }
+
+    @AfterAll
+    static void close() {
+        if (spanner != null) {
+            spanner.close();
+        }
+    }
+
+    @Test
+    void legacyCountersDoNotOversell() throws Exception {
+        assertSoldOutExactly(run(0, STOCK));
+    }
+
+    @Test
+    void shardedCountersDoNotOversell() throws Exception {
+        assertSoldOutExactly(run(SHARDS, STOCK));
+    }
+
+    @Test
+    void shardedCountersCommitFasterThanLegacyOnAHotSku() throws Exception {
+        // stock never runs out within RUN, so both sides do the same reserve / commit / release mix for the whole run
+        Run legacy = run(0, 1_000_000);
+        Run sharded = run(SHARDS, 1_000_000);
+        double minSpeedup = Double.parseDouble(env("INVENTORY_BENCH_MIN_SPEEDUP", "0.8"));
+        log.info("hot sku commit throughput legacy={}/s sharded={}/s speedup={}",
+                String.format("%.1f", legacy.commitsPerSecond()), String.format("%.1f", sharded.commitsPerSecond()),
+                String.format("%.2f", sharded.commitsPerSecond() / legacy.commitsPerSecond()));
+
+        assertThat(legacy.commitsPerSecond()).isGreaterThan(0);
+        assertThat(sharded.commitsPerSecond()).isGreaterThan(0);
+        assertThat(sharded.commitsPerSecond()).isGreaterThanOrEqualTo(legacy.commitsPerSecond() * minSpeedup);
+    }
+
+    private static void assertSoldOutExactly(Run run) {
+        // every worker re-checks availability after its last write, so a run that ended before the deadline sold out exactly
+        if (run.drained()) {
+            assertThat(run.outstanding()).isEqualTo(STOCK);
+        }
+    }
+
+    /**
+     * @param commits successful read-write transactions (reserve, commit, release)
+     */
+    private record Run(long outstanding, boolean drained, long commits, long elapsedNanos) {
+
+        double commitsPerSecond() {
+            return commits * 1e9 / elapsedNanos;
+        }
+    }
+
+    private Run run(int counterShards, long stock) throws Exception {
+        SpannerErrorTranslator translator = new SpannerErrorTranslator();
+        InventoryRepository repo = new InventoryRepository(client, translator, new TxRunner(client, translator), counterShards);
+        String skuId = "bench-" + UUID.randomUUID().toString().substring(0, 8);
+        repo.seed(skuId, stock);
+
+        AtomicLong attempts = new AtomicLong();
+        AtomicLong held = new AtomicLong();
+        AtomicLong committed = new AtomicLong();
+        AtomicLong released = new AtomicLong();
+        long start = System.nanoTime();
+        long deadline = start + RUN.toNanos();
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(pool.submit(() -> {
+                while (System.nanoTime() < deadline && repo.getAvailable(skuId) > 0) {
+                    String orderId = "o-bench-" + UUID.randomUUID();
+                    attempts.incrementAndGet();
+                    if (!repo.reserve(orderId, skuId, 1, Duration.ofMinutes(15))) {
+                        continue;
+                    }
+                    // every 10th order is released, so released stock is taken again in the same run
+                    long n = held.incrementAndGet();
+                    if (n % 10 == 0) {
+                        assertThat(repo.release(orderId)).isEqualTo(1);
+                        released.incrementAndGet();
+                    } else if (n % 2 == 0) {
+                        assertThat(repo.commit(orderId)).isEqualTo(1);
+                        committed.incrementAndGet();
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        boolean drained = elapsed < RUN.toNanos();
+        pool.shutdown();
+        assertThat(pool.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+
+        long outstanding = held.get() - released.get();
+        log.info("counterShards={} stock={} attempts={} held={} committed={} released={} available={} elapsedMs={}",
+                counterShards, stock, attempts.get(), held.get(), committed.get(), released.get(),
+                repo.getAvailable(skuId), TimeUnit.NANOSECONDS.toMillis(elapsed));
+
+        assertThat(outstanding).isLessThanOrEqualTo(stock);
+        assertThat(repo.getAvailable(skuId)).isEqualTo(stock - outstanding).isGreaterThanOrEqualTo(0);
+        repo.compactCounterShards(10);
+        assertThat(repo.getAvailable(skuId)).isEqualTo(stock - outstanding);
+        return new Run(outstanding, drained, held.get() + committed.get() + released.get(), elapsed);
+    }
+}
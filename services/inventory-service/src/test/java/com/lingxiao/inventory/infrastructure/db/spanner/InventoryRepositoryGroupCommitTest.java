@@ -0,0 +1,44 @@
+package com.lingxiao.inventory.infrastructure.db.spanner;
+
+import com.lingxiao.inventory.domain.model.ReservationStatus;
+import com.lingxiao.inventory.infrastructure.db.spanner.InventoryRepository.FlashSaleReservation;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class InventoryRepositoryGroupCommitTest {
+
+    @Test
+    void redeliveryOfAReleasedOrExpiredReservationIsADuplicate() {
+        InventoryRepository.GroupCommitPlan plan = InventoryRepository.planGroupCommit(
+                List.of(new FlashSaleReservation("o-1", "sku-1", 1),
+                        new FlashSaleReservation("o-2", "sku-1", 1),
+                        new FlashSaleReservation("o-3", "sku-1", 1)),
+                Map.of("sku-1", 10L),
+                Map.of(InventoryRepository.reservationKey("o-1", "sku-1"), ReservationStatus.CANCELLED,
+                        InventoryRepository.reservationKey("o-2", "sku-1"), ReservationStatus.EXPIRED));
+
+        assertThat(plan.accepted()).extracting(FlashSaleReservation::orderId).containsExactly("o-3");
+        assertThat(plan.reservedDelta()).containsExactly(Map.entry("sku-1", 1L));
+        assertThat(plan.result()).isEqualTo(new InventoryRepository.GroupCommitResult(1, 2, 0));
+    }
+
+    @Test
+    void repeatsInsideTheBatchAndShortStockAreSkipped() {
+        InventoryRepository.GroupCommitPlan plan = InventoryRepository.planGroupCommit(
+                List.of(new FlashSaleReservation("o-1", "sku-1", 2),
+                        new FlashSaleReservation("o-1", "sku-1", 2),
+                        new FlashSaleReservation("o-2", "sku-1", 2),
+                        new FlashSaleReservation("o-3", "sku-2", 1),
+                        new FlashSaleReservation("o-4", "sku-9", 1)),
+                Map.of("sku-1", 3L, "sku-2", 1L),
+                Map.of(InventoryRepository.reservationKey("o-3", "sku-1"), ReservationStatus.HELD));
+
+        assertThat(plan.accepted()).extracting(FlashSaleReservation::orderId).containsExactly("o-1", "o-3");
+        assertThat(plan.reservedDelta()).containsExactly(Map.entry("sku-1", 2L), Map.entry("sku-2", 1L));
+        assertThat(plan.result()).isEqualTo(new InventoryRepository.GroupCommitResult(2, 1, 2));
+    }
+}
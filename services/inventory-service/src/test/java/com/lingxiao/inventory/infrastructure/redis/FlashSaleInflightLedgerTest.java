@@ -0,0 +1,49 @@
+package com.lingxiao.inventory.infrastructure.redis;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class FlashSaleInflightLedgerTest {
+
+    private static final String STOCK_KEY = "fs:stock:{A100:04}:sku:sku-1";
+
+    private static FlashSaleInflightLedger ledger(boolean enabled) {
+        return new FlashSaleInflightLedger(mock(StringRedisTemplate.class), enabled,
+                Duration.ofMinutes(10), Duration.ofHours(1));
+    }
+
+    @Test
+    void disabledLedgerHasNoKeySoTheReservePathSkipsIt() {
+        assertThat(ledger(false).keyFor(STOCK_KEY, Instant.now())).isNull();
+    }
+
+    @Test
+    void reservationsAreRecordedInTheWindowOfTheirOccurredAt() {
+        FlashSaleInflightLedger ledger = ledger(true);
+        Instant at = Instant.parse("2026-10-18T12:34:56Z");
+
+        String key = ledger.keyFor(STOCK_KEY, at);
+
+        assertThat(key).isEqualTo(STOCK_KEY + ":inflight:" + at.toEpochMilli() / Duration.ofMinutes(10).toMillis())
+                .startsWith(STOCK_KEY);
+        assertThat(ledger.keyFor(STOCK_KEY, at.plusSeconds(60))).isEqualTo(key);
+        assertThat(ledger.ttl()).isEqualTo(Duration.ofMinutes(70));
+    }
+
+    @Test
+    void windowsOlderThanTheRetentionNoLongerCountAsInFlight() {
+        FlashSaleInflightLedger ledger = ledger(true);
+        Instant now = Instant.parse("2026-10-18T12:34:56Z");
+
+        assertThat(ledger.liveKeys(STOCK_KEY, now))
+                .hasSize(7)
+                .contains(ledger.keyFor(STOCK_KEY, now), ledger.keyFor(STOCK_KEY, now.minus(Duration.ofMinutes(59))))
+                .doesNotContain(ledger.keyFor(STOCK_KEY, now.minus(Duration.ofMinutes(75))));
+    }
+}
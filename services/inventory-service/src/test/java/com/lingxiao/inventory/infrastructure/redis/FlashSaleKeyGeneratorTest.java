@@ -0,0 +1,77 @@
+package com.lingxiao.inventory.infrastructure.redis;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class FlashSaleKeyGeneratorTest {
+
+    private static FlashSaleKeyGenerator generator(int stockBuckets) {
+        return generator("A100", 8, stockBuckets);
+    }
+
+    private static FlashSaleKeyGenerator generator(String activityId, int shards, int stockBuckets) {
+        return new FlashSaleKeyGenerator(activityId, shards, stockBuckets,
+                "fs:stock:", "fs:buyers:", "fs:order:", "fs:stream:", "fs:snap:", "fs:price:");
+    }
+
+    @Test
+    void singleBucketKeepsTheLegacyKeyLayout() {
+        FlashSaleKeyGenerator keys = generator(1);
+        String orderId = keys.generateOrderIdForSku("loadtest-hot-sku-001", "demo-user-001");
+
+        assertThat(keys.stockKey("loadtest-hot-sku-001", 0)).isEqualTo("fs:stock:{A100:04}:sku:loadtest-hot-sku-001");
+        assertThat(orderId).startsWith("o-fs-A100-04-");
+        assertThat(keys.bucketFromOrderId(orderId)).isZero();
+        assertThat(keys.orderKey(orderId)).isEqualTo("fs:order:{A100:04}:" + orderId);
+        assertThat(keys.reserveIdemTag("loadtest-hot-sku-001", "demo-user-001")).isEqualTo("{A100:04}");
+        assertThat(keys.streamShards()).hasSize(8);
+    }
+
+    @Test
+    void bucketModeEncodesTheHomeBucketInTheOrderId() {
+        FlashSaleKeyGenerator keys = generator(4);
+        int home = keys.homeBucket("demo-user-001");
+        String orderId = keys.generateOrderIdForSku("loadtest-hot-sku-001", "demo-user-001");
+
+        assertThat(keys.bucketFromOrderId(orderId)).isEqualTo(home);
+        assertThat(keys.snapshotKey(orderId)).startsWith("fs:snap:" + keys.bucketTag("loadtest-hot-sku-001", home));
+        assertThat(keys.orderKey(orderId)).startsWith("fs:order:" + keys.bucketTag("loadtest-hot-sku-001", home));
+        assertThat(keys.stockKeys("loadtest-hot-sku-001")).containsExactly(
+                "fs:stock:{A100:04.00}:sku:loadtest-hot-sku-001",
+                "fs:stock:{A100:04.01}:sku:loadtest-hot-sku-001",
+                "fs:stock:{A100:04.02}:sku:loadtest-hot-sku-001",
+                "fs:stock:{A100:04.03}:sku:loadtest-hot-sku-001");
+        assertThat(keys.streamShards()).hasSize(32);
+    }
+
+    @Test
+    void registryRoutesOrderIdsToTheActivityThatIssuedThem() {
+        FlashSaleKeyGenerator small = generator("A100", 8, 1);
+        FlashSaleKeyGenerator large = generator("A1000", 32, 2);
+        FlashSaleActivityRegistry registry = FlashSaleActivityRegistry.of(small, large);
+
+        String orderId = registry.activity("A1000").generateOrderIdForSku("loadtest-hot-sku-001", "demo-user-001");
+
+        // "A100" is a prefix of "A1000": ownership must check the segment boundary
+        assertThat(registry.forOrderId(orderId)).isSameAs(large);
+        assertThat(registry.activity(null)).isSameAs(small);
+        assertThat(registry.streamShards()).hasSize(8 + 32 * 2);
+        assertThat(large.shardTagFromOrderId(orderId)).startsWith("{A1000:").endsWith("." + String.format("%02d",
+                large.homeBucket("demo-user-001")) + "}");
+        assertThatThrownBy(() -> registry.forOrderId("o-fs-B7-03-x")).isInstanceOf(UnknownActivityException.class);
+        assertThatThrownBy(() -> registry.activity("B7")).isInstanceOf(UnknownActivityException.class);
+    }
+
+    @Test
+    void malformedOrderIdsAreRejected() {
+        FlashSaleKeyGenerator keys = generator(1);
+
+        assertThat(keys.shardTagFromOrderId("o-fs-A100-04.12-a-b-c")).isEqualTo("{A100:04.12}");
+        assertThat(keys.bucketFromOrderId("o-fs-A100-04.12-a-b-c")).isEqualTo(12);
+        assertThatThrownBy(() -> keys.shardTagFromOrderId("o-xx-A100-04-x")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> keys.shardTagFromOrderId("o-fs-A100")).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> keys.shardTagFromOrderId("o-fs--04-x")).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,51 @@
+package com.lingxiao.inventory.infrastructure.redis;
+
+import com.lingxiao.inventory.metrics.FlashSaleMetrics;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+class SoldOutRegistryTest {
+
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+
+    private SoldOutRegistry registry(Duration ttl) {
+        return new SoldOutRegistry(redisTemplate, mock(RedisMessageListenerContainer.class),
+                mock(FlashSaleMetrics.class), true, "fs:soldout:clear", ttl);
+    }
+
+    @Test
+    void markedSkuIsSoldOutUntilClearedAndClearIsBroadcast() {
+        SoldOutRegistry registry = registry(Duration.ofMinutes(1));
+        registry.markSoldOut("demo-phone-001");
+
+        assertThat(registry.isSoldOut("demo-phone-001")).isTrue();
+        assertThat(registry.isSoldOut("demo-phone-002")).isFalse();
+
+        registry.clear("demo-phone-001");
+
+        assertThat(registry.isSoldOut("demo-phone-001")).isFalse();
+        verify(redisTemplate).convertAndSend("fs:soldout:clear", "demo-phone-001");
+    }
+
+    @Test
+    void clearFromAnotherPodAndTtlBothDropTheMark() {
+        SoldOutRegistry registry = registry(Duration.ofMinutes(1));
+        registry.markSoldOut("demo-phone-001");
+        registry.onMessage(new DefaultMessage("fs:soldout:clear".getBytes(StandardCharsets.UTF_8),
+                "demo-phone-001".getBytes(StandardCharsets.UTF_8)), null);
+        assertThat(registry.isSoldOut("demo-phone-001")).isFalse();
+
+        SoldOutRegistry expired = registry(Duration.ZERO);
+        expired.markSoldOut("demo-phone-001");
+        assertThat(expired.isSoldOut("demo-phone-001")).isFalse();
+    }
+}
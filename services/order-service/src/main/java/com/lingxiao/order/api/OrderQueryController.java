@@ -1,24 +1,36 @@
 package com.lingxiao.order.api;
 
 import com.lingxiao.order.application.OrderQueryService;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @RestController
 @RequestMapping("/api/v1/orders")
 public class OrderQueryController {
 
     private final OrderQueryService orderQueryService;
+    private final OrderStatusStream orderStatusStream;
 
-    public OrderQueryController(OrderQueryService orderQueryService) {
+    public OrderQueryController(OrderQueryService orderQueryService, OrderStatusStream orderStatusStream) {
         this.orderQueryService = orderQueryService;
+        this.orderStatusStream = orderStatusStream;
     }
 
     @GetMapping("/{orderId}")
     public ResponseEntity<OrderResponse> getById(@PathVariable("orderId") String orderId) {
         return ResponseEntity.ok(OrderResponse.from(orderQueryService.getById(orderId)));
     }
+
+    /**
+     * Server-Sent Events: one "status" event per transition, closed after PAID / CANCELLED.
+     */
+    @GetMapping(value = "/{orderId}/events", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter events(@PathVariable("orderId") String orderId) {
+        return orderStatusStream.subscribe(orderId);
+    }
 }
@@ -0,0 +1,191 @@
+package com.lingxiao.order.api;
+
+import com.lingxiao.order.application.OrderSummary;
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 订单状态推送（SSE），代替客户端在 FlashSaleReservedEventV2 → Spanner 追上之前的紧密轮询。
+ *
+ * - 订阅：注册等待者后先推一次当前状态；订单还没创建时保持连接，等创建提交后推 PENDING_PAYMENT。
+ * - 变化：OrderRepository 在状态变化提交后回调，这里只把 orderId 发布到 Redis channel；
+ *   每个实例收到后，只有本地有等待者的订单才回源读一次，同一订单的所有等待者共享这次读取。
+ * - 到 PAID / CANCELLED 后推送并结束连接；超时后客户端按 SSE 规范自动重连。
+ *
+ * 等待期间不占用线程（Servlet 异步请求），回源和推送跑在虚拟线程上，单实例可以挂几万个等待者。
+ */
+@Component
+public class OrderStatusStream {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderStatusStream.class);
+    private static final Set<String> TERMINAL = Set.of("PAID", "CANCELLED");
+
+    private final OrderRepository repository;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final String channel;
+    private final Duration timeout;
+    private final Map<String, Set<Waiter>> waiters = new ConcurrentHashMap<>();
+    private final ExecutorService pushExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final OrderRepository.OrderChangeListener changeListener = this::publish;
+
+    public OrderStatusStream(OrderRepository repository,
+                             StringRedisTemplate redisTemplate,
+                             RedisMessageListenerContainer listenerContainer,
+                             @Value("${order.status-stream.channel:order:status:changed}") String channel,
+                             @Value("${order.status-stream.timeout:PT60S}") Duration timeout) {
+        this.repository = repository;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.channel = channel;
+        this.timeout = timeout;
+    }
+
+    @PostConstruct
+    public void start() {
+        listenerContainer.addMessageListener(
+                (message, pattern) -> onChanged(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(channel));
+        repository.addOrderChangeListener(changeListener);
+    }
+
+    @PreDestroy
+    public void stop() {
+        repository.removeOrderChangeListener(changeListener);
+        for (Set<Waiter> set : waiters.values()) {
+            for (Waiter waiter : set) {
+                waiter.emitter().complete();
+            }
+        }
+        pushExecutor.shutdownNow();
+    }
+
+    public SseEmitter subscribe(String orderId) {
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Waiter waiter = new Waiter(orderId, emitter);
+        waiters.computeIfAbsent(orderId, id -> ConcurrentHashMap.newKeySet()).add(waiter);
+        emitter.onCompletion(() -> remove(waiter));
+        emitter.onTimeout(() -> {
+            remove(waiter);
+            emitter.complete();
+        });
+        emitter.onError(e -> remove(waiter));
+        // 先注册再读当前状态，读的过程中发生的变化也会被推送
+        pushExecutor.execute(() -> push(List.of(waiter), orderId));
+        return emitter;
+    }
+
+    int waiterCount() {
+        return waiters.values().stream().mapToInt(Set::size).sum();
+    }
+
+    /**
+     * 注释行心跳，防止代理 / LB 把空闲连接断掉，顺便清理已断开的连接。
+     */
+    @Scheduled(fixedDelayString = "${order.status-stream.heartbeat-interval-ms:15000}")
+    public void heartbeat() {
+        for (Set<Waiter> set : waiters.values()) {
+            for (Waiter waiter : set) {
+                try {
+                    synchronized (waiter) {
+                        waiter.emitter().send(SseEmitter.event().comment("ping"));
+                    }
+                } catch (Exception e) {
+                    remove(waiter);
+                }
+            }
+        }
+    }
+
+    private void publish(String orderId) {
+        redisTemplate.convertAndSend(channel, orderId);
+    }
+
+    void onChanged(String orderId) {
+        Set<Waiter> set = waiters.get(orderId);
+        if (set == null || set.isEmpty()) {
+            return;
+        }
+        pushExecutor.execute(() -> push(List.copyOf(set), orderId));
+    }
+
+    private void push(List<Waiter> targets, String orderId) {
+        Optional<OrderSummary> summary;
+        try {
+            summary = repository.findSummary(orderId);
+        } catch (Exception e) {
+            log.warn("Load order status for stream failed orderId={}", orderId, e);
+            return;
+        }
+        if (summary.isEmpty()) {
+            return;
+        }
+        OrderResponse response = OrderResponse.from(summary.get());
+        for (Waiter waiter : targets) {
+            try {
+                synchronized (waiter) {
+                    if (response.status().equals(waiter.lastStatus)) {
+                        continue;
+                    }
+                    waiter.lastStatus = response.status();
+                    waiter.emitter().send(SseEmitter.event()
+                            .name("status")
+                            .id(response.status())
+                            .data(response, MediaType.APPLICATION_JSON));
+                }
+                if (TERMINAL.contains(response.status())) {
+                    waiter.emitter().complete();
+                }
+            } catch (Exception e) {
+                remove(waiter);
+            }
+        }
+    }
+
+    private void remove(Waiter waiter) {
+        waiters.computeIfPresent(waiter.orderId(), (id, set) -> {
+            set.remove(waiter);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private static final class Waiter {
+        private final String orderId;
+        private final SseEmitter emitter;
+        private String lastStatus;
+
+        private Waiter(String orderId, SseEmitter emitter) {
+            this.orderId = orderId;
+            this.emitter = emitter;
+        }
+
+        String orderId() {
+            return orderId;
+        }
+
+        SseEmitter emitter() {
+            return emitter;
+        }
+    }
+}
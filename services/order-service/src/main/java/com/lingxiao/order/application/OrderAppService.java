@@ -6,19 +6,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Service;
 
+import java.util.List;
+
 @Service
 public class OrderAppService {
 
     private static final Logger log = LoggerFactory.getLogger(OrderAppService.class);
 
     private final OrderRepository repository;
+    private final OrderTimeoutScheduler timeoutScheduler;
 
-    public OrderAppService(OrderRepository repository) {
+    public OrderAppService(OrderRepository repository, OrderTimeoutScheduler timeoutScheduler) {
         this.repository = repository;
+        this.timeoutScheduler = timeoutScheduler;
     }
 
     public void handleFlashSaleReservation(FlashSaleReservedEventV2 event) {
-        repository.createFromFlashSaleEvent(event);
+        repository.createFromFlashSaleEvent(event)
+                .ifPresent(timeout -> timeoutScheduler.scheduleCreated(List.of(timeout)));
         log.debug("Handled flash sale reservation eventId={} orderId={} userId={} skuId={}",
                 event.eventId(), event.orderId(), event.userId(), event.skuId());
     }
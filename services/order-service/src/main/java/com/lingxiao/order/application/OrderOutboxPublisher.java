@@ -7,6 +7,8 @@ import com.lingxiao.contracts.events.OrderPaidEvent;
 import com.lingxiao.contracts.events.OrderTimeoutScheduledEvent;
 import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
 import com.lingxiao.order.infrastructure.db.spanner.model.OrderOutboxRecord;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxBatchOutcome;
+import com.lingxiao.order.metrics.OrderOutboxMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -15,8 +17,12 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -35,6 +41,8 @@ public class OrderOutboxPublisher {
     private final int maxErrorLength;
     private final long staleMs;
     private final int reclaimBatchSize;
+    private final boolean pipelined;
+    private final OrderOutboxMetrics metrics;
     private final String publisherId;
 
     public OrderOutboxPublisher(OrderRepository repository,
@@ -46,7 +54,9 @@ public class OrderOutboxPublisher {
                                 @Value("${order.outbox.send-timeout-ms:5000}") long sendTimeoutMs,
                                 @Value("${order.outbox.max-error-length:1000}") int maxErrorLength,
                                 @Value("${order.outbox.stale-ms:60000}") long staleMs,
-                                @Value("${order.outbox.reclaim-batch-size:100}") int reclaimBatchSize) {
+                                @Value("${order.outbox.reclaim-batch-size:100}") int reclaimBatchSize,
+                                @Value("${order.outbox.pipelined:false}") boolean pipelined,
+                                OrderOutboxMetrics metrics) {
         this.repository = repository;
         this.kafkaTemplate = kafkaTemplate;
         this.objectMapper = objectMapper;
@@ -57,6 +67,8 @@ public class OrderOutboxPublisher {
         this.maxErrorLength = maxErrorLength;
         this.staleMs = staleMs;
         this.reclaimBatchSize = reclaimBatchSize;
+        this.pipelined = pipelined;
+        this.metrics = metrics;
         // Generate unique publisher ID for this instance
         this.publisherId = "publisher-" + UUID.randomUUID().toString().substring(0, 8);
         log.info("OrderOutboxPublisher initialized with publisherId={}", publisherId);
@@ -74,12 +86,22 @@ public class OrderOutboxPublisher {
 
         log.debug("Claimed {} outbox records for publishing", records.size());
 
+        long start = System.nanoTime();
+        if (pipelined) {
+            publishPipelined(records);
+            metrics.recordBatch("pipelined", records.size(), System.nanoTime() - start);
+            return;
+        }
+
+        int sent = 0;
+        int retried = 0;
         for (OrderOutboxRecord record : records) {
             try {
                 dispatch(record);
                 // Success: mark as SENT (with owner check)
                 boolean updated = repository.markSent(record.outboxId(), publisherId);
                 if (updated) {
+                    sent++;
                     log.debug("Successfully published outbox id={} eventType={} aggregateId={}",
                             record.outboxId(), record.eventType(), record.aggregateId());
                 } else {
@@ -93,6 +115,7 @@ public class OrderOutboxPublisher {
                 String errorMsg = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
                 boolean updated = repository.markRetry(record.outboxId(), publisherId, errorMsg, failureTime, maxAttempts, baseBackoffMs, maxErrorLength);
                 if (updated) {
+                    retried++;
                     log.warn("Failed to publish outbox, will retry id={} eventType={} aggregateId={} attempts={} error={}",
                             record.outboxId(), record.eventType(), record.aggregateId(),
                             record.attempts() + 1, errorMsg, e);
@@ -102,36 +125,88 @@ public class OrderOutboxPublisher {
                 }
             }
         }
+        metrics.recordBatch("sequential", records.size(), System.nanoTime() - start);
+        metrics.incRecords("sequential", "sent", sent);
+        metrics.incRecords("sequential", "retry", retried);
+        metrics.incRecords("sequential", "skipped", records.size() - sent - retried);
     }
 
-    private void dispatch(OrderOutboxRecord record) throws Exception {
+    /**
+     * 整批并发 send，等全部完成（或超时）后用一个事务写回所有 SENT/重试状态，仍校验 LockedBy。
+     * 单批成本从 N×(Kafka RTT + Spanner commit) 降到约一次 Kafka RTT + 一次 commit。
+     */
+    private void publishPipelined(List<OrderOutboxRecord> records) {
+        List<CompletableFuture<?>> futures = new ArrayList<>(records.size());
+        for (OrderOutboxRecord record : records) {
+            try {
+                futures.add(sendAsync(record));
+            } catch (Exception e) {
+                futures.add(CompletableFuture.failedFuture(e));
+            }
+        }
         try {
-            switch (record.eventType()) {
-                case "ORDER_TIMEOUT_SCHEDULED" -> {
-                    OrderTimeoutScheduledEvent event = objectMapper.readValue(
-                            record.payloadJson(), OrderTimeoutScheduledEvent.class);
-                    kafkaTemplate.send(Topics.ORDER_TIMEOUT_SCHEDULED, record.aggregateId(), event)
-                            .get(sendTimeoutMs, TimeUnit.MILLISECONDS);
-                }
-                case "INVENTORY_RELEASE_REQUESTED" -> {
-                    InventoryReleaseRequestedEvent event = objectMapper.readValue(
-                            record.payloadJson(), InventoryReleaseRequestedEvent.class);
-                    kafkaTemplate.send(Topics.INVENTORY_RELEASE_REQUESTED, record.aggregateId(), event)
-                            .get(sendTimeoutMs, TimeUnit.MILLISECONDS);
-                }
-                case "ORDER_PAID" -> {
-                    OrderPaidEvent event = objectMapper.readValue(
-                            record.payloadJson(), OrderPaidEvent.class);
-                    kafkaTemplate.send(Topics.ORDER_PAID, record.aggregateId(), event)
-                            .get(sendTimeoutMs, TimeUnit.MILLISECONDS);
-                }
-                default -> throw new IllegalArgumentException("Unsupported outbox eventType=" + record.eventType());
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ignored) {
+            // 逐条看结果
+        }
+
+        List<String> sentIds = new ArrayList<>();
+        Map<String, String> failures = new LinkedHashMap<>();
+        for (int i = 0; i < records.size(); i++) {
+            CompletableFuture<?> f = futures.get(i);
+            String outboxId = records.get(i).outboxId();
+            if (f.isDone() && !f.isCompletedExceptionally()) {
+                sentIds.add(outboxId);
+            } else if (f.isDone()) {
+                Throwable cause = f.exceptionNow();
+                failures.put(outboxId, cause.getMessage() != null ? cause.getMessage() : cause.getClass().getSimpleName());
+            } else {
+                failures.put(outboxId, "Kafka send timeout after " + sendTimeoutMs + "ms");
             }
+        }
+
+        OutboxBatchOutcome outcome = repository.completeOutboxBatch(publisherId, sentIds, failures, Instant.now(),
+                maxAttempts, baseBackoffMs, maxErrorLength);
+        metrics.incRecords("pipelined", "sent", outcome.sent());
+        metrics.incRecords("pipelined", "retry", outcome.retried());
+        metrics.incRecords("pipelined", "dead", outcome.dead());
+        metrics.incRecords("pipelined", "skipped", outcome.skipped());
+        if (!failures.isEmpty()) {
+            log.warn("Pipelined outbox batch had send failures count={} firstError={}",
+                    failures.size(), failures.values().iterator().next());
+        }
+        if (outcome.skipped() > 0) {
+            log.warn("Pipelined outbox batch skipped {} records no longer locked by publisherId={}",
+                    outcome.skipped(), publisherId);
+        }
+    }
+
+    private void dispatch(OrderOutboxRecord record) throws Exception {
+        try {
+            sendAsync(record).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
         } catch (TimeoutException e) {
             throw new RuntimeException("Kafka send timeout after " + sendTimeoutMs + "ms", e);
         }
     }
 
+    /**
+     * Deserialize the payload and hand it to Kafka without waiting for the ack.
+     * Also used by {@link OrderOutboxTailer}, which completes sends in batches.
+     */
+    public CompletableFuture<?> sendAsync(OrderOutboxRecord record) throws Exception {
+        return switch (record.eventType()) {
+            case "ORDER_TIMEOUT_SCHEDULED" -> kafkaTemplate.send(Topics.ORDER_TIMEOUT_SCHEDULED, record.aggregateId(),
+                    objectMapper.readValue(record.payloadJson(), OrderTimeoutScheduledEvent.class));
+            case "INVENTORY_RELEASE_REQUESTED" -> kafkaTemplate.send(Topics.INVENTORY_RELEASE_REQUESTED, record.aggregateId(),
+                    objectMapper.readValue(record.payloadJson(), InventoryReleaseRequestedEvent.class));
+            case "ORDER_PAID" -> kafkaTemplate.send(Topics.ORDER_PAID, record.aggregateId(),
+                    objectMapper.readValue(record.payloadJson(), OrderPaidEvent.class));
+            default -> throw new IllegalArgumentException("Unsupported outbox eventType=" + record.eventType());
+        };
+    }
+
     /**
      * Reclaim stale SENDING records that have been locked for too long.
      * This handles cases where a publisher crashed after claiming records.
@@ -0,0 +1,108 @@
+package com.lingxiao.order.application;
+
+import com.lingxiao.common.db.mapping.JsonMapper;
+import com.lingxiao.common.db.retention.RedisRetentionLock;
+import com.lingxiao.common.db.retention.RetentionArchive;
+import com.lingxiao.common.db.retention.RetentionPurger;
+import com.lingxiao.common.db.retention.RetentionTarget;
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderOutboxRecord;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * OrderOutbox 保留期清理：SENT 且 CreatedAt 早于 ttl 的行按 ShardId 分区轮转分批删除（可选先归档），
+ * 防止 OrderOutboxByStatus 索引随每场大促无限增长、拖慢 claim 查询。
+ * 同一时刻只有拿到 Redis 锁的实例在删；NEW / SENDING / DEAD 行不动，DEAD 留给人工排查。
+ * 调度线程只负责触发，删除和限速在 RetentionPurger 自己的线程上跑。
+ */
+@Component
+@ConditionalOnProperty(prefix = "order.outbox.retention", name = "enabled", havingValue = "true")
+public class OrderOutboxRetention implements RetentionTarget<OrderOutboxRecord> {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderOutboxRetention.class);
+    private static final String LOCK_KEY = "order:outbox:retention:lock";
+
+    private final OrderRepository repository;
+    private final RetentionPurger purger;
+    private final Duration ttl;
+
+    public OrderOutboxRetention(OrderRepository repository,
+                                MeterRegistry registry,
+                                StringRedisTemplate redisTemplate,
+                                @Value("${order.outbox.retention.ttl:P7D}") Duration ttl,
+                                @Value("${order.outbox.retention.batch-size:500}") int batchSize,
+                                @Value("${order.outbox.retention.max-rows-per-second:2000}") long maxRowsPerSecond,
+                                @Value("${order.outbox.retention.max-batches-per-run:200}") int maxBatchesPerRun,
+                                @Value("${order.outbox.retention.lock-ttl:PT30M}") Duration lockTtl,
+                                @Value("${order.outbox.retention.archive.enabled:false}") boolean archiveEnabled,
+                                @Value("${order.outbox.retention.archive.dir:${java.io.tmpdir}/outbox-archive}") String archiveDir) {
+        this.repository = repository;
+        this.ttl = ttl;
+        RetentionArchive archive = archiveEnabled ? new RetentionArchive(Path.of(archiveDir), new JsonMapper()) : null;
+        this.purger = new RetentionPurger(archive, batchSize, maxRowsPerSecond, maxBatchesPerRun,
+                new RedisRetentionLock(redisTemplate, LOCK_KEY, lockTtl), registry, "order.outbox");
+    }
+
+    @Scheduled(fixedDelayString = "${order.outbox.retention.interval-ms:600000}")
+    public void purge() {
+        submitPurge();
+    }
+
+    CompletableFuture<Long> submitPurge() {
+        return purger.submit(this, ttl);
+    }
+
+    @Scheduled(fixedDelayString = "${order.outbox.retention.size-sample-interval-ms:300000}")
+    public void sampleSize() {
+        try {
+            purger.recordRowCounts(repository.countOutboxByStatus());
+        } catch (Exception e) {
+            log.debug("OrderOutbox size sample failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        purger.close();
+    }
+
+    @Override
+    public String table() {
+        return "OrderOutbox";
+    }
+
+    @Override
+    public int partitions() {
+        // 最后一个分区是 ShardId 为 NULL 的旧行
+        return repository.outboxShards() + 1;
+    }
+
+    @Override
+    public List<OrderOutboxRecord> findExpired(int partition, Instant cutoff, int limit) {
+        return repository.findExpiredSentOutbox(partition, cutoff, limit);
+    }
+
+    @Override
+    public String idOf(OrderOutboxRecord row) {
+        return row.outboxId();
+    }
+
+    @Override
+    public long delete(List<String> ids) {
+        return repository.deleteSentOutbox(ids);
+    }
+}
@@ -0,0 +1,225 @@
+package com.lingxiao.order.application;
+
+import com.google.cloud.Timestamp;
+import com.lingxiao.common.redis.ShardLeaseRegistry;
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderOutboxRecord;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxCursor;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxTailBatch;
+import com.lingxiao.order.metrics.OrderOutboxMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 按提交时间戳尾随 OrderOutbox，代替每秒一次的 claim 轮询。
+ *
+ * - 每行写入时按 OutboxId hash 落到 ShardId，各实例用 Redis 租约分摊分片（ShardLeaseRegistry）。
+ * - 每个分片维护 (CreatedAt, OutboxId) 游标，用 exact-staleness 只读事务读游标之后的 NEW 行：无锁、不写 Spanner；
+ *   读时间戳之前提交的行全部可见，所以不满一批时游标直接推进到读时间戳。
+ * - 一批记录全部异步 send，统一等待完成；成功的一条 DML 标 SENT，失败的推迟 NextAttemptAt 交给 OrderOutboxPublisher 重试。
+ * - 游标在每次 flush 后存入 Redis，分片换手后新实例从那里继续；换手窗口内可能重复发送，消费方本就按 eventId 幂等。
+ *
+ * tailer 开启时 OrderRepository 把新行的 NextAttemptAt 推后 handoff-ms，轮询 publisher 只兜底 tailer 没发出去的行。
+ */
+@Component
+@ConditionalOnProperty(prefix = "order.outbox.tailer", name = "enabled", havingValue = "true")
+public class OrderOutboxTailer {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderOutboxTailer.class);
+    private static final String KEY_PREFIX = "order:outbox:tail:";
+
+    private final OrderRepository repository;
+    private final OrderOutboxPublisher publisher;
+    private final OrderOutboxMetrics metrics;
+    private final StringRedisTemplate redisTemplate;
+    private final ShardLeaseRegistry leases;
+    private final int batchSize;
+    private final Duration staleness;
+    private final long idleSleepMs;
+    private final long sendTimeoutMs;
+    private final Duration initialLookback;
+    private final long baseBackoffMs;
+    private final int maxErrorLength;
+
+    private final Map<Integer, OutboxCursor> cursors = new ConcurrentHashMap<>();
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private Thread worker;
+
+    public OrderOutboxTailer(OrderRepository repository,
+                             OrderOutboxPublisher publisher,
+                             OrderOutboxMetrics metrics,
+                             StringRedisTemplate redisTemplate,
+                             @Value("${order.outbox.tailer.batch-size:500}") int batchSize,
+                             @Value("${order.outbox.tailer.staleness-ms:50}") long stalenessMs,
+                             @Value("${order.outbox.tailer.idle-sleep-ms:20}") long idleSleepMs,
+                             @Value("${order.outbox.send-timeout-ms:5000}") long sendTimeoutMs,
+                             @Value("${order.outbox.tailer.initial-lookback:PT10M}") Duration initialLookback,
+                             @Value("${order.outbox.tailer.lease-ttl:PT15S}") Duration leaseTtl,
+                             @Value("${order.outbox.base-backoff-ms:1000}") long baseBackoffMs,
+                             @Value("${order.outbox.max-error-length:1000}") int maxErrorLength) {
+        this.repository = repository;
+        this.publisher = publisher;
+        this.metrics = metrics;
+        this.redisTemplate = redisTemplate;
+        this.batchSize = Math.max(1, batchSize);
+        this.staleness = Duration.ofMillis(stalenessMs);
+        this.idleSleepMs = idleSleepMs;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.initialLookback = initialLookback;
+        this.baseBackoffMs = baseBackoffMs;
+        this.maxErrorLength = maxErrorLength;
+        List<String> leaseKeys = new ArrayList<>();
+        for (int shard = 0; shard < repository.outboxShards(); shard++) {
+            leaseKeys.add(shardPrefix(shard) + "lease");
+        }
+        this.leases = new ShardLeaseRegistry(redisTemplate, leaseKeys, KEY_PREFIX + "members", leaseTtl);
+    }
+
+    @PostConstruct
+    public void start() {
+        running.set(true);
+        worker = Thread.ofPlatform().daemon().name("order-outbox-tailer").start(this::runLoop);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running.set(false);
+        if (worker != null) {
+            worker.interrupt();
+        }
+        try {
+            leases.releaseAll();
+        } catch (Exception e) {
+            log.debug("Release outbox tailer leases failed", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${order.outbox.tailer.rebalance-interval-ms:5000}")
+    public void rebalance() {
+        try {
+            // 新拿到的分片从 Redis 重新加载游标；丢掉的分片不再保留本地游标
+            for (Integer shard : leases.rebalance()) {
+                cursors.remove(shard);
+            }
+            cursors.keySet().removeIf(shard -> !leases.owns(shard));
+        } catch (Exception e) {
+            log.warn("Outbox tailer rebalance failed", e);
+        }
+    }
+
+    private void runLoop() {
+        while (running.get()) {
+            boolean backlog = false;
+            for (Integer shard : leases.owned()) {
+                try {
+                    backlog |= tailShard(shard);
+                } catch (Exception e) {
+                    log.warn("Outbox tail failed shard={}", shard, e);
+                }
+            }
+            if (!backlog) {
+                try {
+                    Thread.sleep(idleSleepMs);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true 表示这一批读满了，分片里可能还有积压
+     */
+    boolean tailShard(int shard) {
+        OutboxCursor cursor = cursors.computeIfAbsent(shard, this::loadCursor);
+        OutboxTailBatch batch = repository.tailOutbox(shard, cursor, staleness, batchSize);
+        flush(batch.records());
+        cursors.put(shard, batch.next());
+        saveCursor(shard, batch.next());
+        return !OutboxCursor.AFTER_ALL_IDS.equals(batch.next().outboxId());
+    }
+
+    private void flush(List<OrderOutboxRecord> records) {
+        if (records.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        List<CompletableFuture<?>> futures = new ArrayList<>(records.size());
+        for (OrderOutboxRecord record : records) {
+            try {
+                futures.add(publisher.sendAsync(record));
+            } catch (Exception e) {
+                futures.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ignored) {
+            // 逐条看结果
+        }
+
+        List<String> sent = new ArrayList<>();
+        List<String> failed = new ArrayList<>();
+        String lastError = null;
+        for (int i = 0; i < records.size(); i++) {
+            CompletableFuture<?> f = futures.get(i);
+            if (f.isDone() && !f.isCompletedExceptionally()) {
+                sent.add(records.get(i).outboxId());
+            } else {
+                failed.add(records.get(i).outboxId());
+                lastError = f.isDone() ? f.exceptionNow().toString() : "Kafka send timeout after " + sendTimeoutMs + "ms";
+            }
+        }
+        // 标 SENT 失败会抛出，游标不推进，下一轮重发这一批
+        repository.markSentBatch(sent);
+        if (!failed.isEmpty()) {
+            repository.deferTailFailures(failed, lastError, Instant.now(), baseBackoffMs, maxErrorLength);
+            log.warn("Outbox tailer send failed count={} handedToPoller=true error={}", failed.size(), lastError);
+        }
+        metrics.recordBatch("tailer", records.size(), System.nanoTime() - start);
+        metrics.incRecords("tailer", "sent", sent.size());
+        metrics.incRecords("tailer", "retry", failed.size());
+        log.debug("Outbox tailer flushed sent={} failed={}", sent.size(), failed.size());
+    }
+
+    private OutboxCursor loadCursor(int shard) {
+        String raw = redisTemplate.opsForValue().get(shardPrefix(shard) + "cursor");
+        if (raw != null) {
+            String[] parts = raw.split("\\|", 3);
+            if (parts.length == 3) {
+                return new OutboxCursor(Timestamp.ofTimeSecondsAndNanos(Long.parseLong(parts[0]), Integer.parseInt(parts[1])), parts[2]);
+            }
+        }
+        Instant start = Instant.now().minus(initialLookback);
+        return new OutboxCursor(Timestamp.ofTimeSecondsAndNanos(start.getEpochSecond(), start.getNano()), "");
+    }
+
+    private void saveCursor(int shard, OutboxCursor cursor) {
+        redisTemplate.opsForValue().set(shardPrefix(shard) + "cursor",
+                cursor.createdAt().getSeconds() + "|" + cursor.createdAt().getNanos() + "|" + cursor.outboxId());
+    }
+
+    private static String shardPrefix(int shard) {
+        return KEY_PREFIX + "{" + String.format("%02d", shard) + "}:";
+    }
+}
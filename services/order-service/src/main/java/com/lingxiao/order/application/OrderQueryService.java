@@ -1,19 +1,26 @@
 package com.lingxiao.order.application;
 
+import com.lingxiao.order.infrastructure.cache.OrderSummaryCache;
 import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
 @Service
 public class OrderQueryService {
 
     private final OrderRepository repository;
+    private final OrderSummaryCache cache;
 
-    public OrderQueryService(OrderRepository repository) {
+    /**
+     * @param cache order.query.cache.enabled=false 时为 null，直接读 Spanner
+     */
+    public OrderQueryService(OrderRepository repository, @Nullable OrderSummaryCache cache) {
         this.repository = repository;
+        this.cache = cache;
     }
 
     public OrderSummary getById(String orderId) {
-        return repository.findSummary(orderId)
+        return (cache != null ? cache.get(orderId, repository::findSummary) : repository.findSummary(orderId))
                 .orElseThrow(() -> new OrderNotFoundException(orderId));
     }
 }
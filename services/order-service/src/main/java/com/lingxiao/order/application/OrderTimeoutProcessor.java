@@ -5,18 +5,28 @@ import com.lingxiao.contracts.events.OrderTimeoutScheduledEvent;
 import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
 import com.lingxiao.order.infrastructure.db.spanner.model.CancelOutcome;
 import com.lingxiao.order.infrastructure.db.spanner.model.CancelResult;
+import com.lingxiao.order.infrastructure.redis.PaymentBloomFilter;
 import com.lingxiao.order.infrastructure.redis.PaymentMarkerRepository;
 import com.lingxiao.order.infrastructure.redis.OrderTimeoutQueue;
+import jakarta.annotation.PreDestroy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.lang.Nullable;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Supplier;
 
 @Service
 public class OrderTimeoutProcessor {
@@ -26,12 +36,28 @@ public class OrderTimeoutProcessor {
     private final OrderTimeoutQueue queue;
     private final OrderRepository repository;
     private final PaymentMarkerRepository paymentMarkerRepository;
+    // order.timeout.payment-bloom.enabled 关闭时为 null，每单都读 marker
+    private final PaymentBloomFilter paymentBloom;
 
-    private final int claimBatchSize;
+    private final int minBatchSize;
+    private final int maxBatchSize;
+    private final boolean adaptiveBatch;
+    private final long batchTargetMs;
+    private final long drainBudgetNanos;
     private final long staleMs;
     private final int reclaimBatchSize;
     private final long maxAttempts;
     private final long gracePeriodMs;
+    // 时间轮开启时，轮询 claimDue 只作为兜底扫描，间隔放宽到 sweepIntervalMs
+    private final boolean wheelEnabled;
+    private final long sweepIntervalMs;
+    private long lastSweepAt;
+
+    // concurrency <= 1 时为 null，按旧方式在调度线程上逐个处理
+    private final ExecutorService workers;
+    private final Semaphore permits;
+    // 只在调度线程上读写
+    private volatile int batchSize;
 
     public OrderTimeoutProcessor(
             OrderTimeoutQueue queue,
@@ -41,16 +67,47 @@ public class OrderTimeoutProcessor {
             @Value("${order.timeout.stale-ms:30000}") long staleMs,
             @Value("${order.timeout.reclaim-batch-size:100}") int reclaimBatchSize,
             @Value("${order.timeout.max-attempts:10}") long maxAttempts,
-            @Value("${order.timeout.grace-period-ms:60000}") long gracePeriodMs
+            @Value("${order.timeout.grace-period-ms:60000}") long gracePeriodMs,
+            @Value("${order.timeout.concurrency:1}") int concurrency,
+            @Value("${order.timeout.adaptive-batch:false}") boolean adaptiveBatch,
+            @Value("${order.timeout.max-claim-batch-size:2000}") int maxClaimBatchSize,
+            @Value("${order.timeout.batch-target-ms:1000}") long batchTargetMs,
+            @Value("${order.timeout.drain-budget-ms:5000}") long drainBudgetMs,
+            @Value("${order.timeout.wheel.enabled:false}") boolean wheelEnabled,
+            @Value("${order.timeout.wheel.sweep-interval-ms:30000}") long sweepIntervalMs,
+            @Nullable PaymentBloomFilter paymentBloom
     ) {
         this.queue = queue;
         this.repository = repository;
         this.paymentMarkerRepository = paymentMarkerRepository;
-        this.claimBatchSize = claimBatchSize;
+        this.paymentBloom = paymentBloom;
+        this.minBatchSize = Math.max(1, claimBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxClaimBatchSize);
+        this.adaptiveBatch = adaptiveBatch;
+        this.batchTargetMs = Math.max(1, batchTargetMs);
+        this.drainBudgetNanos = drainBudgetMs * 1_000_000L;
+        this.batchSize = this.minBatchSize;
         this.staleMs = staleMs;
         this.reclaimBatchSize = reclaimBatchSize;
         this.maxAttempts = maxAttempts;
         this.gracePeriodMs = gracePeriodMs;
+        this.wheelEnabled = wheelEnabled;
+        this.sweepIntervalMs = sweepIntervalMs;
+        if (concurrency > 1) {
+            // 虚拟线程：等 Spanner/Redis 时不占 OS 线程，真正的并发度由 permits 决定
+            this.workers = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("order-timeout-", 0).factory());
+            this.permits = new Semaphore(concurrency);
+        } else {
+            this.workers = null;
+            this.permits = null;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (workers != null) {
+            workers.shutdownNow();
+        }
     }
 
     @KafkaListener(topics = Topics.ORDER_TIMEOUT_SCHEDULED, groupId = "order-timeout-processor-v1")
@@ -63,36 +120,181 @@ public class OrderTimeoutProcessor {
 
     @Scheduled(fixedDelayString = "${order.timeout.claim-interval-ms:1000}")
     public void claimAndProcess() {
-        var claim = queue.claimDue(claimBatchSize);
-        if (claim.orderIds().isEmpty()) return;
+        if (wheelEnabled) {
+            long nowMs = System.currentTimeMillis();
+            if (nowMs - lastSweepAt < sweepIntervalMs) return;
+            lastSweepAt = nowMs;
+        }
+        long deadline = System.nanoTime() + drainBudgetNanos;
+        while (true) {
+            int limit = batchSize;
+            var claim = queue.claimDue(limit);
+            if (claim.orderIds().isEmpty()) return;
+
+            long start = System.nanoTime();
+            processClaimed(claim);
+            adaptBatchSize(claim.orderIds().size(), System.nanoTime() - start);
+
+            // 取满说明还有积压：不等下一个 tick，继续取，直到本轮 drain 预算用完
+            if (claim.orderIds().size() < limit || System.nanoTime() >= deadline) return;
+        }
+    }
+
+    /**
+     * 处理已 claim 的一批订单（轮询 claimDue 或时间轮 claimIds 的结果），返回时整批都已处理完。
+     */
+    public void processClaimed(OrderTimeoutQueue.ClaimResult claim) {
+        if (claim.orderIds().isEmpty()) {
+            return;
+        }
+        if (workers == null) {
+            processBatch(claim.orderIds(), claim.token());
+        } else {
+            processConcurrently(claim.orderIds(), claim.token());
+        }
+    }
+
+    /**
+     * 时间轮触发的一批：claim 和处理都交给 workers，调用方（时间轮 ticker）不等 Redis/Spanner；
+     * 失败的批次留在 ready 中由兜底扫描处理。concurrency <= 1 时没有 workers，在调用方线程上同步执行。
+     */
+    public void processClaimedAsync(Supplier<OrderTimeoutQueue.ClaimResult> claim) {
+        if (workers == null) {
+            processClaim(claim);
+            return;
+        }
+        workers.execute(() -> processClaim(claim));
+    }
 
-        String token = claim.token();
+    private void processClaim(Supplier<OrderTimeoutQueue.ClaimResult> claim) {
+        try {
+            processClaimed(claim.get());
+        } catch (Exception e) {
+            // 未 claim 成功的仍在 ready 中，由兜底扫描处理
+            log.warn("Timeout claim failed", e);
+        }
+    }
+
+    private void processBatch(List<String> orderIds, String token) {
         Instant now = Instant.now();
+        for (String orderId : orderIds) {
+            processOne(orderId, token, now);
+        }
+    }
 
-        for (String orderId : claim.orderIds()) {
-            // Gate C: if payment marker exists, try to converge payment state before cancel/release.
+    /**
+     * 每个订单一个虚拟线程，Semaphore 限制同时在途的 Spanner 事务数；整批处理完才返回，
+     * 保证下一次 claim 前本批次都已 ack/reschedule（未 ack 的照旧等 reclaim）。
+     */
+    private void processConcurrently(List<String> orderIds, String token) {
+        Instant now = Instant.now();
+        List<Future<?>> futures = new ArrayList<>(orderIds.size());
+        for (String orderId : orderIds) {
+            futures.add(workers.submit(() -> {
+                permits.acquireUninterruptibly();
+                try {
+                    processOne(orderId, token, now);
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
             try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                log.warn("Timeout worker failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * 按观测到的处理速率调整下一批的大小：目标是一批在 batch-target-ms 内处理完，
+     * 结果夹在 [claim-batch-size, max-claim-batch-size] 之间，并与上一次取平均以免抖动。
+     */
+    private void adaptBatchSize(int processed, long elapsedNanos) {
+        if (!adaptiveBatch || processed == 0) {
+            return;
+        }
+        double perMs = processed / Math.max(1.0, elapsedNanos / 1_000_000.0);
+        long target = (long) (perMs * batchTargetMs);
+        long next = (batchSize + Math.max(minBatchSize, Math.min(maxBatchSize, target))) / 2;
+        batchSize = (int) Math.max(minBatchSize, Math.min(maxBatchSize, next));
+    }
+
+    private void processOne(String orderId, String token, Instant now) {
+        // Gate C: if payment marker exists, try to converge payment state before cancel/release.
+        // 布隆过滤器确定没有 marker 时跳过这次 Redis 读
+        try {
+            PaymentBloomFilter.Verdict verdict = paymentBloom == null ? null : paymentBloom.check(orderId);
+            if (verdict != PaymentBloomFilter.Verdict.ABSENT) {
                 PaymentMarkerRepository.PaymentMarker marker = paymentMarkerRepository.get(orderId);
+                if (paymentBloom != null) {
+                    paymentBloom.recordMarkerRead(verdict, marker != null);
+                }
                 if (marker != null) {
                     repository.handlePaymentSucceeded(marker.toEvent(UUID.randomUUID().toString()));
                 }
-            } catch (Exception e) {
-                long attempts = queue.incrementAttempt(orderId);
-                log.warn("Apply payment marker failed orderId={} attempts={}", orderId, attempts, e);
-                if (attempts >= maxAttempts) {
-                    log.error("Timeout cancel exceeded max attempts (marker gate), ack to stop looping orderId={} attempts={}",
-                            orderId, attempts);
-                    queue.ack(orderId, token);
-                }
-                continue;
             }
+        } catch (Exception e) {
+            long attempts = queue.incrementAttempt(orderId);
+            log.warn("Apply payment marker failed orderId={} attempts={}", orderId, attempts, e);
+            if (attempts >= maxAttempts) {
+                log.error("Timeout cancel exceeded max attempts (marker gate), ack to stop looping orderId={} attempts={}",
+                        orderId, attempts);
+                queue.ack(orderId, token);
+            }
+            return;
+        }
 
-            CancelOutcome out;
-            try {
-                out = repository.cancelIfPending(orderId, now);
-            } catch (Exception e) {
+        CancelOutcome out;
+        try {
+            out = repository.cancelIfPending(orderId, now);
+        } catch (Exception e) {
+            long attempts = queue.incrementAttempt(orderId);
+            log.warn("CancelIfPending threw exception orderId={} attempts={}", orderId, attempts, e);
+
+            if (attempts >= maxAttempts) {
+                log.error("Timeout cancel exceeded max attempts, ack to stop looping orderId={} attempts={}",
+                        orderId, attempts);
+                queue.ack(orderId, token); // ack 会清 attempts
+            }
+            // 不 ack -> 等 reclaim 后重试
+            return;
+        }
+
+        CancelResult r = out.result();
+
+        switch (r) {
+            case CANCELLED -> {
+                queue.ack(orderId, token);
+            }
+            case ALREADY_FINAL, NOT_FOUND -> {
+                queue.ack(orderId, token);
+            }
+            case NOT_EXPIRED_YET -> {
+                if (out.expireAt() != null) {
+                    boolean ok = queue.reschedule(orderId, token, out.expireAt());
+                    if (ok) {
+                        queue.clearAttempts(orderId);
+                    } else {
+                        log.warn("Timeout reschedule token mismatch orderId={} expireAt={}", orderId, out.expireAt());
+                    }
+                } else {
+                    // Fallback to ack to avoid spinning forever on a broken record
+                    boolean ok = queue.ack(orderId, token);
+                    if (!ok) {
+                        log.warn("Timeout ack token mismatch (expireAt null) orderId={}", orderId);
+                    }
+                    log.warn("NOT_EXPIRED_YET but expireAt is null, orderId={}", orderId);
+                }
+            }
+            case RETRYABLE_FAIL -> {
                 long attempts = queue.incrementAttempt(orderId);
-                log.warn("CancelIfPending threw exception orderId={} attempts={}", orderId, attempts, e);
+                log.warn("Retryable fail orderId={} attempts={}", orderId, attempts);
 
                 if (attempts >= maxAttempts) {
                     log.error("Timeout cancel exceeded max attempts, ack to stop looping orderId={} attempts={}",
@@ -100,55 +302,15 @@ public class OrderTimeoutProcessor {
                     queue.ack(orderId, token); // ack 会清 attempts
                 }
                 // 不 ack -> 等 reclaim 后重试
-                continue;
             }
-
-            CancelResult r = out.result();
-
-            switch (r) {
-                case CANCELLED -> {
-                    queue.ack(orderId, token);
-                }
-                case ALREADY_FINAL, NOT_FOUND -> {
+            default -> {
+                // 兜底：未知结果先按可重试处理
+                long attempts = queue.incrementAttempt(orderId);
+                log.warn("Unknown CancelResult, treat as retryable orderId={} result={} attempts={}",
+                        orderId, r, attempts);
+                if (attempts >= maxAttempts) {
                     queue.ack(orderId, token);
                 }
-                case NOT_EXPIRED_YET -> {
-                    if (out.expireAt() != null) {
-                        boolean ok = queue.reschedule(orderId, token, out.expireAt());
-                        if (ok) {
-                            queue.clearAttempts(orderId);
-                        } else {
-                            log.warn("Timeout reschedule token mismatch orderId={} expireAt={}", orderId, out.expireAt());
-                        }
-                    } else {
-                        // Fallback to ack to avoid spinning forever on a broken record
-                        boolean ok = queue.ack(orderId, token);
-                        if (!ok) {
-                            log.warn("Timeout ack token mismatch (expireAt null) orderId={}", orderId);
-                        }
-                        log.warn("NOT_EXPIRED_YET but expireAt is null, orderId={}", orderId);
-                    }
-                }
-                case RETRYABLE_FAIL -> {
-                    long attempts = queue.incrementAttempt(orderId);
-                    log.warn("Retryable fail orderId={} attempts={}", orderId, attempts);
-
-                    if (attempts >= maxAttempts) {
-                        log.error("Timeout cancel exceeded max attempts, ack to stop looping orderId={} attempts={}",
-                                orderId, attempts);
-                        queue.ack(orderId, token); // ack 会清 attempts
-                    }
-                    // 不 ack -> 等 reclaim 后重试
-                }
-                default -> {
-                    // 兜底：未知结果先按可重试处理
-                    long attempts = queue.incrementAttempt(orderId);
-                    log.warn("Unknown CancelResult, treat as retryable orderId={} result={} attempts={}",
-                            orderId, r, attempts);
-                    if (attempts >= maxAttempts) {
-                        queue.ack(orderId, token);
-                    }
-                }
             }
         }
     }
@@ -159,5 +321,9 @@ public class OrderTimeoutProcessor {
         if (!reclaimed.isEmpty()) {
             log.debug("Reclaimed timeouts back to ready count={}", reclaimed.size());
         }
+        int migrated = queue.migrateLegacy(staleMs, reclaimBatchSize);
+        if (migrated > 0) {
+            log.info("Migrated legacy timeouts into shards count={}", migrated);
+        }
     }
 }
@@ -0,0 +1,170 @@
+package com.lingxiao.order.application;
+
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderExpiry;
+import com.lingxiao.order.infrastructure.redis.OrderTimeoutQueue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.UUID;
+
+/**
+ * 超时直接调度（order.timeout.direct-schedule.enabled）：建单事务提交后直接把 ExpireAt + grace 写进超时队列，
+ * 不再经过 ORDER_TIMEOUT_SCHEDULED outbox 行 → Kafka → OrderTimeoutProcessor.onTimeoutScheduled 这一圈。
+ *
+ * - 提交后、入队前宕机或 Redis 写失败时，任务只存在于 Spanner：兜底扫描按 OrdersByExpire (Status, ExpireAt)
+ *   找出过期超过 grace + sweep-lag 仍是 PENDING_PAYMENT 的订单，ZADD NX 重新入队。
+ * - 扫描用 Redis 锁保证同一时刻只有一个实例在跑；重复入队无害，取消本身按 Status 幂等。
+ * - 每页一次 pipeline 的 ZADD NX。扫到的位置记在 Redis（order:timeout:sweep:cursor），下一次接着往后扫，
+ *   不会每次都从最老的过期订单重新读起；每 sweep-rescan-interval 从头完整扫一遍，补回已扫过但又丢了的任务。
+ * - 关闭时两个方法都不做事，超时仍走 outbox；切换期间 topic 里剩下的事件照常被消费。
+ */
+@Service
+public class OrderTimeoutScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderTimeoutScheduler.class);
+    private static final String SWEEP_LOCK_KEY = "order:timeout:sweep:lock";
+    private static final String SWEEP_CURSOR_KEY = "order:timeout:sweep:cursor";
+
+    private final OrderTimeoutQueue queue;
+    private final OrderRepository repository;
+    private final StringRedisTemplate redisTemplate;
+    private final boolean enabled;
+    private final long gracePeriodMs;
+    private final Duration sweepLag;
+    private final int sweepPageSize;
+    private final int sweepMaxPages;
+    private final Duration sweepLockTtl;
+    private final Duration sweepRescanInterval;
+    private final String owner = UUID.randomUUID().toString();
+
+    public OrderTimeoutScheduler(OrderTimeoutQueue queue,
+                                 OrderRepository repository,
+                                 StringRedisTemplate redisTemplate,
+                                 @Value("${order.timeout.direct-schedule.enabled:false}") boolean enabled,
+                                 @Value("${order.timeout.grace-period-ms:60000}") long gracePeriodMs,
+                                 @Value("${order.timeout.direct-schedule.sweep-lag:PT2M}") Duration sweepLag,
+                                 @Value("${order.timeout.direct-schedule.sweep-page-size:500}") int sweepPageSize,
+                                 @Value("${order.timeout.direct-schedule.sweep-max-pages:20}") int sweepMaxPages,
+                                 @Value("${order.timeout.direct-schedule.sweep-lock-ttl:PT5M}") Duration sweepLockTtl,
+                                 @Value("${order.timeout.direct-schedule.sweep-rescan-interval:PT1H}") Duration sweepRescanInterval) {
+        this.queue = queue;
+        this.repository = repository;
+        this.redisTemplate = redisTemplate;
+        this.enabled = enabled;
+        this.gracePeriodMs = gracePeriodMs;
+        this.sweepLag = sweepLag;
+        this.sweepPageSize = Math.max(1, sweepPageSize);
+        this.sweepMaxPages = Math.max(1, sweepMaxPages);
+        this.sweepLockTtl = sweepLockTtl;
+        this.sweepRescanInterval = sweepRescanInterval;
+    }
+
+    /**
+     * 建单事务提交后调用。失败只记日志：订单已落库，由兜底扫描补上。
+     */
+    public void scheduleCreated(Collection<OrderExpiry> timeouts) {
+        if (!enabled) {
+            return;
+        }
+        for (OrderExpiry timeout : timeouts) {
+            try {
+                queue.schedule(timeout.orderId(), timeout.expireAt().plusMillis(gracePeriodMs));
+            } catch (Exception e) {
+                log.warn("Direct timeout schedule failed, left to sweep orderId={} expireAt={}",
+                        timeout.orderId(), timeout.expireAt(), e);
+            }
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${order.timeout.direct-schedule.sweep-interval-ms:60000}")
+    public void sweep() {
+        if (!enabled) {
+            return;
+        }
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(SWEEP_LOCK_KEY, owner, sweepLockTtl))) {
+            return;
+        }
+        try {
+            int requeued = sweepOnce(Instant.now().minusMillis(gracePeriodMs).minus(sweepLag));
+            if (requeued > 0) {
+                log.warn("Timeout sweep re-enqueued overdue PENDING_PAYMENT orders count={}", requeued);
+            }
+        } catch (Exception e) {
+            log.warn("Timeout sweep failed", e);
+        } finally {
+            if (Objects.equals(owner, redisTemplate.opsForValue().get(SWEEP_LOCK_KEY))) {
+                redisTemplate.delete(SWEEP_LOCK_KEY);
+            }
+        }
+    }
+
+    /**
+     * 从上次停下的位置往后扫，最多 sweep-max-pages 页；扫到末尾时游标停在最后一行，之后新过期的订单排在它后面。
+     *
+     * @return 本次新加入 ready 的订单数（已在 ready 中的不算）
+     */
+    int sweepOnce(Instant expiredBefore) {
+        long nowMs = System.currentTimeMillis();
+        SweepCursor cursor = SweepCursor.parse(redisTemplate.opsForValue().get(SWEEP_CURSOR_KEY));
+        if (cursor == null || nowMs - cursor.startedAtMs() >= sweepRescanInterval.toMillis()) {
+            cursor = new SweepCursor(nowMs, null);
+        }
+        int requeued = 0;
+        OrderExpiry after = cursor.after();
+        for (int page = 0; page < sweepMaxPages; page++) {
+            List<OrderExpiry> overdue = repository.findOverduePending(expiredBefore, after, sweepPageSize);
+            List<OrderTimeoutQueue.ScheduledTimeout> timeouts = new ArrayList<>(overdue.size());
+            for (OrderExpiry o : overdue) {
+                timeouts.add(new OrderTimeoutQueue.ScheduledTimeout(o.orderId(), o.expireAt().plusMillis(gracePeriodMs)));
+            }
+            requeued += queue.scheduleAllIfAbsent(timeouts);
+            if (!overdue.isEmpty()) {
+                after = overdue.get(overdue.size() - 1);
+            }
+            if (overdue.size() < sweepPageSize) {
+                break;
+            }
+        }
+        redisTemplate.opsForValue().set(SWEEP_CURSOR_KEY, new SweepCursor(cursor.startedAtMs(), after).format());
+        return requeued;
+    }
+
+    /**
+     * startedAtMs 是这一轮完整扫描开始的时间；after 为 null 表示从最老的过期订单开始。
+     */
+    record SweepCursor(long startedAtMs, OrderExpiry after) {
+
+        String format() {
+            return after == null ? String.valueOf(startedAtMs)
+                    : startedAtMs + "|" + after.expireAt() + "|" + after.orderId();
+        }
+
+        static SweepCursor parse(String raw) {
+            if (raw == null) {
+                return null;
+            }
+            try {
+                String[] parts = raw.split("\\|", 3);
+                if (parts.length < 3) {
+                    return new SweepCursor(Long.parseLong(parts[0]), null);
+                }
+                return new SweepCursor(Long.parseLong(parts[0]),
+                        new OrderExpiry(parts[2], Instant.parse(parts[1])));
+            } catch (RuntimeException e) {
+                log.warn("Ignoring malformed timeout sweep cursor {}", raw);
+                return null;
+            }
+        }
+    }
+}
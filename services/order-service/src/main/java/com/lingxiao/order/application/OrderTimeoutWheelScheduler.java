@@ -0,0 +1,171 @@
+package com.lingxiao.order.application;
+
+import com.lingxiao.common.redis.ShardLeaseRegistry;
+import com.lingxiao.order.infrastructure.redis.OrderTimeoutQueue;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 超时队列前面的内存时间轮：到期的订单在到点时直接 claimIds，不再依赖每秒轮询 ZRANGEBYSCORE。
+ *
+ * - 分片归属：各实例在 Redis 登记心跳，按 ceil(分片数 / 存活实例数) 抢占分片租约，多余的释放给其它实例。
+ * - 填充：新拿到的分片和每个 preload 周期从 ready ZSET 预加载 preload-horizon 内的任务；
+ *   queue.schedule / reschedule / reclaim 写入 ready 时，属于本实例分片的任务同步放进时间轮。
+ * - Redis 仍是唯一可信来源：时间轮丢了（重启、超出容量、分片易主）由 OrderTimeoutProcessor 的兜底扫描补上；
+ *   claimIds 只会 claim 仍在 ready 中且已到期的 id，多实例同时触发也只会有一个成功。
+ * - 触发：ticker 线程只负责推进时间轮和按分片分组，claimIds 和处理交给 OrderTimeoutProcessor 的 workers，
+ *   Redis/Spanner 变慢不会拖住后面的 tick。
+ */
+@Component
+@ConditionalOnProperty(prefix = "order.timeout.wheel", name = "enabled", havingValue = "true")
+public class OrderTimeoutWheelScheduler {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderTimeoutWheelScheduler.class);
+
+    private final OrderTimeoutQueue queue;
+    private final OrderTimeoutProcessor processor;
+    private final TimingWheel wheel;
+    private final ShardLeaseRegistry leases;
+    private final long preloadHorizonMs;
+    private final int preloadLimit;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private Thread ticker;
+
+    public OrderTimeoutWheelScheduler(OrderTimeoutQueue queue,
+                                      OrderTimeoutProcessor processor,
+                                      @Value("${order.timeout.wheel.tick-ms:100}") long tickMs,
+                                      @Value("${order.timeout.wheel.wheel-size:64}") int wheelSize,
+                                      @Value("${order.timeout.wheel.levels:2}") int levels,
+                                      @Value("${order.timeout.wheel.max-entries:200000}") int maxEntries,
+                                      @Value("${order.timeout.wheel.preload-horizon-ms:300000}") long preloadHorizonMs,
+                                      @Value("${order.timeout.wheel.preload-limit:10000}") int preloadLimit,
+                                      @Value("${order.timeout.wheel.lease-ttl:PT15S}") Duration leaseTtl) {
+        this.queue = queue;
+        this.processor = processor;
+        this.wheel = new TimingWheel(tickMs, wheelSize, levels, maxEntries, System.currentTimeMillis());
+        // 预加载范围不能超过时间轮能放下的范围，留一格上层余量
+        this.preloadHorizonMs = Math.min(preloadHorizonMs, wheel.horizonMs() - tickMs * wheelSize);
+        this.preloadLimit = preloadLimit;
+        this.leases = queue.leaseRegistry(leaseTtl);
+    }
+
+    @PostConstruct
+    public void start() {
+        queue.setReadyListener(this::onReady);
+        running.set(true);
+        ticker = Thread.ofPlatform().daemon().name("order-timeout-wheel").start(this::tickLoop);
+    }
+
+    @PreDestroy
+    public void stop() {
+        running.set(false);
+        queue.setReadyListener(null);
+        if (ticker != null) {
+            ticker.interrupt();
+        }
+        try {
+            leases.releaseAll();
+        } catch (Exception e) {
+            log.debug("Release timeout shard leases failed", e);
+        }
+    }
+
+    /**
+     * 续期已有租约并按存活实例数多退少补；新拿到的分片立即预加载。
+     */
+    @Scheduled(fixedDelayString = "${order.timeout.wheel.rebalance-interval-ms:5000}")
+    public void rebalance() {
+        try {
+            for (Integer shard : leases.rebalance()) {
+                preload(shard);
+            }
+        } catch (Exception e) {
+            log.warn("Timeout wheel rebalance failed", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${order.timeout.wheel.preload-interval-ms:30000}")
+    public void preloadOwned() {
+        for (Integer shard : leases.owned()) {
+            try {
+                preload(shard);
+            } catch (Exception e) {
+                log.warn("Timeout wheel preload failed shard={}", shard, e);
+            }
+        }
+    }
+
+    private void preload(int shard) {
+        Instant until = Instant.now().plusMillis(preloadHorizonMs);
+        List<OrderTimeoutQueue.ScheduledTimeout> due = queue.peekReady(shard, until, preloadLimit);
+        for (OrderTimeoutQueue.ScheduledTimeout t : due) {
+            wheel.add(t.orderId(), t.at().toEpochMilli());
+        }
+        log.debug("Preloaded timeouts into wheel shard={} count={} wheelSize={}", shard, due.size(), wheel.size());
+    }
+
+    void onReady(String orderId, Instant at) {
+        if (leases.owns(queue.shardIndexOf(orderId))) {
+            wheel.add(orderId, at.toEpochMilli());
+        }
+    }
+
+    private void tickLoop() {
+        while (running.get()) {
+            try {
+                long now = System.currentTimeMillis();
+                long sleep = wheel.millisToNextTick(now);
+                if (sleep > 0) {
+                    Thread.sleep(sleep);
+                    continue;
+                }
+                tick(now);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.warn("Timeout wheel tick failed", e);
+            }
+        }
+    }
+
+    void tick(long nowMs) {
+        fire(wheel.advance(nowMs));
+    }
+
+    private void fire(List<String> due) {
+        if (due.isEmpty()) {
+            return;
+        }
+        Map<Integer, List<String>> byShard = new HashMap<>();
+        for (String orderId : due) {
+            byShard.computeIfAbsent(queue.shardIndexOf(orderId), s -> new ArrayList<>()).add(orderId);
+        }
+        for (Map.Entry<Integer, List<String>> entry : byShard.entrySet()) {
+            int shard = entry.getKey();
+            List<String> orderIds = entry.getValue();
+            try {
+                processor.processClaimedAsync(() -> queue.claimIds(shard, orderIds));
+            } catch (RejectedExecutionException e) {
+                // 关闭中：未 claim 的仍在 ready 中，由其它实例或重启后的兜底扫描处理
+                log.debug("Timeout wheel dispatch rejected shard={} count={}", shard, orderIds.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package com.lingxiao.order.application;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 分层时间轮，只存 orderId 和到期时间，所有操作 synchronized。
+ *
+ * 第 0 层每格 tickMs，第 L 层每格 tickMs * wheelSize^L；只接受 horizonMs 以内的任务，更远的留在 Redis 里。
+ * advance 每走一格：先把上层轮到当前时间的那一格降级重新放入下层，再把第 0 层当前格里的任务全部取出。
+ * 同一个 id 重复 add 以最后一次的到期时间为准，旧位置上的条目在取出时按 index 比对丢弃。
+ */
+final class TimingWheel {
+
+    private final long tickMs;
+    private final int wheelSize;
+    private final long[] levelTickMs;
+    private final List<Entry>[][] slots;
+    private final long horizonMs;
+    private final int maxEntries;
+
+    // id -> 当前生效的到期时间
+    private final Map<String, Long> index = new HashMap<>();
+    // 放入时已经过期的，下次 advance 直接返回
+    private final List<Entry> overdue = new ArrayList<>();
+    private long currentTime;
+
+    @SuppressWarnings("unchecked")
+    TimingWheel(long tickMs, int wheelSize, int levels, int maxEntries, long startMs) {
+        if (tickMs <= 0 || wheelSize <= 1 || levels <= 0) {
+            throw new IllegalArgumentException("invalid timing wheel tickMs=" + tickMs
+                    + " wheelSize=" + wheelSize + " levels=" + levels);
+        }
+        this.tickMs = tickMs;
+        this.wheelSize = wheelSize;
+        this.maxEntries = maxEntries;
+        this.levelTickMs = new long[levels];
+        this.slots = new List[levels][wheelSize];
+        long t = tickMs;
+        for (int level = 0; level < levels; level++) {
+            levelTickMs[level] = t;
+            for (int i = 0; i < wheelSize; i++) {
+                slots[level][i] = new ArrayList<>();
+            }
+            t = Math.multiplyExact(t, wheelSize);
+        }
+        this.horizonMs = t;
+        this.currentTime = startMs - Math.floorMod(startMs, tickMs);
+    }
+
+    long horizonMs() {
+        return horizonMs;
+    }
+
+    synchronized int size() {
+        return index.size();
+    }
+
+    /**
+     * @return false 表示超出 horizon 或容量已满，调用方应依赖 Redis 兜底扫描
+     */
+    synchronized boolean add(String id, long deadlineMs) {
+        Long existing = index.get(id);
+        if (existing != null && existing == deadlineMs) {
+            return true;
+        }
+        if (existing == null && index.size() >= maxEntries) {
+            return false;
+        }
+        if (!place(new Entry(id, deadlineMs))) {
+            return false;
+        }
+        index.put(id, deadlineMs);
+        return true;
+    }
+
+    synchronized void remove(String id) {
+        index.remove(id);
+    }
+
+    /**
+     * 推进到 nowMs，返回已到期的 id：一格整体走过 nowMs 后才触发其中的任务，不会提前。
+     */
+    synchronized List<String> advance(long nowMs) {
+        List<String> due = new ArrayList<>();
+        while (currentTime + tickMs <= nowMs) {
+            for (int level = levelTickMs.length - 1; level >= 1; level--) {
+                if (currentTime % levelTickMs[level] == 0) {
+                    List<Entry> slot = slots[level][slotIndex(currentTime, level)];
+                    if (!slot.isEmpty()) {
+                        List<Entry> cascade = new ArrayList<>(slot);
+                        slot.clear();
+                        for (Entry e : cascade) {
+                            if (isLive(e)) {
+                                place(e);
+                            }
+                        }
+                    }
+                }
+            }
+            List<Entry> slot = slots[0][slotIndex(currentTime, 0)];
+            currentTime += tickMs;
+            if (!slot.isEmpty()) {
+                for (Entry e : slot) {
+                    if (isLive(e)) {
+                        index.remove(e.id());
+                        due.add(e.id());
+                    }
+                }
+                slot.clear();
+            }
+        }
+        for (Entry e : overdue) {
+            if (isLive(e)) {
+                index.remove(e.id());
+                due.add(e.id());
+            }
+        }
+        overdue.clear();
+        return due;
+    }
+
+    /**
+     * 距离下一格结束的毫秒数，调用方据此决定 sleep 多久。
+     */
+    synchronized long millisToNextTick(long nowMs) {
+        return Math.max(0, currentTime + tickMs - nowMs);
+    }
+
+    private boolean place(Entry e) {
+        if (e.deadline() < currentTime) {
+            overdue.add(e);
+            return true;
+        }
+        for (int level = 0; level < levelTickMs.length; level++) {
+            long span = levelTickMs[level] * wheelSize;
+            long levelStart = currentTime - Math.floorMod(currentTime, levelTickMs[level]);
+            if (e.deadline() < levelStart + span) {
+                slots[level][slotIndex(e.deadline(), level)].add(e);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isLive(Entry e) {
+        Long deadline = index.get(e.id());
+        return deadline != null && deadline == e.deadline();
+    }
+
+    private int slotIndex(long time, int level) {
+        return (int) Math.floorMod(time / levelTickMs[level], (long) wheelSize);
+    }
+
+    private record Entry(String id, long deadline) {}
+}
@@ -0,0 +1,178 @@
+package com.lingxiao.order.infrastructure.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.lingxiao.order.application.OrderSummary;
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * 订单详情读缓存：Caffeine L1 + Redis L2，key 为 orderId，查不到的订单也短暂缓存（负缓存）。
+ *
+ * - 失效：OrderRepository 在创建 / PAID / CANCELLED 等状态变化提交后回调 invalidate：
+ *   清本地 L1，L2 写入短 TTL 的 tombstone，并通过 Redis pub/sub 让其它实例清 L1。
+ * - tombstone 期间读请求直接回源且不回填，L2 回填用 SET NX，
+ *   这样在提交前读到旧值、提交后才回填的慢请求不会把旧状态写回缓存。
+ * - Redis 不可用时退化成只用 L1 + 回源，不影响查询。
+ */
+@Component
+@ConditionalOnProperty(prefix = "order.query.cache", name = "enabled", havingValue = "true")
+public class OrderSummaryCache {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderSummaryCache.class);
+    static final String NEGATIVE = "-";
+    static final String TOMBSTONE = "~";
+
+    private final OrderRepository repository;
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry registry;
+    private final String keyPrefix;
+    private final String channel;
+    private final Duration l1Ttl;
+    private final Duration l1NegativeTtl;
+    private final Duration l2Ttl;
+    private final Duration l2NegativeTtl;
+    private final Duration tombstoneTtl;
+    private final Cache<String, Entry> l1;
+    private final OrderRepository.OrderChangeListener changeListener = this::invalidate;
+    private final Counter l2Hits;
+    private final Counter l2Misses;
+    private final Counter loads;
+
+    public OrderSummaryCache(OrderRepository repository,
+                             StringRedisTemplate redisTemplate,
+                             RedisMessageListenerContainer listenerContainer,
+                             ObjectMapper objectMapper,
+                             MeterRegistry registry,
+                             @Value("${order.query.cache.key-prefix:order:summary:}") String keyPrefix,
+                             @Value("${order.query.cache.invalidate-channel:order:summary:invalidate}") String channel,
+                             @Value("${order.query.cache.l1-max-size:100000}") long l1MaxSize,
+                             @Value("${order.query.cache.l1-ttl:PT5S}") Duration l1Ttl,
+                             @Value("${order.query.cache.l1-negative-ttl:PT0.5S}") Duration l1NegativeTtl,
+                             @Value("${order.query.cache.l2-ttl:PT60S}") Duration l2Ttl,
+                             @Value("${order.query.cache.l2-negative-ttl:PT1S}") Duration l2NegativeTtl,
+                             @Value("${order.query.cache.tombstone-ttl:PT1S}") Duration tombstoneTtl) {
+        this.repository = repository;
+        this.redisTemplate = redisTemplate;
+        this.listenerContainer = listenerContainer;
+        this.objectMapper = objectMapper;
+        this.registry = registry;
+        this.keyPrefix = keyPrefix;
+        this.channel = channel;
+        this.l1Ttl = l1Ttl;
+        this.l1NegativeTtl = l1NegativeTtl;
+        this.l2Ttl = l2Ttl;
+        this.l2NegativeTtl = l2NegativeTtl;
+        this.tombstoneTtl = tombstoneTtl;
+        this.l1 = Caffeine.newBuilder()
+                .recordStats()
+                .maximumSize(l1MaxSize)
+                .expireAfter(new Expiry<String, Entry>() {
+                    @Override
+                    public long expireAfterCreate(String key, Entry value, long currentTime) {
+                        return value.ttl().toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, Entry value, long currentTime, long currentDuration) {
+                        return value.ttl().toNanos();
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, Entry value, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+        this.l2Hits = Counter.builder("order.summary.cache.l2").tag("result", "hit").register(registry);
+        this.l2Misses = Counter.builder("order.summary.cache.l2").tag("result", "miss").register(registry);
+        this.loads = Counter.builder("order.summary.cache.loads").register(registry);
+    }
+
+    @PostConstruct
+    public void start() {
+        CaffeineCacheMetrics.monitor(registry, l1, "order_summary_l1");
+        listenerContainer.addMessageListener(
+                (message, pattern) -> l1.invalidate(new String(message.getBody(), StandardCharsets.UTF_8)),
+                new ChannelTopic(channel));
+        repository.addOrderChangeListener(changeListener);
+    }
+
+    @PreDestroy
+    public void stop() {
+        repository.removeOrderChangeListener(changeListener);
+    }
+
+    /**
+     * L1 同一个 key 的并发 miss 由 Caffeine 合并成一次 L2 / 回源。
+     */
+    public Optional<OrderSummary> get(String orderId, Function<String, Optional<OrderSummary>> loader) {
+        return Optional.ofNullable(l1.get(orderId, id -> loadThroughL2(id, loader)).summary());
+    }
+
+    public void invalidate(String orderId) {
+        l1.invalidate(orderId);
+        redisTemplate.opsForValue().set(keyPrefix + orderId, TOMBSTONE, tombstoneTtl);
+        redisTemplate.convertAndSend(channel, orderId);
+    }
+
+    private Entry loadThroughL2(String orderId, Function<String, Optional<OrderSummary>> loader) {
+        String key = keyPrefix + orderId;
+        String raw = null;
+        try {
+            raw = redisTemplate.opsForValue().get(key);
+        } catch (Exception e) {
+            log.debug("Order summary L2 read failed orderId={}", orderId, e);
+        }
+        if (raw != null && !TOMBSTONE.equals(raw)) {
+            try {
+                OrderSummary summary = NEGATIVE.equals(raw) ? null : objectMapper.readValue(raw, OrderSummary.class);
+                l2Hits.increment();
+                return new Entry(summary, summary != null ? l1Ttl : l1NegativeTtl);
+            } catch (Exception e) {
+                log.warn("Corrupt order summary cache entry orderId={}", orderId, e);
+            }
+        }
+        l2Misses.increment();
+        loads.increment();
+        OrderSummary summary = loader.apply(orderId).orElse(null);
+        if (TOMBSTONE.equals(raw)) {
+            // 状态刚变化：不回填，L1 也立即过期
+            return new Entry(summary, Duration.ZERO);
+        }
+        try {
+            String value = summary != null ? objectMapper.writeValueAsString(summary) : NEGATIVE;
+            redisTemplate.opsForValue().setIfAbsent(key, value, summary != null ? l2Ttl : l2NegativeTtl);
+        } catch (Exception e) {
+            log.debug("Order summary L2 write failed orderId={}", orderId, e);
+        }
+        return new Entry(summary, summary != null ? l1Ttl : l1NegativeTtl);
+    }
+
+    /**
+     * @param summary null 表示订单不存在（负缓存）
+     */
+    private record Entry(OrderSummary summary, Duration ttl) {
+    }
+}
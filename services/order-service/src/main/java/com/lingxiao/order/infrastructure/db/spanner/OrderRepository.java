@@ -5,10 +5,12 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.google.cloud.Timestamp;
 import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.KeySet;
 import com.google.cloud.spanner.Mutation;
 import com.google.cloud.spanner.ResultSet;
 import com.google.cloud.spanner.Statement;
 import com.google.cloud.spanner.Struct;
+import com.google.cloud.spanner.TimestampBound;
 import com.google.cloud.spanner.TransactionContext;
 import com.google.cloud.spanner.Value;
 import com.lingxiao.common.db.tx.TxRunner;
@@ -19,7 +21,12 @@ import com.lingxiao.contracts.events.OrderPaidEvent;
 import com.lingxiao.contracts.events.PaymentSucceededEvent;
 import com.lingxiao.order.infrastructure.db.spanner.model.CancelOutcome;
 import com.lingxiao.order.infrastructure.db.spanner.model.CancelResult;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderCreateBatchResult;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderExpiry;
 import com.lingxiao.order.infrastructure.db.spanner.model.OrderOutboxRecord;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxBatchOutcome;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxCursor;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxTailBatch;
 import com.lingxiao.order.infrastructure.db.spanner.model.OutboxStatus;
 import com.lingxiao.order.application.OrderSummary;
 import com.lingxiao.order.messaging.OrderNotFoundForPaymentException;
@@ -27,11 +34,18 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Repository;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 @Repository
 public class OrderRepository {
@@ -43,11 +57,54 @@ public class OrderRepository {
             .findAndRegisterModules()
             .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
     private final long timeoutGraceMs;
+    private final int outboxShards;
+    // tailer 开启时新行的 NextAttemptAt 推后 handoff，轮询 publisher 只接手 tailer 没发出去的行
+    private final long outboxHandoffMs;
+    // 直接调度模式下不写 ORDER_TIMEOUT_SCHEDULED outbox，由调用方提交后直接入超时队列
+    private final boolean directTimeoutSchedule;
+    private final List<OrderChangeListener> orderChangeListeners = new CopyOnWriteArrayList<>();
 
     public OrderRepository(TxRunner txRunner,
-                           @org.springframework.beans.factory.annotation.Value("${order.timeout.grace-period-ms:60000}") long timeoutGraceMs) {
+                           @org.springframework.beans.factory.annotation.Value("${order.timeout.grace-period-ms:60000}") long timeoutGraceMs,
+                           @org.springframework.beans.factory.annotation.Value("${order.outbox.shards:16}") int outboxShards,
+                           @org.springframework.beans.factory.annotation.Value("${order.outbox.tailer.enabled:false}") boolean tailerEnabled,
+                           @org.springframework.beans.factory.annotation.Value("${order.outbox.tailer.handoff-ms:30000}") long tailerHandoffMs,
+                           @org.springframework.beans.factory.annotation.Value("${order.timeout.direct-schedule.enabled:false}") boolean directTimeoutSchedule) {
         this.txRunner = txRunner;
         this.timeoutGraceMs = timeoutGraceMs;
+        this.outboxShards = Math.max(1, outboxShards);
+        this.outboxHandoffMs = tailerEnabled ? tailerHandoffMs : 0;
+        this.directTimeoutSchedule = directTimeoutSchedule;
+    }
+
+    public int outboxShards() {
+        return outboxShards;
+    }
+
+    public int outboxShardOf(String outboxId) {
+        return Math.floorMod(outboxId.hashCode(), outboxShards);
+    }
+
+    public void addOrderChangeListener(OrderChangeListener listener) {
+        orderChangeListeners.add(listener);
+    }
+
+    public void removeOrderChangeListener(OrderChangeListener listener) {
+        orderChangeListeners.remove(listener);
+    }
+
+    /**
+     * Called after a transaction that created an order or changed its Status has committed.
+     * Listener failures are logged only: the write already succeeded.
+     */
+    private void notifyOrderChanged(String orderId) {
+        for (OrderChangeListener listener : orderChangeListeners) {
+            try {
+                listener.onOrderChanged(orderId);
+            } catch (Exception e) {
+                log.warn("Order change listener failed orderId={}", orderId, e);
+            }
+        }
     }
 
     /**
@@ -81,9 +138,13 @@ public class OrderRepository {
         });
     }
 
-    public void createFromFlashSaleEvent(FlashSaleReservedEventV2 event) {
-        txRunner.runReadWrite(tx -> {
-            String idempotencyKey = "fs:v2:" + event.eventId();
+    /**
+     * @return the timeout the new order still needs (order created as PENDING_PAYMENT);
+     *         empty for a duplicate event or an order that converged to PAID on creation
+     */
+    public Optional<OrderExpiry> createFromFlashSaleEvent(FlashSaleReservedEventV2 event) {
+        FlashSaleOrderWrite write = txRunner.runReadWrite(tx -> {
+            String idempotencyKey = flashSaleIdempotencyKey(event);
             Key key = Key.of(event.userId(), idempotencyKey);
             Struct existing = tx.readRow("OrderIdempotency", key, List.of("OrderId"));
             if (existing != null) {
@@ -92,112 +153,223 @@ public class OrderRepository {
             }
 
             PendingPayment pending = getPendingPayment(tx, event.orderId());
+            FlashSaleOrderWrite w = flashSaleOrderWrite(event, idempotencyKey, pending);
+            tx.buffer(w.mutations());
+            return w;
+        });
+        if (write == null) {
+            return Optional.empty();
+        }
+        notifyOrderChanged(event.orderId());
+        return Optional.ofNullable(write.timeout());
+    }
 
-            Instant expireAt = event.expireAt() != null ? event.expireAt() : event.occurredAt().plusSeconds(300);
-            long subtotal = event.priceCents() * event.qty();
-            long discount = 0;
-            long tax = 0;
-            long shipping = 0;
-            long total = subtotal - discount + tax + shipping;
+    /**
+     * Batch variant of {@link #createFromFlashSaleEvent}: one transaction for the whole list,
+     * with OrderIdempotency and PendingPayments read by a single multi-key read each.
+     * Redeliveries, including duplicates inside the list, are skipped. Any failure aborts the whole
+     * transaction, and the caller falls back to per-event processing.
+     */
+    public OrderCreateBatchResult createFromFlashSaleEvents(List<FlashSaleReservedEventV2> events) {
+        if (events.isEmpty()) {
+            return new OrderCreateBatchResult(List.of(), List.of(), 0);
+        }
+        OrderCreateBatchResult result = txRunner.runReadWrite(tx -> {
+            KeySet.Builder idemKeys = KeySet.newBuilder();
+            KeySet.Builder pendingKeys = KeySet.newBuilder();
+            for (FlashSaleReservedEventV2 event : events) {
+                idemKeys.addKey(Key.of(event.userId(), flashSaleIdempotencyKey(event)));
+                pendingKeys.addKey(Key.of(event.orderId()));
+            }
+            Set<String> seen = new HashSet<>();
+            try (ResultSet rs = tx.read("OrderIdempotency", idemKeys.build(), List.of("UserId", "IdempotencyKey"))) {
+                while (rs.next()) {
+                    seen.add(rs.getString("UserId") + "|" + rs.getString("IdempotencyKey"));
+                }
+            }
+            Map<String, PendingPayment> pendingByOrder = new HashMap<>();
+            try (ResultSet rs = tx.read("PendingPayments", pendingKeys.build(),
+                    List.of("OrderId", "PaymentId", "AmountCents", "Currency", "PaidAt", "Status"))) {
+                while (rs.next()) {
+                    pendingByOrder.put(rs.getString("OrderId"), toPendingPayment(rs.getCurrentRowAsStruct()));
+                }
+            }
 
-            boolean pendingPaid = pending != null && "PENDING".equals(pending.status());
-            boolean latePayment = pendingPaid && pending.paidAt() != null && pending.paidAt().isAfter(expireAt);
-            boolean alreadyPaid = pendingPaid && !latePayment;
-            String status = alreadyPaid ? "PAID" : "PENDING_PAYMENT";
-            long statusVersion = alreadyPaid ? 2L : 1L;
+            List<String> created = new ArrayList<>();
+            List<OrderExpiry> timeouts = new ArrayList<>();
+            Set<String> orderIds = new HashSet<>();
+            List<Mutation> mutations = new ArrayList<>();
+            int duplicate = 0;
+            for (FlashSaleReservedEventV2 event : events) {
+                String idempotencyKey = flashSaleIdempotencyKey(event);
+                // seen 也挡住同一批里的重投
+                if (!seen.add(event.userId() + "|" + idempotencyKey) || !orderIds.add(event.orderId())) {
+                    duplicate++;
+                    continue;
+                }
+                FlashSaleOrderWrite write = flashSaleOrderWrite(event, idempotencyKey, pendingByOrder.get(event.orderId()));
+                mutations.addAll(write.mutations());
+                created.add(event.orderId());
+                if (write.timeout() != null) {
+                    timeouts.add(write.timeout());
+                }
+            }
+            tx.buffer(mutations);
+            return new OrderCreateBatchResult(created, timeouts, duplicate);
+        });
+        for (String orderId : result.createdOrderIds()) {
+            notifyOrderChanged(orderId);
+        }
+        return result;
+    }
 
-            Mutation orderMutation = Mutation.newInsertBuilder("Orders")
-                    .set("OrderId").to(event.orderId())
-                    .set("UserId").to(event.userId())
-                    .set("Status").to(status)
-                    .set("StatusVersion").to(statusVersion)
-                    .set("ExpireAt").to(Timestamp.ofTimeSecondsAndNanos(expireAt.getEpochSecond(), expireAt.getNano()))
-                    .set("Currency").to(event.currency())
-                    .set("SubtotalCents").to(subtotal)
-                    .set("DiscountCents").to(discount)
-                    .set("TaxCents").to(tax)
-                    .set("ShippingCents").to(shipping)
-                    .set("TotalCents").to(total)
-                    .set("CreatedAt").to(Value.COMMIT_TIMESTAMP)
-                    .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
-                    .build();
+    private static String flashSaleIdempotencyKey(FlashSaleReservedEventV2 event) {
+        return "fs:v2:" + event.eventId();
+    }
+
+    /**
+     * Mutations for one reservation and, if the order is created as PENDING_PAYMENT, the timeout it needs.
+     */
+    private record FlashSaleOrderWrite(List<Mutation> mutations, OrderExpiry timeout) {}
 
-            Mutation itemMutation = Mutation.newInsertBuilder("OrderItems")
+    /**
+     * Orders + OrderItems + OrderIdempotency rows for a reservation, plus either the timeout outbox row
+     * (skipped in direct-schedule mode) or, when the payment arrived first, the ORDER_PAID outbox row
+     * and PendingPayments convergence.
+     */
+    private FlashSaleOrderWrite flashSaleOrderWrite(FlashSaleReservedEventV2 event, String idempotencyKey, PendingPayment pending) {
+        Instant expireAt = event.expireAt() != null ? event.expireAt() : event.occurredAt().plusSeconds(300);
+        long subtotal = event.priceCents() * event.qty();
+        long discount = 0;
+        long tax = 0;
+        long shipping = 0;
+        long total = subtotal - discount + tax + shipping;
+
+        boolean pendingPaid = pending != null && "PENDING".equals(pending.status());
+        boolean latePayment = pendingPaid && pending.paidAt() != null && pending.paidAt().isAfter(expireAt);
+        boolean alreadyPaid = pendingPaid && !latePayment;
+        String status = alreadyPaid ? "PAID" : "PENDING_PAYMENT";
+        long statusVersion = alreadyPaid ? 2L : 1L;
+
+        Mutation orderMutation = Mutation.newInsertBuilder("Orders")
+                .set("OrderId").to(event.orderId())
+                .set("UserId").to(event.userId())
+                .set("Status").to(status)
+                .set("StatusVersion").to(statusVersion)
+                .set("ExpireAt").to(Timestamp.ofTimeSecondsAndNanos(expireAt.getEpochSecond(), expireAt.getNano()))
+                .set("Currency").to(event.currency())
+                .set("SubtotalCents").to(subtotal)
+                .set("DiscountCents").to(discount)
+                .set("TaxCents").to(tax)
+                .set("ShippingCents").to(shipping)
+                .set("TotalCents").to(total)
+                .set("CreatedAt").to(Value.COMMIT_TIMESTAMP)
+                .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                .build();
+
+        Mutation itemMutation = Mutation.newInsertBuilder("OrderItems")
+                .set("OrderId").to(event.orderId())
+                .set("LineId").to(1L)
+                .set("SkuId").to(event.skuId())
+                .set("Quantity").to(event.qty())
+                .set("UnitPriceCents").to(event.priceCents())
+                .set("Currency").to(event.currency())
+                .set("LineSubtotalCents").to(subtotal)
+                .set("LineDiscountCents").to(discount)
+                .set("LineTaxCents").to(tax)
+                .set("LineTotalCents").to(total)
+                .set("CreatedAt").to(Value.COMMIT_TIMESTAMP)
+                .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                .build();
+
+        Mutation idemMutation = Mutation.newInsertBuilder("OrderIdempotency")
+                .set("UserId").to(event.userId())
+                .set("IdempotencyKey").to(idempotencyKey)
+                .set("OrderId").to(event.orderId())
+                .set("CreatedAt").to(Value.COMMIT_TIMESTAMP)
+                .build();
+
+        List<Mutation> mutations = new ArrayList<>();
+        mutations.add(orderMutation);
+        mutations.add(itemMutation);
+        mutations.add(idemMutation);
+        Instant now = Instant.now();
+
+        if (latePayment) {
+            mutations.add(Mutation.newUpdateBuilder("PendingPayments")
                     .set("OrderId").to(event.orderId())
-                    .set("LineId").to(1L)
-                    .set("SkuId").to(event.skuId())
-                    .set("Quantity").to(event.qty())
-                    .set("UnitPriceCents").to(event.priceCents())
-                    .set("Currency").to(event.currency())
-                    .set("LineSubtotalCents").to(subtotal)
-                    .set("LineDiscountCents").to(discount)
-                    .set("LineTaxCents").to(tax)
-                    .set("LineTotalCents").to(total)
-                    .set("CreatedAt").to(Value.COMMIT_TIMESTAMP)
+                    .set("Status").to("REFUND_REQUIRED")
                     .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
-                    .build();
-
-            Mutation idemMutation = Mutation.newInsertBuilder("OrderIdempotency")
-                    .set("UserId").to(event.userId())
-                    .set("IdempotencyKey").to(idempotencyKey)
+                    .build());
+            // still schedule timeout handling; order stays PENDING_PAYMENT
+            addTimeoutOutbox(mutations, event.orderId(), expireAt, now);
+        } else if (alreadyPaid) {
+            // Payment arrived before order creation: converge in the same transaction
+            Instant paidAt = pending.paidAt() != null ? pending.paidAt() : now;
+            OrderPaidEvent paidEvent = new OrderPaidEvent(
+                    UUID.randomUUID().toString(),
+                    event.orderId(),
+                    paidAt,
+                    List.of(new OrderLineItem(event.skuId(), event.qty()))
+            );
+            mutations.add(buildOutboxInsert(
+                    UUID.randomUUID().toString(),
+                    "ORDER_PAID",
+                    event.orderId(),
+                    toJson(paidEvent),
+                    now
+            ));
+            mutations.add(Mutation.newUpdateBuilder("PendingPayments")
                     .set("OrderId").to(event.orderId())
-                    .set("CreatedAt").to(Value.COMMIT_TIMESTAMP)
-                    .build();
+                    .set("Status").to("APPLIED")
+                    .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                    .build());
+        } else {
+            addTimeoutOutbox(mutations, event.orderId(), expireAt, now);
+        }
+        return new FlashSaleOrderWrite(mutations, alreadyPaid ? null : new OrderExpiry(event.orderId(), expireAt));
+    }
 
-            List<Mutation> mutations = new ArrayList<>();
-            mutations.add(orderMutation);
-            mutations.add(itemMutation);
-            mutations.add(idemMutation);
-            Instant now = Instant.now();
+    private void addTimeoutOutbox(List<Mutation> mutations, String orderId, Instant expireAt, Instant now) {
+        if (directTimeoutSchedule) {
+            return;
+        }
+        mutations.add(buildOutboxInsert(
+                UUID.randomUUID().toString(),
+                "ORDER_TIMEOUT_SCHEDULED",
+                orderId,
+                toJson(new com.lingxiao.contracts.events.OrderTimeoutScheduledEvent(orderId, expireAt)),
+                now
+        ));
+    }
 
-            if (latePayment) {
-                mutations.add(Mutation.newUpdateBuilder("PendingPayments")
-                        .set("OrderId").to(event.orderId())
-                        .set("Status").to("REFUND_REQUIRED")
-                        .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
-                        .build());
-                // still schedule timeout handling; order stays PENDING_PAYMENT
-                String timeoutOutboxId = UUID.randomUUID().toString();
-                mutations.add(buildOutboxInsert(
-                        timeoutOutboxId,
-                        "ORDER_TIMEOUT_SCHEDULED",
-                        event.orderId(),
-                        toJson(new com.lingxiao.contracts.events.OrderTimeoutScheduledEvent(event.orderId(), expireAt)),
-                        now
-                ));
-            } else if (alreadyPaid) {
-                // Payment arrived before order creation: converge in the same transaction
-                Instant paidAt = pending.paidAt() != null ? pending.paidAt() : now;
-                OrderPaidEvent paidEvent = new OrderPaidEvent(
-                        UUID.randomUUID().toString(),
-                        event.orderId(),
-                        paidAt,
-                        List.of(new OrderLineItem(event.skuId(), event.qty()))
-                );
-                mutations.add(buildOutboxInsert(
-                        UUID.randomUUID().toString(),
-                        "ORDER_PAID",
-                        event.orderId(),
-                        toJson(paidEvent),
-                        now
-                ));
-                mutations.add(Mutation.newUpdateBuilder("PendingPayments")
-                        .set("OrderId").to(event.orderId())
-                        .set("Status").to("APPLIED")
-                        .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
-                        .build());
-            } else {
-                String timeoutOutboxId = UUID.randomUUID().toString();
-                mutations.add(buildOutboxInsert(
-                        timeoutOutboxId,
-                        "ORDER_TIMEOUT_SCHEDULED",
-                        event.orderId(),
-                        toJson(new com.lingxiao.contracts.events.OrderTimeoutScheduledEvent(event.orderId(), expireAt)),
-                        now
-                ));
+    /**
+     * PENDING_PAYMENT orders whose ExpireAt is before {@code before}, in (ExpireAt, OrderId) order after the
+     * given position, read from OrdersByExpire at a slightly stale timestamp. Used by the timeout sweep to
+     * re-enqueue orders whose direct scheduling was lost.
+     *
+     * @param after page position; null starts from the oldest
+     */
+    public List<OrderExpiry> findOverduePending(Instant before, OrderExpiry after, int limit) {
+        return txRunner.runReadOnly(TimestampBound.ofExactStaleness(15, TimeUnit.SECONDS), tx -> {
+            Statement.Builder builder = Statement.newBuilder(
+                            "SELECT OrderId, ExpireAt FROM Orders@{FORCE_INDEX=OrdersByExpire} " +
+                                    "WHERE Status = 'PENDING_PAYMENT' AND ExpireAt < @before " +
+                                    (after == null ? "" : "AND (ExpireAt > @afterAt OR (ExpireAt = @afterAt AND OrderId > @afterId)) ") +
+                                    "ORDER BY ExpireAt, OrderId LIMIT @limit")
+                    .bind("before").to(Timestamp.ofTimeSecondsAndNanos(before.getEpochSecond(), before.getNano()))
+                    .bind("limit").to(limit);
+            if (after != null) {
+                builder.bind("afterAt").to(Timestamp.ofTimeSecondsAndNanos(after.expireAt().getEpochSecond(), after.expireAt().getNano()))
+                        .bind("afterId").to(after.orderId());
             }
-            tx.buffer(mutations);
-            return null;
+            List<OrderExpiry> overdue = new ArrayList<>();
+            try (ResultSet rs = tx.executeQuery(builder.build())) {
+                while (rs.next()) {
+                    overdue.add(new OrderExpiry(rs.getString("OrderId"), toInstant(rs.getTimestamp("ExpireAt"))));
+                }
+            }
+            return overdue;
         });
     }
 
@@ -270,6 +442,7 @@ public class OrderRepository {
         if (needsRetry) {
             throw new OrderNotFoundForPaymentException(event.orderId());
         }
+        notifyOrderChanged(event.orderId());
     }
 
     public enum PendingPaymentReconcileResult {
@@ -285,7 +458,7 @@ public class OrderRepository {
      * This is used by the non-blocking reconcile queue to avoid blocking Kafka partitions.
      */
     public PendingPaymentReconcileResult reconcilePendingPayment(String orderId, Instant now) {
-        return txRunner.runReadWrite(tx -> {
+        PendingPaymentReconcileResult result = txRunner.runReadWrite(tx -> {
             Struct pendingRow = tx.readRow("PendingPayments", Key.of(orderId),
                     List.of("PaymentId", "AmountCents", "Currency", "PaidAt", "Status"));
             if (pendingRow == null) {
@@ -359,6 +532,10 @@ public class OrderRepository {
 
             return PendingPaymentReconcileResult.APPLIED;
         });
+        if (result == PendingPaymentReconcileResult.APPLIED || result == PendingPaymentReconcileResult.REFUND_REQUIRED) {
+            notifyOrderChanged(orderId);
+        }
+        return result;
     }
 
     private void upsertAppliedPayment(TransactionContext tx, PaymentSucceededEvent event, Instant paidAt) {
@@ -431,6 +608,10 @@ public class OrderRepository {
         Struct row = tx.readRow("PendingPayments", Key.of(orderId),
                 List.of("PaymentId", "AmountCents", "Currency", "PaidAt", "Status"));
         if (row == null) return null;
+        return toPendingPayment(row);
+    }
+
+    private static PendingPayment toPendingPayment(Struct row) {
         Instant paidAt = Instant.ofEpochSecond(row.getTimestamp("PaidAt").getSeconds(), row.getTimestamp("PaidAt").getNanos());
         return new PendingPayment(
                 row.getString("PaymentId"),
@@ -444,7 +625,7 @@ public class OrderRepository {
     private record PendingPayment(String paymentId, long amountCents, String currency, Instant paidAt, String status) {}
 
     public CancelOutcome cancelIfPending(String orderId, Instant now) {
-        return txRunner.runReadWrite(tx -> {
+        CancelOutcome outcome = txRunner.runReadWrite(tx -> {
             Struct row = tx.readRow("Orders", Key.of(orderId),
                     List.of("Status", "StatusVersion", "ExpireAt"));
             if (row == null) {
@@ -521,6 +702,11 @@ public class OrderRepository {
             tx.buffer(mutations);
             return new CancelOutcome(CancelResult.CANCELLED, expireAt);
         });
+        // ALREADY_FINAL 也可能是刚在这里收敛成 PAID
+        if (outcome.result() == CancelResult.CANCELLED || outcome.result() == CancelResult.ALREADY_FINAL) {
+            notifyOrderChanged(orderId);
+        }
+        return outcome;
     }
 
     /**
@@ -582,6 +768,172 @@ public class OrderRepository {
         });
     }
 
+    /**
+     * Stale read of NEW outbox rows in one shard after the cursor, in commit order.
+     * Rows committed at or before the read timestamp are all visible, so when fewer than limit rows come back
+     * the next cursor can jump to the read timestamp itself.
+     */
+    public OutboxTailBatch tailOutbox(int shardId, OutboxCursor after, Duration staleness, int limit) {
+        return txRunner.runReadOnly(TimestampBound.ofExactStaleness(staleness.toNanos(), TimeUnit.NANOSECONDS), tx -> {
+            Statement stmt = Statement.newBuilder(
+                            "SELECT OutboxId, EventType, AggregateId, PayloadJson, Status, Attempts, " +
+                                    "NextAttemptAt, LastError, CreatedAt, UpdatedAt " +
+                                    "FROM OrderOutbox@{FORCE_INDEX=OrderOutboxByShardCreated} " +
+                                    "WHERE ShardId = @shard " +
+                                    "AND (CreatedAt > @ts OR (CreatedAt = @ts AND OutboxId > @id)) " +
+                                    "ORDER BY CreatedAt, OutboxId LIMIT @limit")
+                    .bind("shard").to((long) shardId)
+                    .bind("ts").to(after.createdAt())
+                    .bind("id").to(after.outboxId())
+                    .bind("limit").to(limit)
+                    .build();
+            List<OrderOutboxRecord> records = new ArrayList<>();
+            int scanned = 0;
+            Timestamp lastCreatedAt = null;
+            String lastId = null;
+            try (ResultSet rs = tx.executeQuery(stmt)) {
+                while (rs.next()) {
+                    scanned++;
+                    lastCreatedAt = rs.getTimestamp("CreatedAt");
+                    lastId = rs.getString("OutboxId");
+                    // 已被轮询 publisher 接手或发送过的行只推进游标
+                    if (!OutboxStatus.NEW.name().equals(rs.getString("Status"))) {
+                        continue;
+                    }
+                    records.add(new OrderOutboxRecord(
+                            lastId,
+                            rs.getString("EventType"),
+                            rs.getString("AggregateId"),
+                            rs.getString("PayloadJson"),
+                            OutboxStatus.NEW,
+                            Math.toIntExact(rs.getLong("Attempts")),
+                            toInstant(rs.getTimestamp("NextAttemptAt")),
+                            null,
+                            null,
+                            rs.isNull("LastError") ? null : rs.getString("LastError"),
+                            toInstant(lastCreatedAt),
+                            toInstant(rs.getTimestamp("UpdatedAt"))
+                    ));
+                }
+            }
+            OutboxCursor next = scanned < limit
+                    ? OutboxCursor.endOf(tx.getReadTimestamp())
+                    : new OutboxCursor(lastCreatedAt, lastId);
+            return new OutboxTailBatch(records, next);
+        });
+    }
+
+    /**
+     * NEW -> SENT for a flush of tailed records, in one statement. Rows the polling publisher already
+     * claimed (SENDING) are left to it.
+     */
+    public long markSentBatch(List<String> outboxIds) {
+        if (outboxIds.isEmpty()) {
+            return 0;
+        }
+        return txRunner.runReadWrite(tx -> tx.executeUpdate(Statement.newBuilder(
+                        "UPDATE OrderOutbox SET Status = @sent, UpdatedAt = PENDING_COMMIT_TIMESTAMP() " +
+                                "WHERE OutboxId IN UNNEST(@ids) AND Status = @new")
+                .bind("sent").to(OutboxStatus.SENT.name())
+                .bind("new").to(OutboxStatus.NEW.name())
+                .bind("ids").toStringArray(outboxIds)
+                .build()));
+    }
+
+    /**
+     * Hand failed tailed records to the polling publisher: bump Attempts and push NextAttemptAt out by
+     * the first backoff step, keeping Status NEW so the regular retry/DEAD handling applies.
+     */
+    public long deferTailFailures(List<String> outboxIds, String error, Instant now, long baseBackoffMs, int maxErrorLength) {
+        if (outboxIds.isEmpty()) {
+            return 0;
+        }
+        Instant next = now.plusMillis(baseBackoffMs);
+        String lastError = error != null && error.length() > maxErrorLength ? error.substring(0, maxErrorLength) : error;
+        return txRunner.runReadWrite(tx -> tx.executeUpdate(Statement.newBuilder(
+                        "UPDATE OrderOutbox SET Attempts = Attempts + 1, NextAttemptAt = @next, LastError = @error, " +
+                                "UpdatedAt = PENDING_COMMIT_TIMESTAMP() " +
+                                "WHERE OutboxId IN UNNEST(@ids) AND Status = @new")
+                .bind("next").to(Timestamp.ofTimeSecondsAndNanos(next.getEpochSecond(), next.getNano()))
+                .bind("error").to(lastError)
+                .bind("new").to(OutboxStatus.NEW.name())
+                .bind("ids").toStringArray(outboxIds)
+                .build()));
+    }
+
+    /**
+     * SENT rows created before the cutoff in one retention partition: partitions [0, shards) map to ShardId,
+     * the extra last partition covers rows written before ShardId existed (NULL).
+     */
+    public List<OrderOutboxRecord> findExpiredSentOutbox(int partition, Instant cutoff, int limit) {
+        boolean legacy = partition >= outboxShards;
+        return txRunner.runReadOnly(tx -> {
+            Statement.Builder builder = Statement.newBuilder(
+                            "SELECT OutboxId, EventType, AggregateId, PayloadJson, Status, Attempts, " +
+                                    "NextAttemptAt, LockedBy, LockedAt, LastError, CreatedAt, UpdatedAt " +
+                                    "FROM OrderOutbox@{FORCE_INDEX=OrderOutboxByShardCreated} " +
+                                    "WHERE " + (legacy ? "ShardId IS NULL" : "ShardId = @shard") + " " +
+                                    "AND CreatedAt < @cutoff AND Status = @sent " +
+                                    "ORDER BY CreatedAt LIMIT @limit")
+                    .bind("cutoff").to(Timestamp.ofTimeSecondsAndNanos(cutoff.getEpochSecond(), cutoff.getNano()))
+                    .bind("sent").to(OutboxStatus.SENT.name())
+                    .bind("limit").to(limit);
+            if (!legacy) {
+                builder.bind("shard").to((long) partition);
+            }
+            List<OrderOutboxRecord> records = new ArrayList<>();
+            try (ResultSet rs = tx.executeQuery(builder.build())) {
+                while (rs.next()) {
+                    records.add(new OrderOutboxRecord(
+                            rs.getString("OutboxId"),
+                            rs.getString("EventType"),
+                            rs.getString("AggregateId"),
+                            rs.getString("PayloadJson"),
+                            OutboxStatus.SENT,
+                            Math.toIntExact(rs.getLong("Attempts")),
+                            toInstant(rs.getTimestamp("NextAttemptAt")),
+                            rs.isNull("LockedBy") ? null : rs.getString("LockedBy"),
+                            rs.isNull("LockedAt") ? null : toInstant(rs.getTimestamp("LockedAt")),
+                            rs.isNull("LastError") ? null : rs.getString("LastError"),
+                            toInstant(rs.getTimestamp("CreatedAt")),
+                            toInstant(rs.getTimestamp("UpdatedAt"))
+                    ));
+                }
+            }
+            return records;
+        });
+    }
+
+    /**
+     * Deletes outbox rows that are still SENT; anything else (e.g. a manual replay reset to NEW) is kept.
+     */
+    public long deleteSentOutbox(List<String> outboxIds) {
+        if (outboxIds.isEmpty()) {
+            return 0;
+        }
+        return txRunner.runReadWrite(tx -> tx.executeUpdate(Statement.newBuilder(
+                        "DELETE FROM OrderOutbox WHERE OutboxId IN UNNEST(@ids) AND Status = @sent")
+                .bind("sent").to(OutboxStatus.SENT.name())
+                .bind("ids").toStringArray(outboxIds)
+                .build()));
+    }
+
+    /**
+     * Row count per Status, read from the status index at a slightly stale timestamp.
+     */
+    public Map<String, Long> countOutboxByStatus() {
+        return txRunner.runReadOnly(TimestampBound.ofExactStaleness(15, TimeUnit.SECONDS), tx -> {
+            Map<String, Long> counts = new HashMap<>();
+            try (ResultSet rs = tx.executeQuery(Statement.of(
+                    "SELECT Status, COUNT(*) AS Cnt FROM OrderOutbox@{FORCE_INDEX=OrderOutboxByStatus} GROUP BY Status"))) {
+                while (rs.next()) {
+                    counts.put(rs.getString("Status"), rs.getLong("Cnt"));
+                }
+            }
+            return counts;
+        });
+    }
+
     private static Instant toInstant(Timestamp ts) {
         if (ts == null) return null;
         return Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos());
@@ -648,43 +1000,110 @@ public class OrderRepository {
                 return false;
             }
 
-            long currentAttempts = row.getLong("Attempts");
-            long newAttempts = currentAttempts + 1;
+            Mutation update = retryMutation(outboxId, row.getLong("Attempts"), error, now, maxAttempts, baseBackoffMs, maxErrorLength);
+            tx.buffer(List.of(update));
+            return true;
+        });
+    }
 
-            OutboxStatus newStatus;
-            Instant nextAttemptAt;
+    /**
+     * Apply the outcome of a whole pipelined batch in one read-write transaction: sent ids go SENDING -> SENT,
+     * failed ids get the same retry/DEAD transition as {@link #markRetry}. Rows no longer SENDING or locked by
+     * another publisher (reclaimed meanwhile) are skipped.
+     *
+     * @param failures outboxId -> error message
+     */
+    public OutboxBatchOutcome completeOutboxBatch(String publisherId, List<String> sentIds, Map<String, String> failures,
+                                                  Instant now, int maxAttempts, long baseBackoffMs, int maxErrorLength) {
+        if (sentIds.isEmpty() && failures.isEmpty()) {
+            return new OutboxBatchOutcome(0, 0, 0, 0);
+        }
+        return txRunner.runReadWrite(tx -> {
+            KeySet.Builder keys = KeySet.newBuilder();
+            sentIds.forEach(id -> keys.addKey(Key.of(id)));
+            failures.keySet().forEach(id -> keys.addKey(Key.of(id)));
 
-            if (newAttempts >= maxAttempts) {
-                // Exceeded max attempts, mark as DEAD
-                // NextAttemptAt must be NOT NULL - use a far future timestamp as sentinel value
-                newStatus = OutboxStatus.DEAD;
-                nextAttemptAt = now.plusSeconds(365L * 24 * 3600); // 1 year in the future as sentinel
-                log.error("Outbox record exceeded max attempts, marking as DEAD outboxId={} attempts={} max={}",
-                        outboxId, newAttempts, maxAttempts);
-            } else {
-                // Calculate exponential backoff: baseBackoffMs * 2^(attempts-1)
-                long backoffMs = baseBackoffMs * (1L << (int) (newAttempts - 1));
-                // Cap at 1 hour
-                backoffMs = Math.min(backoffMs, 3600000L);
-                nextAttemptAt = now.plusMillis(backoffMs);
-                newStatus = OutboxStatus.NEW;
+            Set<String> sent = Set.copyOf(sentIds);
+            List<Mutation> mutations = new ArrayList<>();
+            int sentCount = 0;
+            int retried = 0;
+            int dead = 0;
+            int seen = 0;
+            try (ResultSet rs = tx.read("OrderOutbox", keys.build(), List.of("OutboxId", "Status", "Attempts", "LockedBy"))) {
+                while (rs.next()) {
+                    String outboxId = rs.getString("OutboxId");
+                    String lockedBy = rs.isNull("LockedBy") ? null : rs.getString("LockedBy");
+                    if (!OutboxStatus.SENDING.name().equals(rs.getString("Status")) || !publisherId.equals(lockedBy)) {
+                        continue;
+                    }
+                    seen++;
+                    if (sent.contains(outboxId)) {
+                        mutations.add(Mutation.newUpdateBuilder("OrderOutbox")
+                                .set("OutboxId").to(outboxId)
+                                .set("Status").to(OutboxStatus.SENT.name())
+                                .set("LockedBy").to((String) null)
+                                .set("LockedAt").to((Timestamp) null)
+                                .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                                .build());
+                        sentCount++;
+                    } else {
+                        long newAttempts = rs.getLong("Attempts") + 1;
+                        mutations.add(retryMutation(outboxId, rs.getLong("Attempts"), failures.get(outboxId),
+                                now, maxAttempts, baseBackoffMs, maxErrorLength));
+                        if (newAttempts >= maxAttempts) {
+                            dead++;
+                        } else {
+                            retried++;
+                        }
+                    }
+                }
             }
-
-            Mutation update = Mutation.newUpdateBuilder("OrderOutbox")
-                    .set("OutboxId").to(outboxId)
-                    .set("Status").to(newStatus.name())
-                    .set("Attempts").to(newAttempts)
-                    .set("NextAttemptAt").to(Timestamp.ofTimeSecondsAndNanos(nextAttemptAt.getEpochSecond(), nextAttemptAt.getNano()))
-                    .set("LockedBy").to((String) null)
-                    .set("LockedAt").to((Timestamp) null)
-                    .set("LastError").to(error != null && error.length() > maxErrorLength ? error.substring(0, maxErrorLength) : error)
-                    .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
-                    .build();
-            tx.buffer(List.of(update));
-            return true;
+            if (!mutations.isEmpty()) {
+                tx.buffer(mutations);
+            }
+            int skipped = sentIds.size() + failures.size() - seen;
+            return new OutboxBatchOutcome(sentCount, retried, dead, skipped);
         });
     }
 
+    /**
+     * SENDING -> NEW with exponential backoff, or DEAD once attempts reach maxAttempts.
+     */
+    private Mutation retryMutation(String outboxId, long currentAttempts, String error, Instant now,
+                                   int maxAttempts, long baseBackoffMs, int maxErrorLength) {
+        long newAttempts = currentAttempts + 1;
+
+        OutboxStatus newStatus;
+        Instant nextAttemptAt;
+
+        if (newAttempts >= maxAttempts) {
+            // Exceeded max attempts, mark as DEAD
+            // NextAttemptAt must be NOT NULL - use a far future timestamp as sentinel value
+            newStatus = OutboxStatus.DEAD;
+            nextAttemptAt = now.plusSeconds(365L * 24 * 3600); // 1 year in the future as sentinel
+            log.error("Outbox record exceeded max attempts, marking as DEAD outboxId={} attempts={} max={}",
+                    outboxId, newAttempts, maxAttempts);
+        } else {
+            // Calculate exponential backoff: baseBackoffMs * 2^(attempts-1)
+            long backoffMs = baseBackoffMs * (1L << (int) (newAttempts - 1));
+            // Cap at 1 hour
+            backoffMs = Math.min(backoffMs, 3600000L);
+            nextAttemptAt = now.plusMillis(backoffMs);
+            newStatus = OutboxStatus.NEW;
+        }
+
+        return Mutation.newUpdateBuilder("OrderOutbox")
+                .set("OutboxId").to(outboxId)
+                .set("Status").to(newStatus.name())
+                .set("Attempts").to(newAttempts)
+                .set("NextAttemptAt").to(Timestamp.ofTimeSecondsAndNanos(nextAttemptAt.getEpochSecond(), nextAttemptAt.getNano()))
+                .set("LockedBy").to((String) null)
+                .set("LockedAt").to((Timestamp) null)
+                .set("LastError").to(error != null && error.length() > maxErrorLength ? error.substring(0, maxErrorLength) : error)
+                .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                .build();
+    }
+
     /**
      * Reclaim stale SENDING records that have been locked for too long.
      * This handles cases where a publisher crashed after claiming records.
@@ -775,7 +1194,7 @@ public class OrderRepository {
      * Returns true if the update was successful, false if order was not in PENDING_PAYMENT status.
      */
     public boolean markPaid(String orderId, Instant paidAt) {
-        return txRunner.runReadWrite(tx -> {
+        boolean paid = txRunner.runReadWrite(tx -> {
             Struct row = tx.readRow("Orders", Key.of(orderId),
                     List.of("Status", "StatusVersion"));
             if (row == null) {
@@ -800,6 +1219,10 @@ public class OrderRepository {
             tx.buffer(update);
             return true;
         });
+        if (paid) {
+            notifyOrderChanged(orderId);
+        }
+        return paid;
     }
 
     /**
@@ -839,8 +1262,10 @@ public class OrderRepository {
 
     private Mutation buildOutboxInsert(String outboxId, String eventType, String aggregateId, String payloadJson, Instant nextAttemptAt) {
         // NextAttemptAt must be NOT NULL
+        nextAttemptAt = nextAttemptAt.plusMillis(outboxHandoffMs);
         return Mutation.newInsertBuilder("OrderOutbox")
                 .set("OutboxId").to(outboxId)
+                .set("ShardId").to((long) outboxShardOf(outboxId))
                 .set("EventType").to(eventType)
                 .set("AggregateId").to(aggregateId)
                 .set("PayloadJson").to(payloadJson)
@@ -862,5 +1287,8 @@ public class OrderRepository {
             throw new IllegalStateException("Failed to serialize outbox payload", e);
         }
     }
-}
 
+    public interface OrderChangeListener {
+        void onOrderChanged(String orderId);
+    }
+}
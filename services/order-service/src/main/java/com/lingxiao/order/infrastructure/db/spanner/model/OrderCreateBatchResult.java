@@ -0,0 +1,9 @@
+package com.lingxiao.order.infrastructure.db.spanner.model;
+
+import java.util.List;
+
+/**
+ * @param timeouts 以 PENDING_PAYMENT 建出的订单，需要调度超时
+ */
+public record OrderCreateBatchResult(List<String> createdOrderIds, List<OrderExpiry> timeouts, int duplicate) {
+}
@@ -0,0 +1,6 @@
+package com.lingxiao.order.infrastructure.db.spanner.model;
+
+import java.time.Instant;
+
+public record OrderExpiry(String orderId, Instant expireAt) {
+}
@@ -0,0 +1,9 @@
+package com.lingxiao.order.infrastructure.db.spanner.model;
+
+/**
+ * Result of completing a pipelined outbox batch.
+ *
+ * @param skipped records no longer SENDING or locked by another publisher
+ */
+public record OutboxBatchOutcome(int sent, int retried, int dead, int skipped) {
+}
@@ -0,0 +1,16 @@
+package com.lingxiao.order.infrastructure.db.spanner.model;
+
+import com.google.cloud.Timestamp;
+
+/**
+ * Position of the outbox tailer within one shard: rows strictly after (createdAt, outboxId).
+ */
+public record OutboxCursor(Timestamp createdAt, String outboxId) {
+
+    // Greater than any UUID outbox id, so a cursor at a read timestamp skips every row committed at it.
+    public static final String AFTER_ALL_IDS = "\uFFFF";
+
+    public static OutboxCursor endOf(Timestamp readTimestamp) {
+        return new OutboxCursor(readTimestamp, AFTER_ALL_IDS);
+    }
+}
@@ -0,0 +1,12 @@
+package com.lingxiao.order.infrastructure.db.spanner.model;
+
+import com.google.cloud.Timestamp;
+
+import java.util.List;
+
+/**
+ * @param records       NEW rows after the cursor, ordered by (CreatedAt, OutboxId)
+ * @param next          cursor to resume from once these records are handled
+ */
+public record OutboxTailBatch(List<OrderOutboxRecord> records, OutboxCursor next) {
+}
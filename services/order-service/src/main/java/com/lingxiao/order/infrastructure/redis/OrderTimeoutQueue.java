@@ -1,14 +1,44 @@
 package com.lingxiao.order.infrastructure.redis;
 
+import com.lingxiao.common.redis.ShardLeaseRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.RedisOperations;
+import org.springframework.data.redis.core.SessionCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
+/**
+ * 订单超时队列。按 orderId 分片，每个分片的 ready/processing/owners/attempts 带同一个 hash tag
+ * （order:timeout:{07}:ready ...），claim/ack/reclaim Lua 只在单个 slot 上执行，不同分片互不阻塞。
+ *
+ * claimDue / reclaim 先用一次 pipeline 的 ZCOUNT 找出有到期任务的分片，只对这些分片跑 Lua，空闲分片不花 round trip。
+ * claimDue 每次从下一个分片开始轮转（起点随机，多实例自然错开），先按 limit/非空分片数 的配额取一轮，
+ * 再用剩余额度补取上一轮取满的分片，保证积压多的分片不会饿死其它分片。
+ * shards=0 时退回旧的单 key 布局（order:timeout:ready 等）。
+ *
+ * 分片数写在 Redis（order:timeout:shards）里固定下来：orderId 按 floorMod(hash, shards) 落分片，改分片数会让
+ * ack/reschedule 找错分片，所以启动时与已记录的值不一致直接失败（唯一允许的变更是 0 → N）。
+ * 要改分片数需先停写、排空队列并删除该 key。
+ * 分片模式下旧布局里残留的任务由 migrateLegacy 搬到各分片，滚动发布期间旧实例写入的任务也会被搬走；
+ * 旧布局排空后记一个标记（order:timeout:legacy-drained），之后各实例不再读旧 key。
+ *
+ * 内存时间轮（OrderTimeoutWheelScheduler）通过 ReadyListener 得知进入 ready 的任务，
+ * 用 leaseRegistry 划分各实例负责的分片，到点后用 claimIds 精确 claim。
+ */
 @Component
 public class OrderTimeoutQueue {
 
@@ -17,42 +47,155 @@ public class OrderTimeoutQueue {
     private final DefaultRedisScript<Long> ackScript;
     private final DefaultRedisScript<List<String>> reclaimScript;
     private final DefaultRedisScript<Long> rescheduleScript;
+    private final DefaultRedisScript<List<String>> claimIdsScript;
 
-    private final String readyKey = "order:timeout:ready";
-    private final String processingKey = "order:timeout:processing";
-    private final String ownersKey = "order:timeout:owners";
-    private final String attemptsKey = "order:timeout:attempts";
+    private final List<Shard> shards;
+    private final String membersKey;
+    private final String legacyDrainedKey;
+    // 非空表示分片模式下需要排空的旧单 key 布局
+    private final Shard legacy;
+    private final AtomicInteger cursor;
+    private volatile boolean legacyDrained;
+    private volatile ReadyListener readyListener;
 
-    public OrderTimeoutQueue(StringRedisTemplate redisTemplate) {
+    public OrderTimeoutQueue(StringRedisTemplate redisTemplate,
+                             @Value("${order.timeout.key-prefix:order:timeout:}") String keyPrefix,
+                             @Value("${order.timeout.shards:0}") int shardCount) {
         this.redisTemplate = redisTemplate;
         this.claimScript = loadListScript("lua/order_claim.lua");
         this.ackScript = loadLongScript("lua/order_ack.lua");
         this.reclaimScript = loadListScript("lua/order_reclaim.lua");
         this.rescheduleScript = loadLongScript("lua/order_reschedule.lua");
+        this.claimIdsScript = loadListScript("lua/order_claim_ids.lua");
+        this.membersKey = keyPrefix + "members";
+        this.legacyDrainedKey = keyPrefix + "legacy-drained";
+
+        Shard legacyLayout = new Shard(keyPrefix);
+        if (shardCount <= 0) {
+            this.shards = List.of(legacyLayout);
+            this.legacy = null;
+        } else {
+            List<Shard> list = new ArrayList<>(shardCount);
+            for (int i = 0; i < shardCount; i++) {
+                list.add(new Shard(keyPrefix + "{" + String.format("%02d", i) + "}:"));
+            }
+            this.shards = List.copyOf(list);
+            this.legacy = legacyLayout;
+        }
+        this.cursor = new AtomicInteger(ThreadLocalRandom.current().nextInt(this.shards.size()));
+        pinShardCount(keyPrefix + "shards", Math.max(0, shardCount));
+    }
+
+    /**
+     * 首次启动记录分片数；之后配置与记录不一致时拒绝启动，而不是静默地把已入队的任务路由到别的分片。
+     */
+    private void pinShardCount(String key, int shardCount) {
+        String configured = Integer.toString(shardCount);
+        String stored = redisTemplate.opsForValue().get(key);
+        if (stored == null) {
+            redisTemplate.opsForValue().setIfAbsent(key, configured);
+        } else if ("0".equals(stored) && shardCount > 0) {
+            // 0 -> N 是支持的升级路径，旧布局由 migrateLegacy 排空
+            redisTemplate.opsForValue().set(key, configured);
+        }
+        stored = redisTemplate.opsForValue().get(key);
+        if (!configured.equals(stored)) {
+            throw new IllegalStateException("order.timeout.shards=" + shardCount + " but queue " + key
+                    + " was created with " + stored + " shards; drain the queue and delete " + key + " before resharding");
+        }
+    }
+
+    public int shardCount() {
+        return shards.size();
+    }
+
+    public int shardIndexOf(String orderId) {
+        return Math.floorMod(orderId.hashCode(), shards.size());
+    }
+
+    public void setReadyListener(ReadyListener readyListener) {
+        this.readyListener = readyListener;
     }
 
     public void schedule(String orderId, Instant expireAt) {
         long score = expireAt.toEpochMilli();
-        redisTemplate.opsForZSet().add(readyKey, orderId, score);
+        redisTemplate.opsForZSet().add(shardOf(orderId).ready, orderId, score);
+        notifyReady(orderId, expireAt);
+    }
+
+    /**
+     * 批量 ZADD NX，一次 pipeline：已在 ready 中的任务保持原分数，返回新加入的个数。供兜底扫描重复入队时使用。
+     */
+    public int scheduleAllIfAbsent(List<ScheduledTimeout> timeouts) {
+        if (timeouts.isEmpty()) {
+            return 0;
+        }
+        List<Object> raw = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (ScheduledTimeout t : timeouts) {
+                    ops.opsForZSet().addIfAbsent(shardOf(t.orderId()).ready, t.orderId(), t.at().toEpochMilli());
+                }
+                return null;
+            }
+        });
+        int added = 0;
+        for (int i = 0; i < timeouts.size(); i++) {
+            Object v = raw == null || i >= raw.size() ? null : raw.get(i);
+            if (Boolean.TRUE.equals(v)) {
+                ScheduledTimeout t = timeouts.get(i);
+                notifyReady(t.orderId(), t.at());
+                added++;
+            }
+        }
+        return added;
     }
 
     public ClaimResult claimDue(int limit) {
         String token = UUID.randomUUID().toString();
         long now = Instant.now().toEpochMilli();
-        List<String> res = redisTemplate.execute(claimScript,
-                List.of(readyKey, processingKey, ownersKey),
-                String.valueOf(now),
-                String.valueOf(limit),
-                token);
-        if (res == null || res.isEmpty()) {
+        int n = shards.size();
+        int start = Math.floorMod(cursor.getAndIncrement(), n);
+        List<Long> due = countByScore(shard -> shard.ready, now);
+        List<Shard> busy = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            int index = (start + i) % n;
+            if (due.get(index) > 0) {
+                busy.add(shards.get(index));
+            }
+        }
+        if (busy.isEmpty()) {
             return new ClaimResult(token, List.of());
         }
-        return new ClaimResult(token, res);
+        int quota = Math.max(1, (limit + busy.size() - 1) / busy.size());
+
+        List<String> claimed = new ArrayList<>();
+        List<Shard> saturated = new ArrayList<>();
+        for (Shard shard : busy) {
+            if (claimed.size() >= limit) {
+                break;
+            }
+            List<String> res = claim(shard, now, Math.min(quota, limit - claimed.size()), token);
+            claimed.addAll(res);
+            if (res.size() == quota) {
+                saturated.add(shard);
+            }
+        }
+        for (Shard shard : saturated) {
+            if (claimed.size() >= limit) {
+                break;
+            }
+            claimed.addAll(claim(shard, now, limit - claimed.size(), token));
+        }
+        return new ClaimResult(token, claimed.isEmpty() ? List.of() : claimed);
     }
 
     public boolean ack(String orderId, String token) {
+        Shard shard = shardOf(orderId);
         Long res = redisTemplate.execute(ackScript,
-                List.of(processingKey, ownersKey),
+                List.of(shard.processing, shard.owners),
                 orderId, token);
         boolean ok = Long.valueOf(1L).equals(res);
         if (ok) {
@@ -61,14 +204,32 @@ public class OrderTimeoutQueue {
         return ok;
     }
 
+    /**
+     * 逐个有超时任务的分片回收，每个分片最多 limit 个。
+     */
     public List<String> reclaim(long staleMs, int limit) {
         long now = Instant.now().toEpochMilli();
-        List<String> res = redisTemplate.execute(reclaimScript,
-                List.of(readyKey, processingKey, ownersKey),
-                String.valueOf(now),
-                String.valueOf(staleMs),
-                String.valueOf(limit));
-        return res == null ? List.of() : res;
+        List<String> reclaimed = new ArrayList<>();
+        List<Long> stale = countByScore(shard -> shard.processing, now - staleMs);
+        for (int i = 0; i < shards.size(); i++) {
+            if (stale.get(i) == 0) {
+                continue;
+            }
+            Shard shard = shards.get(i);
+            List<String> res = redisTemplate.execute(reclaimScript,
+                    List.of(shard.ready, shard.processing, shard.owners),
+                    String.valueOf(now),
+                    String.valueOf(staleMs),
+                    String.valueOf(limit));
+            if (res != null) {
+                reclaimed.addAll(res);
+            }
+        }
+        Instant at = Instant.ofEpochMilli(now);
+        for (String orderId : reclaimed) {
+            notifyReady(orderId, at);
+        }
+        return reclaimed;
     }
 
     /**
@@ -77,18 +238,172 @@ public class OrderTimeoutQueue {
      */
     public boolean reschedule(String orderId, String token, Instant at) {
         long score = at.toEpochMilli();
+        Shard shard = shardOf(orderId);
         Long res = redisTemplate.execute(rescheduleScript,
-                List.of(processingKey, ownersKey, readyKey),
+                List.of(shard.processing, shard.owners, shard.ready),
                 orderId, token, Long.toString(score));
-        return Long.valueOf(1L).equals(res);
+        boolean ok = Long.valueOf(1L).equals(res);
+        if (ok) {
+            notifyReady(orderId, at);
+        }
+        return ok;
+    }
+
+    /**
+     * 只 claim 给定的、仍在该分片 ready 中且已到期的 id；已被别的实例 claim 或被 reschedule 到以后的会被跳过。
+     */
+    public ClaimResult claimIds(int shardIndex, Collection<String> orderIds) {
+        String token = UUID.randomUUID().toString();
+        Shard shard = shards.get(shardIndex);
+        List<String> args = new ArrayList<>(orderIds.size() + 2);
+        args.add(String.valueOf(Instant.now().toEpochMilli()));
+        args.add(token);
+        args.addAll(orderIds);
+        List<String> res = redisTemplate.execute(claimIdsScript,
+                List.of(shard.ready, shard.processing, shard.owners),
+                args.toArray());
+        return new ClaimResult(token, res == null ? List.of() : res);
+    }
+
+    /**
+     * 分片 ready 中 score <= until 的任务（不 claim），供时间轮预加载。
+     */
+    public List<ScheduledTimeout> peekReady(int shardIndex, Instant until, int limit) {
+        Set<ZSetOperations.TypedTuple<String>> tuples = redisTemplate.opsForZSet()
+                .rangeByScoreWithScores(shards.get(shardIndex).ready, Double.NEGATIVE_INFINITY, until.toEpochMilli(), 0, limit);
+        if (tuples == null) {
+            return List.of();
+        }
+        List<ScheduledTimeout> out = new ArrayList<>(tuples.size());
+        for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+            if (tuple.getValue() != null && tuple.getScore() != null) {
+                out.add(new ScheduledTimeout(tuple.getValue(), Instant.ofEpochMilli(tuple.getScore().longValue())));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 按分片划分时间轮职责用的租约；lease key 与分片同一 hash tag。
+     */
+    public ShardLeaseRegistry leaseRegistry(Duration ttl) {
+        return new ShardLeaseRegistry(redisTemplate, shards.stream().map(shard -> shard.lease).toList(), membersKey, ttl);
     }
 
     public long incrementAttempt(String orderId) {
-        return redisTemplate.opsForHash().increment(attemptsKey, orderId, 1L);
+        return redisTemplate.opsForHash().increment(shardOf(orderId).attempts, orderId, 1L);
     }
 
     public void clearAttempts(String orderId) {
-        redisTemplate.opsForHash().delete(attemptsKey, orderId);
+        redisTemplate.opsForHash().delete(shardOf(orderId).attempts, orderId);
+    }
+
+    /**
+     * 把旧单 key 布局中的任务搬到各分片：ready 保留原 score；processing 只搬超过 staleMs 的（与 reclaim 相同，
+     * 避免和仍在处理它的旧实例重复执行），按 now 放回 ready；attempts 计数随任务一起搬。
+     * 先写分片再删旧 key，中途失败最多导致同一订单被处理两次，cancelIfPending 本身幂等。
+     * 旧布局 ready/processing 都为空时写 legacy-drained 标记，之后（包括新启动的实例）直接返回，不再读旧 key；
+     * 标记之后仍在跑旧版本的实例写进旧布局的任务由 OrdersByExpire 兜底扫描补回。
+     *
+     * @return 本次搬动的任务数；非分片模式或已排空时恒为 0
+     */
+    public int migrateLegacy(long staleMs, int limit) {
+        if (legacy == null || legacyDrained) {
+            return 0;
+        }
+        if (Boolean.TRUE.equals(redisTemplate.hasKey(legacyDrainedKey))) {
+            legacyDrained = true;
+            return 0;
+        }
+        long now = Instant.now().toEpochMilli();
+        int moved = 0;
+
+        Set<ZSetOperations.TypedTuple<String>> ready = redisTemplate.opsForZSet()
+                .rangeWithScores(legacy.ready, 0, limit - 1L);
+        if (ready != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : ready) {
+                if (tuple.getValue() == null || tuple.getScore() == null) {
+                    continue;
+                }
+                moveLegacy(tuple.getValue(), tuple.getScore());
+                redisTemplate.opsForZSet().remove(legacy.ready, tuple.getValue());
+                moved++;
+            }
+        }
+
+        Set<String> stale = redisTemplate.opsForZSet()
+                .rangeByScore(legacy.processing, Double.NEGATIVE_INFINITY, now - staleMs, 0, limit);
+        if (stale != null) {
+            for (String orderId : stale) {
+                moveLegacy(orderId, now);
+                redisTemplate.opsForZSet().remove(legacy.processing, orderId);
+                redisTemplate.opsForHash().delete(legacy.owners, orderId);
+                moved++;
+            }
+        }
+        if (moved == 0 && isEmpty(legacy.ready) && isEmpty(legacy.processing)) {
+            redisTemplate.opsForValue().set(legacyDrainedKey, Instant.now().toString());
+            legacyDrained = true;
+        }
+        return moved;
+    }
+
+    private boolean isEmpty(String zsetKey) {
+        Long size = redisTemplate.opsForZSet().zCard(zsetKey);
+        return size == null || size == 0;
+    }
+
+    /**
+     * 每个分片上 score &lt;= max 的任务数，一次 pipeline。
+     */
+    private List<Long> countByScore(Function<Shard, String> key, long max) {
+        List<Object> raw = redisTemplate.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (Shard shard : shards) {
+                    ops.opsForZSet().count(key.apply(shard), Double.NEGATIVE_INFINITY, max);
+                }
+                return null;
+            }
+        });
+        List<Long> counts = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            Object v = raw == null || i >= raw.size() ? null : raw.get(i);
+            counts.add(v instanceof Number number ? number.longValue() : 0L);
+        }
+        return counts;
+    }
+
+    private void notifyReady(String orderId, Instant at) {
+        ReadyListener listener = readyListener;
+        if (listener != null) {
+            listener.onReady(orderId, at);
+        }
+    }
+
+    private void moveLegacy(String orderId, double score) {
+        Shard target = shardOf(orderId);
+        Object attempts = redisTemplate.opsForHash().get(legacy.attempts, orderId);
+        if (attempts != null) {
+            redisTemplate.opsForHash().put(target.attempts, orderId, attempts.toString());
+            redisTemplate.opsForHash().delete(legacy.attempts, orderId);
+        }
+        redisTemplate.opsForZSet().add(target.ready, orderId, score);
+    }
+
+    private List<String> claim(Shard shard, long now, int limit, String token) {
+        List<String> res = redisTemplate.execute(claimScript,
+                List.of(shard.ready, shard.processing, shard.owners),
+                String.valueOf(now),
+                String.valueOf(limit),
+                token);
+        return res == null ? List.of() : res;
+    }
+
+    private Shard shardOf(String orderId) {
+        return shards.get(shardIndexOf(orderId));
     }
 
     @SuppressWarnings("unchecked")
@@ -106,7 +421,28 @@ public class OrderTimeoutQueue {
         return script;
     }
 
+    private static final class Shard {
+        final String ready;
+        final String processing;
+        final String owners;
+        final String attempts;
+        final String lease;
+
+        Shard(String prefix) {
+            this.lease = prefix + "lease";
+            this.ready = prefix + "ready";
+            this.processing = prefix + "processing";
+            this.owners = prefix + "owners";
+            this.attempts = prefix + "attempts";
+        }
+    }
+
     public record ClaimResult(String token, List<String> orderIds) {}
-}
 
+    public record ScheduledTimeout(String orderId, Instant at) {}
 
+    @FunctionalInterface
+    public interface ReadyListener {
+        void onReady(String orderId, Instant at);
+    }
+}
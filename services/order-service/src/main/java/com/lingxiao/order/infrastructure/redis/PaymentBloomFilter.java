@@ -0,0 +1,172 @@
+package com.lingxiao.order.infrastructure.redis;
+
+import com.lingxiao.common.redis.RedisBloom;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * payment marker 布隆过滤器的本地镜像：超时处理前先查它，确定未支付的订单不再读 Redis marker。
+ *
+ * - payment-service 的 payment_marker.lua 在写 marker 的同时对 fs:pay:{activityId:shard}:bloom:{bits}:{hashes} 做 SETBIT，
+ *   这里按 refresh-interval-ms 把见过的 bitmap 和它的 meta 整个 GET 回本地，超过 idle-evict 没再用到的丢弃。
+ * - 只有本地副本足够新（max-staleness 内加载）时才给出 ABSENT：支付只接受 expireAt 之前的订单，
+ *   超时任务在 expireAt + grace-period-ms 之后才执行，max-staleness 小于 grace-period-ms 时副本一定包含这些支付。
+ * - 同时要求 meta 证明 bitmap 覆盖了所有还能读到的 marker（参数一致且建立满一个 marker-ttl，见 RedisBloom.Meta），
+ *   所以 payment-service 晚于这里开启、bitmap 过期重建、两边 bits/hashes 配置不一致都不会误判成未支付。
+ * - 还没加载过、副本过旧、bitmap 或 meta 不存在、meta 不满足、orderId 不是秒杀格式时返回 UNKNOWN，调用方照旧读 marker。
+ */
+@Component
+@ConditionalOnProperty(prefix = "order.timeout.payment-bloom", name = "enabled", havingValue = "true")
+public class PaymentBloomFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(PaymentBloomFilter.class);
+
+    public enum Verdict {
+        ABSENT,
+        MAYBE,
+        UNKNOWN
+    }
+
+    private final StringRedisTemplate redisTemplate;
+    private final PaymentMarkerRepository markerRepository;
+    private final long bits;
+    private final int hashes;
+    private final long maxStalenessNanos;
+    private final long idleEvictNanos;
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final Counter negatives;
+    private final Counter positiveHits;
+    private final Counter falsePositives;
+    private final Counter bypasses;
+    private volatile double estimatedFpp;
+
+    public PaymentBloomFilter(StringRedisTemplate redisTemplate,
+                              PaymentMarkerRepository markerRepository,
+                              MeterRegistry registry,
+                              @Value("${order.timeout.payment-bloom.bits:" + RedisBloom.DEFAULT_BITS + "}") long bits,
+                              @Value("${order.timeout.payment-bloom.hashes:" + RedisBloom.DEFAULT_HASHES + "}") int hashes,
+                              @Value("${order.timeout.payment-bloom.max-staleness:PT30S}") Duration maxStaleness,
+                              @Value("${order.timeout.payment-bloom.idle-evict:PT10M}") Duration idleEvict) {
+        this.redisTemplate = redisTemplate;
+        this.markerRepository = markerRepository;
+        this.bits = bits;
+        this.hashes = hashes;
+        this.maxStalenessNanos = maxStaleness.toNanos();
+        this.idleEvictNanos = idleEvict.toNanos();
+        this.negatives = registry.counter("order.timeout.payment_bloom", "result", "negative");
+        this.positiveHits = registry.counter("order.timeout.payment_bloom", "result", "positive_hit");
+        this.falsePositives = registry.counter("order.timeout.payment_bloom", "result", "false_positive");
+        this.bypasses = registry.counter("order.timeout.payment_bloom", "result", "bypass");
+        Gauge.builder("order.timeout.payment_bloom.estimated_fpp", this, f -> f.estimatedFpp).register(registry);
+        Gauge.builder("order.timeout.payment_bloom.filters", snapshots, Map::size).register(registry);
+    }
+
+    public Verdict check(String orderId) {
+        String key;
+        try {
+            key = markerRepository.bloomKeyOf(orderId, bits, hashes);
+        } catch (IllegalArgumentException e) {
+            bypasses.increment();
+            return Verdict.UNKNOWN;
+        }
+        long now = System.nanoTime();
+        Snapshot snapshot = snapshots.computeIfAbsent(key, k -> new Snapshot());
+        snapshot.lastUsedNanos = now;
+        Loaded loaded = snapshot.loaded;
+        if (loaded == null || now - loaded.atNanos() > maxStalenessNanos
+                || loaded.bitmap() == null || !loaded.covered()) {
+            bypasses.increment();
+            return Verdict.UNKNOWN;
+        }
+        if (!RedisBloom.mightContain(loaded.bitmap(), RedisBloom.offsets(orderId, bits, hashes))) {
+            negatives.increment();
+            return Verdict.ABSENT;
+        }
+        return Verdict.MAYBE;
+    }
+
+    /**
+     * MAYBE 之后读 marker 的结果：没有 marker 就是一次误判。
+     */
+    public void recordMarkerRead(Verdict verdict, boolean markerPresent) {
+        if (verdict != Verdict.MAYBE) {
+            return;
+        }
+        if (markerPresent) {
+            positiveHits.increment();
+        } else {
+            falsePositives.increment();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${order.timeout.payment-bloom.refresh-interval-ms:5000}")
+    public void refresh() {
+        long now = System.nanoTime();
+        snapshots.entrySet().removeIf(e -> now - e.getValue().lastUsedNanos > idleEvictNanos);
+        List<String> keys = new ArrayList<>(snapshots.keySet());
+        if (keys.isEmpty()) {
+            estimatedFpp = 0;
+            return;
+        }
+        try {
+            // 发请求之前取时间，副本的新鲜度按保守的一侧算
+            long loadedAt = System.nanoTime();
+            long nowMillis = System.currentTimeMillis();
+            List<Object> values = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String key : keys) {
+                    connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8));
+                    connection.stringCommands().get(RedisBloom.metaKey(key).getBytes(StandardCharsets.UTF_8));
+                }
+                return null;
+            }, RedisSerializer.byteArray());
+            double worst = 0;
+            for (int i = 0; i < keys.size(); i++) {
+                Snapshot snapshot = snapshots.get(keys.get(i));
+                if (snapshot == null) {
+                    continue;
+                }
+                // key 不存在可能是还没有支付，也可能是 payment-service 没开布隆或参数不同，一律不下结论
+                byte[] bitmap = values.get(2 * i) instanceof byte[] b ? b : null;
+                RedisBloom.Meta meta = values.get(2 * i + 1) instanceof byte[] m
+                        ? RedisBloom.Meta.parse(new String(m, StandardCharsets.UTF_8)) : null;
+                boolean covered = meta != null && meta.covers(bits, hashes, nowMillis);
+                snapshot.loaded = new Loaded(bitmap, covered, loadedAt);
+                if (bitmap != null) {
+                    worst = Math.max(worst, RedisBloom.estimatedFpp(bitmap, bits, hashes));
+                }
+            }
+            estimatedFpp = worst;
+        } catch (Exception e) {
+            // 保留旧副本，超过 max-staleness 后自动退化为读 marker
+            log.warn("Refresh payment bloom filters failed count={}", keys.size(), e);
+        }
+    }
+
+    private static final class Snapshot {
+        volatile Loaded loaded;
+        volatile long lastUsedNanos = System.nanoTime();
+    }
+
+    /**
+     * @param bitmap  null 表示 key 不存在
+     * @param covered meta 存在且证明 bitmap 覆盖了所有还能读到的 marker
+     */
+    private record Loaded(byte[] bitmap, boolean covered, long atNanos) {}
+}
@@ -1,5 +1,6 @@
 package com.lingxiao.order.infrastructure.redis;
 
+import com.lingxiao.common.redis.RedisBloom;
 import com.lingxiao.contracts.events.PaymentSucceededEvent;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -66,6 +67,15 @@ public class PaymentMarkerRepository {
         return new PaymentMarker(orderId, paymentId, amountCents, currency, paidAt);
     }
 
+    /**
+     * payment-service 开启 payment.marker-bloom 后维护的布隆 bitmap，和 marker 同一个 hash tag；
+     * key 带 bits/hashes，参数和 payment-service 不一致时这个 key 不存在。
+     */
+    String bloomKeyOf(String orderId, long bits, int hashes) {
+        OrderIdParts parts = OrderIdParts.parse(orderId);
+        return markerPrefix + "{" + parts.activityId + ":" + parts.shardId + "}" + RedisBloom.keySuffix(bits, hashes);
+    }
+
     public record PaymentMarker(String orderId, String paymentId, long amountCents, String currency, Instant paidAt) {
         public PaymentSucceededEvent toEvent(String eventId) {
             return new PaymentSucceededEvent(
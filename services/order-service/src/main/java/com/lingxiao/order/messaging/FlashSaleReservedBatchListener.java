@@ -0,0 +1,107 @@
+package com.lingxiao.order.messaging;
+
+import com.lingxiao.contracts.Topics;
+import com.lingxiao.contracts.events.FlashSaleReservedEventV2;
+import com.lingxiao.order.application.OrderTimeoutScheduler;
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderCreateBatchResult;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.kafka.annotation.KafkaListener;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 批量模式：一次 poll 的 FlashSaleReservedEventV2 按 tx-batch-size 切成几块，每块一个 Spanner 读写事务
+ * （OrderIdempotency / PendingPayments 各一次多 key 读，Orders / OrderItems / 超时 outbox 一次提交），块之间并行。
+ * 超时直接调度开启时，提交后由 OrderTimeoutScheduler 把新订单的超时写进队列。
+ *
+ * 幂等不再走逐条 @Idempotent 的 Redis 往返：以 OrderIdempotency 行为准，在同一事务内判定，整批重投也不会重复建单。
+ * 某一块事务失败（冲突、脏数据等）时退回逐条 createFromFlashSaleEvent；逐条仍失败就抛出，由容器整批重试。
+ */
+@Component
+@ConditionalOnProperty(prefix = "order.flashsale.consumer", name = "batch-enabled", havingValue = "true")
+public class FlashSaleReservedBatchListener {
+
+    private static final Logger log = LoggerFactory.getLogger(FlashSaleReservedBatchListener.class);
+
+    private final OrderRepository repository;
+    private final OrderTimeoutScheduler timeoutScheduler;
+    private final int txBatchSize;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public FlashSaleReservedBatchListener(OrderRepository repository,
+                                          OrderTimeoutScheduler timeoutScheduler,
+                                          @Value("${order.flashsale.consumer.tx-batch-size:250}") int txBatchSize) {
+        this.repository = repository;
+        this.timeoutScheduler = timeoutScheduler;
+        this.txBatchSize = Math.max(1, txBatchSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    @KafkaListener(topics = Topics.FLASH_SALE_RESERVED_V2, containerFactory = "flashSaleBatchListenerContainerFactory")
+    public void onBatch(List<FlashSaleReservedEventV2> events) {
+        List<FlashSaleReservedEventV2> valid = new ArrayList<>(events.size());
+        for (FlashSaleReservedEventV2 event : events) {
+            if (event == null || event.eventId() == null || event.orderId() == null || event.userId() == null) {
+                log.warn("Skip malformed FlashSaleReservedEventV2 in batch: {}", event);
+                continue;
+            }
+            valid.add(event);
+        }
+
+        List<CompletableFuture<int[]>> futures = new ArrayList<>();
+        for (int from = 0; from < valid.size(); from += txBatchSize) {
+            List<FlashSaleReservedEventV2> chunk = valid.subList(from, Math.min(valid.size(), from + txBatchSize));
+            futures.add(CompletableFuture.supplyAsync(() -> createChunk(chunk), executor));
+        }
+        int created = 0;
+        int duplicate = 0;
+        int fallback = 0;
+        try {
+            for (CompletableFuture<int[]> f : futures) {
+                int[] r = f.join();
+                created += r[0];
+                duplicate += r[1];
+                fallback += r[2];
+            }
+        } catch (CompletionException e) {
+            log.warn("FlashSaleReservedBatchListener failed size={}", valid.size(), e.getCause());
+            // 整批交给容器重试，已建的单在重试时按 OrderIdempotency 跳过
+            throw e.getCause() instanceof RuntimeException re ? re : e;
+        }
+        log.info("Created orders from FlashSaleReservedEventV2 batch size={} created={} duplicate={} fallback={}",
+                valid.size(), created, duplicate, fallback);
+    }
+
+    /**
+     * @return {created, duplicate, fallback}
+     */
+    private int[] createChunk(List<FlashSaleReservedEventV2> chunk) {
+        try {
+            OrderCreateBatchResult result = repository.createFromFlashSaleEvents(chunk);
+            timeoutScheduler.scheduleCreated(result.timeouts());
+            return new int[]{result.createdOrderIds().size(), result.duplicate(), 0};
+        } catch (Exception e) {
+            log.warn("Batch order creation failed, falling back to per-record size={}", chunk.size(), e);
+        }
+        for (FlashSaleReservedEventV2 event : chunk) {
+            repository.createFromFlashSaleEvent(event)
+                    .ifPresent(timeout -> timeoutScheduler.scheduleCreated(List.of(timeout)));
+        }
+        return new int[]{0, 0, chunk.size()};
+    }
+}
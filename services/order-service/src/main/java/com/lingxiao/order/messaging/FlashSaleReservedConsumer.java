@@ -8,10 +8,12 @@ import com.lingxiao.common.idempotency.ProcessingAction;
 import com.lingxiao.order.application.OrderAppService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.annotation.KafkaListener;
 import org.springframework.stereotype.Component;
 
 @Component
+@ConditionalOnProperty(prefix = "order.flashsale.consumer", name = "batch-enabled", havingValue = "false", matchIfMissing = true)
 public class FlashSaleReservedConsumer {
 
     private static final Logger log = LoggerFactory.getLogger(FlashSaleReservedConsumer.class);
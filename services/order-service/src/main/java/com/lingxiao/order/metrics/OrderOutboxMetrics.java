@@ -0,0 +1,55 @@
+package com.lingxiao.order.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * OrderOutbox 发布指标，mode 区分 sequential / pipelined 轮询和 tailer。
+ * 吞吐看 order.outbox.records 的 rate，单批耗时看 order.outbox.batch.latency。
+ * 保留期清理的 order.outbox.retention.purged / order.outbox.rows 由 OrderOutboxRetention 的 RetentionPurger 发布。
+ */
+@Component
+public class OrderOutboxMetrics {
+
+    private final MeterRegistry registry;
+    private final Map<String, Timer> batchLatency = new ConcurrentHashMap<>();
+    private final Map<String, DistributionSummary> batchSize = new ConcurrentHashMap<>();
+    private final Map<String, Counter> records = new ConcurrentHashMap<>();
+
+    public OrderOutboxMetrics(MeterRegistry registry) {
+        this.registry = registry;
+    }
+
+    public void recordBatch(String mode, int size, long nanos) {
+        batchLatency.computeIfAbsent(mode, m -> Timer.builder("order.outbox.batch.latency")
+                        .tag("mode", m)
+                        .publishPercentiles(0.5, 0.99)
+                        .register(registry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+        batchSize.computeIfAbsent(mode, m -> DistributionSummary.builder("order.outbox.batch.size")
+                        .tag("mode", m)
+                        .register(registry))
+                .record(size);
+    }
+
+    /**
+     * @param result sent / retry / dead / skipped
+     */
+    public void incRecords(String mode, String result, long count) {
+        if (count <= 0) {
+            return;
+        }
+        records.computeIfAbsent(mode + "|" + result, k -> Counter.builder("order.outbox.records")
+                        .tag("mode", mode)
+                        .tag("result", result)
+                        .register(registry))
+                .increment(count);
+    }
+}
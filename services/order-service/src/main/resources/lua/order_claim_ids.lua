@@ -0,0 +1,28 @@
+-- Claim specific ids (e.g. fired by the in-memory timing wheel) if they are still due in the ready zset.
+-- KEYS[1] = ready zset
+-- KEYS[2] = processing zset
+-- KEYS[3] = owners hash
+-- ARGV[1] = nowMillis
+-- ARGV[2] = token
+-- ARGV[3..] = ids
+
+local ready = KEYS[1]
+local processing = KEYS[2]
+local owners = KEYS[3]
+
+local now = tonumber(ARGV[1])
+local token = ARGV[2]
+
+local claimed = {}
+for i = 3, #ARGV do
+  local id = ARGV[i]
+  local score = redis.call('ZSCORE', ready, id)
+  if score and tonumber(score) <= now then
+    redis.call('ZREM', ready, id)
+    redis.call('ZADD', processing, now, id)
+    redis.call('HSET', owners, id, token)
+    table.insert(claimed, id)
+  end
+end
+
+return claimed
@@ -3,20 +3,30 @@ package com.lingxiao.order.api;
 import com.lingxiao.order.application.OrderNotFoundException;
 import com.lingxiao.order.application.OrderQueryService;
 import com.lingxiao.order.application.OrderSummary;
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Import;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Optional;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
 @WebMvcTest(OrderQueryController.class)
@@ -29,6 +39,12 @@ class OrderQueryControllerTest {
     @Autowired
     private OrderQueryService orderQueryService;
 
+    @Autowired
+    private OrderRepository orderRepository;
+
+    @Autowired
+    private OrderStatusStream orderStatusStream;
+
     @Test
     void returnsOnlyThePublicOrderFields() throws Exception {
         when(orderQueryService.getById("o-1")).thenReturn(new OrderSummary("o-1", "sku-1", "user-1", 2,
@@ -50,11 +66,47 @@ class OrderQueryControllerTest {
                 .andExpect(jsonPath("$.message").value("Order not found: missing"));
     }
 
+    @Test
+    void streamsStatusTransitionsAndClosesOnTerminalStatus() throws Exception {
+        OrderSummary pending = new OrderSummary("o-2", "sku-1", "user-1", 1,
+                "PENDING_PAYMENT", Instant.parse("2026-01-01T00:00:00Z"), Instant.parse("2026-01-01T00:00:00Z"));
+        OrderSummary paid = new OrderSummary("o-2", "sku-1", "user-1", 1,
+                "PAID", Instant.parse("2026-01-01T00:00:00Z"), Instant.parse("2026-01-01T00:00:05Z"));
+        when(orderRepository.findSummary("o-2")).thenReturn(Optional.of(pending), Optional.of(paid));
+
+        MvcResult result = mockMvc.perform(get("/api/v1/orders/o-2/events"))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        // 等首次推送 PENDING_PAYMENT 之后再模拟另一个实例广播的状态变化
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!result.getResponse().getContentAsString().contains("PENDING_PAYMENT") && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        orderStatusStream.onChanged("o-2");
+        result.getAsyncResult(5_000);
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string(containsString("event:status")))
+                .andExpect(content().string(containsString("\"status\":\"PAID\"")));
+    }
+
     @TestConfiguration
     static class MockConfig {
         @Bean
         OrderQueryService orderQueryService() {
             return mock(OrderQueryService.class);
         }
+
+        @Bean
+        OrderRepository orderRepository() {
+            return mock(OrderRepository.class);
+        }
+
+        @Bean
+        OrderStatusStream orderStatusStream(OrderRepository orderRepository) {
+            return new OrderStatusStream(orderRepository, mock(StringRedisTemplate.class),
+                    mock(RedisMessageListenerContainer.class), "order:status:changed", Duration.ofSeconds(30));
+        }
     }
 }
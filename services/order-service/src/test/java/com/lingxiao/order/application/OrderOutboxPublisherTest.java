@@ -0,0 +1,66 @@
+package com.lingxiao.order.application;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderOutboxRecord;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxBatchOutcome;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxStatus;
+import com.lingxiao.order.metrics.OrderOutboxMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderOutboxPublisherTest {
+
+    private final OrderRepository repository = mock(OrderRepository.class);
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, Object> kafkaTemplate = mock(KafkaTemplate.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private static final Instant NOW = Instant.parse("2026-07-15T00:00:00Z");
+
+    private static OrderOutboxRecord record(String id, String aggregateId) {
+        String payload = "{\"orderId\":\"" + aggregateId + "\"}";
+        return new OrderOutboxRecord(id, "ORDER_TIMEOUT_SCHEDULED", aggregateId, payload, OutboxStatus.SENDING, 0,
+                NOW, null, null, null, NOW, NOW);
+    }
+
+    @Test
+    void pipelinedModeSendsWholeBatchAndCompletesItInOneCall() {
+        when(repository.claimOutboxBatch(anyString(), any(), anyInt()))
+                .thenReturn(List.of(record("a", "o-1"), record("b", "o-2"), record("c", "o-3")));
+        doReturn(CompletableFuture.completedFuture(null)).when(kafkaTemplate).send(anyString(), eq("o-1"), any());
+        doReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down")))
+                .when(kafkaTemplate).send(anyString(), eq("o-2"), any());
+        doReturn(CompletableFuture.completedFuture(null)).when(kafkaTemplate).send(anyString(), eq("o-3"), any());
+        when(repository.completeOutboxBatch(anyString(), any(), any(), any(), anyInt(), anyLong(), anyInt()))
+                .thenReturn(new OutboxBatchOutcome(2, 1, 0, 0));
+
+        OrderOutboxPublisher publisher = new OrderOutboxPublisher(repository, kafkaTemplate, new ObjectMapper(),
+                50, 10, 1000, 1000, 1000, 60000, 100, true, new OrderOutboxMetrics(registry));
+        publisher.publishPending();
+
+        verify(repository).completeOutboxBatch(anyString(), eq(List.of("a", "c")), eq(Map.of("b", "broker down")),
+                any(), eq(10), eq(1000L), eq(1000));
+        verify(repository, never()).markSent(anyString(), anyString());
+        assertEquals(2.0, registry.get("order.outbox.records").tags("mode", "pipelined", "result", "sent").counter().count());
+        assertEquals(1L, registry.get("order.outbox.batch.latency").tags("mode", "pipelined").timer().count());
+    }
+}
@@ -0,0 +1,124 @@
+package com.lingxiao.order.application;
+
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderOutboxRecord;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderOutboxRetentionTest {
+
+    private final OrderRepository repository = mock(OrderRepository.class);
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> values = mock(ValueOperations.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private static final Instant NOW = Instant.parse("2026-07-15T00:00:00Z");
+
+    private static OrderOutboxRecord sent(String id) {
+        return new OrderOutboxRecord(id, "ORDER_PAID", "o-1", "{}", OutboxStatus.SENT, 1, NOW, null, null, null, NOW, NOW);
+    }
+
+    private OrderOutboxRetention retention(int batchSize, int maxBatchesPerRun) {
+        return new OrderOutboxRetention(repository, registry, redisTemplate,
+                Duration.ofDays(7), batchSize, 0, maxBatchesPerRun, Duration.ofMinutes(30), false, "/tmp/unused");
+    }
+
+    @Test
+    void purgesEveryShardPlusLegacyRowsUntilBatchesComeBackShort() throws Exception {
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(values.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        when(repository.outboxShards()).thenReturn(2);
+        when(repository.findExpiredSentOutbox(eq(0), any(), eq(2)))
+                .thenReturn(List.of(sent("a"), sent("b")), List.of(sent("c")));
+        when(repository.findExpiredSentOutbox(eq(1), any(), eq(2))).thenReturn(List.of());
+        when(repository.findExpiredSentOutbox(eq(2), any(), eq(2))).thenReturn(List.of(sent("legacy")));
+        when(repository.deleteSentOutbox(any())).thenAnswer(inv -> (long) inv.<List<String>>getArgument(0).size());
+
+        assertEquals(4L, retention(2, 10).submitPurge().get(5, TimeUnit.SECONDS));
+
+        verify(repository).deleteSentOutbox(List.of("a", "b"));
+        verify(repository).deleteSentOutbox(List.of("c"));
+        verify(repository).deleteSentOutbox(List.of("legacy"));
+        assertEquals(4.0, registry.get("order.outbox.retention.purged").counter().count());
+    }
+
+    @Test
+    void skipsTheRunWhenAnotherInstanceHoldsTheLock() throws Exception {
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(values.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+
+        assertEquals(0L, retention(2, 10).submitPurge().get(5, TimeUnit.SECONDS));
+
+        verify(repository, never()).findExpiredSentOutbox(anyInt(), any(), anyInt());
+    }
+
+    @Test
+    void runsOffTheSchedulerThreadAndSkipsTriggersWhileARunIsInFlight() throws Exception {
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(values.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        when(repository.outboxShards()).thenReturn(0);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicReference<Thread> purgeThread = new AtomicReference<>();
+        when(repository.findExpiredSentOutbox(anyInt(), any(), anyInt())).thenAnswer(inv -> {
+            purgeThread.set(Thread.currentThread());
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return List.of();
+        });
+        OrderOutboxRetention retention = retention(2, 10);
+
+        retention.purge();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        retention.purge();
+        assertEquals(0L, retention.submitPurge().get(1, TimeUnit.SECONDS));
+        release.countDown();
+        retention.stop();
+
+        assertNotEquals(Thread.currentThread(), purgeThread.get());
+        verify(values, times(1)).setIfAbsent(anyString(), anyString(), any(Duration.class));
+        verify(repository, times(1)).findExpiredSentOutbox(anyInt(), any(), anyInt());
+    }
+
+    @Test
+    void sampleSizePublishesRowCountsPerStatus() {
+        when(repository.countOutboxByStatus()).thenReturn(Map.of("SENT", 120L, "NEW", 3L))
+                .thenReturn(Map.of("SENT", 80L));
+        OrderOutboxRetention retention = retention(2, 10);
+
+        retention.sampleSize();
+
+        assertEquals(120.0, registry.get("order.outbox.rows").tag("status", "SENT").gauge().value());
+        assertEquals(3.0, registry.get("order.outbox.rows").tag("status", "NEW").gauge().value());
+
+        retention.sampleSize();
+
+        assertEquals(80.0, registry.get("order.outbox.rows").tag("status", "SENT").gauge().value());
+        assertEquals(0.0, registry.get("order.outbox.rows").tag("status", "NEW").gauge().value());
+    }
+}
@@ -0,0 +1,65 @@
+package com.lingxiao.order.application;
+
+import com.google.cloud.Timestamp;
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderOutboxRecord;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxCursor;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxStatus;
+import com.lingxiao.order.infrastructure.db.spanner.model.OutboxTailBatch;
+import com.lingxiao.order.metrics.OrderOutboxMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderOutboxTailerTest {
+
+    private final OrderRepository repository = mock(OrderRepository.class);
+    private final OrderOutboxPublisher publisher = mock(OrderOutboxPublisher.class);
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> values = mock(ValueOperations.class);
+
+    private static final Instant NOW = Instant.parse("2026-07-15T00:00:00Z");
+
+    private static OrderOutboxRecord record(String id) {
+        return new OrderOutboxRecord(id, "ORDER_PAID", "o-1", "{}", OutboxStatus.NEW, 0, NOW, null, null, null, NOW, NOW);
+    }
+
+    @Test
+    void flushMarksSentInOneBatchAndHandsFailuresToThePoller() throws Exception {
+        when(repository.outboxShards()).thenReturn(4);
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        Timestamp readTs = Timestamp.ofTimeSecondsAndNanos(1_800_000_000L, 0);
+        when(repository.tailOutbox(eq(2), any(), any(), anyInt()))
+                .thenReturn(new OutboxTailBatch(List.of(record("a"), record("b"), record("c")), OutboxCursor.endOf(readTs)));
+        doReturn(CompletableFuture.completedFuture(null)).when(publisher).sendAsync(record("a"));
+        doReturn(CompletableFuture.failedFuture(new IllegalStateException("broker down"))).when(publisher).sendAsync(record("b"));
+        doReturn(CompletableFuture.completedFuture(null)).when(publisher).sendAsync(record("c"));
+
+        OrderOutboxTailer tailer = new OrderOutboxTailer(repository, publisher, new OrderOutboxMetrics(new SimpleMeterRegistry()), redisTemplate,
+                500, 50, 20, 1000, Duration.ofMinutes(10), Duration.ofSeconds(15), 1000, 1000);
+
+        assertFalse(tailer.tailShard(2));
+
+        verify(repository).markSentBatch(List.of("a", "c"));
+        verify(repository).deferTailFailures(eq(List.of("b")), anyString(), any(), anyLong(), anyInt());
+        verify(values).set("order:outbox:tail:{02}:cursor", readTs.getSeconds() + "|0|" + OutboxCursor.AFTER_ALL_IDS);
+    }
+}
@@ -14,7 +14,7 @@ import static org.mockito.Mockito.when;
 class OrderQueryServiceTest {
 
     private final OrderRepository repository = mock(OrderRepository.class);
-    private final OrderQueryService service = new OrderQueryService(repository);
+    private final OrderQueryService service = new OrderQueryService(repository, null);
 
     @Test
     void returnsPersistedOrderSummary() {
@@ -0,0 +1,127 @@
+package com.lingxiao.order.application;
+
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import com.lingxiao.order.infrastructure.db.spanner.model.CancelOutcome;
+import com.lingxiao.order.infrastructure.db.spanner.model.CancelResult;
+import com.lingxiao.order.infrastructure.redis.OrderTimeoutQueue;
+import com.lingxiao.order.infrastructure.redis.PaymentBloomFilter;
+import com.lingxiao.order.infrastructure.redis.PaymentMarkerRepository;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderTimeoutProcessorTest {
+
+    private final OrderTimeoutQueue queue = mock(OrderTimeoutQueue.class);
+    private final OrderRepository repository = mock(OrderRepository.class);
+    private final PaymentMarkerRepository markers = mock(PaymentMarkerRepository.class);
+
+    private OrderTimeoutProcessor processor(int concurrency) {
+        return new OrderTimeoutProcessor(queue, repository, markers,
+                50, 30_000, 100, 10, 60_000,
+                concurrency, true, 2000, 1000, 5000, false, 30_000, null);
+    }
+
+    private static List<String> orders(int from, int count) {
+        return IntStream.range(from, from + count).mapToObj(i -> "o-" + i).toList();
+    }
+
+    @Test
+    void concurrentModeKeepsPerOrderAckAndRescheduleSemantics() {
+        Instant later = Instant.now().plusSeconds(60);
+        when(queue.claimDue(anyInt())).thenReturn(
+                new OrderTimeoutQueue.ClaimResult("t1", orders(0, 50)),
+                new OrderTimeoutQueue.ClaimResult("t2", List.of()));
+        when(repository.cancelIfPending(anyString(), any())).thenReturn(new CancelOutcome(CancelResult.CANCELLED, null));
+        when(repository.cancelIfPending(eq("o-7"), any())).thenReturn(new CancelOutcome(CancelResult.NOT_EXPIRED_YET, later));
+        when(repository.cancelIfPending(eq("o-8"), any())).thenReturn(new CancelOutcome(CancelResult.RETRYABLE_FAIL, null));
+        when(queue.incrementAttempt("o-8")).thenReturn(1L);
+        when(queue.reschedule("o-7", "t1", later)).thenReturn(true);
+
+        OrderTimeoutProcessor p = processor(8);
+        try {
+            p.claimAndProcess();
+        } finally {
+            p.shutdown();
+        }
+
+        verify(queue, times(48)).ack(anyString(), eq("t1"));
+        verify(queue).reschedule("o-7", "t1", later);
+        verify(queue, never()).ack(eq("o-7"), anyString());
+        verify(queue, never()).ack(eq("o-8"), anyString());
+    }
+
+    @Test
+    void fullBatchesGrowTheClaimSizeAndDrainWithoutWaitingForTheNextTick() {
+        when(queue.claimDue(anyInt())).thenAnswer(inv -> {
+            int limit = inv.getArgument(0);
+            return new OrderTimeoutQueue.ClaimResult("t", orders(0, limit));
+        }).thenAnswer(inv -> {
+            int limit = inv.getArgument(0);
+            assertTrue(limit > 50, "claim size should adapt upwards, was " + limit);
+            return new OrderTimeoutQueue.ClaimResult("t", orders(1000, 10));
+        });
+        when(repository.cancelIfPending(anyString(), any())).thenReturn(new CancelOutcome(CancelResult.CANCELLED, null));
+
+        OrderTimeoutProcessor p = processor(16);
+        try {
+            p.claimAndProcess();
+        } finally {
+            p.shutdown();
+        }
+
+        verify(queue, times(2)).claimDue(anyInt());
+        verify(queue, times(60)).ack(anyString(), eq("t"));
+    }
+
+    @Test
+    void definiteBloomMissSkipsThePaymentMarkerRead() {
+        PaymentBloomFilter bloom = mock(PaymentBloomFilter.class);
+        when(bloom.check("o-0")).thenReturn(PaymentBloomFilter.Verdict.ABSENT);
+        when(bloom.check("o-1")).thenReturn(PaymentBloomFilter.Verdict.MAYBE);
+        when(repository.cancelIfPending(anyString(), any())).thenReturn(new CancelOutcome(CancelResult.CANCELLED, null));
+
+        OrderTimeoutProcessor p = new OrderTimeoutProcessor(queue, repository, markers,
+                50, 30_000, 100, 10, 60_000,
+                1, false, 2000, 1000, 5000, false, 30_000, bloom);
+        p.processClaimed(new OrderTimeoutQueue.ClaimResult("t", orders(0, 2)));
+
+        verify(markers, never()).get("o-0");
+        verify(markers).get("o-1");
+        verify(bloom).recordMarkerRead(PaymentBloomFilter.Verdict.MAYBE, false);
+        verify(queue, times(2)).ack(anyString(), eq("t"));
+    }
+
+    @Test
+    void asyncClaimRunsOnAWorkerInsteadOfTheCallingThread() throws Exception {
+        CompletableFuture<String> claimedOn = new CompletableFuture<>();
+        when(repository.cancelIfPending(anyString(), any())).thenReturn(new CancelOutcome(CancelResult.CANCELLED, null));
+        when(queue.ack("o-0", "t")).thenAnswer(inv -> {
+            claimedOn.complete(Thread.currentThread().getName());
+            return true;
+        });
+
+        OrderTimeoutProcessor p = processor(8);
+        try {
+            p.processClaimedAsync(() -> new OrderTimeoutQueue.ClaimResult("t", orders(0, 1)));
+            assertTrue(claimedOn.get(5, TimeUnit.SECONDS).startsWith("order-timeout-"));
+        } finally {
+            p.shutdown();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.lingxiao.order.application;
+
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderExpiry;
+import com.lingxiao.order.infrastructure.redis.OrderTimeoutQueue;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderTimeoutSchedulerTest {
+
+    private final OrderTimeoutQueue queue = mock(OrderTimeoutQueue.class);
+    private final OrderRepository repository = mock(OrderRepository.class);
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> values = mock(ValueOperations.class);
+
+    {
+        when(redisTemplate.opsForValue()).thenReturn(values);
+    }
+
+    private static final Instant EXPIRE = Instant.parse("2026-07-15T00:00:00Z");
+
+    private OrderTimeoutScheduler scheduler(boolean enabled) {
+        return new OrderTimeoutScheduler(queue, repository, redisTemplate, enabled, 60_000,
+                Duration.ofMinutes(2), 2, 10, Duration.ofMinutes(5), Duration.ofHours(1));
+    }
+
+    @Test
+    void directModeEnqueuesWithGraceAndKeepsGoingWhenOneWriteFails() {
+        doThrow(new IllegalStateException("redis down")).when(queue).schedule(eq("o-1"), any());
+
+        scheduler(true).scheduleCreated(List.of(new OrderExpiry("o-1", EXPIRE), new OrderExpiry("o-2", EXPIRE)));
+
+        verify(queue).schedule("o-2", EXPIRE.plusSeconds(60));
+    }
+
+    @Test
+    void disabledModeLeavesSchedulingToTheOutbox() {
+        scheduler(false).scheduleCreated(List.of(new OrderExpiry("o-1", EXPIRE)));
+
+        verify(queue, never()).schedule(any(), any());
+    }
+
+    private static OrderTimeoutQueue.ScheduledTimeout queued(OrderExpiry o) {
+        return new OrderTimeoutQueue.ScheduledTimeout(o.orderId(), o.expireAt().plusSeconds(60));
+    }
+
+    @Test
+    void sweepPagesThroughOverdueOrdersWithOnePipelinedEnqueuePerPage() {
+        Instant before = EXPIRE.plusSeconds(600);
+        OrderExpiry a = new OrderExpiry("o-a", EXPIRE);
+        OrderExpiry b = new OrderExpiry("o-b", EXPIRE.plusSeconds(1));
+        OrderExpiry c = new OrderExpiry("o-c", EXPIRE.plusSeconds(2));
+        when(repository.findOverduePending(eq(before), isNull(), eq(2))).thenReturn(List.of(a, b));
+        when(repository.findOverduePending(before, b, 2)).thenReturn(List.of(c));
+        // o-b 已在 ready 中
+        when(queue.scheduleAllIfAbsent(List.of(queued(a), queued(b)))).thenReturn(1);
+        when(queue.scheduleAllIfAbsent(List.of(queued(c)))).thenReturn(1);
+
+        assertEquals(2, scheduler(true).sweepOnce(before));
+
+        ArgumentCaptor<String> cursor = ArgumentCaptor.forClass(String.class);
+        verify(values).set(eq("order:timeout:sweep:cursor"), cursor.capture());
+        assertTrue(cursor.getValue().endsWith("|" + c.expireAt() + "|o-c"), cursor.getValue());
+    }
+
+    @Test
+    void sweepResumesAfterTheStoredCursorUntilTheRescanIntervalPasses() {
+        Instant before = EXPIRE.plusSeconds(600);
+        OrderExpiry b = new OrderExpiry("o-b", EXPIRE.plusSeconds(1));
+        long startedAt = System.currentTimeMillis() - 60_000;
+        when(values.get("order:timeout:sweep:cursor")).thenReturn(startedAt + "|" + b.expireAt() + "|o-b");
+        when(repository.findOverduePending(any(), any(), anyInt())).thenReturn(List.of());
+
+        scheduler(true).sweepOnce(before);
+        verify(repository).findOverduePending(before, b, 2);
+        verify(values).set("order:timeout:sweep:cursor", startedAt + "|" + b.expireAt() + "|o-b");
+
+        // 超过 sweep-rescan-interval：从头完整扫描
+        when(values.get("order:timeout:sweep:cursor")).thenReturn(
+                (System.currentTimeMillis() - Duration.ofHours(2).toMillis()) + "|" + b.expireAt() + "|o-b");
+        scheduler(true).sweepOnce(before);
+        verify(repository).findOverduePending(eq(before), isNull(), eq(2));
+    }
+}
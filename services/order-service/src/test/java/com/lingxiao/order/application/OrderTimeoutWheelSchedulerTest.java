@@ -0,0 +1,98 @@
+package com.lingxiao.order.application;
+
+import com.lingxiao.common.redis.ShardLeaseRegistry;
+import com.lingxiao.order.infrastructure.redis.OrderTimeoutQueue;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderTimeoutWheelSchedulerTest {
+
+    private final OrderTimeoutQueue queue = mock(OrderTimeoutQueue.class);
+    private final OrderTimeoutProcessor processor = mock(OrderTimeoutProcessor.class);
+    private final ShardLeaseRegistry leases = mock(ShardLeaseRegistry.class);
+
+    // 不调用 start()：没有 ticker 线程，测试里手动 tick
+    private OrderTimeoutWheelScheduler scheduler() {
+        when(queue.leaseRegistry(any())).thenReturn(leases);
+        when(queue.shardIndexOf(anyString())).thenAnswer(inv -> inv.<String>getArgument(0).startsWith("a") ? 0 : 1);
+        return new OrderTimeoutWheelScheduler(queue, processor, 100, 64, 2, 1000, 300_000, 10_000,
+                Duration.ofSeconds(15));
+    }
+
+    private static long later() {
+        return System.currentTimeMillis() + 60_000;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Supplier<OrderTimeoutQueue.ClaimResult>> dispatched(int times) {
+        ArgumentCaptor<Supplier<OrderTimeoutQueue.ClaimResult>> claims = ArgumentCaptor.forClass(Supplier.class);
+        verify(processor, times(times)).processClaimedAsync(claims.capture());
+        return claims.getAllValues();
+    }
+
+    @Test
+    void onlyReadyTimeoutsOfOwnedShardsEnterTheWheel() {
+        OrderTimeoutWheelScheduler s = scheduler();
+        when(leases.owns(0)).thenReturn(true);
+        when(leases.owns(1)).thenReturn(false);
+        Instant due = Instant.now().plusMillis(200);
+
+        s.onReady("a-1", due);
+        s.onReady("b-1", due);
+        s.tick(later());
+
+        dispatched(1).get(0).get();
+        verify(queue).claimIds(0, List.of("a-1"));
+        verify(queue, never()).claimIds(eq(1), any());
+    }
+
+    @Test
+    void newlyLeasedShardsArePreloadedFromReady() {
+        OrderTimeoutWheelScheduler s = scheduler();
+        when(leases.rebalance()).thenReturn(List.of(1));
+        when(queue.peekReady(eq(1), any(), anyInt())).thenReturn(List.of(
+                new OrderTimeoutQueue.ScheduledTimeout("b-1", Instant.now().plusMillis(200)),
+                new OrderTimeoutQueue.ScheduledTimeout("b-2", Instant.now().plusMillis(400))));
+
+        s.rebalance();
+        s.tick(System.currentTimeMillis() - 1_000);
+        verify(processor, never()).processClaimedAsync(any());
+
+        s.tick(later());
+        dispatched(1).get(0).get();
+        verify(queue).claimIds(1, List.of("b-1", "b-2"));
+    }
+
+    @Test
+    void firingHandsOneClaimPerShardToTheProcessorWithoutClaimingOnTheTicker() {
+        OrderTimeoutWheelScheduler s = scheduler();
+        when(leases.owns(anyInt())).thenReturn(true);
+        Instant due = Instant.now().plusMillis(200);
+        s.onReady("a-1", due);
+        s.onReady("a-2", due);
+        s.onReady("b-1", due);
+
+        s.tick(later());
+
+        List<Supplier<OrderTimeoutQueue.ClaimResult>> claims = dispatched(2);
+        verify(queue, never()).claimIds(anyInt(), any());
+        claims.forEach(Supplier::get);
+        verify(queue).claimIds(0, List.of("a-1", "a-2"));
+        verify(queue).claimIds(1, List.of("b-1"));
+    }
+}
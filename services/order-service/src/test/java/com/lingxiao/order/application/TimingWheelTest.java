@@ -0,0 +1,52 @@
+package com.lingxiao.order.application;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TimingWheelTest {
+
+    @Test
+    void firesEachEntryOnceAfterItsDeadlineAcrossLevels() {
+        // 10ms x 8 x 2 层：第 0 层 80ms，整体 640ms
+        TimingWheel wheel = new TimingWheel(10, 8, 2, 1000, 0);
+        assertTrue(wheel.add("near", 35));
+        assertTrue(wheel.add("far", 500));
+        assertTrue(wheel.add("moved", 100));
+        assertTrue(wheel.add("moved", 300));
+        assertTrue(wheel.add("cancelled", 200));
+        wheel.remove("cancelled");
+        assertFalse(wheel.add("beyond", 640));
+
+        List<String> fired = new ArrayList<>();
+        long firedNearAt = -1;
+        long firedFarAt = -1;
+        for (long now = 0; now <= 700; now += 5) {
+            List<String> due = wheel.advance(now);
+            for (String id : due) {
+                if (id.equals("near")) firedNearAt = now;
+                if (id.equals("far")) firedFarAt = now;
+            }
+            fired.addAll(due);
+        }
+
+        assertEquals(List.of("near", "moved", "far"), fired);
+        assertTrue(firedNearAt >= 35 && firedNearAt <= 45, "near fired at " + firedNearAt);
+        assertTrue(firedFarAt >= 500 && firedFarAt <= 510, "far fired at " + firedFarAt);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    void overdueEntriesFireOnTheNextAdvance() {
+        TimingWheel wheel = new TimingWheel(100, 64, 2, 1000, 10_000);
+        assertTrue(wheel.add("late", 1_000));
+
+        assertEquals(List.of("late"), wheel.advance(10_000));
+        assertEquals(List.of(), wheel.advance(10_050));
+    }
+}
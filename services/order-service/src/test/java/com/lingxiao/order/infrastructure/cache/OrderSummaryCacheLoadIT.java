@@ -0,0 +1,191 @@
+package com.lingxiao.order.infrastructure.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lingxiao.common.redis.RedisTestSupport;
+import com.lingxiao.order.application.OrderSummary;
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+/**
+ * 大促后轮询订单状态的负载：多个 "实例"（各自一个 OrderSummaryCache，共享 Redis）上的并发轮询者
+ * 反复查询一批订单，期间少量订单状态变化触发失效。用计数的 loader 代替 Spanner，断言有缓存时回源次数
+ * 至少降一个数量级、loads 指标与实际回源一致、实例之间通过 L2 共享，以及一个实例上的失效经 pub/sub
+ * 让其它实例的下一次读拿到新状态。
+ * 需要本地 Redis（REDIS_HOST/REDIS_PORT），不可达时跳过；key 使用随机前缀，结束后删除。
+ */
+class OrderSummaryCacheLoadIT {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderSummaryCacheLoadIT.class);
+
+    private static final int ORDERS = 2_000;
+    private static final int INSTANCES = 4;
+    private static final int POLLERS_PER_INSTANCE = 16;
+    private static final Duration RUN = Duration.ofSeconds(5);
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = RedisTestSupport.connectOrSkip();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void close() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @Test
+    void cacheCutsBackendReadsByAnOrderOfMagnitude() throws Exception {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        long uncached = run(false, registry);
+        long cached = run(true, registry);
+        log.info("order summary backend reads uncached={}/s cached={}/s",
+                uncached / RUN.toSeconds(), cached / RUN.toSeconds());
+
+        assertThat(cached).isPositive();
+        assertThat(cached * 10).isLessThanOrEqualTo(uncached);
+        // 每次回源都计入 loads；L2 命中说明一个实例回填的值被其它实例复用
+        assertThat(registry.get("order.summary.cache.loads").counter().count()).isEqualTo((double) cached);
+        assertThat(registry.get("order.summary.cache.l2").tag("result", "hit").counter().count()).isPositive();
+    }
+
+    @Test
+    void invalidationOnOneInstanceIsSeenByTheNextReadOnAnother() throws Exception {
+        String prefix = prefix();
+        RedisMessageListenerContainer listeners = new RedisMessageListenerContainer();
+        listeners.setConnectionFactory(connectionFactory);
+        listeners.afterPropertiesSet();
+        listeners.start();
+        try {
+            OrderSummaryCache a = cache(prefix, listeners, new SimpleMeterRegistry());
+            OrderSummaryCache b = cache(prefix, listeners, new SimpleMeterRegistry());
+            a.start();
+            b.start();
+            Map<String, String> backend = new ConcurrentHashMap<>(Map.of("o-1", "PENDING_PAYMENT"));
+            AtomicLong backendReads = new AtomicLong();
+
+            // 还没建单：负缓存
+            assertThat(a.get("o-2", id -> load(id, backend, backendReads))).isEmpty();
+            assertThat(statusOf(a, "o-1", backend, backendReads)).isEqualTo("PENDING_PAYMENT");
+            assertThat(statusOf(b, "o-1", backend, backendReads)).isEqualTo("PENDING_PAYMENT");
+
+            backend.put("o-1", "PAID");
+            backend.put("o-2", "PENDING_PAYMENT");
+            a.invalidate("o-1");
+            a.invalidate("o-2");
+
+            assertThat(statusOf(a, "o-1", backend, backendReads)).isEqualTo("PAID");
+            assertThat(a.get("o-2", id -> load(id, backend, backendReads))).isPresent();
+            long deadline = System.nanoTime() + Duration.ofSeconds(2).toNanos();
+            while (!"PAID".equals(statusOf(b, "o-1", backend, backendReads)) && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertThat(statusOf(b, "o-1", backend, backendReads)).isEqualTo("PAID");
+        } finally {
+            listeners.destroy();
+            redisTemplate.delete(redisTemplate.keys(prefix + "*"));
+        }
+    }
+
+    /**
+     * @return 回源次数
+     */
+    private long run(boolean withCache, SimpleMeterRegistry registry) throws Exception {
+        String prefix = prefix();
+        AtomicLong backendReads = new AtomicLong();
+        Map<String, String> backend = Map.of();
+        List<OrderSummaryCache> caches = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            caches.add(cache(prefix, mock(RedisMessageListenerContainer.class), registry));
+        }
+
+        ExecutorService pool = Executors.newVirtualThreadPerTaskExecutor();
+        long deadline = System.nanoTime() + RUN.toNanos();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            OrderSummaryCache cache = caches.get(i);
+            for (int p = 0; p < POLLERS_PER_INSTANCE; p++) {
+                futures.add(pool.submit(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    while (System.nanoTime() < deadline) {
+                        String orderId = "o-" + random.nextInt(ORDERS);
+                        if (withCache) {
+                            cache.get(orderId, id -> load(id, backend, backendReads));
+                            // 约 1% 的查询伴随一次状态变化
+                            if (random.nextInt(100) == 0) {
+                                cache.invalidate(orderId);
+                            }
+                        } else {
+                            load(orderId, backend, backendReads);
+                        }
+                    }
+                }));
+            }
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        pool.shutdown();
+        redisTemplate.delete(redisTemplate.keys(prefix + "*"));
+        return backendReads.get();
+    }
+
+    private static String prefix() {
+        return "it:order:summary:" + UUID.randomUUID() + ":";
+    }
+
+    private static OrderSummaryCache cache(String prefix, RedisMessageListenerContainer listeners, SimpleMeterRegistry registry) {
+        return new OrderSummaryCache(mock(OrderRepository.class), redisTemplate, listeners,
+                new ObjectMapper().findAndRegisterModules(), registry, prefix, prefix + "invalidate",
+                100_000, Duration.ofSeconds(5), Duration.ofMillis(500), Duration.ofSeconds(60), Duration.ofSeconds(1), Duration.ofSeconds(1));
+    }
+
+    private static String statusOf(OrderSummaryCache cache, String orderId, Map<String, String> backend, AtomicLong backendReads) {
+        return cache.get(orderId, id -> load(id, backend, backendReads)).orElseThrow().status();
+    }
+
+    /**
+     * @param backend orderId -> status；为空时每个订单都是 PENDING_PAYMENT
+     */
+    private static Optional<OrderSummary> load(String orderId, Map<String, String> backend, AtomicLong backendReads) {
+        backendReads.incrementAndGet();
+        try {
+            // 近似 Spanner single-use read 的延迟
+            Thread.sleep(2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        String status = backend.isEmpty() ? "PENDING_PAYMENT" : backend.get(orderId);
+        return status == null ? Optional.empty()
+                : Optional.of(new OrderSummary(orderId, "sku-1", "user-1", 1, status, Instant.EPOCH, Instant.EPOCH));
+    }
+}
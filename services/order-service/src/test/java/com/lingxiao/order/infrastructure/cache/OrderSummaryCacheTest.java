@@ -0,0 +1,99 @@
+package com.lingxiao.order.infrastructure.cache;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lingxiao.order.application.OrderSummary;
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class OrderSummaryCacheTest {
+
+    private final OrderRepository repository = mock(OrderRepository.class);
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> values = mock(ValueOperations.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private static final OrderSummary SUMMARY = new OrderSummary("o-1", "sku-1", "user-1", 2,
+            "PENDING_PAYMENT", Instant.parse("2026-01-01T00:00:00Z"), Instant.parse("2026-01-01T00:01:00Z"));
+
+    private OrderSummaryCache cache() {
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        return new OrderSummaryCache(repository, redisTemplate, mock(RedisMessageListenerContainer.class),
+                new ObjectMapper().findAndRegisterModules(), registry, "order:summary:", "order:summary:invalidate",
+                1000, Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofMinutes(1), Duration.ofSeconds(1), Duration.ofSeconds(1));
+    }
+
+    @Test
+    void repeatedReadsAreServedFromL1AndMissesFillL2() {
+        OrderSummaryCache cache = cache();
+        AtomicInteger loads = new AtomicInteger();
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(Optional.of(SUMMARY), cache.get("o-1", id -> {
+                loads.incrementAndGet();
+                return Optional.of(SUMMARY);
+            }));
+        }
+
+        assertEquals(1, loads.get());
+        verify(values).setIfAbsent(eq("order:summary:o-1"), anyString(), eq(Duration.ofMinutes(1)));
+    }
+
+    @Test
+    void notFoundIsNegativelyCachedUntilTheOrderIsCreated() {
+        OrderSummaryCache cache = cache();
+        AtomicInteger loads = new AtomicInteger();
+
+        assertTrue(cache.get("o-1", id -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        }).isEmpty());
+        assertTrue(cache.get("o-1", id -> {
+            loads.incrementAndGet();
+            return Optional.empty();
+        }).isEmpty());
+        verify(values).setIfAbsent("order:summary:o-1", OrderSummaryCache.NEGATIVE, Duration.ofSeconds(1));
+
+        // 订单创建提交后失效：L2 写 tombstone 并广播给其它实例
+        cache.invalidate("o-1");
+        verify(values).set("order:summary:o-1", OrderSummaryCache.TOMBSTONE, Duration.ofSeconds(1));
+        verify(redisTemplate).convertAndSend("order:summary:invalidate", "o-1");
+
+        when(values.get("order:summary:o-1")).thenReturn(OrderSummaryCache.TOMBSTONE);
+        assertEquals(Optional.of(SUMMARY), cache.get("o-1", id -> {
+            loads.incrementAndGet();
+            return Optional.of(SUMMARY);
+        }));
+        assertEquals(2, loads.get());
+        // tombstone 期间不回填
+        verify(values, never()).setIfAbsent(eq("order:summary:o-1"), eq(OrderSummaryCache.TOMBSTONE), any(Duration.class));
+        verify(values, never()).setIfAbsent(eq("order:summary:o-1"), eq(json()), any(Duration.class));
+    }
+
+    private static String json() {
+        try {
+            return new ObjectMapper().findAndRegisterModules().writeValueAsString(SUMMARY);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.lingxiao.order.infrastructure.redis;
+
+import com.lingxiao.common.redis.RedisTestSupport;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 分片超时队列：多个 "实例"（各自一个 OrderTimeoutQueue）同时排空同一批到期任务，断言不丢不重、
+ * 分片后吞吐不低于单 key 布局的一半（单机 Redis 上 Lua 串行执行，分片的收益主要在 Cluster 上 slot 分散到多个节点）；
+ * 另外断言空闲分片不跑 Lua、分片数与 Redis 中记录不一致时拒绝启动、旧布局迁移排空后不再读旧 key。
+ * 需要本地 Redis（REDIS_HOST/REDIS_PORT），不可达时跳过；key 使用随机前缀，结束后删除。
+ */
+class OrderTimeoutQueueClaimIT {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderTimeoutQueueClaimIT.class);
+
+    private static final int ORDERS = 20_000;
+    private static final int INSTANCES = 8;
+    private static final int CLAIM_BATCH = 50;
+
+    private static LettuceConnectionFactory connectionFactory;
+    private static StringRedisTemplate redisTemplate;
+
+    private final List<String> prefixes = new ArrayList<>();
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = RedisTestSupport.connectOrSkip();
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+    }
+
+    @AfterAll
+    static void close() {
+        if (connectionFactory != null) {
+            connectionFactory.destroy();
+        }
+    }
+
+    @BeforeEach
+    void resetPrefixes() {
+        prefixes.clear();
+    }
+
+    @AfterEach
+    void cleanUp() {
+        for (String prefix : prefixes) {
+            Set<String> keys = redisTemplate.keys(prefix + "*");
+            if (keys != null && !keys.isEmpty()) {
+                redisTemplate.delete(keys);
+            }
+        }
+    }
+
+    @Test
+    void everyShardCountDrainsAllTasksExactlyOnce() throws Exception {
+        Map<Integer, Double> perSecond = new LinkedHashMap<>();
+        for (int shards : new int[]{0, 4, 16, 64}) {
+            perSecond.put(shards, drain(newPrefix(), shards));
+        }
+        log.info("timeout claim+ack/s by shard count (instances={}): {}", INSTANCES, perSecond);
+
+        assertThat(perSecond.get(16)).isGreaterThan(perSecond.get(0) / 2);
+    }
+
+    @Test
+    void idleShardsCostNoScriptCalls() {
+        OrderTimeoutQueue queue = new OrderTimeoutQueue(redisTemplate, newPrefix(), 64);
+        long before = RedisTestSupport.scriptCalls(redisTemplate);
+        assertThat(queue.claimDue(CLAIM_BATCH).orderIds()).isEmpty();
+        assertThat(RedisTestSupport.scriptCalls(redisTemplate)).isEqualTo(before);
+
+        // load the claim script once (Spring retries EVALSHA as EVAL on NOSCRIPT)
+        queue.schedule("o-warm", Instant.now().minusSeconds(1));
+        OrderTimeoutQueue.ClaimResult warm = queue.claimDue(CLAIM_BATCH);
+        assertThat(queue.ack("o-warm", warm.token())).isTrue();
+
+        String orderId = "o-idle-1";
+        queue.schedule(orderId, Instant.now().minusSeconds(1));
+        before = RedisTestSupport.scriptCalls(redisTemplate);
+        OrderTimeoutQueue.ClaimResult claim = queue.claimDue(CLAIM_BATCH);
+        List<String> reclaimed = queue.reclaim(60_000, CLAIM_BATCH);
+        long calls = RedisTestSupport.scriptCalls(redisTemplate) - before;
+
+        assertThat(claim.orderIds()).containsExactly(orderId);
+        assertThat(reclaimed).isEmpty();
+        // one claim script on the only busy shard, none for reclaim (nothing stale)
+        assertThat(calls).isEqualTo(1);
+    }
+
+    @Test
+    void changingTheShardCountOfAnExistingQueueFailsFast() {
+        String prefix = newPrefix();
+        new OrderTimeoutQueue(redisTemplate, prefix, 0);
+        // 0 -> N is the supported upgrade
+        new OrderTimeoutQueue(redisTemplate, prefix, 16);
+
+        assertThatThrownBy(() -> new OrderTimeoutQueue(redisTemplate, prefix, 32))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("created with 16 shards");
+        assertThatThrownBy(() -> new OrderTimeoutQueue(redisTemplate, prefix, 0))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void legacyTasksMoveToShardsAndMigrationStopsOnceDrained() {
+        String prefix = newPrefix();
+        OrderTimeoutQueue legacy = new OrderTimeoutQueue(redisTemplate, prefix, 0);
+        Instant due = Instant.now().minusSeconds(1);
+        for (int i = 0; i < 10; i++) {
+            legacy.schedule("o-legacy-" + i, due);
+        }
+
+        OrderTimeoutQueue sharded = new OrderTimeoutQueue(redisTemplate, prefix, 8);
+        assertThat(sharded.migrateLegacy(30_000, 100)).isEqualTo(10);
+        assertThat(sharded.migrateLegacy(30_000, 100)).isZero();
+        assertThat(redisTemplate.hasKey(prefix + "legacy-drained")).isTrue();
+
+        // a task written to the old layout after the marker is left to the OrdersByExpire sweep
+        redisTemplate.opsForZSet().add(prefix + "ready", "o-late", due.toEpochMilli());
+        assertThat(new OrderTimeoutQueue(redisTemplate, prefix, 8).migrateLegacy(30_000, 100)).isZero();
+
+        assertThat(sharded.claimDue(100).orderIds()).hasSize(10);
+    }
+
+    private String newPrefix() {
+        String prefix = "bench:timeout:" + UUID.randomUUID().toString().substring(0, 8) + ":";
+        prefixes.add(prefix);
+        return prefix;
+    }
+
+    private double drain(String prefix, int shards) throws Exception {
+        OrderTimeoutQueue seeder = new OrderTimeoutQueue(redisTemplate, prefix, shards);
+        Instant due = Instant.now().minusSeconds(1);
+        for (int i = 0; i < ORDERS; i++) {
+            seeder.schedule("o-bench-" + i, due);
+        }
+
+        Set<String> acked = ConcurrentHashMap.newKeySet();
+        List<String> duplicates = new CopyOnWriteArrayList<>();
+        ExecutorService pool = Executors.newFixedThreadPool(INSTANCES);
+        long start = System.nanoTime();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < INSTANCES; i++) {
+            OrderTimeoutQueue queue = new OrderTimeoutQueue(redisTemplate, prefix, shards);
+            futures.add(pool.submit(() -> {
+                while (true) {
+                    OrderTimeoutQueue.ClaimResult claim = queue.claimDue(CLAIM_BATCH);
+                    if (claim.orderIds().isEmpty()) {
+                        return;
+                    }
+                    for (String orderId : claim.orderIds()) {
+                        if (queue.ack(orderId, claim.token()) && !acked.add(orderId)) {
+                            duplicates.add(orderId);
+                        }
+                    }
+                }
+            }));
+        }
+        for (Future<?> f : futures) {
+            f.get();
+        }
+        long elapsed = System.nanoTime() - start;
+        pool.shutdown();
+
+        assertThat(duplicates).isEmpty();
+        assertThat(acked).hasSize(ORDERS);
+        return acked.size() / (elapsed / 1_000_000_000.0);
+    }
+}
@@ -0,0 +1,126 @@
+package com.lingxiao.order.infrastructure.redis;
+
+import com.lingxiao.common.redis.RedisBloom;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.serializer.RedisSerializer;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class PaymentBloomFilterTest {
+
+    private static final long BITS = 1 << 16;
+    private static final int HASHES = 7;
+
+    private final StringRedisTemplate redis = mock(StringRedisTemplate.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final PaymentMarkerRepository markers = new PaymentMarkerRepository(redis, "fs:pay:");
+
+    private PaymentBloomFilter filter(Duration maxStaleness) {
+        return new PaymentBloomFilter(redis, markers, registry, BITS, HASHES, maxStaleness, Duration.ofMinutes(10));
+    }
+
+    private static final Duration MARKER_TTL = Duration.ofHours(2);
+
+    private void bitmapContains(String... orderIds) {
+        // bitmap 已经建立超过一个 marker-ttl
+        stubRedis(bitmap(orderIds), meta(BITS, HASHES, MARKER_TTL.plusMinutes(1)));
+    }
+
+    private static byte[] bitmap(String... orderIds) {
+        byte[] bitmap = new byte[(int) (BITS / 8)];
+        for (String orderId : orderIds) {
+            for (long offset : RedisBloom.offsets(orderId, BITS, HASHES)) {
+                bitmap[(int) (offset >>> 3)] |= (byte) (0x80 >>> (offset & 7));
+            }
+        }
+        return bitmap;
+    }
+
+    private static byte[] meta(long bits, int hashes, Duration age) {
+        return new RedisBloom.Meta(bits, hashes, System.currentTimeMillis() - age.toMillis(), MARKER_TTL.toMillis())
+                .encode().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void stubRedis(byte[] bitmap, byte[] meta) {
+        List<Object> result = new ArrayList<>();
+        result.add(bitmap);
+        result.add(meta);
+        when(redis.executePipelined(any(RedisCallback.class), any(RedisSerializer.class))).thenReturn(result);
+    }
+
+    @Test
+    void freshSnapshotAnswersAbsentForUnpaidAndMaybeForPaidOrders() {
+        bitmapContains("o-fs-a1-3-paid");
+        PaymentBloomFilter f = filter(Duration.ofSeconds(30));
+
+        // 第一次见到这个分片：还没有本地副本
+        assertThat(f.check("o-fs-a1-3-unpaid")).isEqualTo(PaymentBloomFilter.Verdict.UNKNOWN);
+        f.refresh();
+
+        assertThat(f.check("o-fs-a1-3-paid")).isEqualTo(PaymentBloomFilter.Verdict.MAYBE);
+        assertThat(f.check("o-fs-a1-3-unpaid")).isEqualTo(PaymentBloomFilter.Verdict.ABSENT);
+        f.recordMarkerRead(PaymentBloomFilter.Verdict.MAYBE, false);
+
+        assertThat(registry.counter("order.timeout.payment_bloom", "result", "negative").count()).isEqualTo(1);
+        assertThat(registry.counter("order.timeout.payment_bloom", "result", "false_positive").count()).isEqualTo(1);
+        assertThat(registry.get("order.timeout.payment_bloom.estimated_fpp").gauge().value()).isGreaterThan(0);
+    }
+
+    @Test
+    void staleSnapshotOrForeignOrderIdFallsBackToMarkerRead() throws Exception {
+        bitmapContains();
+        PaymentBloomFilter f = filter(Duration.ofMillis(1));
+        f.check("o-fs-a1-3-x");
+        f.refresh();
+        Thread.sleep(5);
+
+        assertThat(f.check("o-fs-a1-3-x")).isEqualTo(PaymentBloomFilter.Verdict.UNKNOWN);
+        assertThat(f.check("o-plain-order")).isEqualTo(PaymentBloomFilter.Verdict.UNKNOWN);
+        assertThat(registry.counter("order.timeout.payment_bloom", "result", "bypass").count()).isEqualTo(3);
+    }
+
+    @Test
+    void missingBitmapOrMetaThatDoesNotProveCoverageIsUnknown() {
+        String unpaid = "o-fs-a1-3-unpaid";
+        byte[] empty = bitmap();
+        Object[][] cases = {
+                // 分片还没有支付，或 payment-service 没开布隆 / 参数不同导致 key 不存在
+                {null, null},
+                // 旧版本写的 bitmap 没有 meta
+                {empty, null},
+                // payment-service 用的是另一套 bits / hashes
+                {empty, meta(BITS * 2, HASHES, MARKER_TTL.plusMinutes(1))},
+                {empty, meta(BITS, HASHES + 1, MARKER_TTL.plusMinutes(1))},
+                // bitmap 建立不满一个 marker-ttl，之前的支付可能只有 marker
+                {empty, meta(BITS, HASHES, MARKER_TTL.minusMinutes(1))},
+                {empty, "garbage".getBytes(StandardCharsets.UTF_8)},
+        };
+        for (Object[] c : cases) {
+            stubRedis((byte[]) c[0], (byte[]) c[1]);
+            PaymentBloomFilter f = filter(Duration.ofSeconds(30));
+            f.check(unpaid);
+            f.refresh();
+
+            assertThat(f.check(unpaid)).isEqualTo(PaymentBloomFilter.Verdict.UNKNOWN);
+        }
+        assertThat(registry.counter("order.timeout.payment_bloom", "result", "negative").count()).isZero();
+
+        stubRedis(empty, meta(BITS, HASHES, MARKER_TTL));
+        PaymentBloomFilter f = filter(Duration.ofSeconds(30));
+        f.check(unpaid);
+        f.refresh();
+        assertThat(f.check(unpaid)).isEqualTo(PaymentBloomFilter.Verdict.ABSENT);
+    }
+}
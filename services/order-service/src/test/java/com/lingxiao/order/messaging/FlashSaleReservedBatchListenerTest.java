@@ -0,0 +1,80 @@
+package com.lingxiao.order.messaging;
+
+import com.lingxiao.contracts.events.FlashSaleReservedEventV2;
+import com.lingxiao.order.application.OrderTimeoutScheduler;
+import com.lingxiao.order.infrastructure.db.spanner.OrderRepository;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderCreateBatchResult;
+import com.lingxiao.order.infrastructure.db.spanner.model.OrderExpiry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FlashSaleReservedBatchListenerTest {
+
+    private final OrderRepository repository = mock(OrderRepository.class);
+    private final OrderTimeoutScheduler timeoutScheduler = mock(OrderTimeoutScheduler.class);
+    private final FlashSaleReservedBatchListener listener = new FlashSaleReservedBatchListener(repository, timeoutScheduler, 2);
+
+    private static FlashSaleReservedEventV2 event(int i) {
+        Instant now = Instant.parse("2026-07-15T00:00:00Z");
+        return new FlashSaleReservedEventV2("e-" + i, "o-" + i, "u-" + i, "sku-1", 1, 100, "USD", now, now.plusSeconds(300));
+    }
+
+    private static List<FlashSaleReservedEventV2> events(int n) {
+        List<FlashSaleReservedEventV2> events = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            events.add(event(i));
+        }
+        return events;
+    }
+
+    @Test
+    void splitsThePollIntoTransactionsAndFallsBackPerRecordOnlyForTheFailedChunk() {
+        when(repository.createFromFlashSaleEvents(any())).thenAnswer(inv -> {
+            List<FlashSaleReservedEventV2> chunk = inv.getArgument(0);
+            if (chunk.contains(event(2))) {
+                throw new IllegalStateException("ALREADY_EXISTS");
+            }
+            return new OrderCreateBatchResult(chunk.stream().map(FlashSaleReservedEventV2::orderId).toList(), List.of(), 0);
+        });
+
+        listener.onBatch(events(5));
+
+        verify(repository, times(3)).createFromFlashSaleEvents(any());
+        verify(repository).createFromFlashSaleEvent(event(2));
+        verify(repository).createFromFlashSaleEvent(event(3));
+        verify(repository, never()).createFromFlashSaleEvent(event(0));
+        verify(repository, never()).createFromFlashSaleEvent(event(4));
+    }
+
+    @Test
+    void schedulesTimeoutsOfCreatedOrdersAfterCommit() {
+        List<OrderExpiry> timeouts = List.of(new OrderExpiry("o-0", event(0).expireAt()));
+        when(repository.createFromFlashSaleEvents(any())).thenReturn(new OrderCreateBatchResult(List.of("o-0", "o-1"), timeouts, 0));
+
+        listener.onBatch(events(2));
+
+        verify(timeoutScheduler).scheduleCreated(timeouts);
+    }
+
+    @Test
+    void perRecordFailureAfterFallbackFailsTheWholeBatchForRedelivery() {
+        when(repository.createFromFlashSaleEvents(argThat(chunk -> chunk != null && chunk.size() > 0)))
+                .thenThrow(new IllegalStateException("aborted"));
+        doThrow(new IllegalStateException("still failing")).when(repository).createFromFlashSaleEvent(event(1));
+
+        assertThrows(IllegalStateException.class, () -> listener.onBatch(events(2)));
+    }
+}
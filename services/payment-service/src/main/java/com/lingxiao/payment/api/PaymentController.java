@@ -1,7 +1,11 @@
 package com.lingxiao.payment.api;
 
+import com.lingxiao.payment.api.dto.BatchSucceedPaymentRequest;
+import com.lingxiao.payment.api.dto.BatchSucceedPaymentResponse;
 import com.lingxiao.payment.api.dto.SucceedPaymentRequest;
 import com.lingxiao.payment.api.dto.PaymentResponse;
+import com.lingxiao.payment.application.BatchPaymentService;
+import com.lingxiao.payment.application.PaymentConfirmation;
 import com.lingxiao.payment.application.PaymentService;
 import com.lingxiao.payment.domain.Payment;
 import jakarta.validation.Valid;
@@ -9,14 +13,18 @@ import jakarta.validation.constraints.NotBlank;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
+import java.util.List;
+
 @RestController
 @RequestMapping("/api/v1/payments")
 public class PaymentController {
 
     private final PaymentService paymentService;
+    private final BatchPaymentService batchPaymentService;
 
-    public PaymentController(PaymentService paymentService) {
+    public PaymentController(PaymentService paymentService, BatchPaymentService batchPaymentService) {
         this.paymentService = paymentService;
+        this.batchPaymentService = batchPaymentService;
     }
 
     @PostMapping("/succeed")
@@ -27,14 +35,35 @@ public class PaymentController {
                 request.orderId(),
                 userId.trim()
         );
-        return ResponseEntity.ok(new PaymentResponse(
+        return ResponseEntity.ok(toResponse(payment));
+    }
+
+    /**
+     * Gateway callback with many confirmations; one result per distinct orderId, rejections included.
+     */
+    @PostMapping("/succeed/batch")
+    public ResponseEntity<BatchSucceedPaymentResponse> succeedPayments(
+            @Valid @RequestBody BatchSucceedPaymentRequest request) {
+        List<PaymentConfirmation> confirmations = batchPaymentService.succeedPayments(
+                request.confirmations().stream().map(c -> c.orderId().trim()).toList());
+        return ResponseEntity.ok(new BatchSucceedPaymentResponse(confirmations.stream()
+                .map(c -> new BatchSucceedPaymentResponse.Result(
+                        c.orderId(),
+                        c.outcome().name(),
+                        c.payment() == null ? null : toResponse(c.payment()),
+                        c.error()))
+                .toList()));
+    }
+
+    private static PaymentResponse toResponse(Payment payment) {
+        return new PaymentResponse(
                 payment.paymentId(),
                 payment.orderId(),
                 payment.status(),
                 payment.amountCents(),
                 payment.currency(),
                 payment.createdAt()
-        ));
+        );
     }
 }
 
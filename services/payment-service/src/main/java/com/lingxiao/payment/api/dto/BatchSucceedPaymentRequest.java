@@ -0,0 +1,12 @@
+package com.lingxiao.payment.api.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Size;
+
+import java.util.List;
+
+public record BatchSucceedPaymentRequest(
+        @NotEmpty @Size(max = 1000) List<@Valid SucceedPaymentRequest> confirmations
+) {
+}
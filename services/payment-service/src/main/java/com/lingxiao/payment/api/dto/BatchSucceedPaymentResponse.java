@@ -0,0 +1,19 @@
+package com.lingxiao.payment.api.dto;
+
+import java.util.List;
+
+public record BatchSucceedPaymentResponse(
+        List<Result> results
+) {
+    /**
+     * @param outcome CREATED / ALREADY_PAID / REJECTED / ERROR；REJECTED、ERROR 时 payment 为 null，error 为原因，
+     *                ERROR 是这一单的临时故障，网关可以只重试这些订单
+     */
+    public record Result(
+            String orderId,
+            String outcome,
+            PaymentResponse payment,
+            String error
+    ) {
+    }
+}
@@ -0,0 +1,244 @@
+package com.lingxiao.payment.application;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lingxiao.contracts.Topics;
+import com.lingxiao.contracts.events.PaymentSucceededEvent;
+import com.lingxiao.payment.domain.Payment;
+import com.lingxiao.payment.infrastructure.db.spanner.SpannerPaymentRepository;
+import com.lingxiao.payment.infrastructure.db.spanner.SpannerPaymentRepository.PaymentDraft;
+import com.lingxiao.payment.infrastructure.redis.OrderSnapshotRepository.OrderSnapshot;
+import com.lingxiao.payment.infrastructure.redis.PaymentMarkerRepository;
+import com.lingxiao.payment.infrastructure.redis.PaymentMarkerRepository.PaidMarker;
+import com.lingxiao.payment.infrastructure.redis.PaymentPrecheckRepository;
+import com.lingxiao.payment.infrastructure.redis.PaymentPrecheckRepository.Precheck;
+import com.lingxiao.payment.outbox.PipelinedOutboxRelay;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Supplier;
+
+/**
+ * 网关批量回调：一批订单的支付确认按阶段批量处理，而不是每单走一遍 succeedPayment。
+ *
+ * 1. marker + 快照：一次 Redis pipeline（跨 hash tag 分片）；有 marker 的直接 ALREADY_PAID。
+ * 2. 其余订单一次 IN UNNEST 查 PaymentsByOrderId，已有支付的补写 marker 后 ALREADY_PAID。
+ * 3. 快照缺失 / 已过期的 REJECTED；其余按 tx-size 切块，每块一次 blind-write 提交 Payments + PaymentOutbox，
+ *    提交后立即写这一块的 marker，后面的块失败也不影响已提交订单的 marker。
+ *    某块撞上并发的单笔支付（ALREADY_EXISTS）或提交失败时整块回滚，改为逐单提交。
+ * 4. 单个订单的失败只影响它自己的结果（ERROR），整批照常返回；precheck 读不到 Redis 时整批都是 ERROR。
+ *    marker 写失败时这些订单也是 ERROR：超时取消靠 marker 判断已支付（同 succeedPaymentFast），
+ *    不能在没有 marker 时告诉网关已支付；网关重试时走已有支付的分支补写 marker。
+ * 网关回调不带用户身份，不做归属校验。
+ */
+@Service
+public class BatchPaymentService {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchPaymentService.class);
+
+    private final SpannerPaymentRepository paymentRepository;
+    private final PaymentPrecheckRepository precheckRepository;
+    private final PaymentMarkerRepository markerRepository;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    // payment.outbox.relay.pipelined 关闭时为 null
+    private final PipelinedOutboxRelay outboxRelay;
+    private final int txSize;
+
+    public BatchPaymentService(SpannerPaymentRepository paymentRepository,
+                               PaymentPrecheckRepository precheckRepository,
+                               PaymentMarkerRepository markerRepository,
+                               ObjectMapper objectMapper,
+                               MeterRegistry meterRegistry,
+                               @Nullable PipelinedOutboxRelay outboxRelay,
+                               @Value("${payment.batch.tx-size:200}") int txSize) {
+        this.paymentRepository = paymentRepository;
+        this.precheckRepository = precheckRepository;
+        this.markerRepository = markerRepository;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.outboxRelay = outboxRelay;
+        this.txSize = Math.max(1, txSize);
+    }
+
+    /**
+     * @return 每个不同的 orderId 一条结果，顺序同首次出现的顺序
+     */
+    public List<PaymentConfirmation> succeedPayments(List<String> orderIds) {
+        List<String> distinct = new ArrayList<>(new LinkedHashSet<>(orderIds));
+        Map<String, PaymentConfirmation> results = new HashMap<>();
+
+        Map<String, Precheck> prechecks;
+        try {
+            prechecks = timed("redis_precheck", () -> precheckRepository.readAll(distinct));
+        } catch (Exception e) {
+            // 没有快照就无法建单，也不能把订单当成不存在而 REJECTED
+            log.warn("Batch payment precheck failed size={}", distinct.size(), e);
+            for (String orderId : distinct) {
+                results.put(orderId, PaymentConfirmation.error(orderId, "payment precheck unavailable"));
+            }
+            return ordered(distinct, results);
+        }
+        List<String> unmarked = new ArrayList<>();
+        for (String orderId : distinct) {
+            Precheck precheck = prechecks.get(orderId);
+            if (precheck.marker().isPresent()) {
+                PaidMarker m = precheck.marker().get();
+                results.put(orderId, PaymentConfirmation.alreadyPaid(new Payment(m.paymentId(), orderId, "SUCCEEDED",
+                        m.amountCents(), m.currency(), m.paidAt(), m.paidAt())));
+            } else {
+                unmarked.add(orderId);
+            }
+        }
+
+        List<PaidMarker> backfill = new ArrayList<>();
+        try {
+            for (Payment existing : timed("spanner_lookup", () -> paymentRepository.findByOrderIds(unmarked))) {
+                results.put(existing.orderId(), PaymentConfirmation.alreadyPaid(existing));
+                backfill.add(toMarker(existing));
+            }
+        } catch (Exception e) {
+            // 已有支付的订单会在提交时撞上 ALREADY_EXISTS，逐单提交拿回已有的那笔
+            log.warn("Batch payment lookup failed, relying on commit conflicts size={}", unmarked.size(), e);
+        }
+        writeMarkers(backfill, results);
+
+        Instant now = Instant.now();
+        List<PaymentDraft> drafts = new ArrayList<>();
+        Map<String, String> draftPaymentIds = new HashMap<>();
+        for (String orderId : unmarked) {
+            if (results.containsKey(orderId)) {
+                continue;
+            }
+            OrderSnapshot snap = prechecks.get(orderId).snapshot().orElse(null);
+            if (snap == null) {
+                results.put(orderId, PaymentConfirmation.rejected(orderId, "order snapshot not found or expired"));
+            } else if (snap.expireAt() != null && now.isAfter(snap.expireAt())) {
+                results.put(orderId, PaymentConfirmation.rejected(orderId, "ORDER_EXPIRED"));
+            } else {
+                try {
+                    PaymentDraft draft = draft(orderId, snap, now);
+                    drafts.add(draft);
+                    draftPaymentIds.put(orderId, draft.paymentId());
+                } catch (RuntimeException e) {
+                    log.warn("Batch payment draft failed orderId={}", orderId, e);
+                    results.put(orderId, PaymentConfirmation.rejected(orderId, "invalid order snapshot"));
+                }
+            }
+        }
+
+        for (int from = 0; from < drafts.size(); from += txSize) {
+            List<PaymentDraft> chunk = drafts.subList(from, Math.min(drafts.size(), from + txSize));
+            List<PaidMarker> chunkMarkers = new ArrayList<>(chunk.size());
+            for (Payment payment : timed("spanner_commit", () -> commitChunk(chunk, results))) {
+                // 逐单回退时撞上并发单笔支付，拿到的是已有的那笔
+                results.put(payment.orderId(), payment.paymentId().equals(draftPaymentIds.get(payment.orderId()))
+                        ? PaymentConfirmation.created(payment)
+                        : PaymentConfirmation.alreadyPaid(payment));
+                chunkMarkers.add(toMarker(payment));
+            }
+            writeMarkers(chunkMarkers, results);
+        }
+        if (!drafts.isEmpty() && outboxRelay != null) {
+            outboxRelay.wakeup();
+        }
+        return ordered(distinct, results);
+    }
+
+    private List<PaymentConfirmation> ordered(List<String> distinct, Map<String, PaymentConfirmation> results) {
+        List<PaymentConfirmation> ordered = new ArrayList<>(distinct.size());
+        Map<PaymentConfirmation.Outcome, Integer> counts = new EnumMap<>(PaymentConfirmation.Outcome.class);
+        for (String orderId : distinct) {
+            PaymentConfirmation c = results.get(orderId);
+            ordered.add(c);
+            counts.merge(c.outcome(), 1, Integer::sum);
+        }
+        log.info("Batch payment confirmation size={} created={} alreadyPaid={} rejected={} error={}",
+                distinct.size(), counts.getOrDefault(PaymentConfirmation.Outcome.CREATED, 0),
+                counts.getOrDefault(PaymentConfirmation.Outcome.ALREADY_PAID, 0),
+                counts.getOrDefault(PaymentConfirmation.Outcome.REJECTED, 0),
+                counts.getOrDefault(PaymentConfirmation.Outcome.ERROR, 0));
+        return ordered;
+    }
+
+    /**
+     * @return 已提交（或并发单笔支付已存在）的支付；逐单提交仍失败的订单以 ERROR 写进 results
+     */
+    private List<Payment> commitChunk(List<PaymentDraft> chunk, Map<String, PaymentConfirmation> results) {
+        try {
+            return paymentRepository.commitAllWithOutbox(chunk);
+        } catch (Exception e) {
+            log.warn("Batch payment commit failed, falling back to per-order size={}", chunk.size(), e);
+        }
+        List<Payment> payments = new ArrayList<>(chunk.size());
+        for (PaymentDraft draft : chunk) {
+            try {
+                payments.add(paymentRepository.commitWithOutbox(draft));
+            } catch (Exception e) {
+                log.warn("Payment commit failed orderId={}", draft.orderId(), e);
+                results.put(draft.orderId(), PaymentConfirmation.error(draft.orderId(), "payment commit failed"));
+            }
+        }
+        return payments;
+    }
+
+    /**
+     * 写失败时这些订单的结果改为 ERROR（可重试）
+     */
+    private void writeMarkers(List<PaidMarker> markers, Map<String, PaymentConfirmation> results) {
+        if (markers.isEmpty()) {
+            return;
+        }
+        try {
+            timed("marker", () -> {
+                markerRepository.markPaidAll(markers);
+                return null;
+            });
+        } catch (Exception e) {
+            log.warn("Write payment markers failed count={}", markers.size(), e);
+            for (PaidMarker marker : markers) {
+                results.put(marker.orderId(), PaymentConfirmation.error(marker.orderId(), "payment marker write failed"));
+            }
+        }
+    }
+
+    private PaymentDraft draft(String orderId, OrderSnapshot snap, Instant now) {
+        long amountCents = Math.multiplyExact(snap.priceCents(), snap.qty());
+        String paymentId = UUID.randomUUID().toString();
+        PaymentSucceededEvent event = new PaymentSucceededEvent(
+                UUID.randomUUID().toString(), paymentId, orderId, amountCents, snap.currency(), now);
+        String payloadJson;
+        try {
+            payloadJson = objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize PaymentSucceededEvent", e);
+        }
+        return new PaymentDraft(paymentId, orderId, "SUCCEEDED", amountCents, snap.currency(),
+                UUID.randomUUID().toString(), "PAYMENT_SUCCEEDED", Topics.PAYMENT_SUCCEEDED, orderId, payloadJson);
+    }
+
+    private static PaidMarker toMarker(Payment payment) {
+        return new PaidMarker(payment.orderId(), payment.paymentId(), payment.createdAt(),
+                payment.amountCents(), payment.currency());
+    }
+
+    private <T> T timed(String stage, Supplier<T> work) {
+        return Timer.builder("payment.succeed.batch.stage")
+                .tag("stage", stage)
+                .register(meterRegistry)
+                .record(work);
+    }
+}
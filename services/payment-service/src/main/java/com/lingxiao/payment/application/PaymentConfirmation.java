@@ -0,0 +1,37 @@
+package com.lingxiao.payment.application;
+
+import com.lingxiao.payment.domain.Payment;
+
+/**
+ * Per-order result of a batch confirmation.
+ *
+ * @param payment null when rejected or failed
+ * @param error   rejection / failure reason, null otherwise
+ */
+public record PaymentConfirmation(String orderId, Outcome outcome, Payment payment, String error) {
+
+    public enum Outcome {
+        CREATED,
+        ALREADY_PAID,
+        /** The order cannot be paid (snapshot missing, order expired); retrying will not help. */
+        REJECTED,
+        /** Infrastructure failure for this order only; the gateway may retry it. */
+        ERROR
+    }
+
+    static PaymentConfirmation created(Payment payment) {
+        return new PaymentConfirmation(payment.orderId(), Outcome.CREATED, payment, null);
+    }
+
+    static PaymentConfirmation alreadyPaid(Payment payment) {
+        return new PaymentConfirmation(payment.orderId(), Outcome.ALREADY_PAID, payment, null);
+    }
+
+    static PaymentConfirmation rejected(String orderId, String error) {
+        return new PaymentConfirmation(orderId, Outcome.REJECTED, null, error);
+    }
+
+    static PaymentConfirmation error(String orderId, String error) {
+        return new PaymentConfirmation(orderId, Outcome.ERROR, null, error);
+    }
+}
@@ -9,12 +9,21 @@ import com.lingxiao.payment.infrastructure.db.PaymentRepository;
 import com.lingxiao.payment.infrastructure.db.spanner.SpannerPaymentRepository;
 import com.lingxiao.payment.infrastructure.redis.OrderSnapshotRepository;
 import com.lingxiao.payment.infrastructure.redis.PaymentMarkerRepository;
+import com.lingxiao.payment.infrastructure.redis.PaymentPrecheckRepository;
+import com.lingxiao.payment.outbox.PipelinedOutboxRelay;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Service
 public class PaymentService {
@@ -26,20 +35,36 @@ public class PaymentService {
     private final ObjectMapper objectMapper;
     private final OrderSnapshotRepository snapshotRepository;
     private final PaymentMarkerRepository markerRepository;
+    // payment.outbox.relay.pipelined 关闭时为 null
+    private final PipelinedOutboxRelay outboxRelay;
+    private final PaymentPrecheckRepository precheckRepository;
+    private final MeterRegistry meterRegistry;
+    private final boolean fastPath;
 
     public PaymentService(PaymentRepository repository,
                          SpannerPaymentRepository spannerPaymentRepository,
                          ObjectMapper objectMapper,
                          OrderSnapshotRepository snapshotRepository,
-                         PaymentMarkerRepository markerRepository) {
+                         PaymentMarkerRepository markerRepository,
+                         @Nullable PipelinedOutboxRelay outboxRelay,
+                         PaymentPrecheckRepository precheckRepository,
+                         MeterRegistry meterRegistry,
+                         @Value("${payment.fast-path.enabled:false}") boolean fastPath) {
         this.repository = repository;
         this.spannerPaymentRepository = spannerPaymentRepository;
         this.objectMapper = objectMapper;
         this.snapshotRepository = snapshotRepository;
         this.markerRepository = markerRepository;
+        this.outboxRelay = outboxRelay;
+        this.precheckRepository = precheckRepository;
+        this.meterRegistry = meterRegistry;
+        this.fastPath = fastPath;
     }
 
     public Payment succeedPayment(String orderId, String callerUserId) {
+        if (fastPath) {
+            return succeedPaymentFast(orderId, callerUserId);
+        }
         String paymentId = UUID.randomUUID().toString();
         
         // Check if payment already exists (idempotency)
@@ -73,13 +98,7 @@ public class PaymentService {
                 Instant.now()
         );
 
-        // Serialize event to JSON
-        String payloadJson;
-        try {
-            payloadJson = objectMapper.writeValueAsString(event);
-        } catch (JsonProcessingException e) {
-            throw new IllegalStateException("Failed to serialize PaymentSucceededEvent", e);
-        }
+        String payloadJson = toJson(event);
 
         // Create payment and outbox event in the same transaction
         String outboxId = UUID.randomUUID().toString();
@@ -87,6 +106,9 @@ public class PaymentService {
                 paymentId, orderId, "SUCCEEDED", amountCents, currency,
                 outboxId, "PAYMENT_SUCCEEDED", Topics.PAYMENT_SUCCEEDED, orderId, payloadJson
         );
+        if (outboxRelay != null) {
+            outboxRelay.wakeup();
+        }
 
         // Strong guarantee: write payment marker to Redis so timeout cancel/release can gate on it
         // even if Kafka delivery is delayed.
@@ -98,5 +120,92 @@ public class PaymentService {
         return payment;
     }
 
-}
+    /**
+     * 少往返的支付成功路径（payment.fast-path.enabled）：
+     * 1. marker 和订单快照一个 Redis pipeline 读出；marker 存在就是重复支付，直接返回，不碰 Spanner。
+     * 2. 首次支付一次 blind-write 提交 Payments + PaymentOutbox，不再先查 PaymentsByOrderId、也不回读；
+     *    并发重复由 PaymentsByOrderId 唯一索引兜住。
+     * 3. 提交后写 marker 仍是同步的：超时取消靠它判断已支付，不能在返回之后才出现。
+     * 只有快照缺失或订单已过期时才回 Spanner 查：可能是 marker 过期后的重复请求。
+     * 每段耗时记在 payment.succeed.stage{stage}，整体记在 payment.succeed{result}。
+     */
+    private Payment succeedPaymentFast(String orderId, String callerUserId) {
+        long start = System.nanoTime();
+        PaymentPrecheckRepository.Precheck precheck = timed("redis_precheck", () -> precheckRepository.read(orderId));
+        if (precheck.marker().isPresent()) {
+            PaymentMarkerRepository.PaidMarker marker = precheck.marker().get();
+            log.debug("Idempotent payment hit on marker, skip Spanner. orderId={} paymentId={}", orderId, marker.paymentId());
+            record("idempotent", start);
+            return new Payment(marker.paymentId(), orderId, "SUCCEEDED", marker.amountCents(), marker.currency(),
+                    marker.paidAt(), marker.paidAt());
+        }
+
+        OrderSnapshotRepository.OrderSnapshot snap = precheck.snapshot().orElse(null);
+        boolean expired = snap != null && snap.expireAt() != null && Instant.now().isAfter(snap.expireAt());
+        if (snap == null || expired) {
+            Optional<Payment> existing = timed("spanner_lookup", () -> repository.getByOrderId(orderId));
+            if (existing.isPresent()) {
+                Payment payment = existing.get();
+                timed("marker", () -> markPaid(payment));
+                record("idempotent", start);
+                return payment;
+            }
+            record("rejected", start);
+            if (snap == null) {
+                throw new IllegalStateException("order snapshot not found or expired for orderId=" + orderId);
+            }
+            throw new IllegalStateException("ORDER_EXPIRED");
+        }
+        if (callerUserId != null && !callerUserId.isBlank() && !callerUserId.equals(snap.userId())) {
+            record("rejected", start);
+            throw new IllegalArgumentException("orderId does not belong to caller");
+        }
+        long amountCents = Math.multiplyExact(snap.priceCents(), snap.qty());
+        String paymentId = UUID.randomUUID().toString();
+        String outboxId = UUID.randomUUID().toString();
+        String payloadJson = toJson(new PaymentSucceededEvent(
+                UUID.randomUUID().toString(), paymentId, orderId, amountCents, snap.currency(), Instant.now()));
 
+        Payment payment = timed("spanner_commit", () -> spannerPaymentRepository.commitWithOutbox(
+                paymentId, orderId, "SUCCEEDED", amountCents, snap.currency(),
+                outboxId, "PAYMENT_SUCCEEDED", Topics.PAYMENT_SUCCEEDED, orderId, payloadJson));
+        if (outboxRelay != null) {
+            outboxRelay.wakeup();
+        }
+        timed("marker", () -> markPaid(payment));
+        record(paymentId.equals(payment.paymentId()) ? "created" : "idempotent", start);
+        log.debug("Created payment with outbox event (fast path). orderId={} paymentId={} outboxId={}",
+                orderId, payment.paymentId(), outboxId);
+        return payment;
+    }
+
+    private Payment markPaid(Payment payment) {
+        markerRepository.markPaid(payment.orderId(), payment.paymentId(), payment.createdAt(),
+                payment.amountCents(), payment.currency());
+        return payment;
+    }
+
+    private String toJson(PaymentSucceededEvent event) {
+        try {
+            return objectMapper.writeValueAsString(event);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize PaymentSucceededEvent", e);
+        }
+    }
+
+    private <T> T timed(String stage, Supplier<T> work) {
+        return Timer.builder("payment.succeed.stage")
+                .tag("stage", stage)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(work);
+    }
+
+    private void record(String result, long startNanos) {
+        Timer.builder("payment.succeed")
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+    }
+}
@@ -0,0 +1,10 @@
+package com.lingxiao.payment.domain;
+
+/**
+ * Result of a failed relay send, written back together with the rest of the flush.
+ *
+ * @param attemptCount attempt count after the claim that produced this send
+ * @param permanent    true once the row is out of retries and should go to FAILED
+ */
+public record OutboxSendFailure(String id, int attemptCount, String lastError, boolean permanent) {
+}
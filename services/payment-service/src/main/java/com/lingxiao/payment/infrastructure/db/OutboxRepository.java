@@ -1,8 +1,11 @@
 package com.lingxiao.payment.infrastructure.db;
 
 import com.lingxiao.payment.domain.OutboxEvent;
+import com.lingxiao.payment.domain.OutboxSendFailure;
 
+import java.time.Instant;
 import java.util.List;
+import java.util.Map;
 
 public interface OutboxRepository {
     void insertPending(String id, String aggregateType, String aggregateId, String eventType,
@@ -13,6 +16,35 @@ public interface OutboxRepository {
     void markSent(String id, String processorId);
 
     void markFailed(String id, String processorId, int attemptCount, String lastError, boolean permanentFailure);
+
+    /**
+     * Number of hash buckets new rows are spread over; bucket {@code buckets()} stands for legacy rows without one.
+     */
+    int buckets();
+
+    /**
+     * Claims the oldest PENDING rows of one bucket (PROCESSING + lease), like {@link #claimPendingBatch}
+     * but on a single index range that only the bucket's lease holder reads.
+     */
+    List<OutboxEvent> claimBucket(int bucket, int limit, String processorId, long leaseDurationSeconds);
+
+    /**
+     * Writes back a whole relay flush in one transaction: sent rows become SENT, permanent failures FAILED,
+     * and retryable failures keep PROCESSING with the lease moved to {@code retryAt}, so
+     * {@link #releaseExpiredLeases} hands them back as PENDING once the backoff has passed.
+     */
+    void completeBatch(String processorId, List<String> sentIds, List<OutboxSendFailure> failures, Instant retryAt);
+
+    /**
+     * PROCESSING rows whose lease expired (crashed relay or retry backoff over) go back to PENDING.
+     */
+    long releaseExpiredLeases();
+
+    List<OutboxEvent> findSentBefore(Instant cutoff, int limit);
+
+    long deleteSent(List<String> ids);
+
+    Map<String, Long> countByStatus();
 }
 
 
@@ -6,20 +6,37 @@ import com.lingxiao.common.db.errors.SpannerErrorTranslator;
 import com.lingxiao.common.db.repo.BaseRepositorySupport;
 import com.lingxiao.common.db.tx.TxRunner;
 import com.lingxiao.payment.domain.OutboxEvent;
+import com.lingxiao.payment.domain.OutboxSendFailure;
 import com.lingxiao.payment.infrastructure.db.OutboxRepository;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 @Repository
 public class SpannerOutboxRepository extends BaseRepositorySupport implements OutboxRepository {
 
+    private static final String COLUMNS =
+            "OutboxId, AggregateType, AggregateId, EventType, Topic, KafkaKey, " +
+                    "PayloadJson, Status, AttemptCount, CreatedAt, LastAttemptAt, LastError, LockedBy, LeaseUntil ";
+
+    private final int buckets;
+
     public SpannerOutboxRepository(DatabaseClient databaseClient,
                                    SpannerErrorTranslator translator,
-                                   TxRunner txRunner) {
+                                   TxRunner txRunner,
+                                   @org.springframework.beans.factory.annotation.Value("${payment.outbox.buckets:16}") int buckets) {
         super(databaseClient, translator, txRunner);
+        this.buckets = Math.max(1, buckets);
+    }
+
+    @Override
+    public int buckets() {
+        return buckets;
     }
 
     @Override
@@ -30,7 +47,12 @@ public class SpannerOutboxRepository extends BaseRepositorySupport implements Ou
 
     public void insertPendingInTx(TransactionContext tx, String id, String aggregateType, String aggregateId,
                                   String eventType, String topic, String kafkaKey, String payloadJson) {
-        Mutation mutation = Mutation.newInsertBuilder("PaymentOutbox")
+        tx.buffer(pendingInsert(id, aggregateType, aggregateId, eventType, topic, kafkaKey, payloadJson));
+    }
+
+    public Mutation pendingInsert(String id, String aggregateType, String aggregateId,
+                                  String eventType, String topic, String kafkaKey, String payloadJson) {
+        return Mutation.newInsertBuilder("PaymentOutbox")
                 .set("OutboxId").to(id)
                 .set("AggregateType").to(aggregateType)
                 .set("AggregateId").to(aggregateId)
@@ -45,8 +67,8 @@ public class SpannerOutboxRepository extends BaseRepositorySupport implements Ou
                 .set("LastError").to((String) null)
                 .set("LockedBy").to((String) null)
                 .set("LeaseUntil").to((Timestamp) null)
+                .set("Bucket").to((long) Math.floorMod(id.hashCode(), buckets))
                 .build();
-        tx.buffer(mutation);
     }
 
     @Override
@@ -54,16 +76,9 @@ public class SpannerOutboxRepository extends BaseRepositorySupport implements Ou
         try {
             return inReadWrite(tx -> {
                 Timestamp nowTs = Timestamp.now();
-                Instant now = toInstant(nowTs);
-
-                Instant leaseUntil = now.plusSeconds(leaseDurationSeconds);
-                Timestamp leaseUntilTs = Timestamp.ofTimeSecondsAndNanos(
-                        leaseUntil.getEpochSecond(), leaseUntil.getNano());
-
                 // ✅ 关键：同时支持 reclaim 过期的 PROCESSING
                 Statement selectStmt = Statement.newBuilder(
-                                "SELECT OutboxId, AggregateType, AggregateId, EventType, Topic, KafkaKey, " +
-                                        "PayloadJson, Status, AttemptCount, CreatedAt, LastAttemptAt, LastError, LockedBy, LeaseUntil " +
+                                "SELECT " + COLUMNS +
                                         "FROM PaymentOutbox " +
                                         "WHERE (Status = @pending) " +
                                         "   OR (Status = @processing AND (LeaseUntil IS NULL OR LeaseUntil < @now)) " +
@@ -74,55 +89,87 @@ public class SpannerOutboxRepository extends BaseRepositorySupport implements Ou
                         .bind("now").to(nowTs)
                         .bind("limit").to((long) limit)
                         .build();
+                return claimRows(tx, selectStmt, nowTs, processorId, leaseDurationSeconds);
+            });
+        } catch (Exception ex) {
+            throw translator.translate(ex);
+        }
+    }
 
-                List<OutboxEvent> events = new ArrayList<>();
-                List<Mutation> claimMutations = new ArrayList<>();
-
-                try (ResultSet rs = tx.executeQuery(selectStmt)) {
-                    while (rs.next()) {
-                        String outboxId = rs.getString("OutboxId");
-                        long currentAttemptCount = rs.getLong("AttemptCount");
-
-                        // 直接用 Mutation 写回 PROCESSING + lease（并发抢同一行会在提交时写写冲突，自动 abort 一个事务）
-                        Mutation claimMutation = Mutation.newUpdateBuilder("PaymentOutbox")
-                                .set("OutboxId").to(outboxId)
-                                .set("Status").to(OutboxEvent.OutboxStatus.PROCESSING.name())
-                                .set("AttemptCount").to(currentAttemptCount + 1)
-                                .set("LastAttemptAt").to(nowTs)
-                                .set("LockedBy").to(processorId)
-                                .set("LeaseUntil").to(leaseUntilTs)
-                                .build();
-                        claimMutations.add(claimMutation);
-
-                        events.add(new OutboxEvent(
-                                outboxId,
-                                rs.getString("AggregateType"),
-                                rs.getString("AggregateId"),
-                                rs.getString("EventType"),
-                                rs.getString("Topic"),
-                                rs.getString("KafkaKey"),
-                                rs.getString("PayloadJson"),
-                                OutboxEvent.OutboxStatus.PROCESSING,
-                                toInstant(rs.getTimestamp("CreatedAt")),
-                                now,
-                                Math.toIntExact(currentAttemptCount + 1),
-                                rs.isNull("LastError") ? null : rs.getString("LastError"),
-                                processorId,
-                                leaseUntil
-                        ));
-                    }
-                }
-
-                if (!claimMutations.isEmpty()) {
-                    tx.buffer(claimMutations);
+    @Override
+    public List<OutboxEvent> claimBucket(int bucket, int limit, String processorId, long leaseDurationSeconds) {
+        boolean legacy = bucket >= buckets;
+        try {
+            return inReadWrite(tx -> {
+                Statement.Builder builder = Statement.newBuilder(
+                                "SELECT " + COLUMNS +
+                                        "FROM PaymentOutbox@{FORCE_INDEX=PaymentOutboxByBucketStatus} " +
+                                        "WHERE " + (legacy ? "Bucket IS NULL" : "Bucket = @bucket") + " AND Status = @pending " +
+                                        "ORDER BY CreatedAt ASC " +
+                                        "LIMIT @limit")
+                        .bind("pending").to(OutboxEvent.OutboxStatus.PENDING.name())
+                        .bind("limit").to((long) limit);
+                if (!legacy) {
+                    builder.bind("bucket").to((long) bucket);
                 }
-                return events;
+                return claimRows(tx, builder.build(), Timestamp.now(), processorId, leaseDurationSeconds);
             });
         } catch (Exception ex) {
             throw translator.translate(ex);
         }
     }
 
+    private List<OutboxEvent> claimRows(TransactionContext tx, Statement selectStmt, Timestamp nowTs,
+                                        String processorId, long leaseDurationSeconds) {
+        Instant now = toInstant(nowTs);
+        Instant leaseUntil = now.plusSeconds(leaseDurationSeconds);
+        Timestamp leaseUntilTs = Timestamp.ofTimeSecondsAndNanos(
+                leaseUntil.getEpochSecond(), leaseUntil.getNano());
+
+        List<OutboxEvent> events = new ArrayList<>();
+        List<Mutation> claimMutations = new ArrayList<>();
+
+        try (ResultSet rs = tx.executeQuery(selectStmt)) {
+            while (rs.next()) {
+                String outboxId = rs.getString("OutboxId");
+                long currentAttemptCount = rs.getLong("AttemptCount");
+
+                // 直接用 Mutation 写回 PROCESSING + lease（并发抢同一行会在提交时写写冲突，自动 abort 一个事务）
+                Mutation claimMutation = Mutation.newUpdateBuilder("PaymentOutbox")
+                        .set("OutboxId").to(outboxId)
+                        .set("Status").to(OutboxEvent.OutboxStatus.PROCESSING.name())
+                        .set("AttemptCount").to(currentAttemptCount + 1)
+                        .set("LastAttemptAt").to(nowTs)
+                        .set("LockedBy").to(processorId)
+                        .set("LeaseUntil").to(leaseUntilTs)
+                        .build();
+                claimMutations.add(claimMutation);
+
+                events.add(new OutboxEvent(
+                        outboxId,
+                        rs.getString("AggregateType"),
+                        rs.getString("AggregateId"),
+                        rs.getString("EventType"),
+                        rs.getString("Topic"),
+                        rs.getString("KafkaKey"),
+                        rs.getString("PayloadJson"),
+                        OutboxEvent.OutboxStatus.PROCESSING,
+                        toInstant(rs.getTimestamp("CreatedAt")),
+                        now,
+                        Math.toIntExact(currentAttemptCount + 1),
+                        rs.isNull("LastError") ? null : rs.getString("LastError"),
+                        processorId,
+                        leaseUntil
+                ));
+            }
+        }
+
+        if (!claimMutations.isEmpty()) {
+            tx.buffer(claimMutations);
+        }
+        return events;
+    }
+
     @Override
     public void markSent(String id, String processorId) {
         try {
@@ -178,6 +225,146 @@ public class SpannerOutboxRepository extends BaseRepositorySupport implements Ou
         }
     }
 
+    @Override
+    public void completeBatch(String processorId, List<String> sentIds, List<OutboxSendFailure> failures, Instant retryAt) {
+        if (sentIds.isEmpty() && failures.isEmpty()) {
+            return;
+        }
+        try {
+            inReadWrite(tx -> {
+                Timestamp now = Timestamp.now();
+                List<Statement> statements = new ArrayList<>();
+                if (!sentIds.isEmpty()) {
+                    statements.add(Statement.newBuilder(
+                                    "UPDATE PaymentOutbox " +
+                                            "SET Status=@sent, LastAttemptAt=@now, LockedBy=NULL, LeaseUntil=NULL " +
+                                            "WHERE OutboxId IN UNNEST(@ids) AND Status=@processing AND LockedBy=@lockedBy")
+                            .bind("sent").to(OutboxEvent.OutboxStatus.SENT.name())
+                            .bind("now").to(now)
+                            .bind("ids").toStringArray(sentIds)
+                            .bind("processing").to(OutboxEvent.OutboxStatus.PROCESSING.name())
+                            .bind("lockedBy").to(processorId)
+                            .build());
+                }
+                Timestamp retryTs = Timestamp.ofTimeSecondsAndNanos(retryAt.getEpochSecond(), retryAt.getNano());
+                for (OutboxSendFailure failure : failures) {
+                    String lastError = failure.lastError();
+                    statements.add(Statement.newBuilder(
+                                    "UPDATE PaymentOutbox " +
+                                            "SET Status=@status, AttemptCount=@attemptCount, LastAttemptAt=@now, LastError=@lastError, " +
+                                            "    LockedBy=NULL, LeaseUntil=@leaseUntil " +
+                                            "WHERE OutboxId=@id AND Status=@processing AND LockedBy=@lockedBy")
+                            .bind("status").to(failure.permanent()
+                                    ? OutboxEvent.OutboxStatus.FAILED.name()
+                                    : OutboxEvent.OutboxStatus.PROCESSING.name())
+                            .bind("attemptCount").to((long) failure.attemptCount())
+                            .bind("now").to(now)
+                            .bind("lastError").to(lastError != null ? lastError.substring(0, Math.min(lastError.length(), 1000)) : null)
+                            .bind("leaseUntil").to(failure.permanent() ? null : retryTs)
+                            .bind("id").to(failure.id())
+                            .bind("processing").to(OutboxEvent.OutboxStatus.PROCESSING.name())
+                            .bind("lockedBy").to(processorId)
+                            .build());
+                }
+                tx.batchUpdate(statements);
+                return null;
+            });
+        } catch (Exception ex) {
+            throw translator.translate(ex);
+        }
+    }
+
+    @Override
+    public long releaseExpiredLeases() {
+        try {
+            return inReadWrite(tx -> tx.executeUpdate(Statement.newBuilder(
+                            "UPDATE PaymentOutbox SET Status=@pending, LockedBy=NULL, LeaseUntil=NULL " +
+                                    "WHERE Status=@processing AND (LeaseUntil IS NULL OR LeaseUntil < @now)")
+                    .bind("pending").to(OutboxEvent.OutboxStatus.PENDING.name())
+                    .bind("processing").to(OutboxEvent.OutboxStatus.PROCESSING.name())
+                    .bind("now").to(Timestamp.now())
+                    .build()));
+        } catch (Exception ex) {
+            throw translator.translate(ex);
+        }
+    }
+
+    @Override
+    public List<OutboxEvent> findSentBefore(Instant cutoff, int limit) {
+        try {
+            return inReadOnly(tx -> {
+                // PaymentOutboxByStatus(Status, CreatedAt) 上的一段连续范围，只碰冷数据，不和头部写入抢热点
+                Statement stmt = Statement.newBuilder(
+                                "SELECT OutboxId, AggregateType, AggregateId, EventType, Topic, KafkaKey, " +
+                                        "PayloadJson, Status, AttemptCount, CreatedAt, LastAttemptAt, LastError, LockedBy, LeaseUntil " +
+                                        "FROM PaymentOutbox@{FORCE_INDEX=PaymentOutboxByStatus} " +
+                                        "WHERE Status = @sent AND CreatedAt < @cutoff " +
+                                        "ORDER BY CreatedAt ASC " +
+                                        "LIMIT @limit")
+                        .bind("sent").to(OutboxEvent.OutboxStatus.SENT.name())
+                        .bind("cutoff").to(Timestamp.ofTimeSecondsAndNanos(cutoff.getEpochSecond(), cutoff.getNano()))
+                        .bind("limit").to((long) limit)
+                        .build();
+                List<OutboxEvent> events = new ArrayList<>();
+                try (ResultSet rs = tx.executeQuery(stmt)) {
+                    while (rs.next()) {
+                        events.add(new OutboxEvent(
+                                rs.getString("OutboxId"),
+                                rs.getString("AggregateType"),
+                                rs.getString("AggregateId"),
+                                rs.getString("EventType"),
+                                rs.getString("Topic"),
+                                rs.getString("KafkaKey"),
+                                rs.getString("PayloadJson"),
+                                OutboxEvent.OutboxStatus.SENT,
+                                toInstant(rs.getTimestamp("CreatedAt")),
+                                rs.isNull("LastAttemptAt") ? null : toInstant(rs.getTimestamp("LastAttemptAt")),
+                                Math.toIntExact(rs.getLong("AttemptCount")),
+                                rs.isNull("LastError") ? null : rs.getString("LastError"),
+                                null,
+                                null
+                        ));
+                    }
+                }
+                return events;
+            });
+        } catch (Exception ex) {
+            throw translator.translate(ex);
+        }
+    }
+
+    @Override
+    public long deleteSent(List<String> ids) {
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        try {
+            return inReadWrite(tx -> tx.executeUpdate(Statement.newBuilder(
+                            "DELETE FROM PaymentOutbox WHERE OutboxId IN UNNEST(@ids) AND Status = @sent")
+                    .bind("sent").to(OutboxEvent.OutboxStatus.SENT.name())
+                    .bind("ids").toStringArray(ids)
+                    .build()));
+        } catch (Exception ex) {
+            throw translator.translate(ex);
+        }
+    }
+
+    @Override
+    public Map<String, Long> countByStatus() {
+        try (ReadOnlyTransaction tx = databaseClient.singleUseReadOnlyTransaction(
+                TimestampBound.ofExactStaleness(15, TimeUnit.SECONDS));
+             ResultSet rs = tx.executeQuery(Statement.of(
+                     "SELECT Status, COUNT(*) AS Cnt FROM PaymentOutbox@{FORCE_INDEX=PaymentOutboxByStatus} GROUP BY Status"))) {
+            Map<String, Long> counts = new HashMap<>();
+            while (rs.next()) {
+                counts.put(rs.getString("Status"), rs.getLong("Cnt"));
+            }
+            return counts;
+        } catch (Exception ex) {
+            throw translator.translate(ex);
+        }
+    }
+
     private Instant toInstant(Timestamp ts) {
         if (ts == null) return null;
         return Instant.ofEpochSecond(ts.getSeconds(), ts.getNanos());
@@ -18,6 +18,8 @@ import com.lingxiao.payment.infrastructure.db.PaymentRepository;
 import org.springframework.stereotype.Repository;
 
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Optional;
 
 @Repository
@@ -109,6 +111,104 @@ public class SpannerPaymentRepository extends BaseRepositorySupport implements P
         }
     }
 
+    /**
+     * Same rows as {@link #createWithOutbox}, committed with a single blind-write commit (no read, no
+     * BeginTransaction round trip) and no read-back: CreatedAt/UpdatedAt are taken from the commit timestamp.
+     * If the order already has a payment (unique PaymentsByOrderId), the existing one is returned instead.
+     */
+    public Payment commitWithOutbox(String paymentId, String orderId, String status, long amountCents, String currency,
+                                    String outboxId, String eventType, String topic, String key, String payloadJson) {
+        Mutation paymentMutation = Mutation.newInsertBuilder("Payments")
+                .set("PaymentId").to(paymentId)
+                .set("OrderId").to(orderId)
+                .set("Status").to(status)
+                .set("AmountCents").to(amountCents)
+                .set("Currency").to(currency)
+                .set("CreatedAt").to(Value.COMMIT_TIMESTAMP)
+                .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                .build();
+        Mutation outboxMutation = outboxRepository.pendingInsert(outboxId, "Payment", orderId, eventType, topic, key, payloadJson);
+        try {
+            Timestamp commitTs = databaseClient.write(List.of(paymentMutation, outboxMutation));
+            Instant committedAt = Instant.ofEpochSecond(commitTs.getSeconds(), commitTs.getNanos());
+            return new Payment(paymentId, orderId, status, amountCents, currency, committedAt, committedAt);
+        } catch (com.google.cloud.spanner.SpannerException e) {
+            if (e.getErrorCode() == com.google.cloud.spanner.ErrorCode.ALREADY_EXISTS) {
+                return getByOrderId(orderId).orElseThrow();
+            }
+            throw translator.translate(e);
+        }
+    }
+
+    /**
+     * Commits many drafts (Payments + PaymentOutbox each) in one blind-write commit.
+     * Any order that already has a payment fails the whole commit with ALREADY_EXISTS; callers then
+     * retry the drafts one by one through {@link #commitWithOutbox}.
+     */
+    public List<Payment> commitAllWithOutbox(List<PaymentDraft> drafts) {
+        if (drafts.isEmpty()) {
+            return List.of();
+        }
+        List<Mutation> mutations = new ArrayList<>(drafts.size() * 2);
+        for (PaymentDraft d : drafts) {
+            mutations.add(Mutation.newInsertBuilder("Payments")
+                    .set("PaymentId").to(d.paymentId())
+                    .set("OrderId").to(d.orderId())
+                    .set("Status").to(d.status())
+                    .set("AmountCents").to(d.amountCents())
+                    .set("Currency").to(d.currency())
+                    .set("CreatedAt").to(Value.COMMIT_TIMESTAMP)
+                    .set("UpdatedAt").to(Value.COMMIT_TIMESTAMP)
+                    .build());
+            mutations.add(outboxRepository.pendingInsert(d.outboxId(), "Payment", d.orderId(), d.eventType(),
+                    d.topic(), d.key(), d.payloadJson()));
+        }
+        try {
+            Timestamp commitTs = databaseClient.write(mutations);
+            Instant committedAt = Instant.ofEpochSecond(commitTs.getSeconds(), commitTs.getNanos());
+            List<Payment> payments = new ArrayList<>(drafts.size());
+            for (PaymentDraft d : drafts) {
+                payments.add(new Payment(d.paymentId(), d.orderId(), d.status(), d.amountCents(), d.currency(),
+                        committedAt, committedAt));
+            }
+            return payments;
+        } catch (Exception ex) {
+            throw translator.translate(ex);
+        }
+    }
+
+    public Payment commitWithOutbox(PaymentDraft d) {
+        return commitWithOutbox(d.paymentId(), d.orderId(), d.status(), d.amountCents(), d.currency(),
+                d.outboxId(), d.eventType(), d.topic(), d.key(), d.payloadJson());
+    }
+
+    /**
+     * Existing payments for many orders in one query on PaymentsByOrderId.
+     */
+    public List<Payment> findByOrderIds(Collection<String> orderIds) {
+        if (orderIds.isEmpty()) {
+            return List.of();
+        }
+        try {
+            return inReadOnly(tx -> {
+                Statement stmt = Statement.newBuilder(
+                                "SELECT PaymentId, OrderId, Status, AmountCents, Currency, CreatedAt, UpdatedAt " +
+                                        "FROM Payments@{FORCE_INDEX=PaymentsByOrderId} WHERE OrderId IN UNNEST(@orderIds)")
+                        .bind("orderIds").toStringArray(orderIds)
+                        .build();
+                List<Payment> payments = new ArrayList<>();
+                try (ResultSet rs = tx.executeQuery(stmt)) {
+                    while (rs.next()) {
+                        payments.add(mapRow(rs.getCurrentRowAsStruct()));
+                    }
+                }
+                return payments;
+            });
+        } catch (Exception ex) {
+            throw translator.translate(ex);
+        }
+    }
+
 
     @Override
     public Optional<Payment> getByPaymentId(String paymentId) {
@@ -162,5 +262,17 @@ public class SpannerPaymentRepository extends BaseRepositorySupport implements P
                 Instant.ofEpochSecond(updatedAt.getSeconds(), updatedAt.getNanos())
         );
     }
-}
 
+    public record PaymentDraft(
+            String paymentId,
+            String orderId,
+            String status,
+            long amountCents,
+            String currency,
+            String outboxId,
+            String eventType,
+            String topic,
+            String key,
+            String payloadJson
+    ) {}
+}
@@ -12,6 +12,9 @@ import java.util.Optional;
 @Repository
 public class OrderSnapshotRepository {
 
+    static final List<Object> FIELDS =
+            List.of("orderId", "userId", "skuId", "qty", "priceCents", "currency", "occurredAt", "expireAt");
+
     private final StringRedisTemplate redisTemplate;
     private final String snapshotPrefix;
 
@@ -22,18 +25,33 @@ public class OrderSnapshotRepository {
     }
 
     public Optional<OrderSnapshot> get(String orderId) {
-        if (!StringUtils.hasText(orderId)) {
+        String key = keyOf(orderId);
+        if (key == null) {
             return Optional.empty();
         }
+        return fromValues(redisTemplate.opsForHash().multiGet(key, FIELDS));
+    }
+
+    /**
+     * @return the snapshot hash key, or null for a blank or non flash-sale orderId
+     */
+    String keyOf(String orderId) {
+        if (!StringUtils.hasText(orderId)) {
+            return null;
+        }
         OrderIdParts parts;
         try {
             parts = OrderIdParts.parse(orderId);
         } catch (IllegalArgumentException e) {
-            return Optional.empty();
+            return null;
         }
-        String key = snapshotPrefix + "{" + parts.activityId + ":" + parts.shardId + "}" + ":order:" + orderId;
-        List<Object> values = redisTemplate.opsForHash().multiGet(key,
-                List.of("orderId", "userId", "skuId", "qty", "priceCents", "currency", "occurredAt", "expireAt"));
+        return snapshotPrefix + "{" + parts.activityId + ":" + parts.shardId + "}" + ":order:" + orderId;
+    }
+
+    /**
+     * Maps an HMGET of {@link #FIELDS}; empty when the hash is missing or incomplete.
+     */
+    static Optional<OrderSnapshot> fromValues(List<Object> values) {
         if (values == null || values.isEmpty()) {
             return Optional.empty();
         }
@@ -1,50 +1,155 @@
 package com.lingxiao.payment.infrastructure.redis;
 
+import com.lingxiao.common.redis.RedisBloom;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Repository;
 import org.springframework.util.StringUtils;
 
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 @Repository
 public class PaymentMarkerRepository {
 
+    static final List<Object> FIELDS = List.of("orderId", "paymentId", "paidAt", "amountCents", "currency");
+
     private final StringRedisTemplate redisTemplate;
     private final DefaultRedisScript<Long> markScript;
     private final String markerPrefix;
     private final Duration markerTtl;
+    // 每个 {activityId:shard} 一个布隆 bitmap，order-service 超时处理先查它，确定未支付就不读 marker
+    private final boolean bloomEnabled;
+    private final long bloomBits;
+    private final int bloomHashes;
 
     public PaymentMarkerRepository(StringRedisTemplate redisTemplate,
                                    @Value("${payment.marker-prefix:fs:pay:}") String markerPrefix,
-                                   @Value("${payment.marker-ttl:PT2H}") Duration markerTtl) {
+                                   @Value("${payment.marker-ttl:PT2H}") Duration markerTtl,
+                                   @Value("${payment.marker-bloom.enabled:false}") boolean bloomEnabled,
+                                   @Value("${payment.marker-bloom.bits:" + RedisBloom.DEFAULT_BITS + "}") long bloomBits,
+                                   @Value("${payment.marker-bloom.hashes:" + RedisBloom.DEFAULT_HASHES + "}") int bloomHashes) {
         this.redisTemplate = redisTemplate;
         this.markScript = loadLongScript("lua/payment_marker.lua");
         this.markerPrefix = markerPrefix;
         this.markerTtl = markerTtl;
+        this.bloomEnabled = bloomEnabled;
+        this.bloomBits = bloomBits;
+        this.bloomHashes = bloomHashes;
     }
 
     public void markPaid(String orderId, String paymentId, Instant paidAt, long amountCents, String currency) {
         if (!StringUtils.hasText(orderId) || !StringUtils.hasText(paymentId)) {
             throw new IllegalArgumentException("orderId/paymentId must not be blank");
         }
+        PaidMarker marker = new PaidMarker(orderId, paymentId, paidAt, amountCents, currency);
+        redisTemplate.execute(markScript, keysOf(orderId), args(marker, Long.toString(markerTtl.toMillis())).toArray());
+    }
+
+    /**
+     * Writes many markers in one pipeline; each one is still the atomic payment_marker.lua script.
+     */
+    public void markPaidAll(List<PaidMarker> markers) {
+        if (markers.isEmpty()) {
+            return;
+        }
+        byte[] script = markScript.getScriptAsString().getBytes(StandardCharsets.UTF_8);
+        String ttlMs = Long.toString(markerTtl.toMillis());
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (PaidMarker m : markers) {
+                List<String> keys = keysOf(m.orderId());
+                List<String> args = args(m, ttlMs);
+                byte[][] keysAndArgs = new byte[keys.size() + args.size()][];
+                int i = 0;
+                for (String k : keys) {
+                    keysAndArgs[i++] = bytes(k);
+                }
+                for (String a : args) {
+                    keysAndArgs[i++] = bytes(a);
+                }
+                connection.scriptingCommands().eval(script, ReturnType.INTEGER, keys.size(), keysAndArgs);
+            }
+            return null;
+        });
+    }
+
+    private List<String> keysOf(String orderId) {
+        if (!bloomEnabled) {
+            return List.of(keyOf(orderId));
+        }
+        String bloomKey = bloomKeyOf(orderId);
+        return List.of(keyOf(orderId), bloomKey, RedisBloom.metaKey(bloomKey));
+    }
+
+    /**
+     * payment_marker.lua 的 ARGV：marker 字段 + ttl，开启布隆时后面跟 bitmap 的 meta 和 orderId 的各个 bit offset。
+     */
+    private List<String> args(PaidMarker m, String ttlMs) {
+        List<String> args = new ArrayList<>(7 + bloomHashes);
+        args.add(m.orderId());
+        args.add(m.paymentId());
+        args.add(m.paidAt() == null ? "" : m.paidAt().toString());
+        args.add(Long.toString(m.amountCents()));
+        args.add(m.currency() == null ? "" : m.currency());
+        args.add(ttlMs);
+        if (bloomEnabled) {
+            // 只在 bitmap 第一次写入时生效（SET NX）
+            args.add(new RedisBloom.Meta(bloomBits, bloomHashes, System.currentTimeMillis(), markerTtl.toMillis()).encode());
+            for (long offset : RedisBloom.offsets(m.orderId(), bloomBits, bloomHashes)) {
+                args.add(Long.toString(offset));
+            }
+        }
+        return args;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Same hash tag as the order snapshot key, so both can be read in one pipeline on a cluster.
+     */
+    String keyOf(String orderId) {
+        OrderIdParts parts = OrderIdParts.parse(orderId);
+        return markerPrefix + "{" + parts.activityId + ":" + parts.shardId + "}" + ":order:" + orderId;
+    }
+
+    /**
+     * 和 marker 同一个 hash tag，Lua 里可以一起写；order-service 按同样的规则拼 key。
+     */
+    String bloomKeyOf(String orderId) {
         OrderIdParts parts = OrderIdParts.parse(orderId);
-        String key = markerPrefix + "{" + parts.activityId + ":" + parts.shardId + "}" + ":order:" + orderId;
-        long ttlMs = markerTtl.toMillis();
-        redisTemplate.execute(
-                markScript,
-                List.of(key),
-                orderId,
-                paymentId,
-                paidAt == null ? "" : paidAt.toString(),
-                Long.toString(amountCents),
-                currency == null ? "" : currency,
-                Long.toString(ttlMs)
-        );
+        return markerPrefix + "{" + parts.activityId + ":" + parts.shardId + "}" + RedisBloom.keySuffix(bloomBits, bloomHashes);
+    }
+
+    /**
+     * Maps an HMGET of {@link #FIELDS}; empty when no marker was written.
+     */
+    static Optional<PaidMarker> fromValues(List<Object> values) {
+        if (values == null || values.size() < FIELDS.size() || values.get(1) == null) {
+            return Optional.empty();
+        }
+        try {
+            String paidAt = values.get(2) == null ? null : values.get(2).toString();
+            String currency = values.get(4) == null ? null : values.get(4).toString();
+            return Optional.of(new PaidMarker(
+                    values.get(0).toString(),
+                    values.get(1).toString(),
+                    StringUtils.hasText(paidAt) ? Instant.parse(paidAt) : null,
+                    Long.parseLong(values.get(3).toString()),
+                    StringUtils.hasText(currency) ? currency : null
+            ));
+        } catch (Exception ex) {
+            return Optional.empty();
+        }
     }
 
     private static DefaultRedisScript<Long> loadLongScript(String path) {
@@ -80,5 +185,12 @@ public class PaymentMarkerRepository {
             return new OrderIdParts(activityId, shardId);
         }
     }
-}
 
+    public record PaidMarker(
+            String orderId,
+            String paymentId,
+            Instant paidAt,
+            long amountCents,
+            String currency
+    ) {}
+}
@@ -0,0 +1,105 @@
+package com.lingxiao.payment.infrastructure.redis;
+
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Repository;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * 支付前置检查的一次 Redis 往返：payment marker（幂等）和订单快照两个 HMGET 走同一个 pipeline。
+ * 两个 key 带同一个 {activityId:shard} hash tag，集群下落在同一个槽。
+ */
+@Repository
+public class PaymentPrecheckRepository {
+
+    private final StringRedisTemplate redisTemplate;
+    private final OrderSnapshotRepository snapshotRepository;
+    private final PaymentMarkerRepository markerRepository;
+
+    public PaymentPrecheckRepository(StringRedisTemplate redisTemplate,
+                                     OrderSnapshotRepository snapshotRepository,
+                                     PaymentMarkerRepository markerRepository) {
+        this.redisTemplate = redisTemplate;
+        this.snapshotRepository = snapshotRepository;
+        this.markerRepository = markerRepository;
+    }
+
+    /**
+     * @return marker 和快照都为空表示 orderId 不是秒杀订单格式，或两者都不存在
+     */
+    @SuppressWarnings("unchecked")
+    public Precheck read(String orderId) {
+        String snapshotKey = snapshotRepository.keyOf(orderId);
+        if (snapshotKey == null) {
+            return new Precheck(Optional.empty(), Optional.empty());
+        }
+        String markerKey = markerRepository.keyOf(orderId);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.hashCommands().hMGet(bytes(markerKey), fields(PaymentMarkerRepository.FIELDS));
+            connection.hashCommands().hMGet(bytes(snapshotKey), fields(OrderSnapshotRepository.FIELDS));
+            return null;
+        });
+        return new Precheck(
+                PaymentMarkerRepository.fromValues((List<Object>) results.get(0)),
+                OrderSnapshotRepository.fromValues((List<Object>) results.get(1))
+        );
+    }
+
+    /**
+     * 多个订单的 marker + 快照一次 pipeline 读出（跨 hash tag 分片也只是一次往返）。
+     * 非秒杀 orderId 直接给空结果，不发 Redis 命令。
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, Precheck> readAll(List<String> orderIds) {
+        Map<String, Precheck> prechecks = new LinkedHashMap<>();
+        List<String> valid = new ArrayList<>(orderIds.size());
+        for (String orderId : orderIds) {
+            if (snapshotRepository.keyOf(orderId) == null) {
+                prechecks.put(orderId, new Precheck(Optional.empty(), Optional.empty()));
+            } else {
+                valid.add(orderId);
+            }
+        }
+        if (valid.isEmpty()) {
+            return prechecks;
+        }
+        byte[][] markerFields = fields(PaymentMarkerRepository.FIELDS);
+        byte[][] snapshotFields = fields(OrderSnapshotRepository.FIELDS);
+        List<Object> results = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            for (String orderId : valid) {
+                connection.hashCommands().hMGet(bytes(markerRepository.keyOf(orderId)), markerFields);
+                connection.hashCommands().hMGet(bytes(snapshotRepository.keyOf(orderId)), snapshotFields);
+            }
+            return null;
+        });
+        for (int i = 0; i < valid.size(); i++) {
+            prechecks.put(valid.get(i), new Precheck(
+                    PaymentMarkerRepository.fromValues((List<Object>) results.get(2 * i)),
+                    OrderSnapshotRepository.fromValues((List<Object>) results.get(2 * i + 1))
+            ));
+        }
+        return prechecks;
+    }
+
+    private byte[] bytes(String key) {
+        return redisTemplate.getStringSerializer().serialize(key);
+    }
+
+    private byte[][] fields(List<Object> names) {
+        byte[][] raw = new byte[names.size()][];
+        for (int i = 0; i < names.size(); i++) {
+            raw[i] = bytes(names.get(i).toString());
+        }
+        return raw;
+    }
+
+    public record Precheck(
+            Optional<PaymentMarkerRepository.PaidMarker> marker,
+            Optional<OrderSnapshotRepository.OrderSnapshot> snapshot
+    ) {}
+}
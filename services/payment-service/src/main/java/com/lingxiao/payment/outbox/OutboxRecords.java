@@ -0,0 +1,26 @@
+package com.lingxiao.payment.outbox;
+
+import com.lingxiao.contracts.events.PaymentSucceededEvent;
+import com.lingxiao.payment.domain.OutboxEvent;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.springframework.kafka.support.mapping.AbstractJavaTypeMapper;
+
+import java.nio.charset.StandardCharsets;
+
+final class OutboxRecords {
+
+    private OutboxRecords() {
+    }
+
+    static ProducerRecord<String, String> toProducerRecord(OutboxEvent event) {
+        ProducerRecord<String, String> record =
+                new ProducerRecord<>(event.topic(), event.kafkaKey(), event.payloadJson());
+        // The outbox stores JSON text, so StringSerializer cannot add the type header that
+        // the Order service's JsonDeserializer needs. Preserve the event contract explicitly.
+        if ("PAYMENT_SUCCEEDED".equals(event.eventType())) {
+            record.headers().add(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME,
+                    PaymentSucceededEvent.class.getName().getBytes(StandardCharsets.UTF_8));
+        }
+        return record;
+    }
+}
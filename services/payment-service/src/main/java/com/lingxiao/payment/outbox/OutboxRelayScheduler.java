@@ -2,20 +2,18 @@ package com.lingxiao.payment.outbox;
 
 import com.lingxiao.payment.domain.OutboxEvent;
 import com.lingxiao.payment.infrastructure.db.OutboxRepository;
-import com.lingxiao.contracts.events.PaymentSucceededEvent;
-import org.apache.kafka.clients.producer.ProducerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.kafka.core.KafkaTemplate;
-import org.springframework.kafka.support.mapping.AbstractJavaTypeMapper;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 @Component
+@ConditionalOnProperty(prefix = "payment.outbox.relay", name = "pipelined", havingValue = "false", matchIfMissing = true)
 public class OutboxRelayScheduler {
 
     private static final Logger log = LoggerFactory.getLogger(OutboxRelayScheduler.class);
@@ -64,15 +62,7 @@ public class OutboxRelayScheduler {
             }
 
             try {
-                ProducerRecord<String, String> record =
-                        new ProducerRecord<>(event.topic(), event.kafkaKey(), event.payloadJson());
-                // The outbox stores JSON text, so StringSerializer cannot add the type header that
-                // the Order service's JsonDeserializer needs. Preserve the event contract explicitly.
-                if ("PAYMENT_SUCCEEDED".equals(event.eventType())) {
-                    record.headers().add(AbstractJavaTypeMapper.DEFAULT_CLASSID_FIELD_NAME,
-                            PaymentSucceededEvent.class.getName().getBytes(StandardCharsets.UTF_8));
-                }
-                kafkaTemplate.send(record)
+                kafkaTemplate.send(OutboxRecords.toProducerRecord(event))
                         .get(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
 
                 outboxRepository.markSent(event.id(), processorId);
@@ -0,0 +1,106 @@
+package com.lingxiao.payment.outbox;
+
+import com.lingxiao.common.db.mapping.JsonMapper;
+import com.lingxiao.common.db.retention.RedisRetentionLock;
+import com.lingxiao.common.db.retention.RetentionArchive;
+import com.lingxiao.common.db.retention.RetentionPurger;
+import com.lingxiao.common.db.retention.RetentionTarget;
+import com.lingxiao.payment.domain.OutboxEvent;
+import com.lingxiao.payment.infrastructure.db.OutboxRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * PaymentOutbox 保留期清理：SENT 且 CreatedAt 早于 ttl 的行分批删除（可选先归档），
+ * 防止 PaymentOutboxByStatus 无限增长。同一时刻只有拿到 Redis 锁的实例在删，FAILED 行保留给人工排查。
+ * 调度线程只负责触发，删除和限速在 RetentionPurger 自己的线程上跑。
+ */
+@Component
+@ConditionalOnProperty(prefix = "payment.outbox.retention", name = "enabled", havingValue = "true")
+public class OutboxRetentionPurger implements RetentionTarget<OutboxEvent> {
+
+    private static final Logger log = LoggerFactory.getLogger(OutboxRetentionPurger.class);
+    private static final String LOCK_KEY = "payment:outbox:retention:lock";
+
+    private final OutboxRepository outboxRepository;
+    private final RetentionPurger purger;
+    private final Duration ttl;
+
+    public OutboxRetentionPurger(OutboxRepository outboxRepository,
+                                 StringRedisTemplate redisTemplate,
+                                 MeterRegistry registry,
+                                 @Value("${payment.outbox.retention.ttl:P7D}") Duration ttl,
+                                 @Value("${payment.outbox.retention.batch-size:500}") int batchSize,
+                                 @Value("${payment.outbox.retention.max-rows-per-second:2000}") long maxRowsPerSecond,
+                                 @Value("${payment.outbox.retention.max-batches-per-run:200}") int maxBatchesPerRun,
+                                 @Value("${payment.outbox.retention.lock-ttl:PT30M}") Duration lockTtl,
+                                 @Value("${payment.outbox.retention.archive.enabled:false}") boolean archiveEnabled,
+                                 @Value("${payment.outbox.retention.archive.dir:${java.io.tmpdir}/outbox-archive}") String archiveDir) {
+        this.outboxRepository = outboxRepository;
+        this.ttl = ttl;
+        RetentionArchive archive = archiveEnabled ? new RetentionArchive(Path.of(archiveDir), new JsonMapper()) : null;
+        this.purger = new RetentionPurger(archive, batchSize, maxRowsPerSecond, maxBatchesPerRun,
+                new RedisRetentionLock(redisTemplate, LOCK_KEY, lockTtl), registry, "payment.outbox");
+    }
+
+    @Scheduled(fixedDelayString = "${payment.outbox.retention.interval-ms:600000}")
+    public void purge() {
+        submitPurge();
+    }
+
+    CompletableFuture<Long> submitPurge() {
+        return purger.submit(this, ttl);
+    }
+
+    @Scheduled(fixedDelayString = "${payment.outbox.retention.size-sample-interval-ms:300000}")
+    public void sampleSize() {
+        try {
+            purger.recordRowCounts(outboxRepository.countByStatus());
+        } catch (Exception e) {
+            log.debug("PaymentOutbox size sample failed", e);
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        purger.close();
+    }
+
+    @Override
+    public String table() {
+        return "PaymentOutbox";
+    }
+
+    @Override
+    public int partitions() {
+        return 1;
+    }
+
+    @Override
+    public List<OutboxEvent> findExpired(int partition, Instant cutoff, int limit) {
+        return outboxRepository.findSentBefore(cutoff, limit);
+    }
+
+    @Override
+    public String idOf(OutboxEvent row) {
+        return row.id();
+    }
+
+    @Override
+    public long delete(List<String> ids) {
+        return outboxRepository.deleteSent(ids);
+    }
+}
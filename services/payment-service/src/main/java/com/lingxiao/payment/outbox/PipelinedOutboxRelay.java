@@ -0,0 +1,233 @@
+package com.lingxiao.payment.outbox;
+
+import com.lingxiao.common.redis.ShardLeaseRegistry;
+import com.lingxiao.payment.domain.OutboxEvent;
+import com.lingxiao.payment.domain.OutboxSendFailure;
+import com.lingxiao.payment.infrastructure.db.OutboxRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 高吞吐的 PaymentOutbox relay，代替每 5 秒一次、逐条阻塞发送 + 逐条 markSent 的 OutboxRelayScheduler。
+ *
+ * - 写入时按 OutboxId hash 落到 Bucket，各实例用 Redis 租约（ShardLeaseRegistry）分摊 bucket，
+ *   每个 bucket 只在 PaymentOutboxByBucketStatus 上读一段 PENDING，不再多实例抢同一批 top-N 行。
+ * - createWithOutbox 提交后 PaymentService 调 wakeup()，空闲中的 relay 立即开始下一轮，不等 idle-sleep-ms。
+ * - 一批记录全部异步 send，统一等待完成；SENT / FAILED / 重试退避一个事务写回。
+ * - 重试的行保持 PROCESSING，租约推到退避结束时刻，由 releaseExpiredLeases 放回 PENDING；
+ *   实例崩溃留下的 PROCESSING 也由它回收。换手窗口内可能重复发送，消费方按 eventId 幂等。
+ */
+@Component
+@ConditionalOnProperty(prefix = "payment.outbox.relay", name = "pipelined", havingValue = "true")
+public class PipelinedOutboxRelay {
+
+    private static final Logger log = LoggerFactory.getLogger(PipelinedOutboxRelay.class);
+    private static final String KEY_PREFIX = "payment:outbox:relay:";
+
+    private final OutboxRepository outboxRepository;
+    private final KafkaTemplate<String, String> kafkaTemplate;
+    private final ShardLeaseRegistry leases;
+    private final MeterRegistry registry;
+    private final Timer flushTimer;
+    private final int batchSize;
+    private final int maxRetries;
+    private final long leaseSeconds;
+    private final long sendTimeoutMs;
+    private final long idleSleepMs;
+    private final Duration retryBackoff;
+    private final String processorId = "relay-" + UUID.randomUUID().toString().substring(0, 8);
+
+    private final Semaphore wakeups = new Semaphore(0);
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private Thread worker;
+
+    public PipelinedOutboxRelay(OutboxRepository outboxRepository,
+                                KafkaTemplate<String, String> kafkaTemplate,
+                                StringRedisTemplate redisTemplate,
+                                MeterRegistry registry,
+                                @Value("${payment.outbox.relay.batch-size:500}") int batchSize,
+                                @Value("${payment.outbox.relay.max-retries:10}") int maxRetries,
+                                @Value("${payment.outbox.relay.lease-seconds:60}") long leaseSeconds,
+                                @Value("${payment.outbox.relay.send-timeout-ms:10000}") long sendTimeoutMs,
+                                @Value("${payment.outbox.relay.idle-sleep-ms:200}") long idleSleepMs,
+                                @Value("${payment.outbox.relay.retry-backoff:PT5S}") Duration retryBackoff,
+                                @Value("${payment.outbox.relay.bucket-lease-ttl:PT15S}") Duration bucketLeaseTtl) {
+        this.outboxRepository = outboxRepository;
+        this.kafkaTemplate = kafkaTemplate;
+        this.registry = registry;
+        this.batchSize = Math.max(1, batchSize);
+        this.maxRetries = maxRetries;
+        this.leaseSeconds = leaseSeconds;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.idleSleepMs = idleSleepMs;
+        this.retryBackoff = retryBackoff;
+        this.flushTimer = Timer.builder("payment.outbox.relay.flush").register(registry);
+        // 最后一个 bucket 是 Bucket 为 NULL 的旧行
+        List<String> leaseKeys = new ArrayList<>();
+        for (int bucket = 0; bucket <= outboxRepository.buckets(); bucket++) {
+            leaseKeys.add(KEY_PREFIX + "{" + String.format("%02d", bucket) + "}:lease");
+        }
+        this.leases = new ShardLeaseRegistry(redisTemplate, leaseKeys, KEY_PREFIX + "members", bucketLeaseTtl);
+    }
+
+    @PostConstruct
+    public void start() {
+        running.set(true);
+        worker = Thread.ofPlatform().daemon().name("payment-outbox-relay").start(this::runLoop);
+    }
+
+    /**
+     * 先等 worker 写回手上这一批再释放 bucket 租约，否则接手的实例会在写回之前重新 claim 同一段。
+     * 等不到（写回卡住）时不释放，租约按 ttl 自然过期。
+     */
+    @PreDestroy
+    public void stop() {
+        running.set(false);
+        if (worker != null) {
+            worker.interrupt();
+            try {
+                worker.join(Math.max(1, sendTimeoutMs));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (worker.isAlive()) {
+                log.warn("Outbox relay worker did not stop within {}ms, leaving bucket leases to expire", sendTimeoutMs);
+                return;
+            }
+        }
+        try {
+            leases.releaseAll();
+        } catch (Exception e) {
+            log.debug("Release outbox relay leases failed", e);
+        }
+    }
+
+    /**
+     * 有新行提交时调用；行所在 bucket 不归本实例时，持有它的实例最多 idle-sleep-ms 后发现。
+     */
+    public void wakeup() {
+        if (wakeups.availablePermits() == 0) {
+            wakeups.release();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${payment.outbox.relay.rebalance-interval-ms:5000}")
+    public void rebalance() {
+        try {
+            leases.rebalance();
+        } catch (Exception e) {
+            log.warn("Outbox relay rebalance failed", e);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${payment.outbox.relay.release-interval-ms:5000}")
+    public void releaseExpiredLeases() {
+        try {
+            long released = outboxRepository.releaseExpiredLeases();
+            if (released > 0) {
+                log.debug("Released expired PaymentOutbox leases count={}", released);
+                wakeup();
+            }
+        } catch (Exception e) {
+            log.warn("Release expired PaymentOutbox leases failed", e);
+        }
+    }
+
+    private void runLoop() {
+        while (running.get()) {
+            boolean backlog = false;
+            for (Integer bucket : leases.owned()) {
+                try {
+                    backlog |= relayBucket(bucket);
+                } catch (Exception e) {
+                    log.warn("Outbox relay failed bucket={}", bucket, e);
+                }
+            }
+            if (!backlog) {
+                try {
+                    wakeups.tryAcquire(idleSleepMs, TimeUnit.MILLISECONDS);
+                    wakeups.drainPermits();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true 表示这一批取满了，bucket 里可能还有积压
+     */
+    boolean relayBucket(int bucket) {
+        List<OutboxEvent> events = outboxRepository.claimBucket(bucket, batchSize, processorId, leaseSeconds);
+        if (events.isEmpty()) {
+            return false;
+        }
+        long start = System.nanoTime();
+        List<CompletableFuture<?>> futures = new ArrayList<>(events.size());
+        for (OutboxEvent event : events) {
+            if (event.attemptCount() > maxRetries) {
+                futures.add(CompletableFuture.failedFuture(new IllegalStateException("Exceeded max retries before send")));
+                continue;
+            }
+            try {
+                futures.add(kafkaTemplate.send(OutboxRecords.toProducerRecord(event)));
+            } catch (Exception e) {
+                futures.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        try {
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(sendTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ignored) {
+            // 逐条看结果
+        }
+
+        List<String> sent = new ArrayList<>();
+        List<OutboxSendFailure> failures = new ArrayList<>();
+        for (int i = 0; i < events.size(); i++) {
+            OutboxEvent event = events.get(i);
+            CompletableFuture<?> f = futures.get(i);
+            if (f.isDone() && !f.isCompletedExceptionally()) {
+                sent.add(event.id());
+            } else {
+                String error = f.isDone() ? f.exceptionNow().toString() : "Kafka send timeout after " + sendTimeoutMs + "ms";
+                failures.add(new OutboxSendFailure(event.id(), event.attemptCount(), error, event.attemptCount() >= maxRetries));
+            }
+        }
+        // 写回失败会抛出：行仍是本实例持有的 PROCESSING，租约过期后回到 PENDING 重发
+        outboxRepository.completeBatch(processorId, sent, failures, Instant.now().plus(retryBackoff));
+        flushTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        registry.counter("payment.outbox.relay.records", "result", "sent").increment(sent.size());
+        if (!failures.isEmpty()) {
+            long permanent = failures.stream().filter(OutboxSendFailure::permanent).count();
+            registry.counter("payment.outbox.relay.records", "result", "retry").increment(failures.size() - permanent);
+            registry.counter("payment.outbox.relay.records", "result", "failed").increment(permanent);
+            log.warn("Outbox relay send failed bucket={} count={} permanent={} error={}",
+                    bucket, failures.size(), permanent, failures.get(failures.size() - 1).lastError());
+        }
+        log.debug("Outbox relay flushed bucket={} sent={} failed={}", bucket, sent.size(), failures.size());
+        return events.size() >= batchSize;
+    }
+}
@@ -1,11 +1,15 @@
 -- Atomic payment marker write: HSET + PEXPIRE in one script
 -- KEYS[1] = marker key
+-- KEYS[2] = optional bloom bitmap key (same hash tag as KEYS[1])
+-- KEYS[3] = bloom meta key (only with KEYS[2])
 -- ARGV[1] = orderId
 -- ARGV[2] = paymentId
 -- ARGV[3] = paidAt (string, may be empty)
 -- ARGV[4] = amountCents (string)
 -- ARGV[5] = currency (string, may be empty)
 -- ARGV[6] = ttlMillis (string number)
+-- ARGV[7] = bloom meta "bits:hashes:sinceMillis:coverMillis" (only with KEYS[2])
+-- ARGV[8..] = bloom bit offsets of orderId (only with KEYS[2])
 
 redis.call('HSET', KEYS[1],
   'orderId', ARGV[1],
@@ -20,5 +24,19 @@ if ttl ~= nil and ttl > 0 then
   redis.call('PEXPIRE', KEYS[1], ttl)
 end
 
+-- Bloom TTL is pushed forward on every write, so it always outlives the markers it covers.
+-- Meta keeps the time of the first bit set; it expires together with the bitmap, so a bitmap
+-- that lapsed and is recreated starts a new coverage window.
+if KEYS[2] ~= nil then
+  redis.call('SET', KEYS[3], ARGV[7], 'NX')
+  for i = 8, #ARGV do
+    redis.call('SETBIT', KEYS[2], ARGV[i], 1)
+  end
+  if ttl ~= nil and ttl > 0 then
+    redis.call('PEXPIRE', KEYS[2], ttl)
+    redis.call('PEXPIRE', KEYS[3], ttl)
+  end
+end
+
 return 1
 
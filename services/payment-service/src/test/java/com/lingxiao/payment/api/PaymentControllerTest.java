@@ -0,0 +1,67 @@
+package com.lingxiao.payment.api;
+
+import com.lingxiao.payment.application.BatchPaymentService;
+import com.lingxiao.payment.application.PaymentConfirmation;
+import com.lingxiao.payment.application.PaymentService;
+import com.lingxiao.payment.domain.Payment;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import java.time.Instant;
+import java.util.List;
+
+import static org.hamcrest.Matchers.nullValue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+class PaymentControllerTest {
+
+    private final BatchPaymentService batchPaymentService = mock(BatchPaymentService.class);
+    private final MockMvc mvc = MockMvcBuilders
+            .standaloneSetup(new PaymentController(mock(PaymentService.class), batchPaymentService))
+            .build();
+
+    @Test
+    void batchCallbackReturnsOneResultPerOrderIncludingRejectionsAndErrors() throws Exception {
+        Payment paid = new Payment("p-1", "o-1", "SUCCEEDED", 300, "USD", Instant.EPOCH, Instant.EPOCH);
+        when(batchPaymentService.succeedPayments(List.of("o-1", "o-2", "o-3"))).thenReturn(List.of(
+                new PaymentConfirmation("o-1", PaymentConfirmation.Outcome.CREATED, paid, null),
+                new PaymentConfirmation("o-2", PaymentConfirmation.Outcome.REJECTED, null, "ORDER_EXPIRED"),
+                new PaymentConfirmation("o-3", PaymentConfirmation.Outcome.ERROR, null, "payment commit failed")));
+
+        mvc.perform(post("/api/v1/payments/succeed/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"confirmations\":[{\"orderId\":\" o-1 \"},{\"orderId\":\"o-2\"},{\"orderId\":\"o-3\"}]}"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.results.length()").value(3))
+                .andExpect(jsonPath("$.results[0].outcome").value("CREATED"))
+                .andExpect(jsonPath("$.results[0].payment.paymentId").value("p-1"))
+                .andExpect(jsonPath("$.results[1].outcome").value("REJECTED"))
+                .andExpect(jsonPath("$.results[1].error").value("ORDER_EXPIRED"))
+                .andExpect(jsonPath("$.results[2].orderId").value("o-3"))
+                .andExpect(jsonPath("$.results[2].outcome").value("ERROR"))
+                .andExpect(jsonPath("$.results[2].payment").value(nullValue()));
+    }
+
+    @Test
+    void emptyOrBlankBatchIsABadRequest() throws Exception {
+        mvc.perform(post("/api/v1/payments/succeed/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"confirmations\":[]}"))
+                .andExpect(status().isBadRequest());
+        mvc.perform(post("/api/v1/payments/succeed/batch")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"confirmations\":[{\"orderId\":\" \"}]}"))
+                .andExpect(status().isBadRequest());
+
+        verify(batchPaymentService, never()).succeedPayments(any());
+    }
+}
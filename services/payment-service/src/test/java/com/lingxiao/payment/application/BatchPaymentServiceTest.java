@@ -0,0 +1,170 @@
+package com.lingxiao.payment.application;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lingxiao.payment.domain.Payment;
+import com.lingxiao.payment.infrastructure.db.spanner.SpannerPaymentRepository;
+import com.lingxiao.payment.infrastructure.db.spanner.SpannerPaymentRepository.PaymentDraft;
+import com.lingxiao.payment.infrastructure.redis.OrderSnapshotRepository.OrderSnapshot;
+import com.lingxiao.payment.infrastructure.redis.PaymentMarkerRepository;
+import com.lingxiao.payment.infrastructure.redis.PaymentMarkerRepository.PaidMarker;
+import com.lingxiao.payment.infrastructure.redis.PaymentPrecheckRepository;
+import com.lingxiao.payment.infrastructure.redis.PaymentPrecheckRepository.Precheck;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BatchPaymentServiceTest {
+
+    private static final Instant NOW = Instant.parse("2026-07-15T00:00:00Z");
+
+    private final SpannerPaymentRepository payments = mock(SpannerPaymentRepository.class);
+    private final PaymentPrecheckRepository prechecks = mock(PaymentPrecheckRepository.class);
+    private final PaymentMarkerRepository markers = mock(PaymentMarkerRepository.class);
+    private final Map<String, Precheck> redis = new HashMap<>();
+
+    private BatchPaymentService service(int txSize) {
+        when(prechecks.readAll(anyList())).thenAnswer(inv -> {
+            Map<String, Precheck> result = new HashMap<>();
+            for (String orderId : inv.<List<String>>getArgument(0)) {
+                result.put(orderId, redis.getOrDefault(orderId, new Precheck(Optional.empty(), Optional.empty())));
+            }
+            return result;
+        });
+        when(payments.commitAllWithOutbox(anyList())).thenAnswer(inv -> inv.<List<PaymentDraft>>getArgument(0).stream()
+                .map(BatchPaymentServiceTest::committed).toList());
+        return new BatchPaymentService(payments, prechecks, markers, new ObjectMapper().findAndRegisterModules(),
+                new SimpleMeterRegistry(), null, txSize);
+    }
+
+    private void payable(String... orderIds) {
+        for (String orderId : orderIds) {
+            redis.put(orderId, new Precheck(Optional.empty(), Optional.of(new OrderSnapshot(orderId, "u-1", "sku-1", 2, 150,
+                    "USD", NOW, Instant.now().plusSeconds(600)))));
+        }
+    }
+
+    private static Payment committed(PaymentDraft d) {
+        return new Payment(d.paymentId(), d.orderId(), d.status(), d.amountCents(), d.currency(), NOW, NOW);
+    }
+
+    private static Payment existing(String orderId) {
+        return new Payment("p-" + orderId, orderId, "SUCCEEDED", 300, "USD", NOW, NOW);
+    }
+
+    private static List<PaidMarker> markersFor(String... orderIds) {
+        return argThat(list -> list != null && list.stream().map(PaidMarker::orderId).toList().equals(List.of(orderIds)));
+    }
+
+    private static List<PaymentDraft> draftsFor(String... orderIds) {
+        return argThat(list -> list != null && list.stream().map(PaymentDraft::orderId).toList().equals(List.of(orderIds)));
+    }
+
+    private static PaymentDraft draftFor(String orderId) {
+        return argThat((PaymentDraft d) -> d != null && d.orderId().equals(orderId));
+    }
+
+    @Test
+    void classifiesEveryOrderAndWritesMarkersRightAfterEachChunkCommit() {
+        payable("o-1", "o-2", "o-3");
+        redis.put("o-marked", new Precheck(Optional.of(new PaidMarker("o-marked", "p-m", NOW, 300, "USD")), Optional.empty()));
+        payable("o-in-spanner");
+        redis.put("o-expired", new Precheck(Optional.empty(), Optional.of(new OrderSnapshot("o-expired", "u-1", "sku-1", 1,
+                100, "USD", NOW, NOW))));
+        when(payments.findByOrderIds(anyList())).thenReturn(List.of(existing("o-in-spanner")));
+
+        List<PaymentConfirmation> results = service(2).succeedPayments(
+                List.of("o-1", "o-marked", "o-2", "o-missing", "o-1", "o-in-spanner", "o-expired", "o-3"));
+
+        assertThat(results).extracting(PaymentConfirmation::orderId, PaymentConfirmation::outcome).containsExactly(
+                tuple("o-1", PaymentConfirmation.Outcome.CREATED),
+                tuple("o-marked", PaymentConfirmation.Outcome.ALREADY_PAID),
+                tuple("o-2", PaymentConfirmation.Outcome.CREATED),
+                tuple("o-missing", PaymentConfirmation.Outcome.REJECTED),
+                tuple("o-in-spanner", PaymentConfirmation.Outcome.ALREADY_PAID),
+                tuple("o-expired", PaymentConfirmation.Outcome.REJECTED),
+                tuple("o-3", PaymentConfirmation.Outcome.CREATED));
+        assertThat(results.get(0).payment().amountCents()).isEqualTo(300);
+        assertThat(results.get(5).error()).isEqualTo("ORDER_EXPIRED");
+
+        InOrder order = inOrder(payments, markers);
+        order.verify(markers).markPaidAll(markersFor("o-in-spanner"));
+        order.verify(payments).commitAllWithOutbox(draftsFor("o-1", "o-2"));
+        order.verify(markers).markPaidAll(markersFor("o-1", "o-2"));
+        order.verify(payments).commitAllWithOutbox(draftsFor("o-3"));
+        order.verify(markers).markPaidAll(markersFor("o-3"));
+    }
+
+    @Test
+    void aFailingOrderOnlyFailsItselfAndLaterChunksStillCommit() {
+        payable("o-1", "o-bad", "o-3", "o-4");
+        BatchPaymentService service = service(2);
+        doThrow(new IllegalStateException("ALREADY_EXISTS")).when(payments).commitAllWithOutbox(draftsFor("o-1", "o-bad"));
+        // o-1 was paid concurrently through the single-order path
+        doReturn(existing("o-1")).when(payments).commitWithOutbox(draftFor("o-1"));
+        doThrow(new IllegalStateException("spanner unavailable")).when(payments).commitWithOutbox(draftFor("o-bad"));
+
+        List<PaymentConfirmation> results = service.succeedPayments(List.of("o-1", "o-bad", "o-3", "o-4"));
+
+        assertThat(results).extracting(PaymentConfirmation::orderId, PaymentConfirmation::outcome).containsExactly(
+                tuple("o-1", PaymentConfirmation.Outcome.ALREADY_PAID),
+                tuple("o-bad", PaymentConfirmation.Outcome.ERROR),
+                tuple("o-3", PaymentConfirmation.Outcome.CREATED),
+                tuple("o-4", PaymentConfirmation.Outcome.CREATED));
+        assertThat(results.get(1).error()).isEqualTo("payment commit failed");
+        assertThat(results.get(1).payment()).isNull();
+        verify(markers).markPaidAll(markersFor("o-3", "o-4"));
+    }
+
+    @Test
+    void aFailedMarkerWriteAnswersErrorForEveryOrderOfThatChunk() {
+        payable("o-1", "o-2", "o-3", "o-spanner");
+        when(payments.findByOrderIds(anyList())).thenReturn(List.of(existing("o-spanner")));
+        BatchPaymentService service = service(2);
+        // 超时取消靠 marker 判断已支付，没有 marker 不能回答已支付
+        doThrow(new IllegalStateException("redis down")).when(markers).markPaidAll(markersFor("o-spanner"));
+        doThrow(new IllegalStateException("redis down")).when(markers).markPaidAll(markersFor("o-1", "o-2"));
+
+        List<PaymentConfirmation> results = service.succeedPayments(List.of("o-1", "o-2", "o-3", "o-spanner"));
+
+        assertThat(results).extracting(PaymentConfirmation::orderId, PaymentConfirmation::outcome,
+                PaymentConfirmation::error).containsExactly(
+                tuple("o-1", PaymentConfirmation.Outcome.ERROR, "payment marker write failed"),
+                tuple("o-2", PaymentConfirmation.Outcome.ERROR, "payment marker write failed"),
+                tuple("o-3", PaymentConfirmation.Outcome.CREATED, null),
+                tuple("o-spanner", PaymentConfirmation.Outcome.ERROR, "payment marker write failed"));
+        assertThat(results.get(0).payment()).isNull();
+        verify(markers).markPaidAll(markersFor("o-3"));
+    }
+
+    @Test
+    void precheckOutageAnswersErrorForEveryOrderWithoutCommitting() {
+        BatchPaymentService service = service(2);
+        when(prechecks.readAll(anyList())).thenThrow(new IllegalStateException("redis down"));
+
+        List<PaymentConfirmation> results = service.succeedPayments(List.of("o-1", "o-2"));
+
+        assertThat(results).extracting(PaymentConfirmation::outcome)
+                .containsExactly(PaymentConfirmation.Outcome.ERROR, PaymentConfirmation.Outcome.ERROR);
+        verify(payments, never()).commitAllWithOutbox(any());
+        verify(markers, never()).markPaidAll(any());
+    }
+}
@@ -0,0 +1,148 @@
+package com.lingxiao.payment.application;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.cloud.spanner.DatabaseClient;
+import com.google.cloud.spanner.ErrorCode;
+import com.google.cloud.spanner.Key;
+import com.google.cloud.spanner.Mutation;
+import com.google.cloud.spanner.SpannerExceptionFactory;
+import com.lingxiao.common.db.errors.SpannerErrorTranslator;
+import com.lingxiao.common.db.tx.TxRunner;
+import com.lingxiao.payment.domain.Payment;
+import com.lingxiao.payment.infrastructure.db.PaymentRepository;
+import com.lingxiao.payment.infrastructure.db.spanner.SpannerOutboxRepository;
+import com.lingxiao.payment.infrastructure.db.spanner.SpannerPaymentRepository;
+import com.lingxiao.payment.infrastructure.redis.OrderSnapshotRepository;
+import com.lingxiao.payment.infrastructure.redis.OrderSnapshotRepository.OrderSnapshot;
+import com.lingxiao.payment.infrastructure.redis.PaymentMarkerRepository;
+import com.lingxiao.payment.infrastructure.redis.PaymentMarkerRepository.PaidMarker;
+import com.lingxiao.payment.infrastructure.redis.PaymentPrecheckRepository;
+import com.lingxiao.payment.infrastructure.redis.PaymentPrecheckRepository.Precheck;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+class PaymentServiceTest {
+
+    private static final String ORDER_ID = "o-1";
+    private static final Instant PAID_AT = Instant.parse("2026-07-15T00:00:00Z");
+
+    private final PaymentRepository repository = mock(PaymentRepository.class);
+    private final SpannerPaymentRepository spannerRepository = mock(SpannerPaymentRepository.class);
+    private final PaymentMarkerRepository markers = mock(PaymentMarkerRepository.class);
+    private final PaymentPrecheckRepository prechecks = mock(PaymentPrecheckRepository.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private PaymentService fastPath(SpannerPaymentRepository spanner) {
+        return new PaymentService(repository, spanner, new ObjectMapper().findAndRegisterModules(),
+                mock(OrderSnapshotRepository.class), markers, null, prechecks, registry, true);
+    }
+
+    private void snapshot(Instant expireAt) {
+        when(prechecks.read(ORDER_ID)).thenReturn(new Precheck(Optional.empty(), Optional.of(
+                new OrderSnapshot(ORDER_ID, "u-1", "sku-1", 2, 150, "USD", PAID_AT, expireAt))));
+    }
+
+    private static Payment existing() {
+        return new Payment("p-existing", ORDER_ID, "SUCCEEDED", 300, "USD", PAID_AT, PAID_AT);
+    }
+
+    private double succeeded(String result) {
+        return registry.timer("payment.succeed", "result", result).count();
+    }
+
+    @Test
+    void markerHitReturnsThePaymentWithoutTouchingSpanner() {
+        when(prechecks.read(ORDER_ID)).thenReturn(new Precheck(
+                Optional.of(new PaidMarker(ORDER_ID, "p-marked", PAID_AT, 300, "USD")), Optional.empty()));
+
+        Payment payment = fastPath(spannerRepository).succeedPayment(ORDER_ID, "u-1");
+
+        assertThat(payment.paymentId()).isEqualTo("p-marked");
+        assertThat(payment.amountCents()).isEqualTo(300);
+        verifyNoInteractions(repository, spannerRepository, markers);
+        assertThat(succeeded("idempotent")).isEqualTo(1);
+    }
+
+    @Test
+    void missingSnapshotFallsBackToTheSpannerLookupAndRewritesTheMarker() {
+        when(prechecks.read(ORDER_ID)).thenReturn(new Precheck(Optional.empty(), Optional.empty()));
+        when(repository.getByOrderId(ORDER_ID)).thenReturn(Optional.of(existing()));
+
+        Payment payment = fastPath(spannerRepository).succeedPayment(ORDER_ID, "u-1");
+
+        assertThat(payment.paymentId()).isEqualTo("p-existing");
+        verify(markers).markPaid(ORDER_ID, "p-existing", PAID_AT, 300, "USD");
+        verifyNoInteractions(spannerRepository);
+    }
+
+    @Test
+    void expiredSnapshotWithoutPaymentIsRejectedAfterTheSpannerLookup() {
+        snapshot(Instant.now().minusSeconds(1));
+        when(repository.getByOrderId(ORDER_ID)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> fastPath(spannerRepository).succeedPayment(ORDER_ID, "u-1"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("ORDER_EXPIRED");
+        verify(repository).getByOrderId(ORDER_ID);
+        verifyNoInteractions(spannerRepository, markers);
+        assertThat(succeeded("rejected")).isEqualTo(1);
+    }
+
+    @Test
+    void alreadyExistsOnCommitReturnsTheExistingPaymentAsIdempotent() {
+        DatabaseClient client = mock(DatabaseClient.class);
+        when(client.write(anyList())).thenThrow(SpannerExceptionFactory.newSpannerException(
+                ErrorCode.ALREADY_EXISTS, "PaymentsByOrderId"));
+        SpannerOutboxRepository outbox = mock(SpannerOutboxRepository.class);
+        when(outbox.pendingInsert(anyString(), anyString(), anyString(), anyString(), anyString(), anyString(), anyString()))
+                .thenReturn(Mutation.delete("PaymentOutbox", Key.of("outbox")));
+        SpannerPaymentRepository spanner = spy(new SpannerPaymentRepository(client, new SpannerErrorTranslator(),
+                mock(TxRunner.class), outbox));
+        // a concurrent request paid the order between our precheck and our commit
+        doReturn(Optional.of(existing())).when(spanner).getByOrderId(ORDER_ID);
+        snapshot(Instant.now().plusSeconds(600));
+
+        Payment payment = fastPath(spanner).succeedPayment(ORDER_ID, "u-1");
+
+        assertThat(payment).isEqualTo(existing());
+        verify(markers).markPaid(ORDER_ID, "p-existing", PAID_AT, 300, "USD");
+        assertThat(succeeded("idempotent")).isEqualTo(1);
+        assertThat(succeeded("created")).isZero();
+    }
+
+    @Test
+    void aFailedMarkerWriteAfterTheCommitPropagates() {
+        snapshot(Instant.now().plusSeconds(600));
+        when(spannerRepository.commitWithOutbox(anyString(), eq(ORDER_ID), eq("SUCCEEDED"), eq(300L), eq("USD"),
+                anyString(), anyString(), anyString(), anyString(), anyString()))
+                .thenAnswer(inv -> new Payment(inv.getArgument(0), ORDER_ID, "SUCCEEDED", 300, "USD", PAID_AT, PAID_AT));
+        // the timeout processor needs the marker to see the order as paid, so the caller must retry
+        doThrow(new IllegalStateException("redis down"))
+                .when(markers).markPaid(eq(ORDER_ID), anyString(), any(), anyLong(), anyString());
+
+        assertThatThrownBy(() -> fastPath(spannerRepository).succeedPayment(ORDER_ID, "u-1"))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessage("redis down");
+        verify(repository, never()).getByOrderId(anyString());
+        assertThat(succeeded("created")).isZero();
+    }
+}
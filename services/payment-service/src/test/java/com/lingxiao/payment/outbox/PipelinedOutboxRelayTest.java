@@ -0,0 +1,209 @@
+package com.lingxiao.payment.outbox;
+
+import com.lingxiao.payment.domain.OutboxEvent;
+import com.lingxiao.payment.domain.OutboxSendFailure;
+import com.lingxiao.payment.infrastructure.db.OutboxRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.tuple;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PipelinedOutboxRelayTest {
+
+    private static final int BUCKETS = 4;
+    private static final int MAX_RETRIES = 3;
+    private static final Duration RETRY_BACKOFF = Duration.ofSeconds(5);
+
+    private final OutboxRepository repository = mock(OutboxRepository.class);
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<String, String> kafkaTemplate = mock(KafkaTemplate.class);
+    private final StringRedisTemplate redisTemplate = mock(StringRedisTemplate.class);
+    @SuppressWarnings("unchecked")
+    private final ValueOperations<String, String> values = mock(ValueOperations.class);
+    @SuppressWarnings("unchecked")
+    private final ZSetOperations<String, String> zSet = mock(ZSetOperations.class);
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    private static OutboxEvent event(String id, int attemptCount) {
+        return new OutboxEvent(id, "Payment", "o-" + id, "PAYMENT_SUCCEEDED", "payment.succeeded", "o-" + id, "{}",
+                OutboxEvent.OutboxStatus.PROCESSING, Instant.EPOCH, Instant.EPOCH, attemptCount, null, "relay", Instant.EPOCH);
+    }
+
+    private PipelinedOutboxRelay relay(int batchSize, long sendTimeoutMs) {
+        when(repository.buckets()).thenReturn(BUCKETS);
+        return new PipelinedOutboxRelay(repository, kafkaTemplate, redisTemplate, registry,
+                batchSize, MAX_RETRIES, 60, sendTimeoutMs, 20, RETRY_BACKOFF, Duration.ofSeconds(15));
+    }
+
+    private void sendSucceeds(String id) {
+        doAnswer(inv -> CompletableFuture.completedFuture(null)).when(kafkaTemplate).send(record(id));
+    }
+
+    private void sendFails(String id) {
+        doAnswer(inv -> CompletableFuture.failedFuture(new IllegalStateException("broker down")))
+                .when(kafkaTemplate).send(record(id));
+    }
+
+    private static ProducerRecord<String, String> record(String id) {
+        return argThat(r -> r != null && ("o-" + id).equals(r.key()));
+    }
+
+    @SuppressWarnings("unchecked")
+    private ArgumentCaptor<List<OutboxSendFailure>> failuresCaptor() {
+        return ArgumentCaptor.forClass(List.class);
+    }
+
+    @Test
+    void splitsRetryableFromPermanentFailuresAndKeepsRetriesLeasedForTheBackoff() {
+        when(repository.claimBucket(eq(1), eq(10), anyString(), anyLong()))
+                .thenReturn(List.of(event("sent", 1), event("retry", MAX_RETRIES - 1), event("last", MAX_RETRIES)));
+        sendSucceeds("sent");
+        sendFails("retry");
+        sendFails("last");
+        ArgumentCaptor<List<OutboxSendFailure>> failures = failuresCaptor();
+        ArgumentCaptor<Instant> retryAt = ArgumentCaptor.forClass(Instant.class);
+
+        Instant before = Instant.now();
+        boolean backlog = relay(10, 1_000).relayBucket(1);
+
+        assertThat(backlog).isFalse();
+        verify(repository).completeBatch(anyString(), eq(List.of("sent")), failures.capture(), retryAt.capture());
+        assertThat(failures.getValue()).extracting(OutboxSendFailure::id, OutboxSendFailure::permanent)
+                .containsExactly(tuple("retry", false), tuple("last", true));
+        assertThat(failures.getValue().get(0).lastError()).contains("broker down");
+        // retryable rows stay PROCESSING with the lease pushed to the end of the backoff
+        assertThat(retryAt.getValue()).isBetween(before.plus(RETRY_BACKOFF), Instant.now().plus(RETRY_BACKOFF));
+        assertThat(registry.counter("payment.outbox.relay.records", "result", "sent").count()).isEqualTo(1);
+        assertThat(registry.counter("payment.outbox.relay.records", "result", "retry").count()).isEqualTo(1);
+        assertThat(registry.counter("payment.outbox.relay.records", "result", "failed").count()).isEqualTo(1);
+    }
+
+    @Test
+    void rowsAlreadyPastMaxRetriesFailPermanentlyWithoutBeingSent() {
+        when(repository.claimBucket(eq(0), eq(2), anyString(), anyLong()))
+                .thenReturn(List.of(event("ok", 0), event("exhausted", MAX_RETRIES + 1)));
+        sendSucceeds("ok");
+        ArgumentCaptor<List<OutboxSendFailure>> failures = failuresCaptor();
+
+        boolean backlog = relay(2, 1_000).relayBucket(0);
+
+        assertThat(backlog).isTrue();
+        verify(kafkaTemplate, never()).send(record("exhausted"));
+        verify(repository).completeBatch(anyString(), eq(List.of("ok")), failures.capture(), any());
+        assertThat(failures.getValue()).singleElement().satisfies(f -> {
+            assertThat(f.id()).isEqualTo("exhausted");
+            assertThat(f.permanent()).isTrue();
+            assertThat(f.lastError()).contains("Exceeded max retries");
+        });
+    }
+
+    @Test
+    void sendsThatMissTheTimeoutAreRetriedWhileCompletedOnesAreMarkedSent() {
+        when(repository.claimBucket(eq(2), eq(10), anyString(), anyLong()))
+                .thenReturn(List.of(event("fast", 0), event("stuck", 0)));
+        sendSucceeds("fast");
+        doAnswer(inv -> new CompletableFuture<>()).when(kafkaTemplate).send(record("stuck"));
+        ArgumentCaptor<List<OutboxSendFailure>> failures = failuresCaptor();
+
+        long start = System.nanoTime();
+        relay(10, 50).relayBucket(2);
+
+        assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5_000);
+        verify(repository).completeBatch(anyString(), eq(List.of("fast")), failures.capture(), any());
+        assertThat(failures.getValue()).singleElement().satisfies(f -> {
+            assertThat(f.id()).isEqualTo("stuck");
+            assertThat(f.permanent()).isFalse();
+            assertThat(f.lastError()).isEqualTo("Kafka send timeout after 50ms");
+        });
+    }
+
+    @Test
+    void legacyRowsWithoutBucketHaveTheirOwnLeaseAndAreRelayed() {
+        leasesAlwaysGranted();
+        when(repository.claimBucket(eq(BUCKETS), eq(10), anyString(), anyLong())).thenReturn(List.of(event("legacy", 0)));
+        sendSucceeds("legacy");
+        PipelinedOutboxRelay relay = relay(10, 1_000);
+
+        relay.rebalance();
+        verify(values).setIfAbsent(eq("payment:outbox:relay:{04}:lease"), anyString(), any(Duration.class));
+        relay.relayBucket(BUCKETS);
+
+        verify(repository).completeBatch(anyString(), eq(List.of("legacy")), eq(List.of()), any());
+    }
+
+    @Test
+    void stopWaitsForTheInFlightWriteBackBeforeReleasingLeases() throws Exception {
+        leasesAlwaysGranted();
+        when(repository.claimBucket(anyInt(), anyInt(), anyString(), anyLong()))
+                .thenReturn(List.of(event("a", 0)))
+                .thenReturn(List.of());
+        sendSucceeds("a");
+        CountDownLatch writing = new CountDownLatch(1);
+        doAnswer(inv -> {
+            writing.countDown();
+            sleepUninterruptibly(200);
+            return null;
+        }).when(repository).completeBatch(anyString(), any(), any(), any());
+        PipelinedOutboxRelay relay = relay(10, 2_000);
+        relay.rebalance();
+        relay.start();
+
+        assertThat(writing.await(5, TimeUnit.SECONDS)).isTrue();
+        relay.stop();
+
+        InOrder order = inOrder(repository, zSet);
+        order.verify(repository).completeBatch(anyString(), eq(List.of("a")), eq(List.of()), any());
+        order.verify(zSet).remove(eq("payment:outbox:relay:members"), any());
+    }
+
+    private void leasesAlwaysGranted() {
+        when(redisTemplate.opsForValue()).thenReturn(values);
+        when(redisTemplate.opsForZSet()).thenReturn(zSet);
+        when(values.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        when(zSet.add(anyString(), anyString(), anyDouble())).thenReturn(true);
+        when(zSet.zCard(anyString())).thenReturn(1L);
+    }
+
+    private static void sleepUninterruptibly(long millis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis);
+        boolean interrupted = false;
+        while (System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}